@@ -10,12 +10,51 @@ public class Config {
         MACOSX
     }
     
+    public static enum Target {
+        /** 32-bit x86, passing all arguments on the stack */
+        X86,
+        /** x86-64, using the System V calling convention */
+        X86_64
+    }
+    
+    /**
+     * The instruction set to generate code for, selected with the system
+     * property {@code cd.target}, which is either {@code x86} (the default) or
+     * {@code x86_64}. The 64-bit target follows the System V ABI and is only
+     * supported on Linux and Mac OS X.
+     */
+    public static final Target TARGET;
+    
+    public static enum Backend {
+        /** assembly for {@link #TARGET}, assembled with {@link #ASM} */
+        ASM,
+        /** C source, compiled for the host with {@link #CC} */
+        C,
+        /** JVM class files, which {@code cd.backend.jvm.JvmLauncher} runs */
+        JVM,
+        /** none: {@code cd.backend.interpreter.CfgInterpreter} runs the program */
+        INTERPRETER
+    }
+    
+    /**
+     * The kind of code {@link Main#generateCode} produces, selected with the
+     * system property {@code cd.backend}, which is {@code asm} (the default),
+     * {@code c}, {@code jvm} or {@code interp}.
+     */
+    public static final Backend BACKEND;
+    
     /**
      * Defines the extension used for assembler files on this platform.
      * Currently always {@code .s}.
      */
     public static final String ASMEXT = ".s";
     
+    /** Defines the extension used for the C files of the C backend. */
+    public static final String CEXT = ".c";
+    
+    /** Defines the extension used for the jar files of the JVM backend. */
+    public static final String JAREXT = ".jar";
+    
     /** Defines the extension used for binary files on this platform. */
     public static final String BINARYEXT;
     
@@ -40,6 +79,9 @@ public class Config {
     /** The assembler directive used to define a constant int */
     public static final String DOT_INT;
     
+    /** The assembler directive used to define a constant pointer */
+    public static final String DOT_PTR;
+    
     /** The assembler directive used to start the text section */
     public static final String TEXT_SECTION;
     
@@ -62,6 +104,14 @@ public class Config {
      */
     public static final String[] ASM;
     
+    /**
+     * Defines the C compiler command of the C backend, in the same form as
+     * {@link #ASM}. Signed overflow wraps around in Javali, and the generated
+     * code accesses objects through the structs of their superclasses.
+     */
+    public static final String[] CC =
+        {"gcc", "-O2", "-fwrapv", "-fno-strict-aliasing", "-o", "$0", "$1"};
+    
     /**
      * The directory from which to run the assembler. In a CYGWIN installation,
      * this can make a big difference!
@@ -71,7 +121,7 @@ public class Config {
     /**
      * sizeof a pointer in bytes in the target platform.
      */
-    public static final int SIZEOF_PTR = 4;
+    public static final int SIZEOF_PTR;
 
     /**
      * Name of java executable in JRE path
@@ -79,6 +129,27 @@ public class Config {
 	public static final String JAVA_EXE;
     
     static {
+        final String target = System.getProperty("cd.target", "x86");
+        if (target.equals("x86"))
+            TARGET = Target.X86;
+        else if (target.equals("x86_64"))
+            TARGET = Target.X86_64;
+        else
+            throw new IllegalArgumentException("Unknown target " + target);
+        SIZEOF_PTR = (TARGET == Target.X86_64 ? 8 : 4);
+        
+        final String backend = System.getProperty("cd.backend", "asm");
+        if (backend.equals("asm"))
+            BACKEND = Backend.ASM;
+        else if (backend.equals("c"))
+            BACKEND = Backend.C;
+        else if (backend.equals("jvm"))
+            BACKEND = Backend.JVM;
+        else if (backend.equals("interp"))
+            BACKEND = Backend.INTERPRETER;
+        else
+            throw new IllegalArgumentException("Unknown backend " + backend);
+        
         final String os = System.getProperty("os.name").toLowerCase();
         
         if(os.contains("windows") || os.contains("nt")) {
@@ -107,7 +178,10 @@ public class Config {
             SCANF = "_scanf";
             CALLOC = "_calloc";
             EXIT = "_exit";
-            ASM = new String[]{"gcc", "-m32", "-o", "$0", "$1"};
+            if (TARGET == Target.X86_64)
+                ASM = new String[]{"gcc", "-Wl,-no_pie", "-o", "$0", "$1"};
+            else
+                ASM = new String[]{"gcc", "-m32", "-o", "$0", "$1"};
             ASM_DIR = new File(".");
             JAVA_EXE = "java";
             DOT_STRING = ".asciz";
@@ -124,7 +198,12 @@ public class Config {
             SCANF = "scanf";
             CALLOC = "calloc";
             EXIT = "exit";
-            ASM = new String[]{"gcc", "-m32", "-o", "$0", "$1"};
+            // The 64-bit code uses absolute addresses of labels, which a
+            // position-independent executable cannot contain.
+            if (TARGET == Target.X86_64)
+                ASM = new String[]{"gcc", "-no-pie", "-o", "$0", "$1"};
+            else
+                ASM = new String[]{"gcc", "-m32", "-o", "$0", "$1"};
             ASM_DIR = new File(".");
             JAVA_EXE = "java";
             DOT_STRING = ".string";
@@ -134,6 +213,7 @@ public class Config {
             DATA_STR_SECTION = ".section .data";
             COMMENT_SEP = "#";
         }
+        DOT_PTR = (TARGET == Target.X86_64 ? ".quad" : DOT_INT);
     }
     
 }
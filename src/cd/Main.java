@@ -1,21 +1,31 @@
 package cd;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 
 import org.antlr.v4.runtime.ANTLRInputStream;
 import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.misc.ParseCancellationException;
 
+import cd.backend.c.CCodeGenerator;
 import cd.backend.codegen.CfgCodeGenerator;
+import cd.backend.interpreter.CfgInterpreter;
+import cd.backend.jvm.JvmCodeGenerator;
 import cd.frontend.parser.JavaliAstVisitor;
 import cd.frontend.parser.JavaliLexer;
 import cd.frontend.parser.JavaliParser;
@@ -26,7 +36,15 @@ import cd.ir.Ast.ClassDecl;
 import cd.ir.Ast.MethodDecl;
 import cd.ir.Symbol;
 import cd.ir.Symbol.TypeSymbol;
+import cd.transform.BoundsCheckEliminator;
 import cd.transform.CfgBuilder;
+import cd.transform.CfgSimplifier;
+import cd.transform.ConstantPropagator;
+import cd.transform.Inliner;
+import cd.transform.SsaBuilder;
+import cd.transform.SsaDeconstructor;
+import cd.transform.StackAllocator;
+import cd.transform.analysis.ClassHierarchyAnalysis;
 import cd.util.debug.AstDump;
 import cd.util.debug.CfgDump;
 
@@ -86,9 +104,28 @@ public class Main {
 				m.semanticCheck(astRoots);
 				
 				// Generate code:
-				String sFile = arg + Config.ASMEXT;
-				try (FileWriter fout = new FileWriter(sFile)) {
-					m.generateCode(astRoots, fout);
+				if (Config.BACKEND == Config.Backend.INTERPRETER) {
+					// Run the program instead, and exit if it fails.
+					Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+					int exitCode = m.interpret(astRoots,
+							new BufferedReader(new InputStreamReader(System.in)), out);
+					out.flush();
+					if (exitCode != 0)
+						System.exit(exitCode);
+				} else if (Config.BACKEND == Config.Backend.JVM) {
+					Map<String, byte[]> classes = m.generateClasses(astRoots);
+					try (JarOutputStream jar = new JarOutputStream(
+							new FileOutputStream(arg + Config.JAREXT))) {
+						for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+							jar.putNextEntry(new JarEntry(entry.getKey() + ".class"));
+							jar.write(entry.getValue());
+						}
+					}
+				} else {
+					String sFile = arg + (Config.BACKEND == Config.Backend.C ? Config.CEXT : Config.ASMEXT);
+					try (FileWriter fout = new FileWriter(sFile)) {
+						m.generateCode(astRoots, fout);
+					}
 				}
 			}
 		}
@@ -133,15 +170,63 @@ public class Main {
 				for (MethodDecl md : cd.methods())
 					new CfgBuilder().build(md);
 			CfgDump.toString(astRoots, ".cfg", cfgdumpbase, false);
+			
+			// Compute dominators:
+			for (ClassDecl cd : astRoots)
+				for (MethodDecl md : cd.methods())
+					md.cfg.computeDominators();
+			CfgDump.toString(astRoots, ".dom", cfgdumpbase, true);
 		}
 	}
 	
 	public void generateCode(List<ClassDecl> astRoots, Writer out) {
-		{
+		optimize(astRoots);
+		
+		if (Config.BACKEND == Config.Backend.C) {
+			CCodeGenerator cg = new CCodeGenerator(this, out);
+			cg.go(astRoots);
+		} else {
 			CfgCodeGenerator cg = new CfgCodeGenerator(this, out);
 			cg.go(astRoots);
 		}
 	}
+	
+	/** Optimizes the program like {@link #generateCode} and returns its JVM class files
+	 *  by internal class name. */
+	public Map<String, byte[]> generateClasses(List<ClassDecl> astRoots) {
+		optimize(astRoots);
+		return new JvmCodeGenerator(this).go(astRoots);
+	}
+	
+	/** Optimizes the program like {@link #generateCode} and runs it with
+	 *  {@link CfgInterpreter}, returning its exit code. */
+	public int interpret(List<ClassDecl> astRoots, Reader in, Appendable out) {
+		optimize(astRoots);
+		return new CfgInterpreter(this).run(astRoots, in, out);
+	}
+	
+	private void optimize(List<ClassDecl> astRoots) {
+		new ClassHierarchyAnalysis().analyze(astRoots);
+		new Inliner().inline(astRoots);
+		
+		{
+			// Optimize each method in SSA form:
+			for (ClassDecl cd : astRoots)
+				for (MethodDecl md : cd.methods()) {
+					new CfgSimplifier().simplify(md);
+					new SsaBuilder().build(md);
+					new ConstantPropagator().optimize(md);
+					new BoundsCheckEliminator().optimize(md);
+					new StackAllocator().optimize(md);
+				}
+			CfgDump.toString(astRoots, ".ssa", cfgdumpbase, false);
+			for (ClassDecl cd : astRoots)
+				for (MethodDecl md : cd.methods()) {
+					new SsaDeconstructor().deconstruct(md);
+					new CfgSimplifier().simplify(md);
+				}
+		}
+	}
 
 	/** Dumps the AST to the debug stream */
 	private void dumpAst(List<ClassDecl> astRoots) throws IOException {
@@ -0,0 +1,758 @@
+package cd.backend.c;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.Main;
+import cd.backend.ExitCode;
+import cd.backend.codegen.AstCodeGenerator;
+import cd.backend.codegen.BlockLayout;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.BuiltInRead;
+import cd.ir.Ast.BuiltInWrite;
+import cd.ir.Ast.BuiltInWriteln;
+import cd.ir.Ast.Cast;
+import cd.ir.Ast.ClassDecl;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.Field;
+import cd.ir.Ast.Index;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodCall;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.NullConst;
+import cd.ir.Ast.ReturnStmt;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.UnaryOp;
+import cd.ir.Ast.Var;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.ir.ExprVisitor;
+import cd.ir.Symbol.ArrayTypeSymbol;
+import cd.ir.Symbol.ClassSymbol;
+import cd.ir.Symbol.MethodSymbol;
+import cd.ir.Symbol.PrimitiveTypeSymbol;
+import cd.ir.Symbol.TypeSymbol;
+import cd.ir.Symbol.VariableSymbol;
+import cd.transform.analysis.NonNullAnalysis;
+
+/**
+ * Translates the control flow graphs of a program into C, as an alternative to the
+ * assembly of {@link cd.backend.codegen.CfgCodeGenerator}, and leaves register
+ * allocation and instruction selection to the C compiler ({@link cd.Config#CC}).
+ * <p>
+ * An object becomes a struct that repeats the fields of its superclasses, and a vtable
+ * becomes a struct of function pointers that starts with the depth and the
+ * {@link TypeSymbol#display() display} of its type, which downcasts check. Every basic
+ * block becomes a label. C leaves the order of the operands of an expression
+ * unspecified, so every value that can change or fail is computed into a temporary,
+ * in the order in which the assembly evaluates it, and the runtime checks are
+ * separate statements that exit with the same {@link ExitCode}.
+ */
+public class CCodeGenerator {
+
+	/**
+	 * Size of the zeroed regions from which objects are allocated, and the size above
+	 * which an object gets a region of its own, as in {@code Javali$Alloc}.
+	 */
+	private static final int HEAP_REGION_SIZE = 1 << 20;
+	private static final int LARGE_OBJECT_SIZE = HEAP_REGION_SIZE / 4;
+
+	public final Main main;
+	private final Writer out;
+	private final StringBuilder code = new StringBuilder();
+
+	/** Identifiers of the functions and global variables, which are all distinct. */
+	private final Set<String> globalNames = new HashSet<>();
+	private final Map<MethodSymbol, String> functions = new HashMap<>();
+	private final Map<TypeSymbol, String> vtables = new HashMap<>();
+	private final Map<TypeSymbol, String> displays = new HashMap<>();
+
+	/** The methods of each class in the order of the function pointers in its vtable. */
+	private final Map<ClassSymbol, List<MethodSymbol>> slots = new HashMap<>();
+
+	/** The class declaring each field and the name of the field in its struct. */
+	private final Map<VariableSymbol, ClassSymbol> fieldOwners = new HashMap<>();
+	private final Map<VariableSymbol, String> fieldNames = new HashMap<>();
+
+	public CCodeGenerator(Main main, Writer out) {
+		this.main = main;
+		this.out = out;
+	}
+
+	public void go(List<? extends ClassDecl> astRoots) {
+		List<ClassSymbol> classes = new ArrayList<>();
+		List<ArrayTypeSymbol> arrays = new ArrayList<>();
+		for (TypeSymbol type : main.allTypeSymbols) {
+			if (type instanceof ClassSymbol && type != ClassSymbol.nullType)
+				classes.add((ClassSymbol) type);
+			else if (type instanceof ArrayTypeSymbol)
+				arrays.add((ArrayTypeSymbol) type);
+		}
+		for (ClassSymbol cls : classes) {
+			vtables.put(cls, uniqueName(globalNames, "vtable_" + cls.name));
+			displays.put(cls, uniqueName(globalNames, "display_" + cls.name));
+			for (VariableSymbol field : cls.fields.values()) {
+				fieldOwners.put(field, cls);
+				fieldNames.put(field, "f" + cls.depth() + "_" + field.name);
+			}
+		}
+		for (ArrayTypeSymbol array : arrays) {
+			String name = array.elementType.name + "_array";
+			vtables.put(array, uniqueName(globalNames, "vtable_" + name));
+			displays.put(array, uniqueName(globalNames, "display_" + name));
+		}
+		for (ClassDecl cdecl : astRoots)
+			for (MethodDecl mdecl : cdecl.methods())
+				functions.put(mdecl.sym, uniqueName(globalNames,
+						"m_" + cdecl.name + "_" + mdecl.name));
+
+		emitRuntime();
+
+		line("/* Objects */");
+		for (ClassSymbol cls : classes) {
+			line("struct o_%s {", cls.name);
+			line("\tconst struct Javali_type *type;");
+			List<ClassSymbol> ancestors = new ArrayList<>();
+			for (TypeSymbol type : cls.display())
+				ancestors.add((ClassSymbol) type);
+			for (ClassSymbol ancestor : ancestors)
+				for (VariableSymbol field : fieldsOf(ancestor))
+					line("\t%s;", declaration(field.type, fieldNames.get(field)));
+			line("};");
+		}
+		line("");
+
+		line("/* Vtables */");
+		for (ClassSymbol cls : classes) {
+			line("struct vt_%s {", cls.name);
+			line("\tstruct Javali_type type;");
+			for (MethodSymbol method : slotsOf(cls))
+				line("\t%s;", signature(method, "(*m_" + method.name + ")", false));
+			line("};");
+		}
+		line("");
+
+		for (ClassDecl cdecl : astRoots)
+			for (MethodDecl mdecl : cdecl.methods())
+				line("static %s;", signature(mdecl.sym, functions.get(mdecl.sym), false));
+		line("");
+
+		for (ClassSymbol cls : classes)
+			line("static const struct vt_%s %s;", cls.name, vtables.get(cls));
+		for (ArrayTypeSymbol array : arrays)
+			line("static const struct Javali_type %s;", vtables.get(array));
+		line("");
+		for (ClassSymbol cls : classes) {
+			emitDisplay(cls);
+			StringBuilder vtable = new StringBuilder();
+			vtable.append(String.format("static const struct vt_%s %s = {\n\t{%d, %s}",
+					cls.name, vtables.get(cls), cls.depth(), displays.get(cls)));
+			for (MethodSymbol method : slotsOf(cls))
+				vtable.append(String.format(",\n\t%s", functions.get(method)));
+			line("%s\n};", vtable);
+		}
+		for (ArrayTypeSymbol array : arrays) {
+			emitDisplay(array);
+			line("static const struct Javali_type %s = {%d, %s};",
+					vtables.get(array), array.depth(), displays.get(array));
+		}
+		line("");
+
+		for (ClassDecl cdecl : astRoots)
+			for (MethodDecl mdecl : cdecl.methods())
+				new MethodGenerator(mdecl).emit();
+
+		ClassSymbol mainType = null;
+		for (ClassSymbol cls : classes)
+			if (cls.name.equals("Main"))
+				mainType = cls;
+		line("int main(void)");
+		line("{");
+		line("\t%s(Javali_alloc(sizeof(struct o_Main), %s));",
+				functions.get(mainType.getMethod("main")), typeRef(mainType));
+		line("\treturn 0;");
+		line("}");
+
+		try {
+			out.write(code.toString());
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Emits the types, constants and helper functions that the generated code uses.
+	 * Objects are allocated like by {@code Javali$Alloc}, in zeroed regions that are
+	 * never freed.
+	 */
+	private void emitRuntime() {
+		line("#include <stddef.h>");
+		line("#include <stdint.h>");
+		line("#include <stdio.h>");
+		line("#include <stdlib.h>");
+		line("#include <string.h>");
+		line("");
+		line("enum {");
+		for (ExitCode exitCode : ExitCode.values())
+			line("\tJavali_%s = %d,", exitCode.name(), exitCode.value);
+		line("};");
+		line("");
+		line("struct Javali_type {");
+		line("\tint32_t depth;");
+		line("\tconst struct Javali_type *const *display;");
+		line("};");
+		line("struct Javali_object {");
+		line("\tconst struct Javali_type *type;");
+		line("};");
+		line("struct Javali_int_array {");
+		line("\tconst struct Javali_type *type;");
+		line("\tint32_t length;");
+		line("\tint32_t data[];");
+		line("};");
+		line("struct Javali_ref_array {");
+		line("\tconst struct Javali_type *type;");
+		line("\tint32_t length;");
+		line("\tvoid *data[];");
+		line("};");
+		line("");
+		line("static _Noreturn void Javali_fail(int code)");
+		line("{");
+		line("\texit(code);");
+		line("}");
+		line("");
+		line("static char *Javali_heap_next, *Javali_heap_end;");
+		line("");
+		line("static void *Javali_alloc(size_t size, const struct Javali_type *type)");
+		line("{");
+		line("\tstruct Javali_object *obj;");
+		line("\tsize = (size + sizeof(void *) - 1) & ~(sizeof(void *) - 1);");
+		line("\tif (size > %d) {", LARGE_OBJECT_SIZE);
+		line("\t\tobj = calloc(size, 1);");
+		line("\t} else {");
+		line("\t\tif (size > (size_t) (Javali_heap_end - Javali_heap_next)) {");
+		line("\t\t\tJavali_heap_next = calloc(%d, 1);", HEAP_REGION_SIZE);
+		line("\t\t\tJavali_heap_end = Javali_heap_next + %d;",
+				HEAP_REGION_SIZE);
+		line("\t\t}");
+		line("\t\tobj = (struct Javali_object *) Javali_heap_next;");
+		line("\t\tJavali_heap_next += size;");
+		line("\t}");
+		line("\tobj->type = type;");
+		line("\treturn obj;");
+		line("}");
+		line("");
+		line("static void *Javali_new_array(int32_t length, size_t elemsize,");
+		line("\t\tconst struct Javali_type *type)");
+		line("{");
+		line("\tstruct Javali_int_array *array;");
+		line("\tif (length < 0)");
+		line("\t\tJavali_fail(Javali_%s);", ExitCode.INVALID_ARRAY_SIZE.name());
+		line("\tarray = Javali_alloc(sizeof(struct Javali_ref_array) + length * elemsize, type);");
+		line("\tarray->length = length;");
+		line("\treturn array;");
+		line("}");
+		line("");
+		line("static void Javali_check_cast(void *obj, const struct Javali_type *type)");
+		line("{");
+		line("\tconst struct Javali_type *actual;");
+		line("\tif (obj == NULL)");
+		line("\t\treturn;");
+		line("\tactual = ((struct Javali_object *) obj)->type;");
+		line("\tif (actual->depth < type->depth || actual->display[type->depth] != type)");
+		line("\t\tJavali_fail(Javali_%s);", ExitCode.INVALID_DOWNCAST.name());
+		line("}");
+		line("");
+		line("static int32_t Javali_read(void)");
+		line("{");
+		line("\tint value = 0;");
+		line("\tif (scanf(\"%%d\", &value) != 1)");
+		line("\t\tvalue = 0;");
+		line("\treturn value;");
+		line("}");
+		line("");
+		line("static void Javali_write(int32_t value)");
+		line("{");
+		line("\tprintf(\"%%d\", (int) value);");
+		line("}");
+		line("");
+		line("static void Javali_writeln(void)");
+		line("{");
+		line("\tprintf(\"\\n\");");
+		line("}");
+		line("");
+	}
+
+	private void emitDisplay(TypeSymbol type) {
+		StringBuilder display = new StringBuilder();
+		for (TypeSymbol ancestor : type.display())
+			display.append(display.length() == 0 ? "" : ", ").append(typeRef(ancestor));
+		line("static const struct Javali_type *const %s[] = {%s};",
+				displays.get(type), display);
+	}
+
+	/** The fields declared by {@code cls}, in the order of its declaration. */
+	private List<VariableSymbol> fieldsOf(ClassSymbol cls) {
+		List<VariableSymbol> result = new ArrayList<>();
+		if (cls.ast != null)
+			for (cd.ir.Ast.VarDecl field : cls.ast.fields())
+				result.add(cls.fields.get(field.name));
+		return result;
+	}
+
+	/**
+	 * The methods of {@code cls} in the order of their function pointers: those of the
+	 * superclass, each replaced by an override, followed by the new methods.
+	 */
+	private List<MethodSymbol> slotsOf(ClassSymbol cls) {
+		List<MethodSymbol> result = slots.get(cls);
+		if (result == null) {
+			result = new ArrayList<>();
+			if (cls.superClass != null)
+				result.addAll(slotsOf(cls.superClass));
+			if (cls.ast != null)
+				for (MethodDecl mdecl : cls.ast.methods()) {
+					int slot = 0;
+					while (slot < result.size() && !result.get(slot).name.equals(mdecl.name))
+						slot++;
+					if (slot < result.size())
+						result.set(slot, mdecl.sym);
+					else
+						result.add(mdecl.sym);
+				}
+			slots.put(cls, result);
+		}
+		return result;
+	}
+
+	/** A pointer to the type descriptor at the start of the vtable of {@code type}. */
+	private String typeRef(TypeSymbol type) {
+		if (type instanceof ClassSymbol)
+			return "&" + vtables.get(type) + ".type";
+		return "&" + vtables.get(type);
+	}
+
+	/**
+	 * The declarator of the function {@code name} for {@code method}, with the names of
+	 * the parameters if {@code names} is given.
+	 */
+	private static String signature(MethodSymbol method, String name, boolean withNames,
+			String... names) {
+		StringBuilder result = new StringBuilder();
+		result.append(name).append("(void *");
+		if (withNames)
+			result.append(names[0]);
+		for (int i = 0; i < method.parameters.size(); i++) {
+			result.append(", ");
+			TypeSymbol type = method.parameters.get(i).type;
+			result.append(withNames ? declaration(type, names[i + 1]) : declaration(type, ""));
+		}
+		result.append(")");
+		if (method.returnType == PrimitiveTypeSymbol.voidType)
+			return "void " + result;
+		return declaration(method.returnType, result.toString());
+	}
+
+	/** Declares {@code name} as a variable for values of {@code type}. */
+	private static String declaration(TypeSymbol type, String name) {
+		if (type.isReferenceType())
+			return "void *" + name;
+		return "int32_t " + name;
+	}
+
+	private static String zero(TypeSymbol type) {
+		return (type.isReferenceType() ? "NULL" : "0");
+	}
+
+	/**
+	 * Returns an identifier based on {@code base} that is not yet in {@code names}, and
+	 * adds it.
+	 */
+	private static String uniqueName(Set<String> names, String base) {
+		base = base.replaceAll("[^A-Za-z0-9_]", "_");
+		String name = base;
+		for (int i = 2; !names.add(name); i++)
+			name = base + "_" + i;
+		return name;
+	}
+
+	private void line(String format, Object... args) {
+		code.append(String.format(format, args)).append('\n');
+	}
+
+	private static String fail(ExitCode exitCode) {
+		return "Javali_fail(Javali_" + exitCode.name() + ");";
+	}
+
+	/** Generates the function of one method from its control flow graph. */
+	private class MethodGenerator {
+
+		private final MethodDecl mdecl;
+		private final VariableSymbol thisSym;
+		private final StringBuilder decls = new StringBuilder();
+		private final StringBuilder body = new StringBuilder();
+
+		/**
+		 * Identifiers of the variables, temporaries and stack objects: {@code this},
+		 * {@code v_} followed by the name of a variable, {@code t} and {@code s}
+		 * followed by a number.
+		 */
+		private final Set<String> names = new HashSet<>();
+		private final Map<VariableSymbol, String> vars = new HashMap<>();
+		private int temps, stackObjects;
+
+		/**
+		 * The variables known to be non-{@code null} before the statement or
+		 * condition being translated, like in {@link AstCodeGenerator}.
+		 */
+		private Set<VariableSymbol> nonNullVars;
+
+		private final ExprGenerator eg = new ExprGenerator();
+		private final StmtGenerator sg = new StmtGenerator();
+
+		MethodGenerator(MethodDecl mdecl) {
+			this.mdecl = mdecl;
+			this.thisSym = mdecl.sym.owner.thisSymbol;
+			names.add("this");
+			vars.put(thisSym, "this");
+		}
+
+		void emit() {
+			MethodSymbol msym = mdecl.sym;
+			String[] params = new String[msym.parameters.size() + 1];
+			params[0] = "this";
+			for (int i = 0; i < msym.parameters.size(); i++) {
+				VariableSymbol param = msym.parameters.get(i);
+				params[i + 1] = uniqueName(names, "v_" + param.name);
+				vars.put(param, params[i + 1]);
+			}
+
+			ControlFlowGraph cfg = mdecl.cfg;
+			NonNullAnalysis nonNull = new NonNullAnalysis(mdecl);
+			List<BasicBlock> layout = new BlockLayout().layout(cfg);
+			if (layout.get(0) != cfg.start)
+				stmt("goto B%d;", cfg.start.index);
+			for (int i = 0; i < layout.size(); i++) {
+				BasicBlock blk = layout.get(i);
+				// the block emitted next, which needs no jump
+				BasicBlock next = (i + 1 < layout.size() ? layout.get(i + 1) : null);
+
+				body.append(String.format("B%d:\n", blk.index));
+				for (Stmt stmt : blk.stmts) {
+					nonNullVars = nonNull.nonNullBefore(blk, stmt);
+					sg.visit(stmt, null);
+				}
+				nonNullVars = nonNull.nonNullBeforeCondition(blk);
+
+				if (blk == cfg.end) {
+					if (msym.returnType == PrimitiveTypeSymbol.voidType)
+						stmt("return;");
+					else
+						stmt("return %s;", zero(msym.returnType));
+				} else if (blk.condition != null) {
+					String cond = eg.visit(blk.condition, null);
+					if (blk.falseSuccessor() == next) {
+						stmt("if (%s) goto B%d;", cond, blk.trueSuccessor().index);
+					} else {
+						stmt("if (!%s) goto B%d;", cond, blk.falseSuccessor().index);
+						if (blk.trueSuccessor() != next)
+							stmt("goto B%d;", blk.trueSuccessor().index);
+					}
+				} else if (blk.successors.get(0) != next) {
+					stmt("goto B%d;", blk.successors.get(0).index);
+				}
+			}
+			nonNullVars = null;
+
+			line("static %s", signature(msym, functions.get(msym), true, params));
+			line("{");
+			code.append(decls).append(body);
+			line("}");
+			line("");
+		}
+
+		private void stmt(String format, Object... args) {
+			body.append('\t').append(String.format(format, args)).append('\n');
+		}
+
+		/** The identifier of {@code sym}, which is declared on first use. */
+		private String variable(VariableSymbol sym) {
+			String name = vars.get(sym);
+			if (name == null) {
+				name = uniqueName(names, "v_" + sym.name);
+				vars.put(sym, name);
+				decls.append(String.format("\t%s = %s;\n", declaration(sym.type, name),
+						zero(sym.type)));
+			}
+			return name;
+		}
+
+		/** Stores {@code value} in a new temporary and returns the temporary. */
+		private String temp(TypeSymbol type, String value) {
+			String name = "t" + temps++;
+			decls.append(String.format("\t%s;\n", declaration(type, name)));
+			stmt("%s = %s;", name, value);
+			return name;
+		}
+
+		/** Declares a new variable of struct type {@code struct} for a stack object. */
+		private String stackObject(String struct) {
+			String name = "s" + stackObjects++;
+			decls.append(String.format("\t%s %s;\n", struct, name));
+			return name;
+		}
+
+		/**
+		 * Checks {@code value} for {@code null} unless {@code ptr} is known to be
+		 * non-{@code null}, like {@link AstCodeGenerator}.
+		 */
+		private void nullCheck(Expr ptr, String value) {
+			while (ptr instanceof Cast)
+				ptr = ((Cast) ptr).arg();
+			if (ptr instanceof ThisRef || ptr instanceof NewObject || ptr instanceof NewArray)
+				return;
+			if (ptr instanceof Var && nonNullVars != null) {
+				if (!nonNullVars.add(((Var) ptr).sym))
+					return;
+			}
+			stmt("if (%s == NULL) %s", value, fail(ExitCode.NULL_POINTER));
+		}
+
+		private String field(String obj, VariableSymbol field) {
+			return String.format("((struct o_%s *) %s)->%s", fieldOwners.get(field).name, obj,
+					fieldNames.get(field));
+		}
+
+		/** Evaluates the object of {@code ast} and checks it for {@code null}. */
+		private String fieldOf(Field ast) {
+			String obj = eg.visit(ast.arg(), null);
+			nullCheck(ast.arg(), obj);
+			return field(obj, ast.sym);
+		}
+
+		/** Evaluates the array and index of {@code ast} and checks the access. */
+		private String elementOf(Index ast) {
+			String array = eg.visit(ast.left(), null);
+			nullCheck(ast.left(), array);
+			String index = eg.visit(ast.right(), null);
+			if (!ast.inBounds)
+				stmt("if ((uint32_t) %s >= (uint32_t) ((struct Javali_int_array *) %s)->length) %s",
+						index, array, fail(ExitCode.INVALID_ARRAY_BOUNDS));
+			String struct = (ast.type.isReferenceType() ? "Javali_ref_array" : "Javali_int_array");
+			return String.format("((struct %s *) %s)->data[%s]", struct, array, index);
+		}
+
+		/**
+		 * Evaluates the receiver and arguments of {@code ast}, checks the receiver, and
+		 * returns the call.
+		 */
+		private String call(MethodCallExpr ast) {
+			List<Expr> args = ast.allArguments();
+			List<String> values = new ArrayList<>();
+			for (Expr arg : args)
+				values.add(eg.visit(arg, null));
+			nullCheck(args.get(0), values.get(0));
+
+			String function;
+			if (ast.sym.monomorphic) {
+				// No subclass overrides the method, so call it directly.
+				function = functions.get(ast.sym);
+			} else {
+				function = String.format("((const struct vt_%s *) ((struct Javali_object *) %s)->type)->m_%s",
+						ast.sym.owner.name, values.get(0), ast.sym.name);
+			}
+			return function + "(" + String.join(", ", values) + ")";
+		}
+
+		private class StmtGenerator extends AstVisitor<Void, Void> {
+
+			@Override
+			public Void assign(Assign ast, Void arg) {
+				Expr left = ast.left();
+				String value = eg.visit(ast.right(), null);
+				if (left instanceof Var)
+					stmt("%s = %s;", variable(((Var) left).sym), value);
+				else if (left instanceof Field)
+					stmt("%s = %s;", fieldOf((Field) left), value);
+				else if (left instanceof Index)
+					stmt("%s = %s;", elementOf((Index) left), value);
+				else
+					throw new RuntimeException("Store to unexpected lvalue " + left);
+				return null;
+			}
+
+			@Override
+			public Void builtInWrite(BuiltInWrite ast, Void arg) {
+				stmt("Javali_write(%s);", eg.visit(ast.arg(), null));
+				return null;
+			}
+
+			@Override
+			public Void builtInWriteln(BuiltInWriteln ast, Void arg) {
+				stmt("Javali_writeln();");
+				return null;
+			}
+
+			@Override
+			public Void methodCall(MethodCall ast, Void arg) {
+				stmt("%s;", call(ast.getMethodCallExpr()));
+				return null;
+			}
+
+			@Override
+			public Void returnStmt(ReturnStmt ast, Void arg) {
+				if (ast.arg() == null)
+					stmt("return;");
+				else
+					stmt("return %s;", eg.visit(ast.arg(), null));
+				return null;
+			}
+		}
+
+		/**
+		 * Returns a C expression for the value of an expression, which can neither
+		 * fail nor be changed by the statements that follow it, after emitting the
+		 * statements that compute it.
+		 */
+		private class ExprGenerator extends ExprVisitor<String, Void> {
+
+			@Override
+			public String binaryOp(BinaryOp ast, Void arg) {
+				String left = visit(ast.left(), null);
+				String right = visit(ast.right(), null);
+				String op = ast.operator.repr;
+				switch (ast.operator) {
+				case B_DIV:
+				case B_MOD:
+					stmt("if (%s == 0) %s", right, fail(ExitCode.DIVISION_BY_ZERO));
+					break;
+				case B_AND:
+					// both operands are evaluated, so there is nothing to skip
+					op = "&";
+					break;
+				case B_OR:
+					op = "|";
+					break;
+				default:
+					break;
+				}
+				return "(" + left + " " + op + " " + right + ")";
+			}
+
+			@Override
+			public String booleanConst(BooleanConst ast, Void arg) {
+				return (ast.value ? "1" : "0");
+			}
+
+			@Override
+			public String builtInRead(BuiltInRead ast, Void arg) {
+				return temp(PrimitiveTypeSymbol.intType, "Javali_read()");
+			}
+
+			@Override
+			public String cast(Cast ast, Void arg) {
+				String value = visit(ast.arg(), null);
+				if (ast.type.isReferenceType())
+					stmt("Javali_check_cast(%s, %s);", value, typeRef(ast.type));
+				return value;
+			}
+
+			@Override
+			public String field(Field ast, Void arg) {
+				return temp(ast.type, fieldOf(ast));
+			}
+
+			@Override
+			public String index(Index ast, Void arg) {
+				return temp(ast.type, elementOf(ast));
+			}
+
+			@Override
+			public String intConst(IntConst ast, Void arg) {
+				if (ast.value == Integer.MIN_VALUE)
+					return "(-2147483647 - 1)";
+				if (ast.value < 0)
+					return "(" + ast.value + ")";
+				return Integer.toString(ast.value);
+			}
+
+			@Override
+			public String methodCall(MethodCallExpr ast, Void arg) {
+				return temp(ast.sym.returnType, call(ast));
+			}
+
+			@Override
+			public String newObject(NewObject ast, Void arg) {
+				ClassSymbol cls = (ClassSymbol) ast.type;
+				if (ast.onStack) {
+					String obj = stackObject("struct o_" + cls.name);
+					stmt("memset(&%s, 0, sizeof %s);", obj, obj);
+					stmt("%s.type = %s;", obj, typeRef(cls));
+					return "&" + obj;
+				}
+				return temp(cls, String.format("Javali_alloc(sizeof(struct o_%s), %s)", cls.name,
+						typeRef(cls)));
+			}
+
+			@Override
+			public String newArray(NewArray ast, Void arg) {
+				ArrayTypeSymbol type = (ArrayTypeSymbol) ast.type;
+				if (ast.onStack) {
+					int length = ((IntConst) ast.arg()).value;
+					String array = stackObject(String.format(
+							"struct { const struct Javali_type *type; int32_t length; %s; }",
+							declaration(type.elementType, "data[" + Math.max(length, 1) + "]")));
+					stmt("memset(&%s, 0, sizeof %s);", array, array);
+					stmt("%s.type = %s;", array, typeRef(type));
+					stmt("%s.length = %d;", array, length);
+					return "&" + array;
+				}
+				String length = visit(ast.arg(), null);
+				String elem = (type.elementType.isReferenceType() ? "void *" : "int32_t");
+				return temp(type, String.format("Javali_new_array(%s, sizeof(%s), %s)", length,
+						elem, typeRef(type)));
+			}
+
+			@Override
+			public String nullConst(NullConst ast, Void arg) {
+				return "NULL";
+			}
+
+			@Override
+			public String thisRef(ThisRef ast, Void arg) {
+				return "this";
+			}
+
+			@Override
+			public String unaryOp(UnaryOp ast, Void arg) {
+				String value = visit(ast.arg(), null);
+				switch (ast.operator) {
+				case U_PLUS:
+					return value;
+				case U_MINUS:
+					return "(-" + value + ")";
+				default:
+					return "(!" + value + ")";
+				}
+			}
+
+			@Override
+			public String var(Var ast, Void arg) {
+				return variable(ast.sym);
+			}
+		}
+	}
+}
@@ -2,15 +2,80 @@ package cd.backend.codegen;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import cd.Config;
 import cd.backend.codegen.RegisterManager.Register;
 
+/**
+ * Collects the assembly code of the program as a list of {@link Line lines}, which
+ * {@link #flush()} passes through the {@link PeepholeOptimizer} before writing them
+ * out. The code generators flush after every method.
+ */
 public class AssemblyEmitter {
 	public Writer out;
 	public StringBuilder indent = new StringBuilder();
 	public int counter = 0;
 
+	/** A line of assembly code that has not been written out yet. */
+	static final class Line {
+		enum Kind {
+			/** An instruction with {@link #op} and {@link #operands}. */
+			INSTRUCTION,
+			/** The definition of the label {@link #op}. */
+			LABEL,
+			COMMENT,
+			/** A directive or an instruction the optimizer does not look into. */
+			OTHER
+		}
+
+		final Kind kind;
+		final String indent;
+		final String op;
+		final List<String> operands;
+
+		Line(Kind kind, String indent, String op, String... operands) {
+			this.kind = kind;
+			this.indent = indent;
+			this.op = op;
+			this.operands = Arrays.asList(operands);
+		}
+
+		/** Returns an instruction like this one with other operands. */
+		Line withOperands(String... operands) {
+			return new Line(kind, indent, op, operands);
+		}
+
+		/** Returns an instruction like this one with another opcode and operands. */
+		Line with(String op, String... operands) {
+			return new Line(kind, indent, op, operands);
+		}
+
+		boolean is(String op) {
+			return kind == Kind.INSTRUCTION && this.op.equals(op);
+		}
+
+		@Override
+		public String toString() {
+			switch (kind) {
+			case LABEL:
+				return op + ":";
+			case INSTRUCTION:
+				StringBuilder sb = new StringBuilder(indent).append(op);
+				for (int i = 0; i < operands.size(); i++)
+					sb.append(i == 0 ? " " : ", ").append(operands.get(i));
+				return sb.toString();
+			default:
+				return indent + op;
+			}
+		}
+	}
+
+	private final List<Line> lines = new ArrayList<>();
+	private final PeepholeOptimizer peephole = new PeepholeOptimizer();
+
 	public AssemblyEmitter(Writer out) {
 		this.out = out;
 	}
@@ -25,6 +90,14 @@ public class AssemblyEmitter {
 		return "$" + lbl;
 	}
 
+	/**
+	 * Appends the operand size suffix of a pointer to {@code op}, e.g. turns
+	 * {@code mov} into {@code movl} on x86 and into {@code movq} on x86-64.
+	 */
+	static String ptrOp(String op) {
+		return op + (Config.SIZEOF_PTR == 8 ? "q" : "l");
+	}
+
 	/** Creates an operand relative to another operand. */
 	static String registerOffset(int offset, Register reg) {
 		return String.format("%d(%s)", offset, reg);
@@ -58,16 +131,11 @@ public class AssemblyEmitter {
 		sb.append(name);
 		for (int i = 0; i < breakLen; i++)
 			sb.append("_");
-
-		try {
-			out.write(sb.toString());
-			out.write("\n");
-		} catch (IOException e) {
-		}
+		lines.add(new Line(Line.Kind.COMMENT, "", sb.toString()));
 	}
 
 	void emitComment(String comment) {
-		emitRaw(Config.COMMENT_SEP + " " + comment);
+		lines.add(new Line(Line.Kind.COMMENT, indent.toString(), Config.COMMENT_SEP + " " + comment));
 	}
 
 	void emit(String op, Register src, String dest) {
@@ -83,7 +151,11 @@ public class AssemblyEmitter {
 	}
 
 	void emit(String op, String src, String dest) {
-		emitRaw(String.format("%s %s, %s", op, src, dest));
+		lines.add(new Line(Line.Kind.INSTRUCTION, indent.toString(), op, src, dest));
+	}
+
+	void emit(String op, String src1, String src2, String dest) {
+		lines.add(new Line(Line.Kind.INSTRUCTION, indent.toString(), op, src1, src2, dest));
 	}
 
 	void emit(String op, int src, Register dest) {
@@ -91,7 +163,7 @@ public class AssemblyEmitter {
 	}
 
 	void emit(String op, String dest) {
-		emitRaw(op + " " + dest);
+		lines.add(new Line(Line.Kind.INSTRUCTION, indent.toString(), op, dest));
 	}
 
 	void emit(String op, Register reg) {
@@ -116,7 +188,7 @@ public class AssemblyEmitter {
 
 	void emitMove(String src, String dest) {
 		if (!src.equals(dest))
-			emit("movl", src, dest);
+			emit(ptrOp("mov"), src, dest);
 	}
 
 	void emitLoad(int srcOffset, Register src, Register dest) {
@@ -132,7 +204,7 @@ public class AssemblyEmitter {
 	}
 
 	void emitConstantData(String data) {
-		emitRaw(String.format("%s %s", Config.DOT_INT, data));
+		emitRaw(String.format("%s %s", Config.DOT_PTR, data));
 	}
 
 	String uniqueLabel() {
@@ -141,20 +213,23 @@ public class AssemblyEmitter {
 	}
 
 	void emitLabel(String label) {
-		try {
-			out.write(label + ":" + "\n");
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		lines.add(new Line(Line.Kind.LABEL, "", label));
 	}
 
 	void emitRaw(String op) {
+		lines.add(new Line(Line.Kind.OTHER, indent.toString(), op));
+	}
+
+	/** Optimizes the lines emitted since the last flush and writes them out. */
+	void flush() {
 		try {
-			out.write(indent.toString());
-			out.write(op);
-			out.write("\n");
+			for (Line line : peephole.optimize(lines)) {
+				out.write(line.toString());
+				out.write("\n");
+			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
+		lines.clear();
 	}
 }
\ No newline at end of file
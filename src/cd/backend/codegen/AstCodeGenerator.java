@@ -4,22 +4,41 @@ import static cd.Config.MAIN;
 import static cd.Config.SCANF;
 import static cd.Config.SIZEOF_PTR;
 import static cd.backend.codegen.AssemblyEmitter.constant;
+import static cd.backend.codegen.AssemblyEmitter.labelAddress;
+import static cd.backend.codegen.AssemblyEmitter.ptrOp;
 import static cd.backend.codegen.AssemblyEmitter.registerOffset;
 import static cd.backend.codegen.RegisterManager.BASE_REG;
 import static cd.backend.codegen.RegisterManager.STACK_REG;
 
 import java.io.Writer;
-import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import cd.Config;
 import cd.Main;
 import cd.backend.ExitCode;
 import cd.backend.codegen.RegisterManager.Register;
 import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BinaryOp.BOp;
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.Cast;
 import cd.ir.Ast.ClassDecl;
 import cd.ir.Ast.Expr;
+import cd.ir.Ast.IntConst;
 import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.NullConst;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.UnaryOp;
+import cd.ir.Ast.Var;
+import cd.ir.BasicBlock;
 import cd.ir.Symbol.ArrayTypeSymbol;
 import cd.ir.Symbol.ClassSymbol;
 import cd.ir.Symbol.MethodSymbol;
@@ -28,72 +47,23 @@ import cd.ir.Symbol.VariableSymbol;
 
 public class AstCodeGenerator {
 
-	protected RegsNeededVisitor rnv;
-	
-	protected ExprGenerator eg;
-	protected StmtGenerator sg;
-	
 	protected final Main main;
 	
 	protected final AssemblyEmitter emit;
-	protected final RegisterManager rm = new RegisterManager();
-
-	protected ExprGeneratorRef egRef;
-	protected StmtGeneratorRef sgRef;
 
 	AstCodeGenerator(Main main, Writer out) {
-		{
-			initMethodData();
-		}
-		
 		this.emit = new AssemblyEmitter(out);
 		this.main = main;
-		this.rnv = new RegsNeededVisitor();
-
-		this.eg = new ExprGenerator(this);
-		this.sg = new StmtGenerator(this);
 	}
 
 	protected void debug(String format, Object... args) {
 		this.main.debug(format, args);
 	}
 
-	public static AstCodeGenerator createCodeGenerator(Main main, Writer out) {
-		return new AstCodeGeneratorRef(main, out);
-	}
-	
-	
-	/**
-	 * Main method. Causes us to emit x86 assembly corresponding to {@code ast}
-	 * into {@code file}. Throws a {@link RuntimeException} should any I/O error
-	 * occur.
-	 * 
-	 * <p>
-	 * The generated file will be divided into two sections:
-	 * <ol>
-	 * <li>Prologue: Generated by {@link #emitPrefix()}. This contains any
-	 * introductory declarations and the like.
-	 * <li>Body: Generated by {@link ExprGenerator}. This contains the main
-	 * method definitions.
-	 * </ol>
-	 */
-	public void go(List<? extends ClassDecl> astRoots) {
-		for (ClassDecl ast : astRoots) {
-			sg.gen(ast);
-		}
-	}
-
-
-	protected void initMethodData() {
-		{
-			rm.initRegisters();
-		}
-	}
-
 
 	protected void emitMethodSuffix(boolean returnNull) {
 		if (returnNull)
-			emit.emit("movl", "$0", Register.EAX);
+			emit.emit("movl", "$0", Register.EAX.repr32);
 		emit.emitRaw("leave");
 		emit.emitRaw("ret");
 	}
@@ -107,37 +77,83 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 	 */
 	protected int THIS_OFFSET = 8;
 
+	/** Whether code is generated for x86-64 rather than 32-bit x86. */
+	static final boolean X86_64 = (Config.TARGET == Config.Target.X86_64);
+
+	/**
+	 * Register assignment for the variables of the method currently being
+	 * generated, or {@code null} if all variables live on the stack.
+	 */
+	protected LinearScanAllocator regAlloc;
+
+	/**
+	 * The callee-save registers that the current method uses and thus has to
+	 * save, or {@code null} if it saves all of them.
+	 */
+	protected Set<Register> calleeSaveUsed;
+
 	/**
-	 * Name of the internal Javali$CheckCast() helper function we generate.
+	 * Variables that are known to be non-{@code null} before the statement or
+	 * condition currently being generated, or {@code null} if nothing is known.
 	 */
-	static final String CHECK_CAST = "Javali$CheckCast";
+	protected Set<VariableSymbol> nonNullVars;
 
 	/**
-	 * Name of the internal Javali$CheckNull() helper function we generate.
+	 * Number of null checks removed and kept in the current method.
 	 */
-	static final String CHECK_NULL = "Javali$CheckNull";
+	protected int nullChecksRemoved, nullChecksKept;
 
 	/**
-	 * Name of the internal Javali$CheckNonZero() helper function we generate.
+	 * Offset relative to the BP of each allocation of the current method that
+	 * is placed in the stack frame.
 	 */
-	static final String CHECK_NON_ZERO = "Javali$CheckNonZero";
+	protected final Map<Expr, Integer> stackObjects = new HashMap<>();
 
 	/**
-	 * Name of the internal Javali$CheckArraySize() helper function we generate.
+	 * Number of slots the current method needs for spilled temporaries, and
+	 * the offset relative to the BP right above the first of them.
 	 */
-	static final String CHECK_ARRAY_SIZE = "Javali$CheckArraySize";
+	protected int spillSlots, spillOffset;
 
 	/**
-	 * Name of the internal Javali$CheckArrayBounds() helper function we
-	 * generate.
+	 * Labels of the failure stubs of the current method: the inline runtime
+	 * checks jump there to exit with the respective code.
 	 */
-	static final String CHECK_ARRAY_BOUNDS = "Javali$CheckArrayBounds";
+	protected final Map<ExitCode, String> failureStubs = new EnumMap<>(ExitCode.class);
+
+	/**
+	 * Offset relative to a vtable of the depth of its type, and of the
+	 * type display emitted by {@link #emitDisplay(TypeSymbol)}.
+	 */
+	static final int DEPTH_OFFSET = -SIZEOF_PTR;
+
+	static int displayOffset(int depth) {
+		return -(depth + 2) * SIZEOF_PTR;
+	}
 
 	/**
 	 * Name of the internal Javali$Alloc() helper function we generate.
 	 */
 	static final String ALLOC = "Javali$Alloc";
 
+	/**
+	 * Size of the zeroed regions from which Javali$Alloc() allocates, and the
+	 * size above which an object gets a region of its own.
+	 */
+	static final int HEAP_REGION_SIZE = 1 << 20;
+	static final int LARGE_OBJECT_SIZE = HEAP_REGION_SIZE / 4;
+
+	/**
+	 * Names of the variables of Javali$Alloc(): the next free byte and the end
+	 * of the current region, and counters for the number of objects, the
+	 * number of bytes and the number of regions allocated so far.
+	 */
+	static final String HEAP_NEXT = "Javali$HeapNext";
+	static final String HEAP_END = "Javali$HeapEnd";
+	static final String ALLOC_COUNT = "Javali$AllocCount";
+	static final String ALLOC_BYTES = "Javali$AllocBytes";
+	static final String HEAP_REGIONS = "Javali$HeapRegions";
+
 	/**
 	 * Name of the internal Javali$PrintNewLine() helper function we generate.
 	 */
@@ -155,11 +171,6 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 
 	public AstCodeGeneratorRef(Main main, Writer out) {
 		super(main, out);
-
-		this.egRef = new ExprGeneratorRef(this);
-		this.eg = this.egRef;
-		this.sgRef = new StmtGeneratorRef(this);
-		this.sg = this.sgRef;
 	}
 
 	
@@ -186,130 +197,64 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 		emit.emitRaw(Config.DOT_STRING + " \"%f\"");
 		emit.emitRaw(Config.DATA_INT_SECTION);
 
-		emit.emitRaw(Config.TEXT_SECTION);
-
-		// Generate a helper method for checking casts:
-		// It takes first a vtable and second an object ptr.
-		{
-			Register obj = RegisterManager.CALLER_SAVE[0];
-			Register cls = RegisterManager.CALLER_SAVE[1];
-			String looplbl = emit.uniqueLabel();
-			String donelbl = emit.uniqueLabel();
-			String faillbl = emit.uniqueLabel();
-			emit.emitCommentSection(CHECK_CAST + " function");
-			emit.emitLabel(CHECK_CAST);
-			emit.emit("enter", "$8", "$0");
-			emit.emit("and", constant(-16), STACK_REG);
-			emit.emit("sub", constant(16), STACK_REG);
-			emit.emitLoad(SIZEOF_PTR * 2, BASE_REG, cls);
-			emit.emitLoad(SIZEOF_PTR * 3, BASE_REG, obj);
-			emit.emit("cmpl", constant(0), obj);
-			emit.emit("je", donelbl); // allow null objects to pass
-			emit.emitLoad(0, obj, obj); // load vtbl of object
-			emit.emitLabel(looplbl);
-			emit.emit("cmpl", obj, cls);
-			emit.emit("je", donelbl);
-			emit.emit("cmpl", constant(0), obj);
-			emit.emit("je", faillbl);
-			emit.emitLoad(0, obj, obj); // load parent vtable
-			emit.emit("jmp", looplbl);
-			emit.emitLabel(faillbl);
-			emit.emitStore(constant(ExitCode.INVALID_DOWNCAST.value), 0, STACK_REG);
-			emit.emit("call", Config.EXIT);
-			emit.emitLabel(donelbl);
-			emit.emitRaw("leave");
-			emit.emitRaw("ret");
+		// State of the heap allocator and its counters, which are global so
+		// that they can be inspected from outside:
+		for (String label : new String[] { HEAP_NEXT, HEAP_END, ALLOC_COUNT,
+				ALLOC_BYTES, HEAP_REGIONS }) {
+			emit.emitRaw(".globl " + label);
+			emit.emitLabel(label);
+			emit.emitConstantData("0");
 		}
 
-		// Generate a helper method for checking for null ptrs:
-		{
-			String oknulllbl = emit.uniqueLabel();
-			emit.emitCommentSection(CHECK_NULL + " function");
-			emit.emitLabel(CHECK_NULL);
-			emit.emit("enter", "$8", "$0");
-			emit.emit("and", constant(-16), STACK_REG);
-			emit.emit("sub", constant(16), STACK_REG);
-			emit.emit("cmpl", constant(0), registerOffset(SIZEOF_PTR * 2, BASE_REG));
-			emit.emit("jne", oknulllbl);
-			emit.emitStore(constant(ExitCode.NULL_POINTER.value), 0, STACK_REG);
-			emit.emit("call", Config.EXIT);
-			emit.emitLabel(oknulllbl);
-			emit.emitRaw("leave");
-			emit.emitRaw("ret");
-		}
+		emit.emitRaw(Config.TEXT_SECTION);
 
-		// Generate a helper method for checking that we don't divide by zero:
+		// Generate a helper method for allocating objects/arrays:
+		// Objects are carved out of zeroed regions of HEAP_REGION_SIZE bytes
+		// by bumping a pointer. When a region is exhausted, a fresh one is
+		// requested from calloc() and the rest of the old one is abandoned.
+		// Objects larger than LARGE_OBJECT_SIZE get a calloc() of their own.
 		{
-			String oknzlbl = emit.uniqueLabel();
-			emit.emitCommentSection(CHECK_NON_ZERO + " function");
-			emit.emitLabel(CHECK_NON_ZERO);
+			Register obj = RegisterManager.CALLER_SAVE[0];
+			Register size = RegisterManager.CALLER_SAVE[1];
+			Register next = RegisterManager.CALLER_SAVE[2];
+			String refilllbl = emit.uniqueLabel();
+			String largelbl = emit.uniqueLabel();
+			emit.emitCommentSection(ALLOC + " function");
+			emit.emitLabel(ALLOC);
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
-			emit.emit("cmpl", constant(0), registerOffset(SIZEOF_PTR * 2, BASE_REG));
-			emit.emit("jne", oknzlbl);
-			emit.emitStore(constant(ExitCode.DIVISION_BY_ZERO.value), 0, STACK_REG);
-			emit.emit("call", Config.EXIT);
-			emit.emitLabel(oknzlbl);
+			emitLoadArgument(0, size);
+			emit.emit(ptrOp("add"), constant(SIZEOF_PTR - 1), size);
+			emit.emit(ptrOp("and"), constant(-SIZEOF_PTR), size);
+			emit.emit(ptrOp("inc"), ALLOC_COUNT);
+			emit.emit(ptrOp("add"), size, ALLOC_BYTES);
+			emit.emit(ptrOp("cmp"), constant(LARGE_OBJECT_SIZE), size);
+			emit.emit("ja", largelbl); // unsigned, so that the sum below cannot wrap
+			emit.emitMove(HEAP_NEXT, obj);
+			emit.emitMove(obj, next);
+			emit.emit(ptrOp("add"), size, next);
+			emit.emit(ptrOp("cmp"), HEAP_END, next);
+			emit.emit("ja", refilllbl);
+			emit.emitMove(next, HEAP_NEXT);
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
-		}
-
-		// Generate a helper method for checking array size:
-		{
-			String okunqlbl = emit.uniqueLabel();
-			emit.emitCommentSection(CHECK_ARRAY_SIZE + " function");
-			emit.emitLabel(CHECK_ARRAY_SIZE);
-			emit.emit("enter", "$8", "$0");
-			emit.emit("and", constant(-16), STACK_REG);
-			emit.emit("sub", constant(16), STACK_REG);
-			emit.emit("cmpl", constant(0), registerOffset(SIZEOF_PTR * 2, BASE_REG));
-			emit.emit("jge", okunqlbl);
-			emit.emitStore(constant(ExitCode.INVALID_ARRAY_SIZE.value), 0, STACK_REG);
-			emit.emit("call", Config.EXIT);
-			emit.emitLabel(okunqlbl);
+			// refill: start a new region
+			emit.emitLabel(refilllbl);
+			emit.emitStore(size, 8, STACK_REG); // survives the call
+			emitCCall(Config.CALLOC, constant(HEAP_REGION_SIZE), constant(1));
+			emit.emit(ptrOp("inc"), HEAP_REGIONS);
+			emit.emitMove(obj, next);
+			emit.emit(ptrOp("add"), constant(HEAP_REGION_SIZE), next);
+			emit.emitMove(next, HEAP_END);
+			emit.emitLoad(8, STACK_REG, next);
+			emit.emit(ptrOp("add"), obj, next);
+			emit.emitMove(next, HEAP_NEXT);
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
-		}
-
-		// Generate a helper method for checking array bounds:
-		{
-			Register arr = RegisterManager.CALLER_SAVE[0];
-			Register idx = RegisterManager.CALLER_SAVE[1];
-			String faillbl = emit.uniqueLabel();
-			emit.emitCommentSection(CHECK_ARRAY_BOUNDS + " function");
-			emit.emitLabel(CHECK_ARRAY_BOUNDS);
-			emit.emit("enter", "$8", "$0");
-			emit.emit("and", constant(-16), STACK_REG);
-			emit.emit("sub", constant(16), STACK_REG);
-			emit.emitLoad(SIZEOF_PTR * 3, BASE_REG, idx);
-			emit.emitLoad(SIZEOF_PTR * 2, BASE_REG, arr);
-			emit.emit("cmpl", constant(0), idx); // idx < 0
-			emit.emit("jl", faillbl);
-			emit.emit("cmpl", registerOffset(Config.SIZEOF_PTR, arr), idx); // idx >= len
-			emit.emit("jge", faillbl);
-			// done
-			emit.emitRaw("leave");
-			emit.emitRaw("ret");
-			// fail
-			emit.emitLabel(faillbl);
-			emit.emitStore(constant(ExitCode.INVALID_ARRAY_BOUNDS.value), 0, STACK_REG);
-			emit.emit("call", Config.EXIT);
-
-		}
-
-		// Generate a helper method for allocating objects/arrays
-		{
-			Register size = RegisterManager.CALLER_SAVE[0];
-			emit.emitCommentSection(ALLOC + " function");
-			emit.emitLabel(ALLOC);
-			emit.emit("enter", "$8", "$0");
-			emit.emit("and", constant(-16), STACK_REG);
-			emit.emit("sub", constant(16), STACK_REG);
-			emit.emitLoad(8, BASE_REG, size);
-			emit.emitStore(size, 0, STACK_REG);
-			emit.emitStore(constant(1), 4, STACK_REG);
-			emit.emit("call", Config.CALLOC);
+			// large: allocate the object on its own
+			emit.emitLabel(largelbl);
+			emitCCall(Config.CALLOC, size.repr, constant(1));
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
 		}
@@ -321,8 +266,7 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
-			emit.emitStore("$STR_NL", 0, STACK_REG);
-			emit.emit("call", Config.PRINTF);
+			emitCCall(Config.PRINTF, "$STR_NL");
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
 		}
@@ -335,10 +279,8 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
-			emit.emitLoad(8, BASE_REG, temp);
-			emit.emitStore(temp, 4, STACK_REG);
-			emit.emitStore("$STR_D", 0, STACK_REG);
-			emit.emit("call", Config.PRINTF);
+			emitLoadArgument(0, temp);
+			emitCCall(Config.PRINTF, "$STR_D", temp.repr);
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
 		}
@@ -351,24 +293,13 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
-			emit.emit("leal", registerOffset(8, STACK_REG), number);
-			emit.emitStore(number, 4, STACK_REG);
-			emit.emitStore("$STR_D", 0, STACK_REG);
-			emit.emit("call", SCANF);
-			emit.emitLoad(8, STACK_REG, Register.EAX);
+			emit.emit(ptrOp("lea"), registerOffset(8, STACK_REG), number);
+			emitCCall(SCANF, "$STR_D", number.repr);
+			emit.emit("movl", registerOffset(8, STACK_REG), Register.EAX.repr32);
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
 		}
 
-		// Generate AST for main() method:
-		// new Main().main()
-		Ast.NewObject newMain = new Ast.NewObject("Main");
-		newMain.type = main.mainType;
-		
-		Ast.MethodCallExpr mce = new Ast.MethodCallExpr(newMain, "main", Collections.<Expr> emptyList());
-		Ast.MethodCall callMain = new Ast.MethodCall(mce);
-		mce.sym = main.mainType.getMethod("main");
-
 		// Emit the main() method:
 		// new Main().main();
 		emit.emitCommentSection("main() function");
@@ -376,17 +307,52 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 		emit.emitLabel(MAIN);
 		emit.emit("enter", "$8", "$0");
 		emit.emit("and", -16, STACK_REG);
-		sg.gen(callMain);
-		emit.emit("movl", constant(ExitCode.OK.value), Register.EAX); // normal termination:
+		if (!X86_64)
+			emit.emit("sub", constant(16), STACK_REG); // room for the argument
+		emitStoreArgument(0, constant(main.mainType.sizeof));
+		emit.emit("call", ALLOC);
+		emit.emitStore(labelAddress(vtable(main.mainType)), 0, Register.EAX);
+		emitStoreArgument(0, Register.EAX.repr);
+		emit.emit("call", methodLabel(main.mainType.getMethod("main")));
+		emit.emit("movl", constant(ExitCode.OK.value), Register.EAX.repr32); // normal termination:
 		emit.emitRaw("leave");
 		emit.emitRaw("ret");
 
 	}
 
-	@Override
-    public void go(List<? extends ClassDecl> astRoots) {
-		emitPrefix(astRoots);
-		super.go(astRoots);
+	/**
+	 * Copies argument {@code i} of a runtime helper to {@code reg}, after the
+	 * {@code enter} of the helper. On x86-64, it is passed in a register.
+	 */
+	private void emitLoadArgument(int i, Register reg) {
+		if (X86_64)
+			emit.emitMove(RegisterManager.ARGUMENT_REGS[i], reg);
+		else
+			emit.emitLoad(8 + i * SIZEOF_PTR, BASE_REG, reg);
+	}
+
+	/**
+	 * Passes {@code arg} as argument {@code i} of a call: in a register on
+	 * x86-64, and on x86 in the room for the arguments at the stack pointer.
+	 */
+	private void emitStoreArgument(int i, String arg) {
+		if (X86_64)
+			emit.emitMove(arg, RegisterManager.ARGUMENT_REGS[i]);
+		else
+			emit.emitStore(arg, i * SIZEOF_PTR, STACK_REG);
+	}
+
+	/**
+	 * Calls the C library function {@code fn} with the given arguments. The
+	 * stack pointer must be aligned to 16 bytes and, on x86, point to enough
+	 * room for the arguments.
+	 */
+	protected void emitCCall(String fn, String... args) {
+		for (int i = 0; i < args.length; i++)
+			emitStoreArgument(i, args[i]);
+		if (X86_64) // no vector registers are passed to variadic functions
+			emit.emit("movl", constant(0), Register.EAX.repr32);
+		emit.emit("call", fn);
 	}
 
 	/**
@@ -453,6 +419,7 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 			collectVtable(vtable, cs);
 
 			// Emit vtable for this class:
+			emitDisplay(cs);
 			emit.emitLabel(vtable(cs));
 			if (cs.superClass != null)
 				emit.emitConstantData(vtable(cs.superClass));
@@ -462,11 +429,27 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 				emit.emitConstantData(methodLabel(vtable[i]));
 		} else if (ts instanceof ArrayTypeSymbol) {
 			ArrayTypeSymbol as = (ArrayTypeSymbol) ts;
+			emitDisplay(as);
 			emit.emitLabel(vtable(as));
 			emit.emitConstantData(vtable(ClassSymbol.objectType));
 		}
 	}
 
+	/**
+	 * Emits the Cohen display of {@code ts}, which ends right before its
+	 * vtable: the vtable of its supertype at depth {@code d} is found at
+	 * {@link #displayOffset(int) displayOffset(d)}, and the depth of
+	 * {@code ts} at {@link #DEPTH_OFFSET}. An object is an instance of a type
+	 * of depth {@code d} iff its vtable has a depth of at least {@code d} and
+	 * the type's vtable at {@code displayOffset(d)}.
+	 */
+	protected void emitDisplay(TypeSymbol ts) {
+		List<TypeSymbol> display = ts.display();
+		for (int depth = display.size() - 1; depth >= 0; depth--)
+			emit.emitConstantData(vtable(display.get(depth)));
+		emit.emitConstantData(Integer.toString(ts.depth()));
+	}
+
 	protected String vtable(TypeSymbol ts) {
 		if (ts instanceof ClassSymbol) {
 			return "vtable_" + ((ClassSymbol) ts).name;
@@ -479,11 +462,53 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 
 
 
-	@Override
 	protected void initMethodData() {
 		THIS_OFFSET = 8;
 		bytes = 0;
-		super.initMethodData();
+	}
+
+	/**
+	 * Returns the register that holds {@code sym} in the current method, or
+	 * {@code null} if it lives in its stack slot.
+	 */
+	protected Register registerOf(VariableSymbol sym) {
+		return (regAlloc == null ? null : regAlloc.registerOf(sym));
+	}
+
+	/**
+	 * Returns the operand through which {@code sym} is accessed in the current
+	 * method: either a register or a slot relative to the base pointer.
+	 */
+	protected String location(VariableSymbol sym) {
+		Register reg = registerOf(sym);
+		if (reg != null)
+			return reg.repr;
+		assert sym.offset != -1;
+		return registerOffset(sym.offset, BASE_REG);
+	}
+
+	/**
+	 * Returns the number of bytes of the object created by {@code alloc}, which
+	 * must be a {@link NewObject} or a {@link NewArray} of constant length.
+	 */
+	protected int sizeOnStack(Expr alloc) {
+		if (alloc instanceof NewObject)
+			return ((ClassSymbol) alloc.type).sizeof;
+		int length = ((IntConst) ((NewArray) alloc).arg()).value;
+		return (2 + length) * SIZEOF_PTR;
+	}
+
+	/** Returns the operand of spill slot {@code index} of the current method. */
+	protected String spillSlot(int index) {
+		return registerOffset(spillOffset - (index + 1) * SIZEOF_PTR, BASE_REG);
+	}
+
+	/** Like {@link #location(VariableSymbol)}, but for the {@code this} ptr. */
+	protected String thisLocation() {
+		Register reg = (regAlloc == null ? null : regAlloc.thisRegister());
+		if (reg != null)
+			return reg.repr;
+		return registerOffset(THIS_OFFSET, BASE_REG);
 	}
 
 	protected int padding(int numberOfParameters) {
@@ -519,68 +544,97 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 
 	protected void restoreCalleeSaveRegs() {
 		for (int reg = RegisterManager.CALLEE_SAVE.length - 1; reg >= 0; reg--) {
-			emit.emit("pop", RegisterManager.CALLEE_SAVE[reg]);
+			if (calleeSaveUsed == null || calleeSaveUsed.contains(RegisterManager.CALLEE_SAVE[reg]))
+				emit.emit("pop", RegisterManager.CALLEE_SAVE[reg]);
 		}
 	}
 
 	protected void storeCalleeSaveRegs() {
 		bytes = 0;
 		for (int reg = 0; reg < RegisterManager.CALLEE_SAVE.length; reg++) {
+			if (calleeSaveUsed != null && !calleeSaveUsed.contains(RegisterManager.CALLEE_SAVE[reg]))
+				continue;
 			emit.emit("push", RegisterManager.CALLEE_SAVE[reg]);
 			bytes += Config.SIZEOF_PTR;
 		}
 	}
 
-	protected void restoreCallerSaveRegs(Register res) {
-		for (int reg = RegisterManager.CALLER_SAVE.length - 1; reg >= 0; reg--) {
-			if (!rm.isInUse(RegisterManager.CALLER_SAVE[reg]))
-				continue; // not in use
-			if (RegisterManager.CALLER_SAVE[reg].equals(res))
-				continue; // contains our result
-			pop(RegisterManager.CALLER_SAVE[reg].repr);
+	/**
+	 * Returns whether the value of {@code ptr} has to be checked for
+	 * {@code null} before it is dereferenced, and counts the check as kept or
+	 * removed. A variable that is checked is treated as non-{@code null} for
+	 * the rest of the statement.
+	 */
+	protected boolean needsNullCheck(Expr ptr) {
+		while (ptr instanceof Cast)
+			ptr = ((Cast) ptr).arg();
+		if (ptr instanceof ThisRef || ptr instanceof NewObject
+				|| ptr instanceof NewArray
+				|| (ptr instanceof Var && nonNullVars != null
+						&& nonNullVars.contains(((Var) ptr).sym))) {
+			nullChecksRemoved++;
+			return false;
 		}
+		nullChecksKept++;
+		if (ptr instanceof Var && nonNullVars != null)
+			nonNullVars.add(((Var) ptr).sym);
+		return true;
 	}
 
-	protected void storeCallerSaveRegs(Register res) {
-		for (int reg = 0; reg < RegisterManager.CALLER_SAVE.length; reg++) {
-			if (!rm.isInUse(RegisterManager.CALLER_SAVE[reg]))
-				continue; // not in use
-			if (RegisterManager.CALLER_SAVE[reg].equals(res))
-				continue; // will contain our result
-			push(RegisterManager.CALLER_SAVE[reg].repr);
-		}
+	/**
+	 * Generates a check that {@code idx} is within the bounds of the array
+	 * {@code arr}. A single unsigned comparison also catches negative indices.
+	 */
+	protected void emitBoundsCheck(Register arr, Register idx) {
+		emit.emit("cmpl", registerOffset(Config.SIZEOF_PTR, arr), idx.repr32);
+		emit.emit("jae", failureStub(ExitCode.INVALID_ARRAY_BOUNDS));
 	}
 
-	protected int emitCallPrefix(Register res, int numberOfParameters) {
-		storeCallerSaveRegs(res);
-		int padding = padding(numberOfParameters);
-		push(padding);
-		return padding;
+	/**
+	 * Returns the label of the stub of the current method that exits with
+	 * {@code code}; the stub is generated by {@link #emitFailureStubs()}.
+	 */
+	protected String failureStub(ExitCode code) {
+		String label = failureStubs.get(code);
+		if (label == null) {
+			label = emit.uniqueLabel();
+			failureStubs.put(code, label);
+		}
+		return label;
 	}
 
-	protected void emitCallSuffix(Register res, int numberOfParameters,
-			int padding) {
-		pop(numberOfParameters * Config.SIZEOF_PTR + padding);
-		if (res != null) {
-			emit.emitMove(Register.EAX, res);
+	/**
+	 * Generates the failure stubs used by the current method, after its
+	 * code, so that the inline checks fall through when they succeed.
+	 */
+	protected void emitFailureStubs() {
+		for (Map.Entry<ExitCode, String> stub : failureStubs.entrySet()) {
+			emit.emitLabel(stub.getValue());
+			emit.emit("and", constant(-16), STACK_REG);
+			emit.emit("sub", constant(16), STACK_REG);
+			emitCCall(Config.EXIT, constant(stub.getKey().value));
 		}
-		restoreCallerSaveRegs(res);
+		failureStubs.clear();
 	}
 
-	
-
 	/**
-	 * Generates code which evaluates {@code ast} and branches to {@code lbl} if
-	 * the value generated for {@code ast} is false.
+	 * Returns whether evaluating {@code ast} can neither fail nor have a side
+	 * effect, so that it need not be evaluated if its value is not needed.
 	 */
-
-	protected void genJumpIfFalse(Expr ast, String lbl) {
-		// A better way to implement this would be with a separate
-		// visitor.
-		Register reg = eg.gen(ast);
-		emit.emit("cmpl", "$0", reg);
-		emit.emit("je", lbl);
-		rm.releaseRegister(reg);
+	static boolean cannotFail(Ast ast) {
+		if (ast instanceof BinaryOp) {
+			BOp op = ((BinaryOp) ast).operator;
+			if (op == BOp.B_DIV || op == BOp.B_MOD)
+				return false;
+		} else if (!(ast instanceof UnaryOp || ast instanceof Var
+				|| ast instanceof IntConst || ast instanceof BooleanConst
+				|| ast instanceof NullConst || ast instanceof ThisRef)) {
+			return false;
+		}
+		for (Ast child : ast.children())
+			if (!cannotFail(child))
+				return false;
+		return true;
 	}
 
 	
@@ -644,6 +698,9 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 		// Initialize method-specific data
 		initMethodData();
 
+		// First few slots are reserved for caller save regs:
+		int localSlot = RegisterManager.CALLER_SAVE.length * RegisterManager.SIZEOF_REG;
+
 		// Assign parameter offsets:
 		// As shown above, these start from 8.
 		// Being able to evaluate parameters like in Java
@@ -652,17 +709,33 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 		// The "this" parameter is the first pushed on the stack
 		// thus receiving higher offset.
 		int paramOffset = Config.SIZEOF_PTR * 2;
-		for (int i = ast.sym.parameters.size() - 1; i >= 0; i--) {
-			final VariableSymbol param = ast.sym.parameters.get(i);
-			assert param.offset == -1;
-			param.offset = paramOffset;
-			paramOffset += Config.SIZEOF_PTR;
+		if (X86_64) {
+			// On x86-64, the this ptr and the first parameters are
+			// passed in registers, which the prologue stores in slots
+			// below the locals. The remaining parameters are on the
+			// stack in order, the first of them at 16.
+			int inRegisters = RegisterManager.ARGUMENT_REGS.length - 1;
+			THIS_OFFSET = -localSlot;
+			localSlot += Config.SIZEOF_PTR;
+			for (int i = 0; i < ast.sym.parameters.size(); i++) {
+				final VariableSymbol param = ast.sym.parameters.get(i);
+				assert param.offset == -1;
+				if (i < inRegisters) {
+					param.offset = -localSlot;
+					localSlot += Config.SIZEOF_PTR;
+				} else {
+					param.offset = paramOffset + (i - inRegisters) * Config.SIZEOF_PTR;
+				}
+			}
+		} else {
+			for (int i = ast.sym.parameters.size() - 1; i >= 0; i--) {
+				final VariableSymbol param = ast.sym.parameters.get(i);
+				assert param.offset == -1;
+				param.offset = paramOffset;
+				paramOffset += Config.SIZEOF_PTR;
+			}
+			THIS_OFFSET = paramOffset;
 		}
-		THIS_OFFSET = paramOffset;
-		paramOffset += Config.SIZEOF_PTR;
-
-		// First few slots are reserved for caller save regs:
-		int localSlot = RegisterManager.CALLER_SAVE.length * RegisterManager.SIZEOF_REG;
 
 		// Assign local variable offsets:
 		emit.emitComment(String.format("%-10s   Offset", "Variable"));
@@ -673,6 +746,40 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 			emit.emitComment(String.format("%-10s   %d", local, local.offset));
 		}
 
+		// Reserve space for the objects that do not escape the method. Each
+		// object starts at the lowest address of its slot.
+		stackObjects.clear();
+		if (ast.cfg != null) {
+			for (BasicBlock blk : ast.cfg.allBlocks) {
+				for (Stmt stmt : blk.stmts) {
+					if (!(stmt instanceof Assign))
+						continue;
+					Expr alloc = ((Assign) stmt).right();
+					if ((alloc instanceof NewObject && ((NewObject) alloc).onStack)
+							|| (alloc instanceof NewArray && ((NewArray) alloc).onStack)) {
+						localSlot += sizeOnStack(alloc);
+						stackObjects.put(alloc, -localSlot);
+						emit.emitComment(String.format("%-10s   %d", "new " + alloc.type, -localSlot));
+					}
+				}
+			}
+		}
+		// Reserve the slots for spilled temporaries:
+		spillOffset = -localSlot;
+		localSlot += spillSlots * SIZEOF_PTR;
+
+		if (regAlloc != null) {
+			emit.emitComment(String.format("%-10s   Register", "Variable"));
+			for (VariableSymbol param : ast.sym.parameters)
+				if (registerOf(param) != null)
+					emit.emitComment(String.format("%-10s   %s", param, registerOf(param)));
+			for (VariableSymbol local : ast.sym.locals.values())
+				if (registerOf(local) != null)
+					emit.emitComment(String.format("%-10s   %s", local, registerOf(local)));
+			if (regAlloc.thisRegister() != null)
+				emit.emitComment(String.format("%-10s   %s", "this", regAlloc.thisRegister()));
+		}
+
 		// Round up stack size to make it a multiple of 16.
 		// The actual amount passed to the enter instruction is 8
 		// less, however, because it wants to know the amount
@@ -691,16 +798,49 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 
 		// zero-initialize locals
 		for (VariableSymbol local : ast.sym.locals.values()) {
-			emit.emitMove(constant(0), registerOffset(local.offset, BASE_REG));
+			if (registerOf(local) == null)
+				emit.emitMove(constant(0), registerOffset(local.offset, BASE_REG));
+			else if (regAlloc.liveOnEntry().contains(local))
+				emit.emitMove(constant(0), registerOf(local));
+		}
+
+		// move the this ptr and the parameters passed in registers to the
+		// registers or slots where they are kept
+		if (X86_64) {
+			List<VariableSymbol> params = ast.sym.parameters;
+			for (int i = 0; i <= params.size() && i < RegisterManager.ARGUMENT_REGS.length; i++) {
+				VariableSymbol sym = (i == 0 ? ast.sym.owner.thisSymbol : params.get(i - 1));
+				Register reg = (i == 0 ? (regAlloc == null ? null : regAlloc.thisRegister())
+						: registerOf(sym));
+				if (regAlloc != null && !regAlloc.liveOnEntry().contains(sym))
+					continue;
+				if (reg == null)
+					emit.emitStore(RegisterManager.ARGUMENT_REGS[i],
+							(i == 0 ? THIS_OFFSET : sym.offset), BASE_REG);
+				else
+					emit.emitMove(RegisterManager.ARGUMENT_REGS[i], reg);
+			}
+		}
+
+		// load parameters and the this ptr that are passed on the stack and
+		// kept in registers
+		if (regAlloc != null) {
+			for (VariableSymbol param : ast.sym.parameters)
+				if (registerOf(param) != null && param.offset > 0
+						&& regAlloc.liveOnEntry().contains(param))
+					emit.emitLoad(param.offset, BASE_REG, registerOf(param));
+			if (regAlloc.thisRegister() != null && THIS_OFFSET > 0
+					&& regAlloc.liveOnEntry().contains(regAlloc.thisSymbol()))
+				emit.emitLoad(THIS_OFFSET, BASE_REG, regAlloc.thisRegister());
 		}
 	}
 
 	@Override
 	protected void emitMethodSuffix(boolean returnNull) {
 		if (returnNull)
-			emit.emit("movl", "$0", Register.EAX);
+			emit.emit("movl", "$0", Register.EAX.repr32);
 		restoreCalleeSaveRegs();
 		emit.emitRaw("leave");
 		emit.emitRaw("ret");
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
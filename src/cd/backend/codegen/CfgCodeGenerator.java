@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Map;
 
 import cd.Main;
+import cd.backend.lir.Instr;
 import cd.ir.Ast.ClassDecl;
 import cd.ir.Ast.MethodDecl;
 import cd.ir.Ast.Stmt;
@@ -13,6 +14,7 @@ import cd.ir.AstVisitor;
 import cd.ir.BasicBlock;
 import cd.ir.ControlFlowGraph;
 import cd.ir.Symbol.PrimitiveTypeSymbol;
+import cd.transform.analysis.NonNullAnalysis;
 
 public class CfgCodeGenerator {
 
@@ -28,6 +30,7 @@ public class CfgCodeGenerator {
 		cg.emitPrefix(astRoots);
 		for (ClassDecl cdecl : astRoots)
 			new CfgStmtVisitor().visit(cdecl, null);
+		cg.emit.flush();
 	}
 	
 	private class CfgStmtVisitor extends AstVisitor<Void, Void> {
@@ -43,51 +46,90 @@ public class CfgCodeGenerator {
 
 		@Override
 		public Void methodDecl(MethodDecl ast, Void arg) {
-			cg.emitMethodPrefix(ast);
-			
 			ControlFlowGraph cfg = ast.cfg;
 			assert cfg != null;
 
+			cg.regAlloc = new LinearScanAllocator(ast);
+			NonNullAnalysis nonNull = new NonNullAnalysis(ast);
+			cg.nullChecksRemoved = cg.nullChecksKept = 0;
+
 			Map<BasicBlock, String> labels = new HashMap<BasicBlock, String>(); 
 			for (BasicBlock blk : cfg.allBlocks)
 				labels.put(blk, cg.emit.uniqueLabel());
 			String exitLabel = cg.emit.uniqueLabel();
 			
-			cg.emit.emit("jmp", labels.get(cfg.start));
+			List<BasicBlock> layout = new BlockLayout().layout(cfg);
+			LirBuilder lir = new LirBuilder(cg, ast);
+			if (layout.get(0) != cfg.start)
+				lir.jump(labels.get(cfg.start));
 
-			for (BasicBlock blk : cfg.allBlocks) {
+			for (int i = 0; i < layout.size(); i++) {
+				BasicBlock blk = layout.get(i);
+				// the block emitted next, which needs no jump
+				BasicBlock next = (i + 1 < layout.size() ? layout.get(i + 1) : null);
 				
-				cg.emit.emitCommentSection("Basic block " + blk.index);
-				cg.emit.emitLabel(labels.get(blk));
+				lir.comment("Basic block " + blk.index);
+				lir.label(labels.get(blk));
 				
-				for(Stmt stmt : blk.stmts)
-					cg.sg.gen(stmt);
+				for(Stmt stmt : blk.stmts) {
+					cg.nonNullVars = nonNull.nonNullBefore(blk, stmt);
+					lir.stmt(stmt);
+				}
+				cg.nonNullVars = nonNull.nonNullBeforeCondition(blk);
 				
 				if (blk == cfg.end) {
-					cg.emit.emitComment(String.format("Return"));
+					lir.comment("Return");
 					assert blk.successors.size() == 0;
-					cg.emit.emit("jmp", exitLabel);
+					if (next != null)
+						lir.jump(exitLabel);
 				} else if (blk.condition != null) {
 					assert blk.successors.size() == 2;
-					cg.emit.emitComment(String.format(
+					lir.comment(String.format(
 							"Exit to block %d if true, block %d if false",
 							blk.trueSuccessor().index, blk.falseSuccessor().index));
-					cg.genJumpIfFalse(blk.condition, labels.get(blk.falseSuccessor()));
-					cg.emit.emit("jmp", labels.get(blk.trueSuccessor()));
+					if (blk.falseSuccessor() == next) {
+						lir.condition(blk.condition, true, labels.get(blk.trueSuccessor()));
+					} else {
+						lir.condition(blk.condition, false, labels.get(blk.falseSuccessor()));
+						if (blk.trueSuccessor() != next)
+							lir.jump(labels.get(blk.trueSuccessor()));
+					}
 				} else {
-					cg.emit.emitComment(String.format(
+					lir.comment(String.format(
 							"Exit to block %d", blk.successors.get(0).index));
 					assert blk.successors.size() == 1;
-					cg.emit.emit("jmp", labels.get(blk.successors.get(0)));
+					if (blk.successors.get(0) != next)
+						lir.jump(labels.get(blk.successors.get(0)));
 				}
 			}
+			cg.nonNullVars = null;
+
+			// Assign registers to the temporaries, which determines the
+			// number of spill slots in the frame.
+			LirAllocator alloc = new LirAllocator(lir.code(), cg.regAlloc.usedRegisters());
+			main.debug("LIR of %s.%s:", ast.sym.owner.name, ast.name);
+			for (Instr instr : alloc.code())
+				main.debug("  %s", instr);
+			cg.spillSlots = alloc.spillSlots();
+			cg.calleeSaveUsed = alloc.usedRegisters();
+			cg.calleeSaveUsed.addAll(cg.regAlloc.usedRegisters());
+			cg.emitMethodPrefix(ast);
+			new LirEmitter(cg, alloc, ast.sym.owner.thisSymbol).emit(alloc.code());
 
 			cg.emit.emitLabel(exitLabel);
 			if (ast.sym.returnType.equals(PrimitiveTypeSymbol.voidType))
 				cg.emitMethodSuffix(true);
 			else
 				cg.emitMethodSuffix(true);
-			
+			cg.emitFailureStubs();
+
+			cg.emit.emitComment(String.format(
+					"Null checks: %d removed, %d kept",
+					cg.nullChecksRemoved, cg.nullChecksKept));
+			cg.emit.flush();
+			cg.spillSlots = 0;
+			cg.calleeSaveUsed = null;
+			cg.regAlloc = null;
 			return null;
 		}
 		
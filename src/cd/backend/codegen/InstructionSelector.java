@@ -0,0 +1,582 @@
+package cd.backend.codegen;
+
+import static cd.Config.SIZEOF_PTR;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import cd.backend.lir.Instr;
+import cd.backend.lir.Instr.Op;
+import cd.backend.lir.Operand;
+import cd.backend.lir.Operand.Immediate;
+import cd.backend.lir.Operand.Memory;
+import cd.backend.lir.Operand.VirtualRegister;
+import cd.ir.Ast;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BinaryOp.BOp;
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.BuiltInRead;
+import cd.ir.Ast.Cast;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.Field;
+import cd.ir.Ast.Index;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.NullConst;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.UnaryOp;
+import cd.ir.Ast.UnaryOp.UOp;
+import cd.ir.Ast.Var;
+import cd.util.debug.AstOneLine;
+
+/**
+ * Selects the {@link Instr LIR} instructions for expressions by tiling their trees
+ * bottom-up, in the manner of a BURS code generator.
+ * <p>
+ * Each {@link Rule} is a tile that covers one or a few nodes and leaves the value of
+ * the expression in one of the {@link Kind kinds} of operands: a register, a constant, a
+ * memory operand, or an address that {@code leal} can compute. A first pass labels
+ * every node with the cheapest rule for each kind, given the labels of its children and
+ * the {@code COST}s of the x86 instructions the rules stand for; chain rules move a
+ * value from one kind to another. A second pass, started with the kind that the
+ * consumer of the value accepts, emits the instructions of the chosen tiles with the
+ * children from left to right. Constants and memory operands thus fold into the
+ * instructions that use them, and additions of registers and constants become
+ * {@code leal}.
+ * <p>
+ * The value of a memory operand is only read by the instruction that uses it, after
+ * the operands to its right have been evaluated. A memory operand is therefore not used
+ * when an operand to its right contains a method call, which could change the memory.
+ */
+class InstructionSelector {
+
+	/** The nonterminals of the tiling: where a tile leaves its value. */
+	enum Kind {
+		/** A virtual register or a variable that lives in a register. */
+		REG,
+		/** An {@link Immediate}. */
+		IMM,
+		/** A memory operand: a field, an array element or a variable in the frame. */
+		MEM,
+		/** A {@link Memory} operand whose address is the value, for {@code leal}. */
+		ADDR
+	}
+
+	/** The tiles. The comment of each gives its kind and the nodes it covers. */
+	enum Rule {
+		/** imm: IntConst | BooleanConst | NullConst */
+		CONST,
+		/** imm: -imm */
+		NEG_CONST,
+		/** reg | mem: Var | ThisRef */
+		VAR,
+		/** mem: Field(reg) */
+		FIELD,
+		/** mem: Index(reg, reg) */
+		INDEX,
+		/** mem: Index(reg, imm) whose bounds check was removed */
+		INDEX_CONST,
+		/** reg: op(reg, reg | mem | imm) for +, -, *, &&, || */
+		ALU,
+		/** reg: op(reg | mem | imm, reg) for the commutative operators */
+		ALU_SWAPPED,
+		/** reg: (reg | mem) * imm, with the three-operand {@code imull} */
+		MUL_IMM,
+		/** reg: reg * 2^k, with {@code sall} */
+		SHIFT,
+		/** reg: (reg | mem | imm) / (reg | mem | imm), and % */
+		DIV,
+		/** reg: (reg | mem | imm) cmp (reg | mem | imm), with {@code setcc} */
+		SET,
+		/** reg: -(reg | mem), !(reg | mem) */
+		UNARY,
+		/** reg: a downcast of reg */
+		CAST,
+		/** any: an upcast or unary + of the same kind */
+		IDENTITY,
+		/** reg: MethodCallExpr | read() | NewObject | NewArray */
+		CALL,
+		/** addr: reg + imm | imm + reg | reg - imm */
+		LEA_DISP,
+		/** addr: reg + reg */
+		LEA_INDEX,
+		/** addr: reg + reg * 2^k | reg * 2^k + reg, for k = 1, 2, 3 */
+		LEA_SCALED,
+		/** addr: reg * (2^k + 1), for k = 1, 2, 3 */
+		LEA_MUL,
+		/** reg: imm (chain rule) */
+		LOAD_IMM,
+		/** reg: mem (chain rule) */
+		LOAD,
+		/** reg: addr (chain rule) */
+		LEA
+	}
+
+	/*
+	 * The costs of the instructions, roughly in cycles on the x86 cores of the last
+	 * decade. An operand in memory adds a load to an instruction.
+	 */
+	static final int MOVE_COST = 1;
+	static final int LOAD_COST = 2;
+	static final int ALU_COST = 1;
+	static final int MEMORY_OPERAND_COST = 1;
+	static final int LEA_COST = 1;
+	static final int SHIFT_COST = 1;
+	static final int MUL_COST = 3;
+	static final int DIV_COST = 25;
+	static final int SET_COST = 3;
+	static final int CHECK_COST = 1;
+	static final int CALL_COST = 10;
+
+	private static final int INFINITE = Integer.MAX_VALUE / 4;
+
+	/** The cheapest rule and its cost for each kind of a node. */
+	private static final class Label {
+		final int[] cost = new int[Kind.values().length];
+		final Rule[] rule = new Rule[Kind.values().length];
+
+		Label() {
+			Arrays.fill(cost, INFINITE);
+		}
+
+		int cost(Kind kind) {
+			return cost[kind.ordinal()];
+		}
+
+		Rule rule(Kind kind) {
+			return rule[kind.ordinal()];
+		}
+
+		/** Records {@code rule} for {@code kind} if it is cheaper than the current one. */
+		void offer(Kind kind, Rule rule, int cost) {
+			if (cost < this.cost[kind.ordinal()]) {
+				this.cost[kind.ordinal()] = cost;
+				this.rule[kind.ordinal()] = rule;
+			}
+		}
+	}
+
+	private final LirBuilder lir;
+	private final Map<Expr, Label> labels = new IdentityHashMap<>();
+	private final Map<Expr, Boolean> calls = new IdentityHashMap<>();
+
+	InstructionSelector(LirBuilder lir) {
+		this.lir = lir;
+	}
+
+	/**
+	 * Emits the instructions for {@code expr} and returns its value as an operand of one
+	 * of {@code kinds}, whichever is cheapest. If the value is computed into a register,
+	 * it is computed into {@code dst} unless that is {@code null}.
+	 */
+	Operand select(Expr expr, Operand dst, Kind... kinds) {
+		return reduce(expr, cheapest(expr, kinds), dst);
+	}
+
+	/** Like {@link #select(Expr, Operand, Kind...)}, with any operand but an address. */
+	Operand operand(Expr expr) {
+		return select(expr, null, Kind.REG, Kind.IMM, Kind.MEM);
+	}
+
+	/** Returns the value of {@code expr} in a register. */
+	Operand register(Expr expr) {
+		return select(expr, null, Kind.REG);
+	}
+
+	/** Whether {@code expr} contains a method call. */
+	boolean hasCall(Expr expr) {
+		Boolean result = calls.get(expr);
+		if (result == null) {
+			result = (expr instanceof MethodCallExpr);
+			for (Ast child : expr.children())
+				if (child instanceof Expr && hasCall((Expr) child))
+					result = true;
+			calls.put(expr, result);
+		}
+		return result;
+	}
+
+	private Kind cheapest(Expr expr, Kind... kinds) {
+		Label label = label(expr);
+		Kind result = null;
+		for (Kind kind : kinds)
+			if (result == null || label.cost(kind) < label.cost(result))
+				result = kind;
+		assert label.cost(result) < INFINITE : "no tile for " + AstOneLine.toString(expr);
+		return result;
+	}
+
+	/**
+	 * The cost of {@code expr} as the cheapest of {@code kinds}, where memory operands
+	 * are excluded if {@code later}, the operand evaluated after it, contains a call.
+	 */
+	private int cost(Expr expr, Expr later, Kind... kinds) {
+		Label label = label(expr);
+		int result = INFINITE;
+		for (Kind kind : kinds) {
+			if (kind == Kind.MEM && later != null && hasCall(later))
+				continue;
+			int cost = label.cost(kind) + (kind == Kind.MEM ? MEMORY_OPERAND_COST : 0);
+			result = Math.min(result, cost);
+		}
+		return result;
+	}
+
+	/** Like {@link #cheapest(Expr, Kind...)}, with the exclusion of {@link #cost}. */
+	private Kind cheapest(Expr expr, Expr later, Kind... kinds) {
+		if (later != null && hasCall(later)) {
+			Kind[] allowed = new Kind[kinds.length];
+			int n = 0;
+			for (Kind kind : kinds)
+				if (kind != Kind.MEM)
+					allowed[n++] = kind;
+			kinds = Arrays.copyOf(allowed, n);
+		}
+		return cheapest(expr, kinds);
+	}
+
+	/** The cost of a two-address instruction that overwrites its left operand. */
+	private int twoAddressCost(Expr left) {
+		// a variable in a register has to be copied first
+		Label label = label(left);
+		return label.cost(Kind.REG) + (resolve(left, Kind.REG) == Rule.VAR ? MOVE_COST : 0);
+	}
+
+	/** Follows {@link Rule#IDENTITY} to the rule that computes {@code kind}. */
+	private Rule resolve(Expr expr, Kind kind) {
+		Rule rule = label(expr).rule(kind);
+		while (rule == Rule.IDENTITY) {
+			expr = (Expr) expr.children().get(0);
+			rule = label(expr).rule(kind);
+		}
+		return rule;
+	}
+
+	private static Integer constant(Expr expr) {
+		if (expr instanceof IntConst)
+			return ((IntConst) expr).value;
+		if (expr instanceof UnaryOp && ((UnaryOp) expr).operator != UOp.U_BOOL_NOT) {
+			Integer value = constant(((UnaryOp) expr).arg());
+			if (value != null && ((UnaryOp) expr).operator == UOp.U_MINUS)
+				return -value;
+			return value;
+		}
+		return null;
+	}
+
+	/** Returns k if {@code value} is 2^k for 1 <= k <= {@code max}, else -1. */
+	private static int log2(Integer value, int max) {
+		if (value == null)
+			return -1;
+		for (int k = 1; k <= max; k++)
+			if (value == 1 << k)
+				return k;
+		return -1;
+	}
+
+	// _________________________________________________________________
+	// Labeling
+
+	private Label label(Expr expr) {
+		Label label = labels.get(expr);
+		if (label == null) {
+			label = new Label();
+			labelBase(expr, label);
+			// chain rules
+			label.offer(Kind.REG, Rule.LOAD_IMM, label.cost(Kind.IMM) + MOVE_COST);
+			label.offer(Kind.REG, Rule.LOAD, label.cost(Kind.MEM) + LOAD_COST);
+			label.offer(Kind.REG, Rule.LEA, label.cost(Kind.ADDR) + LEA_COST);
+			labels.put(expr, label);
+		}
+		return label;
+	}
+
+	private void labelBase(Expr expr, Label label) {
+		if (expr instanceof IntConst || expr instanceof BooleanConst || expr instanceof NullConst) {
+			label.offer(Kind.IMM, Rule.CONST, 0);
+		} else if (expr instanceof Var || expr instanceof ThisRef) {
+			boolean inMemory = lir.variable(expr).isMemory();
+			label.offer(inMemory ? Kind.MEM : Kind.REG, Rule.VAR, 0);
+		} else if (expr instanceof Field) {
+			Expr obj = ((Field) expr).arg();
+			label.offer(Kind.MEM, Rule.FIELD, label(obj).cost(Kind.REG) + CHECK_COST);
+		} else if (expr instanceof Index) {
+			Index index = (Index) expr;
+			int array = label(index.left()).cost(Kind.REG) + CHECK_COST;
+			if (index.inBounds && constant(index.right()) != null)
+				label.offer(Kind.MEM, Rule.INDEX_CONST, array);
+			label.offer(Kind.MEM, Rule.INDEX, array + label(index.right()).cost(Kind.REG)
+					+ (index.inBounds ? 0 : CHECK_COST));
+		} else if (expr instanceof BinaryOp) {
+			labelBinaryOp((BinaryOp) expr, label);
+		} else if (expr instanceof UnaryOp) {
+			UnaryOp unary = (UnaryOp) expr;
+			Label arg = label(unary.arg());
+			if (unary.operator == UOp.U_PLUS) {
+				for (Kind kind : Kind.values())
+					label.offer(kind, Rule.IDENTITY, arg.cost(kind));
+			} else {
+				if (unary.operator == UOp.U_MINUS)
+					label.offer(Kind.IMM, Rule.NEG_CONST, arg.cost(Kind.IMM));
+				label.offer(Kind.REG, Rule.UNARY,
+						cost(unary.arg(), null, Kind.REG, Kind.MEM) + MOVE_COST + ALU_COST);
+			}
+		} else if (expr instanceof Cast) {
+			Cast cast = (Cast) expr;
+			Label arg = label(cast.arg());
+			if (cast.type.isSuperTypeOf(cast.arg().type)) {
+				for (Kind kind : Kind.values())
+					label.offer(kind, Rule.IDENTITY, arg.cost(kind));
+			} else {
+				label.offer(Kind.REG, Rule.CAST, arg.cost(Kind.REG) + 4 * CHECK_COST);
+			}
+		} else if (expr instanceof MethodCallExpr || expr instanceof BuiltInRead
+				|| expr instanceof NewObject || expr instanceof NewArray) {
+			label.offer(Kind.REG, Rule.CALL, CALL_COST);
+		} else {
+			throw new RuntimeException("Unexpected expression " + AstOneLine.toString(expr));
+		}
+	}
+
+	private void labelBinaryOp(BinaryOp bin, Label label) {
+		Expr left = bin.left(), right = bin.right();
+		Label l = label(left), r = label(right);
+		Integer lc = constant(left), rc = constant(right);
+		int rmi = cost(right, null, Kind.REG, Kind.MEM, Kind.IMM);
+
+		switch (bin.operator) {
+		case B_PLUS:
+			label.offer(Kind.ADDR, Rule.LEA_DISP, l.cost(Kind.REG) + r.cost(Kind.IMM));
+			label.offer(Kind.ADDR, Rule.LEA_DISP, l.cost(Kind.IMM) + r.cost(Kind.REG));
+			label.offer(Kind.ADDR, Rule.LEA_INDEX, l.cost(Kind.REG) + r.cost(Kind.REG));
+			if (isScaled(right))
+				label.offer(Kind.ADDR, Rule.LEA_SCALED, l.cost(Kind.REG) + scaledCost(right));
+			if (isScaled(left))
+				label.offer(Kind.ADDR, Rule.LEA_SCALED, scaledCost(left) + r.cost(Kind.REG));
+			offerCommutative(left, right, label, ALU_COST);
+			break;
+		case B_AND: case B_OR:
+			offerCommutative(left, right, label, ALU_COST);
+			break;
+		case B_MINUS:
+			label.offer(Kind.ADDR, Rule.LEA_DISP, l.cost(Kind.REG) + r.cost(Kind.IMM));
+			label.offer(Kind.REG, Rule.ALU, twoAddressCost(left) + rmi + ALU_COST);
+			break;
+		case B_TIMES:
+			if (log2(rc, 30) > 0)
+				label.offer(Kind.REG, Rule.SHIFT, twoAddressCost(left) + SHIFT_COST);
+			if (log2(lc, 30) > 0)
+				label.offer(Kind.REG, Rule.SHIFT, twoAddressCost(right) + SHIFT_COST);
+			if (log2(rc == null ? null : rc - 1, 3) > 0)
+				label.offer(Kind.ADDR, Rule.LEA_MUL, l.cost(Kind.REG));
+			if (rc != null)
+				label.offer(Kind.REG, Rule.MUL_IMM, cost(left, null, Kind.REG, Kind.MEM) + MUL_COST);
+			if (lc != null)
+				label.offer(Kind.REG, Rule.MUL_IMM, cost(right, null, Kind.REG, Kind.MEM) + MUL_COST);
+			offerCommutative(left, right, label, MUL_COST);
+			break;
+		case B_DIV: case B_MOD:
+			label.offer(Kind.REG, Rule.DIV, cost(left, right, Kind.REG, Kind.MEM, Kind.IMM)
+					+ rmi + CHECK_COST + DIV_COST);
+			break;
+		default:
+			label.offer(Kind.REG, Rule.SET, cost(left, right, Kind.REG, Kind.MEM, Kind.IMM)
+					+ rmi + SET_COST);
+			break;
+		}
+	}
+
+	/**
+	 * Offers the two-address tiles of a commutative operator whose instruction costs
+	 * {@code opCost}: computing into the register of either operand.
+	 */
+	private void offerCommutative(Expr left, Expr right, Label label, int opCost) {
+		label.offer(Kind.REG, Rule.ALU,
+				twoAddressCost(left) + cost(right, null, Kind.REG, Kind.MEM, Kind.IMM) + opCost);
+		label.offer(Kind.REG, Rule.ALU_SWAPPED,
+				cost(left, right, Kind.REG, Kind.MEM, Kind.IMM) + twoAddressCost(right) + opCost);
+	}
+
+	/** Whether {@code expr} is {@code reg * 2^k} for an index scale 2^k of x86. */
+	private boolean isScaled(Expr expr) {
+		return expr instanceof BinaryOp && ((BinaryOp) expr).operator == BOp.B_TIMES
+				&& log2(constant(((BinaryOp) expr).right()), 3) > 0;
+	}
+
+	private int scaledCost(Expr expr) {
+		return label(((BinaryOp) expr).left()).cost(Kind.REG);
+	}
+
+	// _________________________________________________________________
+	// Reduction
+
+	/** Emits the tile of {@code expr} for {@code kind} and its children. */
+	private Operand reduce(Expr expr, Kind kind, Operand dst) {
+		Rule rule = label(expr).rule(kind);
+		assert rule != null : "no " + kind + " tile for " + AstOneLine.toString(expr);
+		switch (rule) {
+		case CONST:
+			if (expr instanceof IntConst)
+				return new Immediate(((IntConst) expr).value);
+			if (expr instanceof BooleanConst)
+				return new Immediate(((BooleanConst) expr).value ? 1 : 0);
+			return new Immediate(0);
+		case NEG_CONST:
+			return new Immediate(-((Immediate) reduce(((UnaryOp) expr).arg(), Kind.IMM, null)).value);
+		case VAR:
+			return lir.variable(expr);
+		case FIELD:
+			return lir.fieldOf((Field) expr);
+		case INDEX:
+			return lir.elementOf((Index) expr);
+		case INDEX_CONST: {
+			Index index = (Index) expr;
+			Operand array = lir.arrayOf(index);
+			int element = ((Immediate) reduce(index.right(), Kind.IMM, null)).value;
+			return new Memory(array, 2 * SIZEOF_PTR + element * SIZEOF_PTR);
+		}
+		case ALU: case ALU_SWAPPED: {
+			BinaryOp bin = (BinaryOp) expr;
+			Operand a, b;
+			if (rule == Rule.ALU) {
+				a = reduce(bin.left(), Kind.REG, null);
+				b = select(bin.right(), null, Kind.REG, Kind.MEM, Kind.IMM);
+			} else {
+				b = reduce(bin.left(), cheapest(bin.left(), bin.right(), Kind.REG, Kind.MEM, Kind.IMM), null);
+				a = reduce(bin.right(), Kind.REG, null);
+			}
+			return compute(aluOp(bin.operator), dst, a, b);
+		}
+		case MUL_IMM: {
+			BinaryOp bin = (BinaryOp) expr;
+			Operand a, b;
+			if (constant(bin.right()) != null) {
+				a = select(bin.left(), null, Kind.REG, Kind.MEM);
+				b = reduce(bin.right(), Kind.IMM, null);
+			} else {
+				b = reduce(bin.left(), Kind.IMM, null);
+				a = select(bin.right(), null, Kind.REG, Kind.MEM);
+			}
+			return compute(Op.MUL, dst, a, b);
+		}
+		case SHIFT: {
+			BinaryOp bin = (BinaryOp) expr;
+			Operand a;
+			int k;
+			if (log2(constant(bin.right()), 30) > 0) {
+				a = reduce(bin.left(), Kind.REG, null);
+				k = log2(constant(bin.right()), 30);
+			} else {
+				k = log2(constant(bin.left()), 30);
+				a = reduce(bin.right(), Kind.REG, null);
+			}
+			return compute(Op.SHL, dst, a, new Immediate(k));
+		}
+		case DIV: {
+			BinaryOp bin = (BinaryOp) expr;
+			Operand a = reduce(bin.left(),
+					cheapest(bin.left(), bin.right(), Kind.REG, Kind.MEM, Kind.IMM), null);
+			Operand b = select(bin.right(), null, Kind.REG, Kind.MEM, Kind.IMM);
+			if (!(b instanceof Immediate) || ((Immediate) b).value == 0)
+				lir.add(new Instr(Op.CHECK_NONZERO, b));
+			return compute(bin.operator == BOp.B_DIV ? Op.DIV : Op.MOD, dst, a, b);
+		}
+		case SET: {
+			BinaryOp bin = (BinaryOp) expr;
+			Operand a = reduce(bin.left(),
+					cheapest(bin.left(), bin.right(), Kind.REG, Kind.MEM, Kind.IMM), null);
+			Operand b = select(bin.right(), null, Kind.REG, Kind.MEM, Kind.IMM);
+			VirtualRegister reg = lir.newRegister();
+			reg.byteRegister = true;
+			Instr set = lir.add(Instr.compare(Op.SET, LirBuilder.condition(bin.operator), reg, a, b));
+			set.wide = bin.left().type.isReferenceType();
+			return reg;
+		}
+		case UNARY: {
+			UnaryOp unary = (UnaryOp) expr;
+			Operand a = select(unary.arg(), null, Kind.REG, Kind.MEM);
+			return compute(unary.operator == UOp.U_MINUS ? Op.NEG : Op.NOT, dst, a);
+		}
+		case CAST:
+			return lir.cast((Cast) expr, reduce(((Cast) expr).arg(), Kind.REG, null));
+		case IDENTITY:
+			return reduce((Expr) expr.children().get(0), kind, dst);
+		case CALL:
+			return lir.call(expr, dst);
+		case LEA_DISP: {
+			BinaryOp bin = (BinaryOp) expr;
+			Label l = label(bin.left());
+			if (bin.operator == BOp.B_PLUS && l.cost(Kind.IMM) < INFINITE) {
+				int disp = ((Immediate) reduce(bin.left(), Kind.IMM, null)).value;
+				return new Memory(reduce(bin.right(), Kind.REG, null), disp);
+			}
+			Operand base = reduce(bin.left(), Kind.REG, null);
+			int disp = ((Immediate) reduce(bin.right(), Kind.IMM, null)).value;
+			return new Memory(base, bin.operator == BOp.B_PLUS ? disp : -disp);
+		}
+		case LEA_INDEX: {
+			BinaryOp bin = (BinaryOp) expr;
+			Operand base = reduce(bin.left(), Kind.REG, null);
+			return new Memory(base, reduce(bin.right(), Kind.REG, null), 1, 0);
+		}
+		case LEA_SCALED: {
+			BinaryOp bin = (BinaryOp) expr;
+			if (isScaled(bin.right()) && label(bin.left()).cost(Kind.REG) + scaledCost(bin.right())
+					== label(expr).cost(Kind.ADDR)) {
+				Operand base = reduce(bin.left(), Kind.REG, null);
+				BinaryOp mul = (BinaryOp) bin.right();
+				Operand index = reduce(mul.left(), Kind.REG, null);
+				return new Memory(base, index, constant(mul.right()), 0);
+			}
+			BinaryOp mul = (BinaryOp) bin.left();
+			Operand index = reduce(mul.left(), Kind.REG, null);
+			Operand base = reduce(bin.right(), Kind.REG, null);
+			return new Memory(base, index, constant(mul.right()), 0);
+		}
+		case LEA_MUL: {
+			BinaryOp bin = (BinaryOp) expr;
+			Operand reg = reduce(bin.left(), Kind.REG, null);
+			return new Memory(reg, reg, constant(bin.right()) - 1, 0);
+		}
+		case LOAD_IMM:
+			return compute(Op.MOVE, dst, reduce(expr, Kind.IMM, null));
+		case LOAD: {
+			Operand mem = reduce(expr, Kind.MEM, null);
+			return compute(mem instanceof Memory ? Op.LOAD : Op.MOVE, dst, mem);
+		}
+		case LEA:
+			return compute(Op.LEA, dst, reduce(expr, Kind.ADDR, null));
+		default:
+			throw new RuntimeException("Unexpected rule " + rule);
+		}
+	}
+
+	private static Op aluOp(BOp op) {
+		switch (op) {
+		case B_PLUS:
+			return Op.ADD;
+		case B_MINUS:
+			return Op.SUB;
+		case B_TIMES:
+			return Op.MUL;
+		case B_AND:
+			return Op.AND;
+		default:
+			return Op.OR;
+		}
+	}
+
+	/** Adds {@code op} with {@code dst}, or a fresh register, as its result. */
+	private Operand compute(Op op, Operand dst, Operand... args) {
+		if (dst == null)
+			dst = lir.newRegister();
+		Operand[] operands = new Operand[args.length + 1];
+		operands[0] = dst;
+		System.arraycopy(args, 0, operands, 1, args.length);
+		lir.add(new Instr(op, operands));
+		return dst;
+	}
+}
@@ -0,0 +1,239 @@
+package cd.backend.codegen;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.backend.codegen.RegisterManager.Register;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.Stmt;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.ir.Symbol.VariableSymbol;
+import cd.transform.analysis.LivenessAnalysis;
+
+/**
+ * Linear-scan register allocator for the locals, parameters and the
+ * {@code this} pointer of a single method.
+ *
+ * <p>
+ * The blocks of the {@link ControlFlowGraph} are numbered in the order in
+ * which the code generator emits them. Every block gets an entry position,
+ * one position per statement and an exit position (for its condition or
+ * jump). The live interval of a variable is the hull of all positions where
+ * it is live or referenced, so two variables whose intervals do not overlap
+ * are never live at the same time and may share a register.
+ *
+ * <p>
+ * Variables are kept in the callee-saved registers
+ * {@link RegisterManager#CALLEE_SAVE}, which the method prologue saves anyway
+ * and which survive calls to other methods and runtime helpers. When there
+ * are more overlapping intervals than registers, the interval with the
+ * lowest spill cost stays on the stack. The spill cost of a variable is the
+ * number of references to it, where each reference counts ten times more for
+ * every loop it is nested in.
+ */
+class LinearScanAllocator {
+
+	/** Registers that may hold variables. */
+	static final Register[] ALLOCATABLE = RegisterManager.CALLEE_SAVE;
+
+	private final MethodDecl mdecl;
+	private final ControlFlowGraph cfg;
+
+	private final Map<VariableSymbol, Register> assignment = new HashMap<>();
+	private final Set<VariableSymbol> liveOnEntry = new LinkedHashSet<>();
+
+	private LivenessAnalysis liveness;
+
+	/** Loop nesting depth of each block, indexed by {@link BasicBlock#index}. */
+	private int[] loopDepth;
+
+	private final Map<VariableSymbol, Interval> intervals = new LinkedHashMap<>();
+
+	LinearScanAllocator(MethodDecl mdecl) {
+		this.mdecl = mdecl;
+		this.cfg = mdecl.cfg;
+		computeLiveness();
+		cfg.computeDominators();
+		loopDepth = cfg.loopDepths();
+		buildIntervals();
+		allocate();
+	}
+
+	/**
+	 * Returns the register assigned to {@code sym}, or {@code null} if the
+	 * variable lives in its stack slot.
+	 */
+	Register registerOf(VariableSymbol sym) {
+		return assignment.get(sym);
+	}
+
+	/**
+	 * Returns the register holding the {@code this} pointer, or {@code null}.
+	 */
+	Register thisRegister() {
+		return assignment.get(thisSymbol());
+	}
+
+	/** Returns the set of registers used for at least one variable. */
+	Set<Register> usedRegisters() {
+		return new LinkedHashSet<>(assignment.values());
+	}
+
+	/**
+	 * Returns the variables whose value on method entry is observable, i.e.
+	 * which have to be initialized by the method prologue.
+	 */
+	Set<VariableSymbol> liveOnEntry() {
+		return Collections.unmodifiableSet(liveOnEntry);
+	}
+
+	VariableSymbol thisSymbol() {
+		return mdecl.sym.owner.thisSymbol;
+	}
+
+	// _________________________________________________________________
+	// Liveness
+
+	private void computeLiveness() {
+		liveness = new LivenessAnalysis(mdecl);
+		liveOnEntry.addAll(liveness.liveIn(cfg.start));
+	}
+
+	// _________________________________________________________________
+	// Intervals
+
+	private static class Interval {
+		final VariableSymbol sym;
+		int start = Integer.MAX_VALUE;
+		int end = Integer.MIN_VALUE;
+		double weight;
+		Register reg;
+
+		Interval(VariableSymbol sym) {
+			this.sym = sym;
+		}
+
+		void cover(int pos) {
+			start = Math.min(start, pos);
+			end = Math.max(end, pos);
+		}
+	}
+
+	private Interval interval(VariableSymbol sym) {
+		Interval result = intervals.get(sym);
+		if (result == null) {
+			result = new Interval(sym);
+			intervals.put(sym, result);
+		}
+		return result;
+	}
+
+	private void coverAll(Collection<VariableSymbol> syms, int pos) {
+		for (VariableSymbol sym : syms)
+			interval(sym).cover(pos);
+	}
+
+	private void buildIntervals() {
+		int pos = 0;
+		for (BasicBlock blk : cfg.allBlocks) {
+			double weight = Math.pow(10, Math.min(loopDepth[blk.index], 6));
+
+			// The positions of the block: entry, statements, exit.
+			int entry = pos++;
+			int first = pos;
+			pos += blk.stmts.size();
+			int exit = pos++;
+
+			coverAll(liveness.liveIn(blk), entry);
+
+			Set<VariableSymbol> live = new HashSet<>(liveness.liveOut(blk));
+			coverAll(live, exit);
+			Set<VariableSymbol> condUses = liveness.usesOf(blk.condition);
+			coverAll(condUses, exit);
+			weigh(condUses, weight);
+			live.addAll(condUses);
+
+			for (int i = blk.stmts.size() - 1; i >= 0; i--) {
+				Stmt stmt = blk.stmts.get(i);
+				int stmtPos = first + i;
+				coverAll(live, stmtPos); // live after
+				VariableSymbol d = liveness.defOf(stmt);
+				Set<VariableSymbol> u = liveness.usesOf(stmt);
+				if (d != null) {
+					live.remove(d);
+					interval(d).cover(stmtPos);
+					interval(d).weight += weight;
+				}
+				live.addAll(u);
+				coverAll(u, stmtPos);
+				weigh(u, weight);
+			}
+		}
+	}
+
+	private void weigh(Set<VariableSymbol> syms, double weight) {
+		for (VariableSymbol sym : syms)
+			interval(sym).weight += weight;
+	}
+
+	// _________________________________________________________________
+	// Allocation
+
+	private void allocate() {
+		List<Interval> sorted = new ArrayList<>(intervals.values());
+		Collections.sort(sorted, new Comparator<Interval>() {
+			public int compare(Interval a, Interval b) {
+				return Integer.compare(a.start, b.start);
+			}
+		});
+
+		List<Register> free = new ArrayList<>();
+		for (int i = ALLOCATABLE.length - 1; i >= 0; i--)
+			free.add(ALLOCATABLE[i]);
+		List<Interval> active = new ArrayList<>();
+
+		for (Interval current : sorted) {
+			// Expire intervals that ended before the current one starts:
+			for (int i = active.size() - 1; i >= 0; i--) {
+				Interval act = active.get(i);
+				if (act.end < current.start) {
+					active.remove(i);
+					free.add(act.reg);
+				}
+			}
+
+			if (!free.isEmpty()) {
+				current.reg = free.remove(free.size() - 1);
+				active.add(current);
+				continue;
+			}
+
+			// No register left: spill whichever of the active intervals and
+			// the current one is the cheapest to keep in memory.
+			Interval cheapest = current;
+			for (Interval act : active)
+				if (act.weight < cheapest.weight)
+					cheapest = act;
+			if (cheapest != current) {
+				current.reg = cheapest.reg;
+				cheapest.reg = null;
+				active.remove(cheapest);
+				active.add(current);
+			}
+		}
+
+		for (Interval interval : sorted)
+			if (interval.reg != null)
+				assignment.put(interval.sym, interval.reg);
+	}
+}
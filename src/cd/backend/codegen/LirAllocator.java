@@ -0,0 +1,581 @@
+package cd.backend.codegen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.Config;
+import cd.backend.codegen.RegisterManager.Register;
+import cd.backend.lir.Instr;
+import cd.backend.lir.Instr.Op;
+import cd.backend.lir.Operand;
+import cd.backend.lir.Operand.Address;
+import cd.backend.lir.Operand.Immediate;
+import cd.backend.lir.Operand.Memory;
+import cd.backend.lir.Operand.SpillSlot;
+import cd.backend.lir.Operand.Variable;
+import cd.backend.lir.Operand.VirtualRegister;
+
+/**
+ * Prepares the {@link Instr LIR} of a method for the {@link LirEmitter}: rewrites the
+ * instructions whose operands x86 cannot encode, and assigns a register to every
+ * {@link VirtualRegister}.
+ * <p>
+ * The operand constraints are those of the two-address x86 instructions each LIR
+ * instruction is emitted as: no instruction may have two memory operands, the first
+ * operand of a comparison cannot be a constant, {@code idivl} cannot divide by a
+ * constant, {@code setcc} needs a byte register, and so on. An operand that violates them
+ * is computed into a fresh virtual register first.
+ * <p>
+ * The virtual registers are allocated by linear scan over the instructions. Since they
+ * only hold the temporaries of a statement or condition, each one is live from its first
+ * to its last occurrence. Every instruction has two positions, one where it reads its
+ * operands and a later one where it writes its result, so the result may share the
+ * register of an operand. A register is not assigned to a virtual register that is live
+ * across an instruction which overwrites it, e.g. a caller-save register across a call.
+ * When no register is left, the virtual register whose interval ends last is spilled: it
+ * is kept in a {@link SpillSlot} and loaded into a short-lived virtual register before
+ * each use, unless the instruction can read the slot directly, and stored from one after
+ * each definition. Then the allocation starts over.
+ * <p>
+ * On x86-64, the first arguments of a call are moved into the argument registers right
+ * before it, so they cannot hold the registers that the call still reads afterwards: those
+ * of the target and of arguments in memory. An argument that is a register is preferably
+ * computed into its argument register in the first place.
+ */
+class LirAllocator {
+
+	/** Registers overwritten by the instructions that call the runtime or divide. */
+	private static final Set<Register> CALL_CLOBBERS = EnumSet.copyOf(Arrays.asList(RegisterManager.CALLER_SAVE));
+	private static final Set<Register> DIV_CLOBBERS = EnumSet.of(Register.EAX, Register.EDX);
+	private static final Set<Register> ARGUMENT_REGS = EnumSet.copyOf(Arrays.asList(RegisterManager.ARGUMENT_REGS));
+
+	private static final boolean X86_64 = (Config.TARGET == Config.Target.X86_64);
+
+	/** The registers for virtual registers, in the order in which they are preferred. */
+	private final List<Register> registers = new ArrayList<>();
+
+	private List<Instr> code;
+	private int nextRegister;
+	private int spillSlots;
+
+	private final Map<VirtualRegister, Register> assignment = new HashMap<>();
+
+	/**
+	 * @param reserved the registers that hold variables and are not available for
+	 *                 virtual registers
+	 */
+	LirAllocator(List<Instr> code, Collection<Register> reserved) {
+		for (Register reg : RegisterManager.CALLER_SAVE)
+			registers.add(reg);
+		for (Register reg : RegisterManager.CALLEE_SAVE)
+			if (!reserved.contains(reg))
+				registers.add(reg);
+
+		this.code = code;
+		for (Instr instr : code)
+			for (VirtualRegister reg : instr.registers())
+				nextRegister = Math.max(nextRegister, reg.id + 1);
+
+		legalize();
+		while (!allocate())
+			continue;
+	}
+
+	/** The instructions, rewritten to satisfy the operand constraints and to spill. */
+	List<Instr> code() {
+		return code;
+	}
+
+	Register registerOf(VirtualRegister reg) {
+		Register result = assignment.get(reg);
+		assert result != null : "no register for " + reg;
+		return result;
+	}
+
+	/** The registers assigned to at least one virtual register. */
+	Set<Register> usedRegisters() {
+		Set<Register> result = EnumSet.noneOf(Register.class);
+		result.addAll(assignment.values());
+		return result;
+	}
+
+	/** The number of spill slots used. */
+	int spillSlots() {
+		return spillSlots;
+	}
+
+	private VirtualRegister newRegister() {
+		return new VirtualRegister(nextRegister++);
+	}
+
+	private static boolean isConstant(Operand operand) {
+		return operand instanceof Immediate || operand instanceof Address;
+	}
+
+	/**
+	 * Whether {@code operand} is a negative constant, which x86-64 sign-extends when it
+	 * writes it to memory, while the {@link LirEmitter} keeps the upper half of every
+	 * {@code int} clear.
+	 */
+	private static boolean signExtended(Operand operand) {
+		return X86_64 && operand instanceof Immediate && ((Immediate) operand).value < 0;
+	}
+
+	/** Whether {@code operand} is a register, virtual or holding a variable. */
+	private static boolean isRegister(Operand operand) {
+		return operand instanceof VirtualRegister
+				|| (operand instanceof Variable && !operand.isMemory());
+	}
+
+	// _________________________________________________________________
+	// Operand constraints
+
+	private void legalize() {
+		List<Instr> result = new ArrayList<>(code.size());
+		for (Instr instr : code)
+			legalize(instr, result);
+		code = result;
+	}
+
+	/** Adds {@code instr} to {@code out}, preceded and followed by the moves it needs. */
+	private void legalize(Instr instr, List<Instr> out) {
+		Operand[] ops = instr.operands.clone();
+		Instr.Condition cond = instr.cond;
+		boolean viaRegister = false; // compute into a register, then move to ops[0]
+
+		switch (instr.op) {
+		case MOVE:
+			if (ops[0].isMemory() && (ops[1].isMemory() || signExtended(ops[1])))
+				ops[1] = load(ops[1], out);
+			break;
+		case STORE:
+			if (ops[1].isMemory() || signExtended(ops[1]))
+				ops[1] = load(ops[1], out);
+			break;
+		case MUL:
+			if (isConstant(ops[1]) && !isConstant(ops[2])) {
+				Operand tmp = ops[1];
+				ops[1] = ops[2];
+				ops[2] = tmp;
+			}
+			if (ops[2] instanceof Immediate) {
+				// imull $b, a, dst
+				if (isConstant(ops[1]))
+					ops[1] = load(ops[1], out);
+				viaRegister = !isRegister(ops[0]);
+				break;
+			}
+			// imull b, dst cannot write memory
+			viaRegister = !isRegister(ops[0]) || twoAddressViaRegister(ops);
+			break;
+		case ADD: case SUB: case AND: case OR: case SHL:
+			viaRegister = twoAddressViaRegister(ops);
+			break;
+		case NEG: case NOT:
+			viaRegister = !isRegister(ops[0]) && !ops[1].equals(ops[0]);
+			break;
+		case LOAD: case LEA:
+			viaRegister = !isRegister(ops[0]);
+			break;
+		case DIV: case MOD:
+			if (isConstant(ops[2]))
+				ops[2] = load(ops[2], out);
+			viaRegister = ops[0].isMemory();
+			break;
+		case SET:
+			viaRegister = !(ops[0] instanceof VirtualRegister);
+			cond = legalizeComparison(ops, 1, cond, out);
+			break;
+		case BRANCH:
+			cond = legalizeComparison(ops, 0, cond, out);
+			break;
+		case CHECK_NULL: case CHECK_NONZERO: case CHECK_SIZE:
+			if (isConstant(ops[0]))
+				ops[0] = load(ops[0], out);
+			break;
+		case CHECK_BOUNDS:
+			for (int i = 0; i < 2; i++)
+				if (!isRegister(ops[i]))
+					ops[i] = load(ops[i], out);
+			break;
+		case CHECK_CAST:
+			if (!isRegister(ops[0]))
+				ops[0] = load(ops[0], out);
+			break;
+		case CALL:
+			viaRegister = ops[0] != null && ops[0].isMemory();
+			// the arguments that do not fit in registers are pushed
+			for (int i = 2 + (X86_64 ? ARGUMENT_REGS.size() : 0); i < ops.length; i++)
+				if (signExtended(ops[i]))
+					ops[i] = load(ops[i], out);
+			break;
+		default:
+			break;
+		}
+
+		Operand dst = null;
+		if (viaRegister) {
+			dst = ops[0];
+			VirtualRegister reg = newRegister();
+			reg.byteRegister = (instr.op == Op.SET);
+			ops[0] = reg;
+		}
+		Instr result = instr.with(ops);
+		result.cond = cond;
+		out.add(result);
+		if (dst != null)
+			out.add(new Instr(Op.MOVE, dst, ops[0]));
+	}
+
+	/**
+	 * Whether the two-address {@code op b, dst} that computes {@code ops[0] = ops[1] op
+	 * ops[2]} has to compute into a register that is then moved to {@code ops[0]}.
+	 */
+	private static boolean twoAddressViaRegister(Operand[] ops) {
+		// op b, dst with dst == a may write memory, but cannot read it
+		return !isRegister(ops[0]) && (!ops[1].equals(ops[0]) || ops[2].isMemory())
+				// movl a, dst would overwrite a register that b addresses
+				|| (ops[0] instanceof Variable && addresses(ops[2], ops[0]));
+	}
+
+	/**
+	 * Makes the comparison of {@code ops[a]} with {@code ops[a + 1]} encodable: the
+	 * constant goes second and at most one operand is memory. Returns the condition,
+	 * which is swapped together with the operands.
+	 */
+	private Instr.Condition legalizeComparison(Operand[] ops, int a, Instr.Condition cond,
+			List<Instr> out) {
+		int b = a + 1;
+		if (isConstant(ops[a]) && !isConstant(ops[b])) {
+			Operand tmp = ops[a];
+			ops[a] = ops[b];
+			ops[b] = tmp;
+			cond = cond.swap();
+		}
+		if (isConstant(ops[a]) || (ops[a].isMemory() && ops[b].isMemory()))
+			ops[a] = load(ops[a], out);
+		return cond;
+	}
+
+	/** Whether {@code operand} is memory addressed with the register {@code reg}. */
+	private static boolean addresses(Operand operand, Operand reg) {
+		if (!(operand instanceof Memory))
+			return false;
+		Memory mem = (Memory) operand;
+		return reg.equals(mem.base) || reg.equals(mem.index);
+	}
+
+	private VirtualRegister load(Operand operand, List<Instr> out) {
+		VirtualRegister reg = newRegister();
+		out.add(new Instr(Op.MOVE, reg, operand));
+		return reg;
+	}
+
+	// _________________________________________________________________
+	// Allocation
+
+	private static final class Interval {
+		final VirtualRegister reg;
+		int start = Integer.MAX_VALUE, end = -1;
+		final Set<Register> forbidden = EnumSet.noneOf(Register.class);
+		/** Virtual registers that must get a different register, e.g. for two-address code. */
+		final Set<VirtualRegister> differ = new HashSet<>();
+		/** The register that would save a move, or {@code null}. */
+		Register hint;
+		/** The instruction that first defines the register. */
+		Instr def;
+
+		Interval(VirtualRegister reg) {
+			this.reg = reg;
+		}
+
+		void add(int position) {
+			start = Math.min(start, position);
+			end = Math.max(end, position);
+		}
+
+		boolean liveAcross(int instr) {
+			return start <= 2 * instr && end >= 2 * instr + 1;
+		}
+	}
+
+	/**
+	 * Assigns registers to all virtual registers, or spills some of them and returns
+	 * {@code false}.
+	 */
+	private boolean allocate() {
+		assignment.clear();
+		Map<VirtualRegister, Interval> intervals = buildIntervals();
+
+		List<Interval> sorted = new ArrayList<>(intervals.values());
+		Collections.sort(sorted, new Comparator<Interval>() {
+			@Override
+			public int compare(Interval a, Interval b) {
+				return Integer.compare(a.start, b.start);
+			}
+		});
+
+		List<Interval> active = new ArrayList<>();
+		Set<VirtualRegister> spill = new HashSet<>();
+		for (Interval current : sorted) {
+			for (int i = active.size() - 1; i >= 0; i--)
+				if (active.get(i).end < current.start)
+					active.remove(i);
+
+			Set<Register> busy = EnumSet.noneOf(Register.class);
+			for (Interval other : active)
+				busy.add(assignment.get(other.reg));
+
+			Set<Register> excluded = excluded(current);
+			Register reg = choose(current, busy, excluded);
+			if (reg == null) {
+				// take the register of the active interval that ends last, if possible
+				Interval victim = null;
+				for (Interval other : active) {
+					Register r = assignment.get(other.reg);
+					if (!other.reg.unspillable && fits(current, r) && !excluded.contains(r)
+							&& (victim == null || other.end > victim.end))
+						victim = other;
+				}
+				if (victim != null && (current.reg.unspillable || victim.end > current.end)) {
+					spill.add(victim.reg);
+					active.remove(victim);
+					reg = assignment.remove(victim.reg);
+				} else if (!current.reg.unspillable) {
+					spill.add(current.reg);
+					continue;
+				} else {
+					throw new AssemblyFailedException("Program requires too many registers");
+				}
+			}
+			assignment.put(current.reg, reg);
+			active.add(current);
+		}
+
+		if (spill.isEmpty())
+			return true;
+		for (VirtualRegister reg : spill)
+			spill(reg);
+		return false;
+	}
+
+	private Map<VirtualRegister, Interval> buildIntervals() {
+		Map<VirtualRegister, Interval> intervals = new LinkedHashMap<>();
+		for (int i = 0; i < code.size(); i++) {
+			Instr instr = code.get(i);
+			for (VirtualRegister reg : instr.uses())
+				interval(intervals, reg).add(2 * i);
+			for (int j = 0; j < instr.operands.length; j++) {
+				if (instr.defines(j) && instr.operands[j] instanceof VirtualRegister) {
+					Interval interval = interval(intervals, (VirtualRegister) instr.operands[j]);
+					interval.add(2 * i + 1);
+					if (interval.def == null)
+						interval.def = instr;
+				}
+			}
+		}
+
+		for (int i = 0; i < code.size(); i++) {
+			Instr instr = code.get(i);
+			Set<Register> clobbers = null;
+			if (instr.op == Op.CALL)
+				clobbers = CALL_CLOBBERS;
+			else if (instr.op == Op.DIV || instr.op == Op.MOD)
+				clobbers = DIV_CLOBBERS;
+			if (clobbers != null)
+				for (Interval interval : intervals.values())
+					if (interval.liveAcross(i))
+						interval.forbidden.addAll(clobbers);
+
+			switch (instr.op) {
+			case DIV: case MOD:
+				// the divisor is read after %eax and %edx are set up
+				for (VirtualRegister reg : registersIn(instr.operands[2]))
+					intervals.get(reg).forbidden.addAll(DIV_CLOBBERS);
+				break;
+			case CALL:
+				if (!X86_64)
+					break;
+				// the argument registers are set before the call reads these
+				for (int j = 1; j < instr.operands.length; j++)
+					if (j == 1 || instr.operands[j] instanceof Memory)
+						for (VirtualRegister reg : registersIn(instr.operands[j]))
+							intervals.get(reg).forbidden.addAll(ARGUMENT_REGS);
+				for (int j = 2; j < instr.operands.length && j - 2 < ARGUMENT_REGS.size(); j++) {
+					if (instr.operands[j] instanceof VirtualRegister) {
+						Interval arg = intervals.get(instr.operands[j]);
+						if (arg.hint == null)
+							arg.hint = RegisterManager.ARGUMENT_REGS[j - 2];
+					}
+				}
+				break;
+			case ADD: case SUB: case AND: case OR: case MUL: case SHL:
+				// movl a, dst; op b, dst overwrites dst before a memory operand b is read
+				if (instr.operands[0] instanceof VirtualRegister && instr.operands[2] instanceof Memory) {
+					Interval dst = intervals.get(instr.operands[0]);
+					for (VirtualRegister reg : registersIn(instr.operands[2])) {
+						dst.differ.add(reg);
+						intervals.get(reg).differ.add(dst.reg);
+					}
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		for (Interval interval : intervals.values()) {
+			Instr def = interval.def;
+			if (def == null)
+				continue;
+			if (def.op == Op.CALL)
+				interval.hint = Register.EAX;
+			else if (def.op == Op.DIV)
+				interval.hint = Register.EAX;
+			else if (def.op == Op.MOD)
+				interval.hint = Register.EDX;
+		}
+		return intervals;
+	}
+
+	private static Interval interval(Map<VirtualRegister, Interval> intervals, VirtualRegister reg) {
+		Interval interval = intervals.get(reg);
+		if (interval == null) {
+			interval = new Interval(reg);
+			intervals.put(reg, interval);
+		}
+		return interval;
+	}
+
+	/** Returns the virtual registers that {@code operand} is or addresses memory with. */
+	private static List<VirtualRegister> registersIn(Operand operand) {
+		List<VirtualRegister> result = new ArrayList<>(2);
+		if (operand instanceof Memory) {
+			Memory mem = (Memory) operand;
+			if (mem.base instanceof VirtualRegister)
+				result.add((VirtualRegister) mem.base);
+			if (mem.index instanceof VirtualRegister)
+				result.add((VirtualRegister) mem.index);
+		} else if (operand instanceof VirtualRegister) {
+			result.add((VirtualRegister) operand);
+		}
+		return result;
+	}
+
+	/** Whether {@code reg} may hold {@code interval}, ignoring the other intervals. */
+	private static boolean fits(Interval interval, Register reg) {
+		return !interval.forbidden.contains(reg)
+				&& (!interval.reg.byteRegister || reg.hasLowByteVersion());
+	}
+
+	/** Returns the registers of the virtual registers that {@code interval} must differ from. */
+	private Set<Register> excluded(Interval interval) {
+		Set<Register> result = EnumSet.noneOf(Register.class);
+		for (VirtualRegister other : interval.differ)
+			if (assignment.containsKey(other))
+				result.add(assignment.get(other));
+		return result;
+	}
+
+	/** Returns a register for {@code interval} that is neither busy nor excluded, or {@code null}. */
+	private Register choose(Interval interval, Set<Register> busy, Set<Register> excluded) {
+
+		List<Register> candidates = new ArrayList<>();
+		Register hint = interval.hint;
+		if (hint == null && interval.def != null && interval.def.operands.length > 1
+				&& interval.def.op != Op.CALL
+				&& interval.def.operands[1] instanceof VirtualRegister) {
+			// e.g. the copy of a register, or the first operand of a two-address op
+			hint = assignment.get(interval.def.operands[1]);
+		}
+		if (hint != null)
+			candidates.add(hint);
+		candidates.addAll(registers);
+		for (Register reg : candidates)
+			if (registers.contains(reg) && !busy.contains(reg) && !excluded.contains(reg)
+					&& fits(interval, reg))
+				return reg;
+		return null;
+	}
+
+	/** Whether operand {@code i} of {@code instr} could be a {@link SpillSlot}. */
+	private static boolean allowsMemory(Instr instr, int i) {
+		Operand[] ops = instr.operands;
+		switch (instr.op) {
+		case CALL:
+			return i >= 1;
+		case RETURN: case CHECK_NULL: case CHECK_NONZERO: case CHECK_SIZE:
+			return true;
+		case MOVE:
+			return !ops[1 - i].isMemory();
+		case MUL:
+			if (ops[2] instanceof Immediate)
+				return i == 1 && isRegister(ops[0]);
+			return twoAddressAllowsMemory(ops, i);
+		case ADD: case SUB: case AND: case OR:
+			return twoAddressAllowsMemory(ops, i);
+		case DIV: case MOD:
+			return i == 2;
+		default:
+			return false;
+		}
+	}
+
+	/** Whether operand {@code i} of the two-address {@code op b, dst} could be memory. */
+	private static boolean twoAddressAllowsMemory(Operand[] ops, int i) {
+		return i == 2 && isRegister(ops[0]) && !ops[0].equals(ops[2]);
+	}
+
+	/** Keeps {@code reg} in a new spill slot. */
+	private void spill(VirtualRegister reg) {
+		SpillSlot slot = new SpillSlot(spillSlots++);
+		List<Instr> result = new ArrayList<>(code.size());
+		for (Instr instr : code) {
+			if (!instr.registers().contains(reg)) {
+				result.add(instr);
+				continue;
+			}
+			Operand[] ops = instr.operands.clone();
+			int direct = -1, occurrences = 0;
+			for (int i = 0; i < ops.length; i++) {
+				if (registersIn(ops[i]).contains(reg)) {
+					occurrences++;
+					direct = i;
+				}
+			}
+			if (occurrences == 1 && ops[direct] == reg && allowsMemory(instr, direct)) {
+				ops[direct] = slot;
+				result.add(instr.with(ops));
+				continue;
+			}
+
+			VirtualRegister tmp = newRegister();
+			tmp.unspillable = true;
+			tmp.byteRegister = reg.byteRegister;
+			Instr copy = instr.with(ops);
+			boolean used = false, defined = false;
+			for (int i = 0; i < ops.length; i++) {
+				used |= instr.uses(i) && registersIn(ops[i]).contains(reg)
+						|| ops[i] instanceof Memory && registersIn(ops[i]).contains(reg);
+				defined |= instr.defines(i) && ops[i] == reg && !(instr.op == Op.CHECK_CAST);
+			}
+			copy.replace(reg, tmp, true, true);
+			if (used)
+				result.add(new Instr(Op.LOAD, tmp, slot));
+			result.add(copy);
+			if (defined)
+				result.add(new Instr(Op.STORE, slot, tmp));
+		}
+		code = result;
+	}
+}
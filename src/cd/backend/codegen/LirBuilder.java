@@ -0,0 +1,431 @@
+package cd.backend.codegen;
+
+import static cd.Config.SIZEOF_PTR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cd.backend.codegen.InstructionSelector.Kind;
+import cd.backend.lir.Instr;
+import cd.backend.lir.Instr.Condition;
+import cd.backend.lir.Instr.Op;
+import cd.backend.lir.Operand;
+import cd.backend.lir.Operand.Address;
+import cd.backend.lir.Operand.Immediate;
+import cd.backend.lir.Operand.Memory;
+import cd.backend.lir.Operand.StackObject;
+import cd.backend.lir.Operand.Variable;
+import cd.backend.lir.Operand.VirtualRegister;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BinaryOp.BOp;
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.BuiltInRead;
+import cd.ir.Ast.BuiltInWrite;
+import cd.ir.Ast.BuiltInWriteln;
+import cd.ir.Ast.Cast;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.Field;
+import cd.ir.Ast.Index;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodCall;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.ReturnStmt;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.UnaryOp;
+import cd.ir.Ast.UnaryOp.UOp;
+import cd.ir.Ast.Var;
+import cd.ir.AstVisitor;
+import cd.ir.Symbol.ArrayTypeSymbol;
+import cd.ir.Symbol.ClassSymbol;
+import cd.ir.Symbol.PrimitiveTypeSymbol;
+import cd.ir.Symbol.VariableSymbol;
+import cd.util.debug.AstOneLine;
+
+/**
+ * Translates the statements and conditions of a method into {@link Instr LIR}. The
+ * instructions for expressions are chosen by the {@link InstructionSelector}, and
+ * operands are evaluated from left to right. An assignment of the form
+ * {@code x = x op e} to a field or an array element is translated into a single
+ * instruction that reads and writes the memory.
+ * <p>
+ * The code generator adds the statements and conditions of the blocks in the order in
+ * which it emits them, together with the labels and jumps between the blocks. Whether a
+ * pointer needs a null check is decided by {@link AstCodeGeneratorRef#needsNullCheck},
+ * from the {@link AstCodeGeneratorRef#nonNullVars} that the code generator sets before
+ * each statement and condition.
+ */
+class LirBuilder {
+
+	private final AstCodeGeneratorRef cg;
+	private final VariableSymbol thisSym;
+	private final List<Instr> code = new ArrayList<>();
+	private int registers;
+
+	private final InstructionSelector sel = new InstructionSelector(this);
+	private final StmtBuilder sb = new StmtBuilder();
+
+	LirBuilder(AstCodeGeneratorRef cg, MethodDecl mdecl) {
+		this.cg = cg;
+		this.thisSym = mdecl.sym.owner.thisSymbol;
+	}
+
+	/** The instructions built so far. */
+	List<Instr> code() {
+		return code;
+	}
+
+	VirtualRegister newRegister() {
+		return new VirtualRegister(registers++);
+	}
+
+	void label(String label) {
+		add(Instr.label(Op.LABEL, label));
+	}
+
+	void jump(String label) {
+		add(Instr.label(Op.JUMP, label));
+	}
+
+	void comment(String text) {
+		add(Instr.comment(text));
+	}
+
+	void stmt(Stmt stmt) {
+		comment(AstOneLine.toString(stmt));
+		sb.visit(stmt, null);
+	}
+
+	/**
+	 * Adds instructions that evaluate {@code cond} and jump to {@code label} if its value
+	 * is {@code ifTrue}, and fall through otherwise. A comparison branches on its flags
+	 * and {@code !} inverts the jump. Javali evaluates both operands of {@code &&} and
+	 * {@code ||}, so these only become two jumps, skipping the right operand, if it
+	 * cannot fail; otherwise the value is computed and compared with 0.
+	 */
+	void condition(Expr cond, boolean ifTrue, String label) {
+		if (cond instanceof BooleanConst) {
+			if (((BooleanConst) cond).value == ifTrue)
+				jump(label);
+			return;
+		}
+		if (cond instanceof UnaryOp && ((UnaryOp) cond).operator == UOp.U_BOOL_NOT) {
+			condition(((UnaryOp) cond).arg(), !ifTrue, label);
+			return;
+		}
+		if (cond instanceof BinaryOp) {
+			BinaryOp bin = (BinaryOp) cond;
+			Condition cc = condition(bin.operator);
+			if (cc != null) {
+				Operand left = (sel.hasCall(bin.right()) ? sel.select(bin.left(), null, Kind.REG, Kind.IMM)
+						: sel.operand(bin.left()));
+				Operand right = sel.operand(bin.right());
+				add(branch(ifTrue ? cc : cc.negate(), left, right, label)).wide =
+						bin.left().type.isReferenceType();
+				return;
+			}
+			boolean and = (bin.operator == BOp.B_AND);
+			if ((and || bin.operator == BOp.B_OR) && AstCodeGeneratorRef.cannotFail(bin.right())) {
+				if (and != ifTrue) {
+					condition(bin.left(), ifTrue, label);
+					condition(bin.right(), ifTrue, label);
+				} else {
+					String skip = cg.emit.uniqueLabel();
+					condition(bin.left(), !ifTrue, skip);
+					condition(bin.right(), ifTrue, label);
+					label(skip);
+				}
+				return;
+			}
+		}
+		Operand value = sel.operand(cond);
+		add(branch(ifTrue ? Condition.NE : Condition.EQ, value, new Immediate(0), label));
+	}
+
+	private static Instr branch(Condition cc, Operand left, Operand right, String label) {
+		Instr instr = Instr.compare(Op.BRANCH, cc, left, right);
+		instr.label = label;
+		return instr;
+	}
+
+	/** The condition of a comparison, or {@code null} for other operators. */
+	static Condition condition(BOp op) {
+		switch (op) {
+		case B_EQUAL:
+			return Condition.EQ;
+		case B_NOT_EQUAL:
+			return Condition.NE;
+		case B_LESS_THAN:
+			return Condition.LT;
+		case B_LESS_OR_EQUAL:
+			return Condition.LE;
+		case B_GREATER_THAN:
+			return Condition.GT;
+		case B_GREATER_OR_EQUAL:
+			return Condition.GE;
+		default:
+			return null;
+		}
+	}
+
+	Instr add(Instr instr) {
+		code.add(instr);
+		return instr;
+	}
+
+	/** Returns the operand of the variable or {@code this} pointer {@code expr}. */
+	Variable variable(Expr expr) {
+		return variable(expr instanceof ThisRef ? thisSym : ((Var) expr).sym);
+	}
+
+	Variable variable(VariableSymbol sym) {
+		if (sym == thisSym)
+			return new Variable(sym, cg.regAlloc == null || cg.regAlloc.thisRegister() == null);
+		return new Variable(sym, cg.registerOf(sym) == null);
+	}
+
+	private void nullCheck(Expr ptr, Operand value) {
+		if (cg.needsNullCheck(ptr))
+			add(new Instr(Op.CHECK_NULL, value));
+	}
+
+	/** Evaluates the array of {@code ast} and checks it for {@code null}. */
+	Operand arrayOf(Index ast) {
+		Operand array = sel.register(ast.left());
+		nullCheck(ast.left(), array);
+		return array;
+	}
+
+	/** Evaluates the array and index of {@code ast} and checks the access. */
+	Memory elementOf(Index ast) {
+		Operand array = arrayOf(ast);
+		Operand index = sel.register(ast.right());
+		if (!ast.inBounds)
+			add(new Instr(Op.CHECK_BOUNDS, array, index));
+		return new Memory(array, index, SIZEOF_PTR, 2 * SIZEOF_PTR);
+	}
+
+	/** Evaluates the object of {@code ast} and checks it for {@code null}. */
+	Memory fieldOf(Field ast) {
+		Operand obj = sel.register(ast.arg());
+		nullCheck(ast.arg(), obj);
+		assert ast.sym.offset != -1;
+		return new Memory(obj, ast.sym.offset);
+	}
+
+	/**
+	 * Calls the method of {@code ast} and returns the operand with its result, which is
+	 * {@code dst} unless that is {@code null}, or {@code null} for a method without
+	 * result. An argument may be a memory operand if no later argument contains a call.
+	 */
+	private Operand methodCall(MethodCallExpr ast, Operand dst) {
+		List<Expr> args = ast.allArguments();
+		Operand[] operands = new Operand[args.size() + 2];
+		Operand receiver = sel.register(args.get(0));
+		operands[2] = receiver;
+		for (int i = 1; i < args.size(); i++) {
+			boolean callLater = false;
+			for (Expr later : args.subList(i + 1, args.size()))
+				callLater |= sel.hasCall(later);
+			operands[i + 2] = (callLater ? sel.select(args.get(i), null, Kind.REG, Kind.IMM)
+					: sel.operand(args.get(i)));
+		}
+		nullCheck(args.get(0), receiver);
+
+		if (ast.sym.monomorphic) {
+			// No subclass overrides the method, so call it directly.
+			operands[1] = new Address(cg.methodLabel(ast.sym));
+		} else {
+			VirtualRegister vtable = newRegister();
+			add(new Instr(Op.LOAD, vtable, new Memory(receiver, 0)));
+			int offset = SIZEOF_PTR + ast.sym.vtableIndex * SIZEOF_PTR;
+			operands[1] = new Memory(vtable, offset);
+		}
+		if (ast.sym.returnType != PrimitiveTypeSymbol.voidType)
+			operands[0] = (dst != null ? dst : newRegister());
+		add(new Instr(Op.CALL, operands));
+		return operands[0];
+	}
+
+	/** Calls one of the runtime helpers of {@link AstCodeGeneratorRef}. */
+	private Operand callHelper(String helper, Operand dst, Operand... args) {
+		Operand[] operands = new Operand[args.length + 2];
+		operands[0] = dst;
+		operands[1] = new Address(helper);
+		System.arraycopy(args, 0, operands, 2, args.length);
+		add(new Instr(Op.CALL, operands));
+		return dst;
+	}
+
+	/**
+	 * Emits the call or allocation {@code ast} and returns the operand with its value.
+	 * The result of a call is left in {@code dst} unless that is {@code null}.
+	 */
+	Operand call(Expr ast, Operand dst) {
+		if (ast instanceof MethodCallExpr)
+			return methodCall((MethodCallExpr) ast, dst);
+		if (ast instanceof BuiltInRead)
+			return callHelper(AstCodeGeneratorRef.READ_INTEGER, dst != null ? dst : newRegister());
+		if (ast instanceof NewObject) {
+			ClassSymbol clssym = (ClassSymbol) ast.type;
+			if (((NewObject) ast).onStack)
+				return allocOnStack(ast);
+			VirtualRegister obj = newRegister();
+			callHelper(AstCodeGeneratorRef.ALLOC, obj, new Immediate(clssym.sizeof));
+			add(new Instr(Op.STORE, new Memory(obj, 0), new Address(cg.vtable(clssym))));
+			return obj;
+		}
+		NewArray newArray = (NewArray) ast;
+		ArrayTypeSymbol arrsym = (ArrayTypeSymbol) ast.type;
+		if (newArray.onStack) {
+			VirtualRegister obj = allocOnStack(ast);
+			add(new Instr(Op.STORE, new Memory(obj, SIZEOF_PTR),
+					new Immediate(((IntConst) newArray.arg()).value)));
+			return obj;
+		}
+		// Size of the array = 4 + 4 + elemsize * num elem.
+		Operand length = sel.register(newArray.arg());
+		add(new Instr(Op.CHECK_SIZE, length));
+		VirtualRegister size = newRegister();
+		add(new Instr(Op.LEA, size, new Memory(null, length, SIZEOF_PTR, 2 * SIZEOF_PTR)));
+		VirtualRegister obj = newRegister();
+		callHelper(AstCodeGeneratorRef.ALLOC, obj, size);
+		add(new Instr(Op.STORE, new Memory(obj, 0), new Address(cg.vtable(arrsym))));
+		add(new Instr(Op.STORE, new Memory(obj, SIZEOF_PTR), length));
+		return obj;
+	}
+
+	/** Checks the downcast {@code ast} of {@code obj}, and returns {@code obj}. */
+	Operand cast(Cast ast, Operand obj) {
+		VirtualRegister temp = newRegister();
+		temp.unspillable = true;
+		add(new Instr(Op.CHECK_CAST, obj, new Address(cg.vtable(ast.type)),
+				new Immediate(ast.type.depth()), temp));
+		return obj;
+	}
+
+	/**
+	 * Creates the object of {@code alloc} in the slot that was reserved for it in the
+	 * stack frame: clears it, like Javali$Alloc() would, and stores its vtable ptr. The
+	 * length of an array is left to the caller.
+	 */
+	private VirtualRegister allocOnStack(Expr alloc) {
+		int first = (alloc instanceof NewArray ? 2 : 1) * SIZEOF_PTR;
+		VirtualRegister obj = newRegister();
+		add(new Instr(Op.LEA, obj, new StackObject(alloc)));
+		for (int offset = first; offset < cg.sizeOnStack(alloc); offset += SIZEOF_PTR)
+			add(new Instr(Op.STORE, new Memory(obj, offset), new Immediate(0)));
+		add(new Instr(Op.STORE, new Memory(obj, 0), new Address(cg.vtable(alloc.type))));
+		return obj;
+	}
+
+	private class StmtBuilder extends AstVisitor<Void, Void> {
+
+		@Override
+		public Void assign(Assign ast, Void arg) {
+			Expr left = ast.left();
+			if (left instanceof Var) {
+				Variable var = variable(((Var) left).sym);
+				Operand value = sel.select(ast.right(), var, Kind.REG, Kind.IMM, Kind.MEM);
+				if (value != var)
+					add(new Instr(Op.MOVE, var, value));
+			} else if (readModifyWrite(ast)) {
+				return null;
+			} else if (left instanceof Field) {
+				Operand value = sel.select(ast.right(), null, Kind.REG, Kind.IMM);
+				add(new Instr(Op.STORE, fieldOf((Field) left), value));
+			} else if (left instanceof Index) {
+				Operand value = sel.select(ast.right(), null, Kind.REG, Kind.IMM);
+				add(new Instr(Op.STORE, elementOf((Index) left), value));
+			} else {
+				throw new RuntimeException("Store to unexpected lvalue " + left);
+			}
+			return null;
+		}
+
+		/**
+		 * Translates {@code loc = loc op e} into one instruction with the memory operand
+		 * {@code loc}, if {@code loc} is a field or an array element addressed by
+		 * variables and constants, and {@code e} contains no call that could change it.
+		 */
+		private boolean readModifyWrite(Assign ast) {
+			if (!(ast.right() instanceof BinaryOp))
+				return false;
+			BinaryOp bin = (BinaryOp) ast.right();
+			Op op;
+			switch (bin.operator) {
+			case B_PLUS:
+				op = Op.ADD;
+				break;
+			case B_MINUS:
+				op = Op.SUB;
+				break;
+			case B_AND:
+				op = Op.AND;
+				break;
+			case B_OR:
+				op = Op.OR;
+				break;
+			default:
+				return false;
+			}
+			if (!sameLocation(ast.left(), bin.left()) || sel.hasCall(bin.right()))
+				return false;
+			Memory loc = (bin.left() instanceof Field ? fieldOf((Field) bin.left())
+					: elementOf((Index) bin.left()));
+			Operand value = sel.select(bin.right(), null, Kind.REG, Kind.IMM);
+			add(new Instr(op, loc, loc, value));
+			return true;
+		}
+
+		private boolean sameLocation(Expr a, Expr b) {
+			if (a instanceof Field && b instanceof Field)
+				return ((Field) a).sym == ((Field) b).sym
+						&& sameValue(((Field) a).arg(), ((Field) b).arg());
+			if (a instanceof Index && b instanceof Index)
+				return sameValue(((Index) a).left(), ((Index) b).left())
+						&& sameValue(((Index) a).right(), ((Index) b).right());
+			return false;
+		}
+
+		/** Whether {@code a} and {@code b} are the same variable or constant. */
+		private boolean sameValue(Expr a, Expr b) {
+			if (a instanceof Var && b instanceof Var)
+				return ((Var) a).sym == ((Var) b).sym;
+			if (a instanceof IntConst && b instanceof IntConst)
+				return ((IntConst) a).value == ((IntConst) b).value;
+			return a instanceof ThisRef && b instanceof ThisRef;
+		}
+
+		@Override
+		public Void builtInWrite(BuiltInWrite ast, Void arg) {
+			callHelper(AstCodeGeneratorRef.PRINT_INTEGER, null, sel.operand(ast.arg()));
+			return null;
+		}
+
+		@Override
+		public Void builtInWriteln(BuiltInWriteln ast, Void arg) {
+			callHelper(AstCodeGeneratorRef.PRINT_NEW_LINE, null);
+			return null;
+		}
+
+		@Override
+		public Void methodCall(MethodCall ast, Void arg) {
+			LirBuilder.this.methodCall(ast.getMethodCallExpr(), null);
+			return null;
+		}
+
+		@Override
+		public Void returnStmt(ReturnStmt ast, Void arg) {
+			if (ast.arg() != null)
+				add(new Instr(Op.RETURN, sel.operand(ast.arg())));
+			else
+				add(new Instr(Op.RETURN));
+			return null;
+		}
+	}
+}
@@ -0,0 +1,364 @@
+package cd.backend.codegen;
+
+import static cd.backend.codegen.AssemblyEmitter.constant;
+import static cd.backend.codegen.AssemblyEmitter.labelAddress;
+import static cd.backend.codegen.AssemblyEmitter.ptrOp;
+import static cd.backend.codegen.AssemblyEmitter.registerOffset;
+import static cd.backend.codegen.RegisterManager.BASE_REG;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cd.Config;
+import cd.backend.ExitCode;
+import cd.backend.codegen.RegisterManager.Register;
+import cd.backend.lir.Instr;
+import cd.backend.lir.Operand;
+import cd.backend.lir.Operand.Address;
+import cd.backend.lir.Operand.Immediate;
+import cd.backend.lir.Operand.Memory;
+import cd.backend.lir.Operand.SpillSlot;
+import cd.backend.lir.Operand.StackObject;
+import cd.backend.lir.Operand.Variable;
+import cd.backend.lir.Operand.VirtualRegister;
+import cd.ir.Symbol.VariableSymbol;
+
+/**
+ * Emits the {@link Instr LIR} of a method as x86 assembly, after the
+ * {@link LirAllocator} has assigned the registers. Each instruction becomes one or a
+ * few x86 instructions; the three-address arithmetic is mapped to the two-address
+ * form by moving the first operand into the destination, unless it is there already.
+ * The frame, the calls and the failure stubs are handled by the
+ * {@link AstCodeGeneratorRef}.
+ * <p>
+ * On x86-64, an {@code int} is kept in the lower half of a register or slot, and the
+ * upper half is always clear, so that an array index can be used as a 64-bit register.
+ * Arithmetic and comparisons of {@code int}s are 32-bit instructions, which clear the
+ * upper half of a register they write; moves copy the whole register or slot, and
+ * constants are moved into registers with {@code movl}. The {@link LirAllocator} makes
+ * sure that no negative constant is written to memory, where it would be sign-extended.
+ */
+class LirEmitter {
+
+	private static final boolean X86_64 = (Config.TARGET == Config.Target.X86_64);
+
+	private final AstCodeGeneratorRef cg;
+	private final LirAllocator alloc;
+	private final VariableSymbol thisSym;
+
+	LirEmitter(AstCodeGeneratorRef cg, LirAllocator alloc, VariableSymbol thisSym) {
+		this.cg = cg;
+		this.alloc = alloc;
+		this.thisSym = thisSym;
+	}
+
+	void emit(List<Instr> code) {
+		for (Instr instr : code)
+			emit(instr);
+	}
+
+	/** Returns the register of a virtual register or of a variable kept in one. */
+	private Register register(Operand operand) {
+		if (operand instanceof Variable) {
+			VariableSymbol sym = ((Variable) operand).sym;
+			Register reg = (sym == thisSym ? cg.regAlloc.thisRegister() : cg.registerOf(sym));
+			assert reg != null : sym + " is not kept in a register";
+			return reg;
+		}
+		return alloc.registerOf((VirtualRegister) operand);
+	}
+
+	/** Returns the assembly syntax of {@code operand}. */
+	private String operand(Operand operand) {
+		if (operand instanceof VirtualRegister)
+			return register(operand).repr;
+		if (operand instanceof Immediate)
+			return constant(((Immediate) operand).value);
+		if (operand instanceof Address)
+			return labelAddress(((Address) operand).label);
+		if (operand instanceof Variable) {
+			VariableSymbol sym = ((Variable) operand).sym;
+			return (sym == thisSym ? cg.thisLocation() : cg.location(sym));
+		}
+		if (operand instanceof Memory) {
+			Memory mem = (Memory) operand;
+			if (mem.index == null)
+				return registerOffset(mem.offset, register(mem.base));
+			return String.format("%d(%s,%s,%d)", mem.offset,
+					mem.base == null ? "" : register(mem.base), register(mem.index), mem.scale);
+		}
+		if (operand instanceof SpillSlot)
+			return cg.spillSlot(((SpillSlot) operand).index);
+		if (operand instanceof StackObject)
+			return registerOffset(cg.stackObjects.get(((StackObject) operand).alloc), BASE_REG);
+		throw new RuntimeException("Unexpected operand " + operand);
+	}
+
+	/** Returns the assembly syntax of {@code operand} as an {@code int}. */
+	private String value(Operand operand) {
+		if (isRegister(operand))
+			return register(operand).repr32;
+		return operand(operand);
+	}
+
+	private static boolean isRegister(Operand operand) {
+		return operand instanceof VirtualRegister
+				|| (operand instanceof Variable && !operand.isMemory());
+	}
+
+	private static boolean isConstant(Operand operand) {
+		return operand instanceof Immediate || operand instanceof Address;
+	}
+
+	/** Copies {@code src} to {@code dst}, as wide as a pointer. */
+	private void move(Operand src, Operand dst) {
+		if (isRegister(dst))
+			move(src, register(dst));
+		else
+			cg.emit.emitMove(operand(src), operand(dst));
+	}
+
+	private void move(Operand src, Register dst) {
+		if (X86_64 && isConstant(src))
+			cg.emit.emit("movl", operand(src), dst.repr32);
+		else
+			cg.emit.emitMove(operand(src), dst);
+	}
+
+	/** Copies the {@code int} {@code src} to {@code dst}. */
+	private void moveInt(String src, String dst) {
+		if (!src.equals(dst))
+			cg.emit.emit("movl", src, dst);
+	}
+
+	/** Compares {@code a} with {@code b}, as pointers if {@code wide}. */
+	private void compare(boolean wide, Operand a, Operand b) {
+		if (wide)
+			cg.emit.emit(ptrOp("cmp"), operand(b), operand(a));
+		else
+			cg.emit.emit("cmpl", value(b), value(a));
+	}
+
+	private void emit(Instr instr) {
+		Operand[] ops = instr.operands;
+		switch (instr.op) {
+		case COMMENT:
+			cg.emit.emitComment(instr.text);
+			break;
+		case LABEL:
+			cg.emit.emitLabel(instr.label);
+			break;
+		case JUMP:
+			cg.emit.emit("jmp", instr.label);
+			break;
+		case BRANCH:
+			compare(instr.wide, ops[0], ops[1]);
+			cg.emit.emit("j" + instr.cond.cc, instr.label);
+			break;
+		case MOVE: case LOAD: case STORE:
+			move(ops[1], ops[0]);
+			break;
+		case LEA:
+			if (ops[1] instanceof StackObject)
+				cg.emit.emit(ptrOp("lea"), operand(ops[1]), operand(ops[0]));
+			else
+				cg.emit.emit("leal", operand(ops[1]), value(ops[0]));
+			break;
+		case ADD:
+			twoAddress("addl", true, ops);
+			break;
+		case SUB:
+			twoAddress("subl", false, ops);
+			break;
+		case MUL:
+			if (ops[2] instanceof Immediate)
+				cg.emit.emit("imull", value(ops[2]), value(ops[1]), value(ops[0]));
+			else
+				twoAddress("imull", true, ops);
+			break;
+		case SHL:
+			twoAddress("sall", false, ops);
+			break;
+		case AND:
+			twoAddress("andl", true, ops);
+			break;
+		case OR:
+			twoAddress("orl", true, ops);
+			break;
+		case DIV: case MOD:
+			moveInt(value(ops[1]), Register.EAX.repr32);
+			cg.emit.emitRaw("cltd"); // sign-extend %eax into %edx
+			cg.emit.emit("idivl", value(ops[2]));
+			moveInt((instr.op == Instr.Op.DIV ? Register.EAX : Register.EDX).repr32,
+					value(ops[0]));
+			break;
+		case NEG:
+			moveInt(value(ops[1]), value(ops[0]));
+			cg.emit.emit("negl", value(ops[0]));
+			break;
+		case NOT:
+			moveInt(value(ops[1]), value(ops[0]));
+			cg.emit.emit("xorl", constant(1), value(ops[0]));
+			break;
+		case SET: {
+			Register dst = register(ops[0]);
+			compare(instr.wide, ops[1], ops[2]);
+			cg.emit.emit("set" + instr.cond.cc, dst.lowByteVersion().repr);
+			cg.emit.emit("movzbl", dst.lowByteVersion().repr, dst.repr32);
+			break;
+		}
+		case CALL:
+			call(ops);
+			break;
+		case RETURN:
+			if (ops.length > 0) {
+				move(ops[0], Register.EAX);
+				cg.emitMethodSuffix(false);
+			} else {
+				cg.emitMethodSuffix(true);
+			}
+			break;
+		case CHECK_NULL:
+			cg.emit.emit(ptrOp("cmp"), constant(0), operand(ops[0]));
+			cg.emit.emit("je", cg.failureStub(ExitCode.NULL_POINTER));
+			break;
+		case CHECK_NONZERO:
+			check(ops[0], "je", ExitCode.DIVISION_BY_ZERO);
+			break;
+		case CHECK_SIZE:
+			check(ops[0], "jl", ExitCode.INVALID_ARRAY_SIZE);
+			break;
+		case CHECK_BOUNDS:
+			cg.emitBoundsCheck(register(ops[0]), register(ops[1]));
+			break;
+		case CHECK_CAST:
+			cast(register(ops[0]), operand(ops[1]), ((Immediate) ops[2]).value, register(ops[3]));
+			break;
+		}
+	}
+
+	/** Emits {@code dst = a op b} for the operands {@code dst, a, b}. */
+	private void twoAddress(String op, boolean commutative, Operand[] ops) {
+		String dst = value(ops[0]), a = value(ops[1]), b = value(ops[2]);
+		if (dst.equals(a)) {
+			cg.emit.emit(op, b, dst);
+		} else if (dst.equals(b)) {
+			if (commutative) {
+				cg.emit.emit(op, a, dst);
+			} else {
+				// a - b = -b + a
+				cg.emit.emit("negl", dst);
+				cg.emit.emit("addl", a, dst);
+			}
+		} else {
+			moveInt(a, dst);
+			cg.emit.emit(op, b, dst);
+		}
+	}
+
+	/**
+	 * Emits a call. On x86, all arguments are pushed from left to right. On x86-64, the
+	 * first ones are passed in the argument registers, and the others are pushed from
+	 * right to left.
+	 */
+	private void call(Operand[] ops) {
+		int args = ops.length - 2;
+		int inRegisters = (X86_64 ? Math.min(args, RegisterManager.ARGUMENT_REGS.length) : 0);
+		int onStack = args - inRegisters;
+		int padding = cg.padding(onStack);
+		cg.push(padding);
+		if (X86_64) {
+			for (int i = ops.length - 1; i >= 2 + inRegisters; i--)
+				cg.push(operand(ops[i]));
+			moveArguments(ops, inRegisters);
+		} else {
+			for (int i = 2; i < ops.length; i++)
+				cg.push(operand(ops[i]));
+		}
+		if (ops[1] instanceof Address)
+			cg.emit.emit("call", ((Address) ops[1]).label);
+		else
+			cg.emit.emit("call", "*" + operand(ops[1]));
+		cg.pop(onStack * Config.SIZEOF_PTR + padding);
+		if (ops[0] != null)
+			cg.emit.emitMove(Register.EAX, operand(ops[0]));
+	}
+
+	/**
+	 * Moves the first {@code count} arguments of a call into the argument registers.
+	 * An argument may be in another argument register, so a register is only written
+	 * once no other argument is read from it; a cycle is broken by an exchange. The
+	 * {@link LirAllocator} keeps the registers of memory operands out of the argument
+	 * registers.
+	 */
+	private void moveArguments(Operand[] ops, int count) {
+		List<String> srcs = new ArrayList<>();
+		List<Register> dsts = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Register dst = RegisterManager.ARGUMENT_REGS[i];
+			String src = operand(ops[2 + i]);
+			if (!isConstant(ops[2 + i]) && !src.equals(dst.repr)) {
+				srcs.add(src);
+				dsts.add(dst);
+			}
+		}
+		while (!dsts.isEmpty()) {
+			int next = 0;
+			while (next < dsts.size() && srcs.contains(dsts.get(next).repr))
+				next++;
+			if (next < dsts.size()) {
+				cg.emit.emitMove(srcs.remove(next), dsts.remove(next));
+				continue;
+			}
+			// every register is still read: exchange one with the register it gets
+			int cycle = 0;
+			while (!isDestination(srcs.get(cycle), dsts))
+				cycle++;
+			String src = srcs.remove(cycle);
+			Register dst = dsts.remove(cycle);
+			cg.emit.emit("xchg", src, dst.repr);
+			for (int i = 0; i < srcs.size(); i++) {
+				if (srcs.get(i).equals(dst.repr))
+					srcs.set(i, src);
+				else if (srcs.get(i).equals(src))
+					srcs.set(i, dst.repr);
+			}
+		}
+		for (int i = 0; i < count; i++)
+			if (isConstant(ops[2 + i]))
+				move(ops[2 + i], RegisterManager.ARGUMENT_REGS[i]);
+	}
+
+	private static boolean isDestination(String src, List<Register> dsts) {
+		for (Register dst : dsts)
+			if (dst.repr.equals(src))
+				return true;
+		return false;
+	}
+
+	private void check(Operand arg, String jcc, ExitCode code) {
+		cg.emit.emit("cmpl", constant(0), value(arg));
+		cg.emit.emit(jcc, cg.failureStub(code));
+	}
+
+	/**
+	 * Exits unless {@code obj} is {@code null} or an instance of the type with the given
+	 * vtable and depth, by looking the vtable up in the display of the object's vtable.
+	 */
+	private void cast(Register obj, String vtable, int depth, Register vtblReg) {
+		String donelbl = cg.emit.uniqueLabel();
+		String faillbl = cg.failureStub(ExitCode.INVALID_DOWNCAST);
+		cg.emit.emit(ptrOp("cmp"), constant(0), obj);
+		cg.emit.emit("je", donelbl);
+		cg.emit.emitLoad(0, obj, vtblReg);
+		cg.emit.emit(ptrOp("cmp"), vtable, vtblReg);
+		cg.emit.emit("je", donelbl);
+		cg.emit.emit("cmpl", constant(depth),
+				registerOffset(AstCodeGeneratorRef.DEPTH_OFFSET, vtblReg));
+		cg.emit.emit("jl", faillbl);
+		cg.emit.emit(ptrOp("cmp"), vtable,
+				registerOffset(AstCodeGeneratorRef.displayOffset(depth), vtblReg));
+		cg.emit.emit("jne", faillbl);
+		cg.emit.emitLabel(donelbl);
+	}
+}
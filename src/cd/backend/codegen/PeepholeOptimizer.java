@@ -0,0 +1,191 @@
+package cd.backend.codegen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cd.backend.codegen.AssemblyEmitter.Line;
+import cd.backend.codegen.RegisterManager.Register;
+
+/**
+ * Removes redundant instruction sequences from the code of a method by sliding a window
+ * over its instructions and replacing the patterns below, until none applies:
+ * <ul>
+ * <li>{@code movl A, A} is removed;
+ * <li>{@code pushl A; popl B} becomes {@code movl A, B} (also without the {@code l});
+ * <li>{@code pushl A; movl C, D; popl B} becomes {@code movl A, B; movl C, D} if the
+ * moves do not interfere;
+ * <li>consecutive {@code addl} and {@code subl} of constants to {@code %esp} are combined;
+ * <li>{@code movl S, M; movl M, R} becomes {@code movl S, M; movl S, R} if {@code S} is a
+ * register or a constant, and {@code movl M, R; movl R, M} becomes {@code movl M, R};
+ * <li>{@code jmp L} is removed if only comments and labels lie between it and {@code L}.
+ * </ul>
+ * Comments do not interrupt a window. Labels do, since a jump to them may skip the first
+ * part of a window, and so do the lines the emitter does not parse ({@code leave},
+ * {@code cltd}, directives, ...). Operands that involve {@code %esp} are not touched
+ * around {@code pushl} and {@code popl}, which change it. The code generators never
+ * test the flags set by an adjustment of {@code %esp}. On x86-64, the patterns match
+ * {@code movq} and {@code %rsp} instead, and leave the 32-bit {@code movl} alone, which
+ * clears the upper half of its destination.
+ */
+class PeepholeOptimizer {
+
+	private static final String SP = Register.ESP.repr;
+	private static final String MOV = AssemblyEmitter.ptrOp("mov");
+
+	private List<Line> code;
+
+	List<Line> optimize(List<Line> lines) {
+		code = new ArrayList<>(lines);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < code.size(); i++)
+				changed |= optimizeAt(i);
+		}
+		return code;
+	}
+
+	/** Applies the first pattern that matches the window starting at line {@code i}. */
+	private boolean optimizeAt(int i) {
+		List<Integer> w = window(i, 3);
+		if (w.isEmpty())
+			return false;
+		Line first = code.get(i);
+
+		if (first.is("jmp")) {
+			String target = first.operands.get(0);
+			for (int j = i + 1; j < code.size(); j++) {
+				Line line = code.get(j);
+				if (line.kind == Line.Kind.LABEL && line.op.equals(target)) {
+					code.remove(i);
+					return true;
+				}
+				if (line.kind != Line.Kind.LABEL && line.kind != Line.Kind.COMMENT)
+					break;
+			}
+			return false;
+		}
+
+		if (first.is(MOV) && first.operands.get(0).equals(first.operands.get(1))) {
+			code.remove(i);
+			return true;
+		}
+		if (w.size() < 2)
+			return false;
+		Line second = code.get(w.get(1));
+
+		if (isPush(first) && isPop(second)) {
+			String a = first.operands.get(0), b = second.operands.get(0);
+			if (a.equals(b)) {
+				removeAll(w.subList(0, 2));
+				return true;
+			}
+			if (a.contains(SP) || b.contains(SP) || isMemory(a) && isMemory(b))
+				return false;
+			code.set(w.get(1), new Line(Line.Kind.INSTRUCTION, second.indent, MOV, a, b));
+			code.remove(i);
+			return true;
+		}
+
+		if (isPush(first) && second.is(MOV) && w.size() == 3 && isPop(code.get(w.get(2)))) {
+			String a = first.operands.get(0), b = code.get(w.get(2)).operands.get(0);
+			String c = second.operands.get(0), d = second.operands.get(1);
+			if (!isRegister(b) || !isRegister(d) || b.equals(d) || c.contains(b)
+					|| a.contains(SP) || c.contains(SP) || b.equals(SP) || d.equals(SP))
+				return false;
+			code.set(w.get(2), second);
+			code.set(w.get(1), new Line(Line.Kind.INSTRUCTION, second.indent, MOV, a, b));
+			code.remove(i);
+			return true;
+		}
+
+		Integer firstAdjust = stackAdjustment(first), secondAdjust = stackAdjustment(second);
+		if (firstAdjust != null && secondAdjust != null) {
+			int total = firstAdjust + secondAdjust;
+			String suffix = first.op.endsWith("l") ? "l" : "";
+			code.remove((int) w.get(1));
+			if (total == 0)
+				code.remove(i);
+			else
+				code.set(i, first.with((total > 0 ? "sub" : "add") + suffix,
+						AssemblyEmitter.constant(Math.abs(total)), SP));
+			return true;
+		}
+
+		if (first.is(MOV) && second.is(MOV)) {
+			String src = first.operands.get(0), dst = first.operands.get(1);
+			// load after store
+			if (isMemory(dst) && !isMemory(src) && second.operands.get(0).equals(dst)) {
+				code.set(w.get(1), second.withOperands(src, second.operands.get(1)));
+				return true;
+			}
+			// store after load
+			if (isMemory(src) && isRegister(dst) && !src.contains(dst)
+					&& second.operands.get(0).equals(dst) && second.operands.get(1).equals(src)) {
+				code.remove((int) w.get(1));
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the indices of up to {@code size} consecutive instructions starting at line
+	 * {@code start}, skipping comments and stopping at any other line.
+	 */
+	private List<Integer> window(int start, int size) {
+		List<Integer> result = new ArrayList<>(size);
+		for (int j = start; j < code.size() && result.size() < size; j++) {
+			Line line = code.get(j);
+			if (line.kind == Line.Kind.COMMENT && j > start)
+				continue;
+			if (line.kind != Line.Kind.INSTRUCTION)
+				break;
+			result.add(j);
+		}
+		return result;
+	}
+
+	private void removeAll(List<Integer> indices) {
+		for (int k = indices.size() - 1; k >= 0; k--)
+			code.remove((int) indices.get(k));
+	}
+
+	/**
+	 * Returns by how much {@code line} decreases {@code %esp} if it subtracts or adds a
+	 * constant to it, or {@code null}.
+	 */
+	private static Integer stackAdjustment(Line line) {
+		if (line.kind != Line.Kind.INSTRUCTION || line.operands.size() != 2
+				|| !line.operands.get(1).equals(SP) || !line.operands.get(0).startsWith("$"))
+			return null;
+		int sign;
+		if (line.op.equals("sub") || line.op.equals("subl"))
+			sign = 1;
+		else if (line.op.equals("add") || line.op.equals("addl"))
+			sign = -1;
+		else
+			return null;
+		try {
+			return sign * Integer.parseInt(line.operands.get(0).substring(1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static boolean isPush(Line line) {
+		return line.is("push") || line.is("pushl");
+	}
+
+	private static boolean isPop(Line line) {
+		return line.is("pop") || line.is("popl");
+	}
+
+	private static boolean isRegister(String operand) {
+		return operand.startsWith("%");
+	}
+
+	private static boolean isMemory(String operand) {
+		return !isRegister(operand) && !operand.startsWith("$");
+	}
+}
@@ -1,45 +1,73 @@
 package cd.backend.codegen;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import cd.Config;
 
 /**
- * Simple class that manages the set of currently used
- * and unused registers
+ * The registers of the target, and the roles they have in the generated
+ * code. {@link LirAllocator} assigns them to the temporaries of a method.
  */
 public class RegisterManager {
-	private List<Register> registers = new ArrayList<Register>();
+	private static final boolean X86_64 = (Config.TARGET == Config.Target.X86_64);
 
 	// lists of register to save by the callee and the caller
-	public static final Register CALLEE_SAVE[] = new Register[]{Register.ESI,
-			Register.EDI, Register.EBX};
-	public static final Register CALLER_SAVE[] = new Register[]{Register.EAX,
-			Register.ECX, Register.EDX};
+	public static final Register CALLEE_SAVE[] = X86_64
+			? new Register[]{Register.EBX, Register.R12, Register.R13,
+					Register.R14, Register.R15}
+			: new Register[]{Register.ESI, Register.EDI, Register.EBX};
+	public static final Register CALLER_SAVE[] = X86_64
+			? new Register[]{Register.EAX, Register.ECX, Register.EDX,
+					Register.ESI, Register.EDI, Register.R8, Register.R9,
+					Register.R10, Register.R11}
+			: new Register[]{Register.EAX, Register.ECX, Register.EDX};
+
+	// registers for the first arguments of a call on x86-64 (System V ABI)
+	public static final Register ARGUMENT_REGS[] = new Register[]{Register.EDI,
+			Register.ESI, Register.EDX, Register.ECX, Register.R8, Register.R9};
 	
 	// list of general purpose registers
-	public static final Register GPR[] = new Register[]{Register.EAX, Register.EBX,
-		Register.ECX, Register.EDX, Register.ESI, Register.EDI};
+	public static final Register GPR[] = X86_64
+			? new Register[]{Register.EAX, Register.EBX, Register.ECX,
+					Register.EDX, Register.ESI, Register.EDI, Register.R8,
+					Register.R9, Register.R10, Register.R11, Register.R12,
+					Register.R13, Register.R14, Register.R15}
+			: new Register[]{Register.EAX, Register.EBX, Register.ECX,
+					Register.EDX, Register.ESI, Register.EDI};
 
 	// special purpose registers
 	public static final Register BASE_REG = Register.EBP;
 	public static final Register STACK_REG = Register.ESP;
 
-	public static final int SIZEOF_REG = 4;
+	public static final int SIZEOF_REG = Config.SIZEOF_PTR;
 
 	
+	/**
+	 * The general purpose registers. They are named after their 32-bit
+	 * versions, but {@link #repr} is the name of the whole register, e.g.
+	 * {@code %rax} for {@link #EAX} on x86-64. {@link #R8} to {@link #R15}
+	 * only exist on x86-64.
+	 */
 	public enum Register {
-		EAX("%eax", ByteRegister.EAX), EBX("%ebx", ByteRegister.EBX), ECX(
-				"%ecx", ByteRegister.ECX), EDX("%edx", ByteRegister.EDX), ESI(
-				"%esi", null), EDI("%edi", null), EBP("%ebp", null), ESP(
-				"%esp", null);
-
+		EAX("%eax", "%rax", ByteRegister.EAX), EBX("%ebx", "%rbx", ByteRegister.EBX),
+		ECX("%ecx", "%rcx", ByteRegister.ECX), EDX("%edx", "%rdx", ByteRegister.EDX),
+		ESI("%esi", "%rsi", ByteRegister.ESI), EDI("%edi", "%rdi", ByteRegister.EDI),
+		EBP("%ebp", "%rbp", null), ESP("%esp", "%rsp", null),
+		R8("%r8d", "%r8", ByteRegister.R8), R9("%r9d", "%r9", ByteRegister.R9),
+		R10("%r10d", "%r10", ByteRegister.R10), R11("%r11d", "%r11", ByteRegister.R11),
+		R12("%r12d", "%r12", ByteRegister.R12), R13("%r13d", "%r13", ByteRegister.R13),
+		R14("%r14d", "%r14", ByteRegister.R14), R15("%r15d", "%r15", ByteRegister.R15);
+
+		/** The name of the register, as wide as a pointer. */
 		public final String repr;
+		/** The name of the lower 32 bits, which hold an {@code int}. */
+		public final String repr32;
 		private final ByteRegister lowByteVersion;
 
-		private Register(String repr, ByteRegister bv) {
-			this.repr = repr;
-			this.lowByteVersion = bv;
+		private Register(String repr32, String repr64, ByteRegister bv) {
+			boolean x86_64 = (Config.TARGET == Config.Target.X86_64);
+			this.repr = (x86_64 ? repr64 : repr32);
+			this.repr32 = repr32;
+			// on 32-bit x86, only EAX to EDX have an addressable low byte
+			this.lowByteVersion = (x86_64 || ordinal() <= 3 ? bv : null);
 		}
 
 		@Override
@@ -56,7 +84,7 @@ public class RegisterManager {
 
 		/**
 		 * Given a register like {@code %eax} returns {@code %al}, but doesn't
-		 * work for {@code %esi} and {@code %edi}!
+		 * work for {@code %esi} and {@code %edi} on 32-bit x86!
 		 */
 		public ByteRegister lowByteVersion() {
 			assert hasLowByteVersion();
@@ -65,7 +93,9 @@ public class RegisterManager {
 	}
 
 	public enum ByteRegister {
-		EAX("%al"), EBX("%bl"), ECX("%cl"), EDX("%dl");
+		EAX("%al"), EBX("%bl"), ECX("%cl"), EDX("%dl"), ESI("%sil"), EDI("%dil"),
+		R8("%r8b"), R9("%r9b"), R10("%r10b"), R11("%r11b"), R12("%r12b"),
+		R13("%r13b"), R14("%r14b"), R15("%r15b");
 
 		public final String repr;
 
@@ -78,46 +108,4 @@ public class RegisterManager {
 			return repr;
 		}
 	}
-
-	/**
-	 * Reset all general purpose registers to free
-	 */
-	public void initRegisters() {
-		registers.clear();
-		registers.addAll(Arrays.asList(GPR));
-	}
-
-	/**
-	 * returns a free register and marks it as used
-	 */
-	public Register getRegister() {
-		int last = registers.size() - 1;
-		if (last < 0)
-			throw new AssemblyFailedException(
-					"Program requires too many registers");
-
-		return registers.remove(last);
-	}
-
-	/**
-	 * marks a currently used register as free
-	 */
-	public void releaseRegister(Register reg) {
-		assert !registers.contains(reg);
-		registers.add(reg);
-	}
-
-	/**
-	 * Returns whether the register is currently non-free
-	 */
-	public boolean isInUse(Register reg) {
-		return !registers.contains(reg);
-	}
-
-	/**
-	 * returns the number of free registers
-	 */
-	public int availableRegisters() {
-		return registers.size();
-	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,616 @@
+package cd.backend.interpreter;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cd.Main;
+import cd.backend.ExitCode;
+import cd.backend.interpreter.Nodes.Add;
+import cd.backend.interpreter.Nodes.And;
+import cd.backend.interpreter.Nodes.Arg;
+import cd.backend.interpreter.Nodes.Block;
+import cd.backend.interpreter.Nodes.Branch;
+import cd.backend.interpreter.Nodes.Call;
+import cd.backend.interpreter.Nodes.Div;
+import cd.backend.interpreter.Nodes.Downcast;
+import cd.backend.interpreter.Nodes.Equal;
+import cd.backend.interpreter.Nodes.Goto;
+import cd.backend.interpreter.Nodes.GreaterOrEqual;
+import cd.backend.interpreter.Nodes.GreaterThan;
+import cd.backend.interpreter.Nodes.IntArg;
+import cd.backend.interpreter.Nodes.IntCall;
+import cd.backend.interpreter.Nodes.IntElement;
+import cd.backend.interpreter.Nodes.IntField;
+import cd.backend.interpreter.Nodes.IntNode;
+import cd.backend.interpreter.Nodes.IntVar;
+import cd.backend.interpreter.Nodes.Invoke;
+import cd.backend.interpreter.Nodes.LessOrEqual;
+import cd.backend.interpreter.Nodes.LessThan;
+import cd.backend.interpreter.Nodes.Method;
+import cd.backend.interpreter.Nodes.Mod;
+import cd.backend.interpreter.Nodes.Mul;
+import cd.backend.interpreter.Nodes.Neg;
+import cd.backend.interpreter.Nodes.NewInstance;
+import cd.backend.interpreter.Nodes.NewIntArray;
+import cd.backend.interpreter.Nodes.NewRefArray;
+import cd.backend.interpreter.Nodes.Not;
+import cd.backend.interpreter.Nodes.NotEqual;
+import cd.backend.interpreter.Nodes.Null;
+import cd.backend.interpreter.Nodes.Or;
+import cd.backend.interpreter.Nodes.Read;
+import cd.backend.interpreter.Nodes.RefArg;
+import cd.backend.interpreter.Nodes.RefCall;
+import cd.backend.interpreter.Nodes.RefElement;
+import cd.backend.interpreter.Nodes.RefEqual;
+import cd.backend.interpreter.Nodes.RefField;
+import cd.backend.interpreter.Nodes.RefNode;
+import cd.backend.interpreter.Nodes.RefVar;
+import cd.backend.interpreter.Nodes.Return;
+import cd.backend.interpreter.Nodes.ReturnInt;
+import cd.backend.interpreter.Nodes.ReturnRef;
+import cd.backend.interpreter.Nodes.SetIntElement;
+import cd.backend.interpreter.Nodes.SetIntField;
+import cd.backend.interpreter.Nodes.SetIntVar;
+import cd.backend.interpreter.Nodes.SetRefElement;
+import cd.backend.interpreter.Nodes.SetRefField;
+import cd.backend.interpreter.Nodes.SetRefVar;
+import cd.backend.interpreter.Nodes.StmtNode;
+import cd.backend.interpreter.Nodes.Sub;
+import cd.backend.interpreter.Nodes.Write;
+import cd.backend.interpreter.Nodes.Writeln;
+import cd.backend.interpreter.Values.Failure;
+import cd.backend.interpreter.Values.Frame;
+import cd.backend.interpreter.Values.Instance;
+import cd.backend.interpreter.Values.Type;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.BuiltInRead;
+import cd.ir.Ast.BuiltInWrite;
+import cd.ir.Ast.BuiltInWriteln;
+import cd.ir.Ast.Cast;
+import cd.ir.Ast.ClassDecl;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.Field;
+import cd.ir.Ast.Index;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodCall;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.Nop;
+import cd.ir.Ast.NullConst;
+import cd.ir.Ast.ReturnStmt;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.UnaryOp;
+import cd.ir.Ast.Var;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.ExprVisitor;
+import cd.ir.Symbol.ArrayTypeSymbol;
+import cd.ir.Symbol.ClassSymbol;
+import cd.ir.Symbol.MethodSymbol;
+import cd.ir.Symbol.PrimitiveTypeSymbol;
+import cd.ir.Symbol.TypeSymbol;
+import cd.ir.Symbol.VariableSymbol;
+import cd.util.ScanfReader;
+
+/**
+ * Runs a program by executing the control flow graphs of its methods, without
+ * generating and assembling code: the exit code and output are those of the native
+ * code. Before running, each method is translated into {@link Nodes}, with all symbols
+ * resolved: variables to slots of the {@link Frame} of an invocation, which holds
+ * {@code int}s and references in separate arrays, fields to indices into objects, and
+ * method calls to the method or the vtable slot. Each block of a method refers to the
+ * blocks that follow it, so executing a method is a loop that runs a block and
+ * continues with the block it returns.
+ */
+public class CfgInterpreter {
+
+	/** The size of the stack of the thread running a program, which recurses deeply. */
+	private static final long STACK_SIZE = 1L << 30;
+
+	public final Main main;
+
+	private final Map<TypeSymbol, Type> types = new HashMap<>();
+	private final Map<MethodSymbol, Method> methods = new HashMap<>();
+
+	/** The methods of each class in the order of its vtable slots. */
+	private final Map<ClassSymbol, List<MethodSymbol>> slots = new HashMap<>();
+
+	/** The index of each field in the {@code int}s or references of an object. */
+	private final Map<VariableSymbol, Integer> fieldIndices = new HashMap<>();
+
+	/** The calls, whose frame sizes are known once all methods are translated. */
+	private final List<Call> calls = new ArrayList<>();
+	private final List<MethodSymbol> callTargets = new ArrayList<>();
+
+	private ScanfReader in;
+	private Appendable out;
+
+	public CfgInterpreter(Main main) {
+		this.main = main;
+	}
+
+	/**
+	 * Runs the program, reading from {@code input} and writing to {@code output}, and
+	 * returns its exit code.
+	 */
+	public int run(List<? extends ClassDecl> astRoots, Reader input, Appendable output) {
+		in = new ScanfReader(input);
+		out = output;
+
+		List<ClassSymbol> classes = new ArrayList<>();
+		for (TypeSymbol type : main.allTypeSymbols) {
+			if (type instanceof PrimitiveTypeSymbol || type == ClassSymbol.nullType)
+				continue;
+			types.put(type, new Type(type.name));
+			if (type instanceof ClassSymbol)
+				classes.add((ClassSymbol) type);
+		}
+		for (Map.Entry<TypeSymbol, Type> entry : types.entrySet()) {
+			List<TypeSymbol> display = entry.getKey().display();
+			Type type = entry.getValue();
+			type.depth = display.size() - 1;
+			type.display = new Type[display.size()];
+			for (int i = 0; i < display.size(); i++)
+				type.display[i] = types.get(display.get(i));
+		}
+
+		// Lay out the superclass of a class before the class.
+		Collections.sort(classes, new Comparator<ClassSymbol>() {
+			@Override
+			public int compare(ClassSymbol a, ClassSymbol b) {
+				return Integer.compare(a.depth(), b.depth());
+			}
+		});
+		for (ClassSymbol cls : classes)
+			layOut(cls);
+
+		for (ClassDecl cdecl : astRoots)
+			for (MethodDecl mdecl : cdecl.methods())
+				methods.put(mdecl.sym, new Method(cdecl.name + "." + mdecl.name));
+		for (ClassSymbol cls : classes) {
+			List<MethodSymbol> clsSlots = slotsOf(cls);
+			Method[] vtable = new Method[clsSlots.size()];
+			for (int i = 0; i < vtable.length; i++)
+				vtable[i] = methods.get(clsSlots.get(i));
+			types.get(cls).vtable = vtable;
+		}
+
+		for (ClassDecl cdecl : astRoots)
+			for (MethodDecl mdecl : cdecl.methods())
+				new MethodTranslator(mdecl).translate();
+		for (int i = 0; i < calls.size(); i++)
+			sizeFrame(calls.get(i), callTargets.get(i), classes);
+
+		ClassSymbol mainClass = null;
+		for (ClassSymbol cls : classes)
+			if (cls.name.equals("Main"))
+				mainClass = cls;
+		return execute(types.get(mainClass), methods.get(mainClass.getMethod("main")));
+	}
+
+	/**
+	 * Runs {@code main} on a new instance of {@code mainType} in a thread with a large
+	 * stack, as the invocations of the program are nested in those of the interpreter.
+	 */
+	private int execute(final Type mainType, final Method main) {
+		final ExitCode[] exitCode = { ExitCode.OK };
+		final Throwable[] error = { null };
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Frame frame = new Frame(main.intSlots, main.refSlots);
+					frame.refs[0] = new Instance(mainType);
+					main.run(frame);
+				} catch (Failure e) {
+					exitCode[0] = e.exitCode;
+				} catch (StackOverflowError | OutOfMemoryError e) {
+					exitCode[0] = ExitCode.INTERNAL_ERROR;
+				} catch (RuntimeException e) {
+					error[0] = e;
+				}
+			}
+		}, "Javali", STACK_SIZE);
+
+		try {
+			thread.start();
+			thread.join();
+		} catch (InterruptedException e) {
+			thread.interrupt();
+			throw new RuntimeException(e);
+		}
+		if (error[0] != null)
+			throw new RuntimeException("Interpreting the program failed", error[0]);
+		return exitCode[0].value;
+	}
+
+	/** Assigns indices to the fields of {@code cls}, after those of its superclass. */
+	private void layOut(ClassSymbol cls) {
+		Type type = types.get(cls);
+		if (cls.superClass != null) {
+			Type superType = types.get(cls.superClass);
+			type.intFields = superType.intFields;
+			type.refFields = superType.refFields;
+		}
+		if (cls.ast != null)
+			for (cd.ir.Ast.VarDecl decl : cls.ast.fields()) {
+				VariableSymbol field = cls.fields.get(decl.name);
+				if (field.type.isReferenceType())
+					fieldIndices.put(field, type.refFields++);
+				else
+					fieldIndices.put(field, type.intFields++);
+			}
+	}
+
+	/**
+	 * The methods of {@code cls} in the order of its vtable slots: those of the
+	 * superclass, each replaced by an override, followed by the new methods.
+	 */
+	private List<MethodSymbol> slotsOf(ClassSymbol cls) {
+		List<MethodSymbol> result = slots.get(cls);
+		if (result == null) {
+			result = new ArrayList<>();
+			if (cls.superClass != null)
+				result.addAll(slotsOf(cls.superClass));
+			if (cls.ast != null)
+				for (MethodDecl mdecl : cls.ast.methods()) {
+					int slot = 0;
+					while (slot < result.size() && !result.get(slot).name.equals(mdecl.name))
+						slot++;
+					if (slot < result.size())
+						result.set(slot, mdecl.sym);
+					else
+						result.add(mdecl.sym);
+				}
+			slots.put(cls, result);
+		}
+		return result;
+	}
+
+	private int slotOf(MethodSymbol msym) {
+		return slotsOf(msym.owner).indexOf(msym);
+	}
+
+	/**
+	 * Makes the frames of {@code call} large enough for each method it can reach: the
+	 * target, or the method in its slot of each subclass of the class declaring it.
+	 */
+	private void sizeFrame(Call call, MethodSymbol target, List<ClassSymbol> classes) {
+		if (call.target != null) {
+			call.intSlots = call.target.intSlots;
+			call.refSlots = call.target.refSlots;
+			return;
+		}
+		Type owner = types.get(target.owner);
+		for (ClassSymbol cls : classes) {
+			Type type = types.get(cls);
+			if (type.isSubtypeOf(owner)) {
+				Method method = type.vtable[call.slot];
+				call.intSlots = Math.max(call.intSlots, method.intSlots);
+				call.refSlots = Math.max(call.refSlots, method.refSlots);
+			}
+		}
+	}
+
+	/** Translates the control flow graph of one method into blocks of nodes. */
+	private class MethodTranslator {
+
+		private final MethodDecl mdecl;
+		private final Method method;
+
+		/** The slots of the variables, which are assigned on first use. */
+		private final Map<VariableSymbol, Integer> intSlots = new HashMap<>();
+		private final Map<VariableSymbol, Integer> refSlots = new HashMap<>();
+
+		private final Map<BasicBlock, Block> blocks = new HashMap<>();
+
+		private final ExprTranslator et = new ExprTranslator();
+		private final StmtTranslator st = new StmtTranslator();
+
+		MethodTranslator(MethodDecl mdecl) {
+			this.mdecl = mdecl;
+			this.method = methods.get(mdecl.sym);
+			refSlots.put(mdecl.sym.owner.thisSymbol, 0);
+			for (VariableSymbol param : mdecl.sym.parameters)
+				slot(param);
+		}
+
+		void translate() {
+			// Create the blocks first, as the successors of a block can follow it.
+			for (BasicBlock blk : mdecl.cfg.allBlocks) {
+				ReturnStmt ret = returnOf(blk);
+				Block block;
+				if (ret != null && ret.arg() != null)
+					block = (ret.arg().type.isReferenceType() ? new ReturnRef() : new ReturnInt());
+				else if (ret != null || blk.successors.isEmpty())
+					block = new Return();
+				else if (blk.condition != null)
+					block = new Branch();
+				else
+					block = new Goto();
+				blocks.put(blk, block);
+			}
+
+			for (BasicBlock blk : mdecl.cfg.allBlocks) {
+				Block block = blocks.get(blk);
+				List<StmtNode> stmts = new ArrayList<>();
+				for (Stmt stmt : blk.stmts) {
+					if (stmt instanceof ReturnStmt) {
+						Expr value = ((ReturnStmt) stmt).arg();
+						if (block instanceof ReturnInt)
+							((ReturnInt) block).value = intNode(value);
+						else if (block instanceof ReturnRef)
+							((ReturnRef) block).value = refNode(value);
+						break;
+					}
+					StmtNode node = st.visit(stmt, null);
+					if (node != null)
+						stmts.add(node);
+				}
+				block.stmts = stmts.toArray(new StmtNode[stmts.size()]);
+
+				if (block instanceof Branch) {
+					Branch branch = (Branch) block;
+					branch.condition = intNode(blk.condition);
+					branch.ifTrue = blocks.get(blk.trueSuccessor());
+					branch.ifFalse = blocks.get(blk.falseSuccessor());
+				} else if (block instanceof Goto) {
+					((Goto) block).target = blocks.get(blk.successors.get(0));
+				}
+			}
+
+			method.start = blocks.get(mdecl.cfg.start);
+			method.intSlots = intSlots.size();
+			method.refSlots = refSlots.size();
+		}
+
+		/** The first return statement of {@code blk}, which ends it, if any. */
+		private ReturnStmt returnOf(BasicBlock blk) {
+			for (Stmt stmt : blk.stmts)
+				if (stmt instanceof ReturnStmt)
+					return (ReturnStmt) stmt;
+			return null;
+		}
+
+		/** The slot of {@code sym} among the variables of its kind. */
+		private int slot(VariableSymbol sym) {
+			Map<VariableSymbol, Integer> kind = (sym.type.isReferenceType() ? refSlots : intSlots);
+			Integer slot = kind.get(sym);
+			if (slot == null) {
+				slot = kind.size();
+				kind.put(sym, slot);
+			}
+			return slot;
+		}
+
+		private IntNode intNode(Expr expr) {
+			return (IntNode) et.visit(expr, null);
+		}
+
+		private RefNode refNode(Expr expr) {
+			return (RefNode) et.visit(expr, null);
+		}
+
+		private Call call(MethodCallExpr ast) {
+			List<Expr> args = ast.allArguments();
+			RefNode receiver = refNode(args.get(0));
+			// the parameters have the first slots of their kind, after the receiver
+			Arg[] argNodes = new Arg[args.size() - 1];
+			int ints = 0, refs = 1;
+			for (int i = 1; i < args.size(); i++) {
+				Expr arg = args.get(i);
+				if (ast.sym.parameters.get(i - 1).type.isReferenceType())
+					argNodes[i - 1] = new RefArg(refs++, refNode(arg));
+				else
+					argNodes[i - 1] = new IntArg(ints++, intNode(arg));
+			}
+			Call call;
+			if (ast.sym.monomorphic) {
+				// No subclass overrides the method, so call it directly.
+				call = new Call(receiver, argNodes, methods.get(ast.sym), -1);
+			} else {
+				call = new Call(receiver, argNodes, null, slotOf(ast.sym));
+			}
+			calls.add(call);
+			callTargets.add(ast.sym);
+			return call;
+		}
+
+		private class StmtTranslator extends AstVisitor<StmtNode, Void> {
+
+			@Override
+			public StmtNode assign(Assign ast, Void arg) {
+				Expr left = ast.left();
+				boolean ref = left.type.isReferenceType();
+				if (left instanceof Var) {
+					int slot = slot(((Var) left).sym);
+					if (ref)
+						return new SetRefVar(slot, refNode(ast.right()));
+					return new SetIntVar(slot, intNode(ast.right()));
+				} else if (left instanceof Field) {
+					Field field = (Field) left;
+					int index = fieldIndices.get(field.sym);
+					if (ref)
+						return new SetRefField(refNode(ast.right()), refNode(field.arg()), index);
+					return new SetIntField(intNode(ast.right()), refNode(field.arg()), index);
+				} else if (left instanceof Index) {
+					Index index = (Index) left;
+					boolean checked = !index.inBounds;
+					if (ref)
+						return new SetRefElement(refNode(ast.right()), refNode(index.left()),
+								intNode(index.right()), checked);
+					return new SetIntElement(intNode(ast.right()), refNode(index.left()),
+							intNode(index.right()), checked);
+				}
+				throw new RuntimeException("Store to unexpected lvalue " + left);
+			}
+
+			@Override
+			public StmtNode builtInWrite(BuiltInWrite ast, Void arg) {
+				return new Write(out, intNode(ast.arg()));
+			}
+
+			@Override
+			public StmtNode builtInWriteln(BuiltInWriteln ast, Void arg) {
+				return new Writeln(out);
+			}
+
+			@Override
+			public StmtNode methodCall(MethodCall ast, Void arg) {
+				return new Invoke(call(ast.getMethodCallExpr()));
+			}
+
+			@Override
+			public StmtNode nop(Nop ast, Void arg) {
+				return null;
+			}
+		}
+
+		/** Returns an {@link IntNode} or a {@link RefNode}, by the type of an expression. */
+		private class ExprTranslator extends ExprVisitor<Object, Void> {
+
+			@Override
+			public Object binaryOp(BinaryOp ast, Void arg) {
+				switch (ast.operator) {
+				case B_EQUAL:
+				case B_NOT_EQUAL:
+					if (ast.left().type.isReferenceType())
+						return new RefEqual(refNode(ast.left()), refNode(ast.right()),
+								ast.operator == BinaryOp.BOp.B_NOT_EQUAL);
+					break;
+				default:
+					break;
+				}
+				IntNode left = intNode(ast.left());
+				IntNode right = intNode(ast.right());
+				switch (ast.operator) {
+				case B_TIMES:
+					return new Mul(left, right);
+				case B_DIV:
+					return new Div(left, right);
+				case B_MOD:
+					return new Mod(left, right);
+				case B_PLUS:
+					return new Add(left, right);
+				case B_MINUS:
+					return new Sub(left, right);
+				case B_AND:
+					return new And(left, right);
+				case B_OR:
+					return new Or(left, right);
+				case B_EQUAL:
+					return new Equal(left, right);
+				case B_NOT_EQUAL:
+					return new NotEqual(left, right);
+				case B_LESS_THAN:
+					return new LessThan(left, right);
+				case B_LESS_OR_EQUAL:
+					return new LessOrEqual(left, right);
+				case B_GREATER_THAN:
+					return new GreaterThan(left, right);
+				case B_GREATER_OR_EQUAL:
+					return new GreaterOrEqual(left, right);
+				}
+				throw new RuntimeException("Unexpected operator " + ast.operator);
+			}
+
+			@Override
+			public Object booleanConst(BooleanConst ast, Void arg) {
+				return new Nodes.IntConst(ast.value ? 1 : 0);
+			}
+
+			@Override
+			public Object builtInRead(BuiltInRead ast, Void arg) {
+				return new Read(in);
+			}
+
+			@Override
+			public Object cast(Cast ast, Void arg) {
+				if (!ast.type.isReferenceType())
+					return visit(ast.arg(), null);
+				return new Downcast(refNode(ast.arg()), types.get(ast.type));
+			}
+
+			@Override
+			public Object field(Field ast, Void arg) {
+				int index = fieldIndices.get(ast.sym);
+				if (ast.type.isReferenceType())
+					return new RefField(refNode(ast.arg()), index);
+				return new IntField(refNode(ast.arg()), index);
+			}
+
+			@Override
+			public Object index(Index ast, Void arg) {
+				boolean checked = !ast.inBounds;
+				if (ast.type.isReferenceType())
+					return new RefElement(refNode(ast.left()), intNode(ast.right()), checked);
+				return new IntElement(refNode(ast.left()), intNode(ast.right()), checked);
+			}
+
+			@Override
+			public Object intConst(IntConst ast, Void arg) {
+				return new Nodes.IntConst(ast.value);
+			}
+
+			@Override
+			public Object methodCall(MethodCallExpr ast, Void arg) {
+				if (ast.sym.returnType.isReferenceType())
+					return new RefCall(call(ast));
+				return new IntCall(call(ast));
+			}
+
+			@Override
+			public Object newObject(NewObject ast, Void arg) {
+				return new NewInstance(types.get(ast.type));
+			}
+
+			@Override
+			public Object newArray(NewArray ast, Void arg) {
+				Type type = types.get(ast.type);
+				if (((ArrayTypeSymbol) ast.type).elementType.isReferenceType())
+					return new NewRefArray(type, intNode(ast.arg()));
+				return new NewIntArray(type, intNode(ast.arg()));
+			}
+
+			@Override
+			public Object nullConst(NullConst ast, Void arg) {
+				return new Null();
+			}
+
+			@Override
+			public Object thisRef(ThisRef ast, Void arg) {
+				return new RefVar(0);
+			}
+
+			@Override
+			public Object unaryOp(UnaryOp ast, Void arg) {
+				switch (ast.operator) {
+				case U_PLUS:
+					return visit(ast.arg(), null);
+				case U_MINUS:
+					return new Neg(intNode(ast.arg()));
+				default:
+					return new Not(intNode(ast.arg()));
+				}
+			}
+
+			@Override
+			public Object var(Var ast, Void arg) {
+				int slot = slot(ast.sym);
+				if (ast.sym.type.isReferenceType())
+					return new RefVar(slot);
+				return new IntVar(slot);
+			}
+		}
+	}
+}
@@ -0,0 +1,798 @@
+package cd.backend.interpreter;
+
+import static cd.backend.interpreter.Values.checkIndex;
+import static cd.backend.interpreter.Values.nonNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import cd.backend.ExitCode;
+import cd.backend.interpreter.Values.Failure;
+import cd.backend.interpreter.Values.Frame;
+import cd.backend.interpreter.Values.Instance;
+import cd.backend.interpreter.Values.IntArray;
+import cd.backend.interpreter.Values.Ref;
+import cd.backend.interpreter.Values.RefArray;
+import cd.backend.interpreter.Values.Type;
+import cd.util.ScanfReader;
+
+/**
+ * The executable form of a method: its basic blocks, whose statements and expressions
+ * are trees of nodes that evaluate themselves. {@link CfgInterpreter} creates a node for
+ * each operation with its operands resolved: variables to the slots of a
+ * {@link Frame}, fields to indices into the objects, and calls to methods or vtable
+ * slots. Expressions are evaluated in the order of the native code, and fail the
+ * same runtime checks at the same points.
+ */
+final class Nodes {
+
+	private Nodes() {
+	}
+
+	/** An expression of type {@code int} or {@code boolean}. */
+	static abstract class IntNode {
+		abstract int eval(Frame f);
+	}
+
+	/** An expression of a reference type. */
+	static abstract class RefNode {
+		abstract Ref eval(Frame f);
+	}
+
+	static abstract class StmtNode {
+		abstract void exec(Frame f);
+	}
+
+	/**
+	 * A basic block, which executes its statements and returns the block to continue
+	 * with, or {@code null} when the method returns. Blocks refer to their successors
+	 * directly, so the dispatch loop of {@link Method#run} needs no lookup.
+	 */
+	static abstract class Block {
+		StmtNode[] stmts;
+
+		final Block run(Frame f) {
+			for (StmtNode stmt : stmts)
+				stmt.exec(f);
+			return next(f);
+		}
+
+		abstract Block next(Frame f);
+	}
+
+	static final class Goto extends Block {
+		Block target;
+
+		@Override
+		Block next(Frame f) {
+			return target;
+		}
+	}
+
+	static final class Branch extends Block {
+		IntNode condition;
+		Block ifTrue, ifFalse;
+
+		@Override
+		Block next(Frame f) {
+			return (condition.eval(f) != 0 ? ifTrue : ifFalse);
+		}
+	}
+
+	static final class Return extends Block {
+		@Override
+		Block next(Frame f) {
+			return null;
+		}
+	}
+
+	static final class ReturnInt extends Block {
+		IntNode value;
+
+		@Override
+		Block next(Frame f) {
+			f.intResult = value.eval(f);
+			return null;
+		}
+	}
+
+	static final class ReturnRef extends Block {
+		RefNode value;
+
+		@Override
+		Block next(Frame f) {
+			f.refResult = value.eval(f);
+			return null;
+		}
+	}
+
+	/** A method, which runs in a frame with at least its number of slots. */
+	static final class Method {
+		final String name;
+		Block start;
+		int intSlots, refSlots;
+
+		Method(String name) {
+			this.name = name;
+		}
+
+		void run(Frame f) {
+			Block blk = start;
+			while (blk != null)
+				blk = blk.run(f);
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * A method call. The receiver and arguments are evaluated into the frame of the
+	 * callee, which is large enough for every method the call can reach, before the
+	 * receiver is checked and the method is looked up.
+	 */
+	static final class Call {
+		final RefNode receiver;
+		final Arg[] args;
+		/** The method, if the call is monomorphic, or else the vtable slot. */
+		final Method target;
+		final int slot;
+		int intSlots, refSlots;
+
+		Call(RefNode receiver, Arg[] args, Method target, int slot) {
+			this.receiver = receiver;
+			this.args = args;
+			this.target = target;
+			this.slot = slot;
+		}
+
+		Frame invoke(Frame f) {
+			Frame callee = new Frame(intSlots, refSlots);
+			Ref obj = receiver.eval(f);
+			callee.refs[0] = obj;
+			for (Arg arg : args)
+				arg.pass(f, callee);
+			nonNull(obj);
+			Method method = (target != null ? target : obj.type.vtable[slot]);
+			method.run(callee);
+			return callee;
+		}
+	}
+
+	/** Evaluates an argument in the frame of the caller into a slot of the callee. */
+	static abstract class Arg {
+		final int slot;
+
+		Arg(int slot) {
+			this.slot = slot;
+		}
+
+		abstract void pass(Frame caller, Frame callee);
+	}
+
+	static final class IntArg extends Arg {
+		final IntNode value;
+
+		IntArg(int slot, IntNode value) {
+			super(slot);
+			this.value = value;
+		}
+
+		@Override
+		void pass(Frame caller, Frame callee) {
+			callee.ints[slot] = value.eval(caller);
+		}
+	}
+
+	static final class RefArg extends Arg {
+		final RefNode value;
+
+		RefArg(int slot, RefNode value) {
+			super(slot);
+			this.value = value;
+		}
+
+		@Override
+		void pass(Frame caller, Frame callee) {
+			callee.refs[slot] = value.eval(caller);
+		}
+	}
+
+	// Integer expressions
+
+	static final class IntConst extends IntNode {
+		final int value;
+
+		IntConst(int value) {
+			this.value = value;
+		}
+
+		@Override
+		int eval(Frame f) {
+			return value;
+		}
+	}
+
+	static final class IntVar extends IntNode {
+		final int slot;
+
+		IntVar(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		int eval(Frame f) {
+			return f.ints[slot];
+		}
+	}
+
+	static final class IntField extends IntNode {
+		final RefNode obj;
+		final int index;
+
+		IntField(RefNode obj, int index) {
+			this.obj = obj;
+			this.index = index;
+		}
+
+		@Override
+		int eval(Frame f) {
+			return ((Instance) nonNull(obj.eval(f))).ints[index];
+		}
+	}
+
+	static final class IntElement extends IntNode {
+		final RefNode array;
+		final IntNode index;
+		final boolean checked;
+
+		IntElement(RefNode array, IntNode index, boolean checked) {
+			this.array = array;
+			this.index = index;
+			this.checked = checked;
+		}
+
+		@Override
+		int eval(Frame f) {
+			int[] data = ((IntArray) nonNull(array.eval(f))).data;
+			int i = index.eval(f);
+			return data[checked ? checkIndex(i, data.length) : i];
+		}
+	}
+
+	static final class IntCall extends IntNode {
+		final Call call;
+
+		IntCall(Call call) {
+			this.call = call;
+		}
+
+		@Override
+		int eval(Frame f) {
+			return call.invoke(f).intResult;
+		}
+	}
+
+	static final class Read extends IntNode {
+		final ScanfReader in;
+
+		Read(ScanfReader in) {
+			this.in = in;
+		}
+
+		@Override
+		int eval(Frame f) {
+			try {
+				return in.readInt();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	static final class Neg extends IntNode {
+		final IntNode arg;
+
+		Neg(IntNode arg) {
+			this.arg = arg;
+		}
+
+		@Override
+		int eval(Frame f) {
+			return -arg.eval(f);
+		}
+	}
+
+	static final class Not extends IntNode {
+		final IntNode arg;
+
+		Not(IntNode arg) {
+			this.arg = arg;
+		}
+
+		@Override
+		int eval(Frame f) {
+			return arg.eval(f) ^ 1;
+		}
+	}
+
+	/**
+	 * An operator on two {@code int}s or {@code boolean}s. Java evaluates the left
+	 * operand of an operator first, like the native code; {@code &&} and {@code ||}
+	 * evaluate both operands.
+	 */
+	static abstract class IntBinary extends IntNode {
+		final IntNode left, right;
+
+		IntBinary(IntNode left, IntNode right) {
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	static final class Add extends IntBinary {
+		Add(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			return left.eval(f) + right.eval(f);
+		}
+	}
+
+	static final class Sub extends IntBinary {
+		Sub(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			return left.eval(f) - right.eval(f);
+		}
+	}
+
+	static final class Mul extends IntBinary {
+		Mul(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			return left.eval(f) * right.eval(f);
+		}
+	}
+
+	static final class Div extends IntBinary {
+		Div(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			int l = left.eval(f);
+			int r = right.eval(f);
+			if (r == 0)
+				throw new Failure(ExitCode.DIVISION_BY_ZERO);
+			return l / r;
+		}
+	}
+
+	static final class Mod extends IntBinary {
+		Mod(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			int l = left.eval(f);
+			int r = right.eval(f);
+			if (r == 0)
+				throw new Failure(ExitCode.DIVISION_BY_ZERO);
+			return l % r;
+		}
+	}
+
+	static final class And extends IntBinary {
+		And(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			return left.eval(f) & right.eval(f);
+		}
+	}
+
+	static final class Or extends IntBinary {
+		Or(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			return left.eval(f) | right.eval(f);
+		}
+	}
+
+	static final class Equal extends IntBinary {
+		Equal(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			return (left.eval(f) == right.eval(f) ? 1 : 0);
+		}
+	}
+
+	static final class NotEqual extends IntBinary {
+		NotEqual(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			return (left.eval(f) != right.eval(f) ? 1 : 0);
+		}
+	}
+
+	static final class LessThan extends IntBinary {
+		LessThan(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			return (left.eval(f) < right.eval(f) ? 1 : 0);
+		}
+	}
+
+	static final class LessOrEqual extends IntBinary {
+		LessOrEqual(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			return (left.eval(f) <= right.eval(f) ? 1 : 0);
+		}
+	}
+
+	static final class GreaterThan extends IntBinary {
+		GreaterThan(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			return (left.eval(f) > right.eval(f) ? 1 : 0);
+		}
+	}
+
+	static final class GreaterOrEqual extends IntBinary {
+		GreaterOrEqual(IntNode left, IntNode right) {
+			super(left, right);
+		}
+
+		@Override
+		int eval(Frame f) {
+			return (left.eval(f) >= right.eval(f) ? 1 : 0);
+		}
+	}
+
+	static final class RefEqual extends IntNode {
+		final RefNode left, right;
+		final boolean negated;
+
+		RefEqual(RefNode left, RefNode right, boolean negated) {
+			this.left = left;
+			this.right = right;
+			this.negated = negated;
+		}
+
+		@Override
+		int eval(Frame f) {
+			return ((left.eval(f) == right.eval(f)) != negated ? 1 : 0);
+		}
+	}
+
+	// Reference expressions
+
+	static final class Null extends RefNode {
+		@Override
+		Ref eval(Frame f) {
+			return null;
+		}
+	}
+
+	static final class RefVar extends RefNode {
+		final int slot;
+
+		RefVar(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		Ref eval(Frame f) {
+			return f.refs[slot];
+		}
+	}
+
+	static final class RefField extends RefNode {
+		final RefNode obj;
+		final int index;
+
+		RefField(RefNode obj, int index) {
+			this.obj = obj;
+			this.index = index;
+		}
+
+		@Override
+		Ref eval(Frame f) {
+			return ((Instance) nonNull(obj.eval(f))).refs[index];
+		}
+	}
+
+	static final class RefElement extends RefNode {
+		final RefNode array;
+		final IntNode index;
+		final boolean checked;
+
+		RefElement(RefNode array, IntNode index, boolean checked) {
+			this.array = array;
+			this.index = index;
+			this.checked = checked;
+		}
+
+		@Override
+		Ref eval(Frame f) {
+			Ref[] data = ((RefArray) nonNull(array.eval(f))).data;
+			int i = index.eval(f);
+			return data[checked ? checkIndex(i, data.length) : i];
+		}
+	}
+
+	static final class RefCall extends RefNode {
+		final Call call;
+
+		RefCall(Call call) {
+			this.call = call;
+		}
+
+		@Override
+		Ref eval(Frame f) {
+			return call.invoke(f).refResult;
+		}
+	}
+
+	static final class NewInstance extends RefNode {
+		final Type type;
+
+		NewInstance(Type type) {
+			this.type = type;
+		}
+
+		@Override
+		Ref eval(Frame f) {
+			return new Instance(type);
+		}
+	}
+
+	static final class NewIntArray extends RefNode {
+		final Type type;
+		final IntNode length;
+
+		NewIntArray(Type type, IntNode length) {
+			this.type = type;
+			this.length = length;
+		}
+
+		@Override
+		Ref eval(Frame f) {
+			int n = length.eval(f);
+			if (n < 0)
+				throw new Failure(ExitCode.INVALID_ARRAY_SIZE);
+			return new IntArray(type, n);
+		}
+	}
+
+	static final class NewRefArray extends RefNode {
+		final Type type;
+		final IntNode length;
+
+		NewRefArray(Type type, IntNode length) {
+			this.type = type;
+			this.length = length;
+		}
+
+		@Override
+		Ref eval(Frame f) {
+			int n = length.eval(f);
+			if (n < 0)
+				throw new Failure(ExitCode.INVALID_ARRAY_SIZE);
+			return new RefArray(type, n);
+		}
+	}
+
+	static final class Downcast extends RefNode {
+		final RefNode arg;
+		final Type type;
+
+		Downcast(RefNode arg, Type type) {
+			this.arg = arg;
+			this.type = type;
+		}
+
+		@Override
+		Ref eval(Frame f) {
+			Ref value = arg.eval(f);
+			if (value != null && !value.type.isSubtypeOf(type))
+				throw new Failure(ExitCode.INVALID_DOWNCAST);
+			return value;
+		}
+	}
+
+	// Statements. A store evaluates the value before the location, like the native code.
+
+	static final class SetIntVar extends StmtNode {
+		final int slot;
+		final IntNode value;
+
+		SetIntVar(int slot, IntNode value) {
+			this.slot = slot;
+			this.value = value;
+		}
+
+		@Override
+		void exec(Frame f) {
+			f.ints[slot] = value.eval(f);
+		}
+	}
+
+	static final class SetRefVar extends StmtNode {
+		final int slot;
+		final RefNode value;
+
+		SetRefVar(int slot, RefNode value) {
+			this.slot = slot;
+			this.value = value;
+		}
+
+		@Override
+		void exec(Frame f) {
+			f.refs[slot] = value.eval(f);
+		}
+	}
+
+	static final class SetIntField extends StmtNode {
+		final IntNode value;
+		final RefNode obj;
+		final int index;
+
+		SetIntField(IntNode value, RefNode obj, int index) {
+			this.value = value;
+			this.obj = obj;
+			this.index = index;
+		}
+
+		@Override
+		void exec(Frame f) {
+			int v = value.eval(f);
+			((Instance) nonNull(obj.eval(f))).ints[index] = v;
+		}
+	}
+
+	static final class SetRefField extends StmtNode {
+		final RefNode value;
+		final RefNode obj;
+		final int index;
+
+		SetRefField(RefNode value, RefNode obj, int index) {
+			this.value = value;
+			this.obj = obj;
+			this.index = index;
+		}
+
+		@Override
+		void exec(Frame f) {
+			Ref v = value.eval(f);
+			((Instance) nonNull(obj.eval(f))).refs[index] = v;
+		}
+	}
+
+	static final class SetIntElement extends StmtNode {
+		final IntNode value;
+		final RefNode array;
+		final IntNode index;
+		final boolean checked;
+
+		SetIntElement(IntNode value, RefNode array, IntNode index, boolean checked) {
+			this.value = value;
+			this.array = array;
+			this.index = index;
+			this.checked = checked;
+		}
+
+		@Override
+		void exec(Frame f) {
+			int v = value.eval(f);
+			int[] data = ((IntArray) nonNull(array.eval(f))).data;
+			int i = index.eval(f);
+			data[checked ? checkIndex(i, data.length) : i] = v;
+		}
+	}
+
+	static final class SetRefElement extends StmtNode {
+		final RefNode value;
+		final RefNode array;
+		final IntNode index;
+		final boolean checked;
+
+		SetRefElement(RefNode value, RefNode array, IntNode index, boolean checked) {
+			this.value = value;
+			this.array = array;
+			this.index = index;
+			this.checked = checked;
+		}
+
+		@Override
+		void exec(Frame f) {
+			Ref v = value.eval(f);
+			Ref[] data = ((RefArray) nonNull(array.eval(f))).data;
+			int i = index.eval(f);
+			data[checked ? checkIndex(i, data.length) : i] = v;
+		}
+	}
+
+	static final class Invoke extends StmtNode {
+		final Call call;
+
+		Invoke(Call call) {
+			this.call = call;
+		}
+
+		@Override
+		void exec(Frame f) {
+			call.invoke(f);
+		}
+	}
+
+	static final class Write extends StmtNode {
+		final Appendable out;
+		final IntNode value;
+
+		Write(Appendable out, IntNode value) {
+			this.out = out;
+			this.value = value;
+		}
+
+		@Override
+		void exec(Frame f) {
+			try {
+				out.append(Integer.toString(value.eval(f)));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	static final class Writeln extends StmtNode {
+		final Appendable out;
+
+		Writeln(Appendable out) {
+			this.out = out;
+		}
+
+		@Override
+		void exec(Frame f) {
+			try {
+				out.append('\n');
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package cd.backend.interpreter;
+
+import cd.backend.ExitCode;
+import cd.backend.interpreter.Nodes.Method;
+
+/**
+ * The run-time data of the {@link CfgInterpreter}: types, objects, arrays and the
+ * frames of method invocations. Integers and booleans are stored as {@code int}s
+ * ({@code true} is 1), apart from the references, so that no value is boxed.
+ */
+final class Values {
+
+	private Values() {
+	}
+
+	/**
+	 * A class or array type. Like the vtables of the native code, a type has a
+	 * {@link cd.ir.Symbol.TypeSymbol#display() display}, which downcasts check; a class
+	 * also has the methods of its vtable slots and the number of its {@code int} and
+	 * reference fields.
+	 */
+	static final class Type {
+		final String name;
+		int depth;
+		Type[] display;
+		Method[] vtable;
+		int intFields, refFields;
+
+		Type(String name) {
+			this.name = name;
+		}
+
+		boolean isSubtypeOf(Type type) {
+			return depth >= type.depth && display[type.depth] == type;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/** An object or array; {@code null} is the Java {@code null}. */
+	static abstract class Ref {
+		final Type type;
+
+		Ref(Type type) {
+			this.type = type;
+		}
+	}
+
+	/**
+	 * An object, whose fields are split by kind. A field has the same index in the
+	 * objects of all subclasses of the class declaring it.
+	 */
+	static final class Instance extends Ref {
+		private static final int[] NO_INTS = new int[0];
+		private static final Ref[] NO_REFS = new Ref[0];
+
+		final int[] ints;
+		final Ref[] refs;
+
+		Instance(Type type) {
+			super(type);
+			this.ints = (type.intFields == 0 ? NO_INTS : new int[type.intFields]);
+			this.refs = (type.refFields == 0 ? NO_REFS : new Ref[type.refFields]);
+		}
+	}
+
+	/** An array of {@code int} or {@code boolean}. */
+	static final class IntArray extends Ref {
+		final int[] data;
+
+		IntArray(Type type, int length) {
+			super(type);
+			this.data = new int[length];
+		}
+	}
+
+	/** An array of references. */
+	static final class RefArray extends Ref {
+		final Ref[] data;
+
+		RefArray(Type type, int length) {
+			super(type);
+			this.data = new Ref[length];
+		}
+	}
+
+	/**
+	 * The variables of an invocation, split by kind and addressed by the slots that
+	 * {@link CfgInterpreter} assigns: the receiver is in {@code refs[0]}, followed by
+	 * the parameters and the other variables. A method that returns a value leaves it
+	 * in {@link #intResult} or {@link #refResult}.
+	 */
+	static final class Frame {
+		final int[] ints;
+		final Ref[] refs;
+		int intResult;
+		Ref refResult;
+
+		Frame(int intSlots, int refSlots) {
+			this.ints = new int[intSlots];
+			this.refs = new Ref[refSlots];
+		}
+	}
+
+	/** Ends the program with the {@link ExitCode} of a failed runtime check. */
+	static final class Failure extends RuntimeException {
+		private static final long serialVersionUID = -2860479151260633427L;
+
+		final ExitCode exitCode;
+
+		Failure(ExitCode exitCode) {
+			super(exitCode.name(), null, false, false);
+			this.exitCode = exitCode;
+		}
+	}
+
+	static Ref nonNull(Ref ref) {
+		if (ref == null)
+			throw new Failure(ExitCode.NULL_POINTER);
+		return ref;
+	}
+
+	static int checkIndex(int index, int length) {
+		if (index < 0 || index >= length)
+			throw new Failure(ExitCode.INVALID_ARRAY_BOUNDS);
+		return index;
+	}
+}
@@ -0,0 +1,345 @@
+package cd.backend.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the bytes of a class file (version 52, Java 8): the constant pool, fields, and
+ * methods whose {@link Code} contains a {@code StackMapTable}. Only the parts of the
+ * format that {@link JvmCodeGenerator} needs are supported.
+ */
+class ClassFile {
+
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_SUPER = 0x0020;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	/** The verification types of stack map frames. */
+	static final int ITEM_INTEGER = 1;
+	static final int ITEM_OBJECT = 7;
+
+	final String name;
+	private final String superName;
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final Map<String, Integer> poolIndex = new HashMap<>();
+	private int poolCount = 1;
+
+	private final ByteArrayOutputStream members = new ByteArrayOutputStream();
+	private final DataOutputStream membersOut = new DataOutputStream(members);
+	private final List<byte[]> fields = new ArrayList<>();
+	private final List<byte[]> methods = new ArrayList<>();
+
+	ClassFile(String name, String superName) {
+		this.name = name;
+		this.superName = superName;
+	}
+
+	/**
+	 * Returns the index of the constant pool entry {@code entry}, which is added unless an
+	 * entry with the same {@code key} exists.
+	 */
+	private int constant(String key, byte[] entry) {
+		Integer index = poolIndex.get(key);
+		if (index == null) {
+			pool.write(entry, 0, entry.length);
+			index = poolCount++;
+			poolIndex.put(key, index);
+		}
+		return index;
+	}
+
+	/** The bytes of a constant pool entry with {@code tag} and the {@code u2} {@code values}. */
+	private static byte[] entry(int tag, int... values) {
+		byte[] result = new byte[1 + 2 * values.length];
+		result[0] = (byte) tag;
+		for (int i = 0; i < values.length; i++) {
+			result[1 + 2 * i] = (byte) (values[i] >> 8);
+			result[2 + 2 * i] = (byte) values[i];
+		}
+		return result;
+	}
+
+	int utf8(String value) {
+		ByteArrayOutputStream entry = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(entry)) {
+			out.writeByte(CONSTANT_UTF8);
+			out.writeUTF(value);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return constant("U" + value, entry.toByteArray());
+	}
+
+	int integer(int value) {
+		return constant("I" + value, entry(CONSTANT_INTEGER, value >>> 16, value & 0xffff));
+	}
+
+	/** A class given by its internal name, or by its descriptor if it is an array. */
+	int classRef(String internalName) {
+		return constant("C" + internalName, entry(CONSTANT_CLASS, utf8(internalName)));
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		return constant("N" + name + ":" + descriptor,
+				entry(CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor)));
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+	}
+
+	private int memberRef(int tag, String owner, String name, String descriptor) {
+		return constant(tag + owner + "." + name + ":" + descriptor,
+				entry(tag, classRef(owner), nameAndType(name, descriptor)));
+	}
+
+	void addField(String name, String descriptor) {
+		try {
+			membersOut.writeShort(ACC_PUBLIC);
+			membersOut.writeShort(utf8(name));
+			membersOut.writeShort(utf8(descriptor));
+			membersOut.writeShort(0);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		fields.add(takeMember());
+	}
+
+	void addMethod(String name, String descriptor, Code code) {
+		try {
+			membersOut.writeShort(ACC_PUBLIC);
+			membersOut.writeShort(utf8(name));
+			membersOut.writeShort(utf8(descriptor));
+			membersOut.writeShort(1);
+			code.write(membersOut);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		methods.add(takeMember());
+	}
+
+	private byte[] takeMember() {
+		byte[] result = members.toByteArray();
+		members.reset();
+		return result;
+	}
+
+	byte[] toByteArray() {
+		int thisIndex = classRef(name), superIndex = classRef(superName);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(52);
+			out.writeShort(poolCount);
+			pool.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_SUPER);
+			out.writeShort(thisIndex);
+			out.writeShort(superIndex);
+			out.writeShort(0); // interfaces
+			out.writeShort(fields.size());
+			for (byte[] field : fields)
+				out.write(field);
+			out.writeShort(methods.size());
+			for (byte[] method : methods)
+				out.write(method);
+			out.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * A position in the code of a method, which is the target of branches and has a
+	 * stack map frame.
+	 */
+	static class Label {
+		private int offset = -1;
+		/** Offsets of the branches to the label, which are resolved when the code is written. */
+		private final List<Integer> branches = new ArrayList<>();
+	}
+
+	/**
+	 * The bytecode of a method. The operand stack must be empty at every {@link Label},
+	 * and all labels have the same frame, whose locals are given by {@link #frameLocals}.
+	 * The code must assign the locals their types before the first label.
+	 */
+	class Code {
+
+		private byte[] code = new byte[64];
+		private int length;
+		private int stack, maxStack;
+		private final int maxLocals;
+		private final List<Integer> frames = new ArrayList<>();
+		private final List<Label> labels = new ArrayList<>();
+
+		/**
+		 * The locals of the frames, as pairs of a verification type and the constant
+		 * pool index of its class or 0.
+		 */
+		private final int[] frameLocals;
+
+		Code(int[] frameLocals) {
+			this.frameLocals = frameLocals;
+			this.maxLocals = frameLocals.length / 2;
+		}
+
+		private void put(int b) {
+			if (length == code.length)
+				code = Arrays.copyOf(code, 2 * length);
+			code[length++] = (byte) b;
+		}
+
+		private void put2(int s) {
+			put(s >> 8);
+			put(s);
+		}
+
+		private void adjust(int delta) {
+			stack += delta;
+			assert stack >= 0;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		/** Emits an instruction without operands that changes the stack depth by {@code delta}. */
+		void op(int opcode, int delta) {
+			put(opcode);
+			adjust(delta);
+		}
+
+		/** Emits an instruction with an operand of one byte. */
+		void op1(int opcode, int operand, int delta) {
+			put(opcode);
+			put(operand);
+			adjust(delta);
+		}
+
+		/** Emits an instruction with an operand of two bytes, e.g. a constant pool index. */
+		void op2(int opcode, int operand, int delta) {
+			put(opcode);
+			put2(operand);
+			adjust(delta);
+		}
+
+		/** Emits {@code iload}, {@code istore}, {@code aload} or {@code astore} of a local. */
+		void local(int opcode, int slot, int delta) {
+			int shortForm = Opcodes.shortForm(opcode);
+			if (slot <= 3) {
+				op(shortForm + slot, delta);
+			} else if (slot <= 0xff) {
+				op1(opcode, slot, delta);
+			} else {
+				put(Opcodes.WIDE);
+				op2(opcode, slot, delta);
+			}
+		}
+
+		/** Emits an invoke instruction, which pops its arguments and pushes its result. */
+		void invoke(int opcode, String owner, String name, String descriptor) {
+			int index = methodRef(owner, name, descriptor);
+			int delta = (opcode == Opcodes.INVOKESTATIC ? 0 : -1);
+			int i = 1;
+			while (descriptor.charAt(i) != ')') {
+				delta--;
+				while (descriptor.charAt(i) == '[')
+					i++;
+				i = (descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) : i) + 1;
+			}
+			if (descriptor.charAt(i + 1) != 'V')
+				delta++;
+			op2(opcode, index, delta);
+		}
+
+		void branch(int opcode, Label target, int delta) {
+			target.branches.add(length);
+			if (!labels.contains(target))
+				labels.add(target);
+			op2(opcode, 0, delta);
+		}
+
+		/** Places {@code label} at the next instruction, with the frame of the method. */
+		void place(Label label) {
+			assert stack == 0 && label.offset == -1;
+			if (length == 0)
+				op(Opcodes.NOP, 0); // the first instruction has the implicit frame
+			label.offset = length;
+			if (!labels.contains(label))
+				labels.add(label);
+			if (frames.isEmpty() || frames.get(frames.size() - 1) != length)
+				frames.add(length);
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			for (Label label : labels) {
+				for (int branch : label.branches) {
+					int offset = label.offset - branch;
+					if (offset != (short) offset)
+						throw new RuntimeException("Method too large for 16-bit branch offsets");
+					code[branch + 1] = (byte) (offset >> 8);
+					code[branch + 2] = (byte) offset;
+				}
+			}
+
+			ByteArrayOutputStream stackMap = new ByteArrayOutputStream();
+			DataOutputStream mapOut = new DataOutputStream(stackMap);
+			int previous = -1;
+			for (int offset : frames) {
+				int delta = offset - previous - 1;
+				if (previous == -1) {
+					mapOut.writeByte(255); // full_frame
+					mapOut.writeShort(delta);
+					mapOut.writeShort(maxLocals);
+					for (int i = 0; i < frameLocals.length; i += 2) {
+						mapOut.writeByte(frameLocals[i]);
+						if (frameLocals[i] == ITEM_OBJECT)
+							mapOut.writeShort(frameLocals[i + 1]);
+					}
+					mapOut.writeShort(0);
+				} else if (delta < 64) {
+					mapOut.writeByte(delta); // same_frame
+				} else {
+					mapOut.writeByte(251); // same_frame_extended
+					mapOut.writeShort(delta);
+				}
+				previous = offset;
+			}
+
+			int stackMapLength = 2 + stackMap.size();
+			boolean hasFrames = !frames.isEmpty();
+			out.writeShort(utf8("Code"));
+			out.writeInt(12 + length + (hasFrames ? 6 + stackMapLength : 0));
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(length);
+			out.write(code, 0, length);
+			out.writeShort(0); // exception table
+			if (hasFrames) {
+				out.writeShort(1);
+				out.writeShort(utf8("StackMapTable"));
+				out.writeInt(stackMapLength);
+				out.writeShort(frames.size());
+				stackMap.writeTo(out);
+			} else {
+				out.writeShort(0);
+			}
+		}
+	}
+}
@@ -0,0 +1,602 @@
+package cd.backend.jvm;
+
+import static cd.backend.jvm.Opcodes.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.Main;
+import cd.backend.codegen.BlockLayout;
+import cd.backend.jvm.ClassFile.Code;
+import cd.backend.jvm.ClassFile.Label;
+import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.BuiltInRead;
+import cd.ir.Ast.BuiltInWrite;
+import cd.ir.Ast.BuiltInWriteln;
+import cd.ir.Ast.Cast;
+import cd.ir.Ast.ClassDecl;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.Field;
+import cd.ir.Ast.Index;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodCall;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.NullConst;
+import cd.ir.Ast.ReturnStmt;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.UnaryOp;
+import cd.ir.Ast.UnaryOp.UOp;
+import cd.ir.Ast.Var;
+import cd.ir.Ast.VarDecl;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.ir.ExprVisitor;
+import cd.ir.Symbol.ArrayTypeSymbol;
+import cd.ir.Symbol.ClassSymbol;
+import cd.ir.Symbol.MethodSymbol;
+import cd.ir.Symbol.PrimitiveTypeSymbol;
+import cd.ir.Symbol.TypeSymbol;
+import cd.ir.Symbol.VariableSymbol;
+
+/**
+ * Translates each class of a program into a JVM class file, which {@link JvmLauncher}
+ * runs. Javali methods become virtual methods, so that HotSpot dispatches, inlines and
+ * compiles them, and {@code int} and {@code boolean} values are JVM {@code int}s.
+ * <p>
+ * The runtime checks are left to the JVM, whose exceptions the launcher maps to the
+ * {@link cd.backend.ExitCode}s, except where the native code checks something earlier
+ * or differently: the {@code null} check of an array before an index that can fail, and
+ * downcasts to arrays of references. Operands are evaluated in the same order as in the
+ * native code, so that the same check fails first.
+ * <p>
+ * The operand stack is empty at the start of each basic block, and all variables are
+ * initialized on entry, so every block has the same stack map frame: the declared types
+ * of the variables. Comparisons whose value is used as an {@code int} call
+ * {@link JvmRuntime}, which HotSpot inlines, rather than branch within an expression.
+ */
+public class JvmCodeGenerator {
+
+	private static final String RUNTIME = "cd/backend/jvm/JvmRuntime";
+	private static final String OBJECT = "java/lang/Object";
+
+	/**
+	 * Final methods of {@code java.lang.Object} and {@code finalize()}, which a Javali
+	 * method must not override. Such methods get a {@code $} appended.
+	 */
+	private static final Set<String> RESERVED_METHODS = new HashSet<>(
+			Arrays.asList("getClass", "notify", "notifyAll", "wait", "finalize"));
+
+	public final Main main;
+
+	/** The class declaring each field. */
+	private final Map<VariableSymbol, ClassSymbol> fieldOwners = new HashMap<>();
+
+	public JvmCodeGenerator(Main main) {
+		this.main = main;
+	}
+
+	/** Returns the class files of the program by internal class name. */
+	public Map<String, byte[]> go(List<? extends ClassDecl> astRoots) {
+		for (ClassDecl cdecl : astRoots)
+			for (VariableSymbol field : cdecl.sym.fields.values())
+				fieldOwners.put(field, cdecl.sym);
+
+		Map<String, byte[]> result = new LinkedHashMap<>();
+		for (ClassDecl cdecl : astRoots) {
+			ClassFile cf = new ClassFile(cdecl.name, internalName(cdecl.sym.superClass));
+			for (VarDecl field : cdecl.fields())
+				cf.addField(field.name, descriptor(cdecl.sym.fields.get(field.name).type));
+			emitConstructor(cf, cdecl.sym);
+			for (MethodDecl mdecl : cdecl.methods())
+				new MethodGenerator(cf, mdecl).emit();
+			result.put(cdecl.name, cf.toByteArray());
+		}
+		return result;
+	}
+
+	private void emitConstructor(ClassFile cf, ClassSymbol cls) {
+		Code code = cf.new Code(new int[] { ClassFile.ITEM_OBJECT, cf.classRef(cf.name) });
+		code.local(ALOAD, 0, 1);
+		code.invoke(INVOKESPECIAL, internalName(cls.superClass), "<init>", "()V");
+		code.op(RETURN, 0);
+		cf.addMethod("<init>", "()V", code);
+	}
+
+	/** The internal name of a class, or the descriptor of an array type. */
+	static String internalName(TypeSymbol type) {
+		if (type instanceof ArrayTypeSymbol)
+			return descriptor(type);
+		if (type == ClassSymbol.objectType || type == ClassSymbol.nullType)
+			return OBJECT;
+		return type.name;
+	}
+
+	static String descriptor(TypeSymbol type) {
+		if (type == PrimitiveTypeSymbol.voidType)
+			return "V";
+		if (type == PrimitiveTypeSymbol.booleanType || type == PrimitiveTypeSymbol.intType)
+			return "I";
+		if (type instanceof ArrayTypeSymbol) {
+			TypeSymbol element = ((ArrayTypeSymbol) type).elementType;
+			if (element == PrimitiveTypeSymbol.booleanType)
+				return "[Z";
+			return "[" + descriptor(element);
+		}
+		return "L" + internalName(type) + ";";
+	}
+
+	static String descriptor(MethodSymbol method) {
+		StringBuilder result = new StringBuilder("(");
+		for (VariableSymbol param : method.parameters)
+			result.append(descriptor(param.type));
+		return result.append(")").append(descriptor(method.returnType)).toString();
+	}
+
+	static String methodName(MethodSymbol method) {
+		return (RESERVED_METHODS.contains(method.name) ? method.name + "$" : method.name);
+	}
+
+	/** Generates the bytecode of one method from its control flow graph. */
+	private class MethodGenerator {
+
+		private final ClassFile cf;
+		private final MethodDecl mdecl;
+		private final Map<VariableSymbol, Integer> slots = new LinkedHashMap<>();
+		private final ExprGenerator eg = new ExprGenerator();
+		private final StmtGenerator sg = new StmtGenerator();
+		private Code code;
+
+		MethodGenerator(ClassFile cf, MethodDecl mdecl) {
+			this.cf = cf;
+			this.mdecl = mdecl;
+		}
+
+		void emit() {
+			MethodSymbol msym = mdecl.sym;
+			ControlFlowGraph cfg = mdecl.cfg;
+
+			// this, the parameters, and the other variables in the order of their first use
+			slots.put(msym.owner.thisSymbol, 0);
+			for (VariableSymbol param : msym.parameters)
+				slots.put(param, slots.size());
+			for (BasicBlock blk : cfg.allBlocks) {
+				for (Stmt stmt : blk.stmts)
+					addVariables(stmt);
+				if (blk.condition != null)
+					addVariables(blk.condition);
+			}
+
+			int[] frame = new int[2 * slots.size()];
+			for (Map.Entry<VariableSymbol, Integer> entry : slots.entrySet()) {
+				TypeSymbol type = entry.getKey().type;
+				int slot = entry.getValue();
+				frame[2 * slot] = (type.isReferenceType() ? ClassFile.ITEM_OBJECT
+						: ClassFile.ITEM_INTEGER);
+				if (type.isReferenceType())
+					frame[2 * slot + 1] = cf.classRef(internalName(type));
+			}
+			code = cf.new Code(frame);
+			for (Map.Entry<VariableSymbol, Integer> entry : slots.entrySet()) {
+				if (entry.getValue() > msym.parameters.size()) {
+					pushZero(entry.getKey().type);
+					store(entry.getKey());
+				}
+			}
+
+			Map<BasicBlock, Label> labels = new HashMap<>();
+			for (BasicBlock blk : cfg.allBlocks)
+				labels.put(blk, new Label());
+			List<BasicBlock> layout = new BlockLayout().layout(cfg);
+			if (layout.get(0) != cfg.start)
+				code.branch(GOTO, labels.get(cfg.start), 0);
+			for (int i = 0; i < layout.size(); i++) {
+				BasicBlock blk = layout.get(i);
+				// the block emitted next, which needs no jump
+				BasicBlock next = (i + 1 < layout.size() ? layout.get(i + 1) : null);
+
+				code.place(labels.get(blk));
+				boolean returned = false;
+				for (Stmt stmt : blk.stmts) {
+					sg.visit(stmt, null);
+					// the verifier rejects code that follows without a frame
+					if (stmt instanceof ReturnStmt) {
+						returned = true;
+						break;
+					}
+				}
+
+				if (returned) {
+					continue;
+				} else if (blk == cfg.end) {
+					pushZero(msym.returnType);
+					returnValue(msym.returnType);
+				} else if (blk.condition != null) {
+					if (blk.falseSuccessor() == next) {
+						condition(blk.condition, true, labels.get(blk.trueSuccessor()));
+					} else {
+						condition(blk.condition, false, labels.get(blk.falseSuccessor()));
+						if (blk.trueSuccessor() != next)
+							code.branch(GOTO, labels.get(blk.trueSuccessor()), 0);
+					}
+				} else if (blk.successors.get(0) != next) {
+					code.branch(GOTO, labels.get(blk.successors.get(0)), 0);
+				}
+			}
+
+			cf.addMethod(methodName(msym), descriptor(msym), code);
+		}
+
+		private void addVariables(Ast ast) {
+			if (ast instanceof Var && !slots.containsKey(((Var) ast).sym))
+				slots.put(((Var) ast).sym, slots.size());
+			for (Ast child : ast.children())
+				addVariables(child);
+		}
+
+		private void load(VariableSymbol sym) {
+			code.local(sym.type.isReferenceType() ? ALOAD : ILOAD, slots.get(sym), 1);
+		}
+
+		private void store(VariableSymbol sym) {
+			code.local(sym.type.isReferenceType() ? ASTORE : ISTORE, slots.get(sym), -1);
+		}
+
+		/** Pushes the default value of {@code type}, or nothing for {@code void}. */
+		private void pushZero(TypeSymbol type) {
+			if (type.isReferenceType())
+				code.op(ACONST_NULL, 1);
+			else if (type != PrimitiveTypeSymbol.voidType)
+				code.op(ICONST_0, 1);
+		}
+
+		private void returnValue(TypeSymbol type) {
+			if (type == PrimitiveTypeSymbol.voidType)
+				code.op(RETURN, 0);
+			else
+				code.op(type.isReferenceType() ? ARETURN : IRETURN, -1);
+		}
+
+		private void pushInt(int value) {
+			if (value >= -1 && value <= 5)
+				code.op(ICONST_0 + value, 1);
+			else if (value == (byte) value)
+				code.op1(BIPUSH, value, 1);
+			else if (value == (short) value)
+				code.op2(SIPUSH, value, 1);
+			else {
+				int index = cf.integer(value);
+				if (index <= 0xff)
+					code.op1(LDC, index, 1);
+				else
+					code.op2(LDC_W, index, 1);
+			}
+		}
+
+		/**
+		 * Evaluates {@code cond} and jumps to {@code label} if its value is {@code ifTrue},
+		 * with comparisons and {@code !} as conditional branches.
+		 */
+		private void condition(Expr cond, boolean ifTrue, Label label) {
+			if (cond instanceof BooleanConst) {
+				if (((BooleanConst) cond).value == ifTrue)
+					code.branch(GOTO, label, 0);
+				return;
+			}
+			if (cond instanceof UnaryOp && ((UnaryOp) cond).operator == UOp.U_BOOL_NOT) {
+				condition(((UnaryOp) cond).arg(), !ifTrue, label);
+				return;
+			}
+			if (cond instanceof BinaryOp) {
+				BinaryOp bin = (BinaryOp) cond;
+				int opcode = branch(bin);
+				if (opcode != -1) {
+					eg.visit(bin.left(), null);
+					eg.visit(bin.right(), null);
+					code.branch(ifTrue ? opcode : negate(opcode), label, -2);
+					return;
+				}
+			}
+			eg.visit(cond, null);
+			code.branch(ifTrue ? IFNE : IFEQ, label, -1);
+		}
+
+		/** The branch taken if the comparison {@code bin} holds, or -1 for other operators. */
+		private int branch(BinaryOp bin) {
+			boolean refs = bin.left().type.isReferenceType();
+			switch (bin.operator) {
+			case B_EQUAL:
+				return (refs ? IF_ACMPEQ : IF_ICMPEQ);
+			case B_NOT_EQUAL:
+				return (refs ? IF_ACMPNE : IF_ICMPNE);
+			case B_LESS_THAN:
+				return IF_ICMPLT;
+			case B_LESS_OR_EQUAL:
+				return IF_ICMPLE;
+			case B_GREATER_THAN:
+				return IF_ICMPGT;
+			case B_GREATER_OR_EQUAL:
+				return IF_ICMPGE;
+			default:
+				return -1;
+			}
+		}
+
+		/**
+		 * Evaluates the array of {@code ast}, and checks it for {@code null} unless no
+		 * other check can fail before the access does.
+		 */
+		private void arrayOf(Index ast) {
+			eg.visit(ast.left(), null);
+			Expr index = ast.right();
+			if (!(index instanceof Var || index instanceof IntConst)) {
+				code.op(DUP, 1);
+				code.invoke(INVOKESTATIC, "java/util/Objects", "requireNonNull",
+						"(Ljava/lang/Object;)Ljava/lang/Object;");
+				code.op(POP, -1);
+			}
+			eg.visit(index, null);
+		}
+
+		private int arrayOpcode(TypeSymbol element, boolean store) {
+			if (element.isReferenceType())
+				return (store ? AASTORE : AALOAD);
+			if (element == PrimitiveTypeSymbol.booleanType)
+				return (store ? BASTORE : BALOAD);
+			return (store ? IASTORE : IALOAD);
+		}
+
+		private void fieldAccess(int opcode, VariableSymbol field) {
+			int index = cf.fieldRef(fieldOwners.get(field).name, field.name, descriptor(field.type));
+			code.op2(opcode, index, (opcode == GETFIELD ? 0 : -2));
+		}
+
+		/** Evaluates the receiver and arguments of {@code ast}, and calls the method. */
+		private void call(MethodCallExpr ast) {
+			for (Expr arg : ast.allArguments())
+				eg.visit(arg, null);
+			code.invoke(INVOKEVIRTUAL, internalName(ast.sym.owner), methodName(ast.sym),
+					descriptor(ast.sym));
+		}
+
+		private class StmtGenerator extends AstVisitor<Void, Void> {
+
+			@Override
+			public Void assign(Assign ast, Void arg) {
+				Expr left = ast.left();
+				eg.visit(ast.right(), null);
+				if (left instanceof Var) {
+					store(((Var) left).sym);
+				} else if (left instanceof Field) {
+					Field field = (Field) left;
+					eg.visit(field.arg(), null);
+					code.op(SWAP, 0);
+					fieldAccess(PUTFIELD, field.sym);
+				} else if (left instanceof Index) {
+					arrayOf((Index) left);
+					// value, array, index -> array, index, value
+					code.op(DUP2_X1, 2);
+					code.op(POP2, -2);
+					code.op(arrayOpcode(left.type, true), -3);
+				} else {
+					throw new RuntimeException("Store to unexpected lvalue " + left);
+				}
+				return null;
+			}
+
+			@Override
+			public Void builtInWrite(BuiltInWrite ast, Void arg) {
+				eg.visit(ast.arg(), null);
+				code.invoke(INVOKESTATIC, RUNTIME, "write", "(I)V");
+				return null;
+			}
+
+			@Override
+			public Void builtInWriteln(BuiltInWriteln ast, Void arg) {
+				code.invoke(INVOKESTATIC, RUNTIME, "writeln", "()V");
+				return null;
+			}
+
+			@Override
+			public Void methodCall(MethodCall ast, Void arg) {
+				MethodCallExpr call = ast.getMethodCallExpr();
+				call(call);
+				if (call.sym.returnType != PrimitiveTypeSymbol.voidType)
+					code.op(POP, -1);
+				return null;
+			}
+
+			@Override
+			public Void returnStmt(ReturnStmt ast, Void arg) {
+				if (ast.arg() == null) {
+					code.op(RETURN, 0);
+				} else {
+					eg.visit(ast.arg(), null);
+					returnValue(mdecl.sym.returnType);
+				}
+				return null;
+			}
+		}
+
+		/** Pushes the value of an expression. */
+		private class ExprGenerator extends ExprVisitor<Void, Void> {
+
+			@Override
+			public Void binaryOp(BinaryOp ast, Void arg) {
+				visit(ast.left(), null);
+				visit(ast.right(), null);
+				switch (ast.operator) {
+				case B_TIMES:
+					code.op(IMUL, -1);
+					break;
+				case B_DIV:
+					code.op(IDIV, -1);
+					break;
+				case B_MOD:
+					code.op(IREM, -1);
+					break;
+				case B_PLUS:
+					code.op(IADD, -1);
+					break;
+				case B_MINUS:
+					code.op(ISUB, -1);
+					break;
+				case B_AND:
+					// both operands are evaluated, so there is nothing to skip
+					code.op(IAND, -1);
+					break;
+				case B_OR:
+					code.op(IOR, -1);
+					break;
+				default:
+					compare(ast);
+					break;
+				}
+				return null;
+			}
+
+			private void compare(BinaryOp ast) {
+				String name;
+				switch (ast.operator) {
+				case B_EQUAL:
+					name = "eq";
+					break;
+				case B_NOT_EQUAL:
+					name = "ne";
+					break;
+				case B_LESS_THAN:
+					name = "lt";
+					break;
+				case B_LESS_OR_EQUAL:
+					name = "le";
+					break;
+				case B_GREATER_THAN:
+					name = "gt";
+					break;
+				default:
+					name = "ge";
+					break;
+				}
+				String operand = (ast.left().type.isReferenceType() ? "Ljava/lang/Object;" : "I");
+				code.invoke(INVOKESTATIC, RUNTIME, name, "(" + operand + operand + ")I");
+			}
+
+			@Override
+			public Void booleanConst(BooleanConst ast, Void arg) {
+				pushInt(ast.value ? 1 : 0);
+				return null;
+			}
+
+			@Override
+			public Void builtInRead(BuiltInRead ast, Void arg) {
+				code.invoke(INVOKESTATIC, RUNTIME, "read", "()I");
+				return null;
+			}
+
+			@Override
+			public Void cast(Cast ast, Void arg) {
+				visit(ast.arg(), null);
+				TypeSymbol type = ast.type;
+				if (!type.isReferenceType() || type == ClassSymbol.objectType)
+					return null;
+				if (type instanceof ArrayTypeSymbol
+						&& ((ArrayTypeSymbol) type).elementType.isReferenceType()) {
+					code.op2(LDC_W, cf.classRef(internalName(type)), 1);
+					code.invoke(INVOKESTATIC, RUNTIME, "checkArrayCast",
+							"(Ljava/lang/Object;Ljava/lang/Class;)Ljava/lang/Object;");
+				}
+				code.op2(CHECKCAST, cf.classRef(internalName(type)), 0);
+				return null;
+			}
+
+			@Override
+			public Void field(Field ast, Void arg) {
+				visit(ast.arg(), null);
+				fieldAccess(GETFIELD, ast.sym);
+				return null;
+			}
+
+			@Override
+			public Void index(Index ast, Void arg) {
+				arrayOf(ast);
+				code.op(arrayOpcode(ast.type, false), -1);
+				return null;
+			}
+
+			@Override
+			public Void intConst(IntConst ast, Void arg) {
+				pushInt(ast.value);
+				return null;
+			}
+
+			@Override
+			public Void methodCall(MethodCallExpr ast, Void arg) {
+				call(ast);
+				return null;
+			}
+
+			@Override
+			public Void newObject(NewObject ast, Void arg) {
+				int cls = cf.classRef(internalName(ast.type));
+				code.op2(NEW, cls, 1);
+				code.op(DUP, 1);
+				code.invoke(INVOKESPECIAL, internalName(ast.type), "<init>", "()V");
+				return null;
+			}
+
+			@Override
+			public Void newArray(NewArray ast, Void arg) {
+				visit(ast.arg(), null);
+				TypeSymbol element = ((ArrayTypeSymbol) ast.type).elementType;
+				if (element.isReferenceType())
+					code.op2(ANEWARRAY, cf.classRef(internalName(element)), 0);
+				else
+					code.op1(NEWARRAY, element == PrimitiveTypeSymbol.booleanType ? T_BOOLEAN
+							: T_INT, 0);
+				return null;
+			}
+
+			@Override
+			public Void nullConst(NullConst ast, Void arg) {
+				code.op(ACONST_NULL, 1);
+				return null;
+			}
+
+			@Override
+			public Void thisRef(ThisRef ast, Void arg) {
+				code.local(ALOAD, 0, 1);
+				return null;
+			}
+
+			@Override
+			public Void unaryOp(UnaryOp ast, Void arg) {
+				visit(ast.arg(), null);
+				if (ast.operator == UOp.U_MINUS) {
+					code.op(INEG, 0);
+				} else if (ast.operator == UOp.U_BOOL_NOT) {
+					pushInt(1);
+					code.op(IXOR, -1);
+				}
+				return null;
+			}
+
+			@Override
+			public Void var(Var ast, Void arg) {
+				load(ast.sym);
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package cd.backend.jvm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+import cd.backend.ExitCode;
+
+/**
+ * Runs the class files of a Javali program from {@link JvmCodeGenerator} in this JVM:
+ * creates an instance of {@code Main} and calls its {@code main()} method. A failed
+ * runtime check ends the program with the {@link ExitCode} that the native code would
+ * exit with.
+ * <p>
+ * From the command line, {@code java cd.backend.jvm.JvmLauncher prog.javali.jar} runs
+ * the classes in a jar written by {@code cd.Main}, with the standard input and output,
+ * and exits with the exit code of the program.
+ */
+public class JvmLauncher {
+
+	/** The size of the stack of the thread running a program, which recurses deeply. */
+	private static final long STACK_SIZE = 1L << 30;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: java cd.backend.jvm.JvmLauncher prog.jar");
+			System.exit(ExitCode.INTERNAL_ERROR.value);
+		}
+		Map<String, byte[]> classes = new HashMap<>();
+		try (JarInputStream jar = new JarInputStream(new FileInputStream(args[0]))) {
+			for (JarEntry entry; (entry = jar.getNextJarEntry()) != null;) {
+				String name = entry.getName();
+				if (name.endsWith(".class"))
+					classes.put(name.substring(0, name.length() - 6), readAll(jar));
+			}
+		}
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+		int exitCode = run(classes, new BufferedReader(new InputStreamReader(System.in)), out);
+		out.flush();
+		System.exit(exitCode);
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n; (n = in.read(buffer)) != -1;)
+			bytes.write(buffer, 0, n);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Runs a program and returns its output like
+	 * {@link cd.util.FileUtil#runCommand(java.io.File, String[], String[], String, boolean)}
+	 * does for a native binary when it detects errors: the output, or
+	 * {@code "Error: "} and the exit code if the exit code is not 0.
+	 */
+	public static String execute(Map<String, byte[]> classes, String input) {
+		StringBuilder output = new StringBuilder();
+		int exitCode = run(classes, new StringReader(input), output);
+		if (exitCode != 0)
+			return "Error: " + exitCode + "\n";
+		return output.toString();
+	}
+
+	/**
+	 * Runs a program, given by the class files by internal class name, and returns its
+	 * exit code. Programs run one at a time, because they share the {@link JvmRuntime}.
+	 */
+	public static synchronized int run(Map<String, byte[]> classes, Reader input,
+			Appendable output) {
+		final ClassLoader loader = new ProgramLoader(classes);
+		final int[] exitCode = { ExitCode.OK.value };
+		final Throwable[] error = { null };
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Class<?> mainClass = loader.loadClass("Main");
+					Object main = mainClass.getConstructor().newInstance();
+					mainClass.getMethod("main").invoke(main);
+				} catch (InvocationTargetException e) {
+					ExitCode code = exitCode(e.getCause());
+					if (code == null)
+						error[0] = e.getCause();
+					else
+						exitCode[0] = code.value;
+				} catch (ReflectiveOperationException | LinkageError e) {
+					error[0] = e;
+				}
+			}
+		}, "Javali", STACK_SIZE);
+
+		JvmRuntime.start(input, output);
+		try {
+			thread.start();
+			thread.join();
+		} catch (InterruptedException e) {
+			thread.interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			JvmRuntime.stop();
+		}
+		if (error[0] != null)
+			throw new RuntimeException("Running the generated classes failed", error[0]);
+		return exitCode[0];
+	}
+
+	/**
+	 * The exit code of a program that threw {@code e}, or {@code null} if {@code e} is
+	 * not the failure of a runtime check. The generated code leaves these checks to the
+	 * JVM.
+	 */
+	private static ExitCode exitCode(Throwable e) {
+		if (e instanceof NullPointerException)
+			return ExitCode.NULL_POINTER;
+		if (e instanceof ArrayIndexOutOfBoundsException)
+			return ExitCode.INVALID_ARRAY_BOUNDS;
+		if (e instanceof NegativeArraySizeException)
+			return ExitCode.INVALID_ARRAY_SIZE;
+		if (e instanceof ArithmeticException)
+			return ExitCode.DIVISION_BY_ZERO;
+		if (e instanceof ClassCastException)
+			return ExitCode.INVALID_DOWNCAST;
+		if (e instanceof StackOverflowError || e instanceof OutOfMemoryError)
+			return ExitCode.INTERNAL_ERROR;
+		return null;
+	}
+
+	/** Defines the classes of a program, which are in the unnamed package. */
+	private static class ProgramLoader extends ClassLoader {
+
+		private final Map<String, byte[]> classes;
+
+		ProgramLoader(Map<String, byte[]> classes) {
+			super(JvmLauncher.class.getClassLoader());
+			this.classes = classes;
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> result = findLoadedClass(name);
+				if (result == null && classes.containsKey(name))
+					result = findClass(name);
+				if (result == null)
+					return super.loadClass(name, resolve);
+				if (resolve)
+					resolveClass(result);
+				return result;
+			}
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			byte[] bytes = classes.get(name);
+			if (bytes == null)
+				throw new ClassNotFoundException(name);
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package cd.backend.jvm;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+import cd.util.ScanfReader;
+
+/**
+ * The helpers that the classes of {@link JvmCodeGenerator} call: reading and writing
+ * integers like the native runtime does with {@code scanf} and {@code printf}, comparisons
+ * whose value is used as an {@code int}, and the check of a downcast to an array type.
+ * A program uses the input and output of the {@link JvmLauncher} that runs it.
+ */
+public final class JvmRuntime {
+
+	private static ScanfReader in;
+	private static Appendable out;
+
+	private JvmRuntime() {
+	}
+
+	static void start(Reader input, Appendable output) {
+		in = new ScanfReader(input);
+		out = output;
+	}
+
+	static void stop() {
+		in = null;
+		out = null;
+	}
+
+	public static int read() {
+		try {
+			return in.readInt();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static void write(int value) {
+		try {
+			out.append(Integer.toString(value));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static void writeln() {
+		try {
+			out.append('\n');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static int eq(int a, int b) {
+		return (a == b ? 1 : 0);
+	}
+
+	public static int ne(int a, int b) {
+		return (a != b ? 1 : 0);
+	}
+
+	public static int lt(int a, int b) {
+		return (a < b ? 1 : 0);
+	}
+
+	public static int le(int a, int b) {
+		return (a <= b ? 1 : 0);
+	}
+
+	public static int gt(int a, int b) {
+		return (a > b ? 1 : 0);
+	}
+
+	public static int ge(int a, int b) {
+		return (a >= b ? 1 : 0);
+	}
+
+	public static int eq(Object a, Object b) {
+		return (a == b ? 1 : 0);
+	}
+
+	public static int ne(Object a, Object b) {
+		return (a != b ? 1 : 0);
+	}
+
+	/**
+	 * Checks the downcast of {@code obj} to the array type {@code type}. Unlike arrays
+	 * on the JVM, an array of a class is not an array of its superclass in Javali.
+	 */
+	public static Object checkArrayCast(Object obj, Class<?> type) {
+		if (obj != null && obj.getClass() != type)
+			throw new ClassCastException(obj.getClass().getName());
+		return obj;
+	}
+}
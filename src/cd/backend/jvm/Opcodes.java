@@ -0,0 +1,116 @@
+package cd.backend.jvm;
+
+/** The JVM instructions that {@link JvmCodeGenerator} uses. */
+final class Opcodes {
+
+	static final int NOP = 0x00;
+	static final int ACONST_NULL = 0x01;
+	static final int ICONST_0 = 0x03;
+	static final int BIPUSH = 0x10;
+	static final int SIPUSH = 0x11;
+	static final int LDC = 0x12;
+	static final int LDC_W = 0x13;
+	static final int ILOAD = 0x15;
+	static final int ALOAD = 0x19;
+	static final int ILOAD_0 = 0x1a;
+	static final int ALOAD_0 = 0x2a;
+	static final int IALOAD = 0x2e;
+	static final int AALOAD = 0x32;
+	static final int BALOAD = 0x33;
+	static final int ISTORE = 0x36;
+	static final int ASTORE = 0x3a;
+	static final int ISTORE_0 = 0x3b;
+	static final int ASTORE_0 = 0x4b;
+	static final int IASTORE = 0x4f;
+	static final int AASTORE = 0x53;
+	static final int BASTORE = 0x54;
+	static final int POP = 0x57;
+	static final int POP2 = 0x58;
+	static final int DUP = 0x59;
+	static final int DUP2_X1 = 0x5d;
+	static final int SWAP = 0x5f;
+	static final int IADD = 0x60;
+	static final int ISUB = 0x64;
+	static final int IMUL = 0x68;
+	static final int IDIV = 0x6c;
+	static final int IREM = 0x70;
+	static final int INEG = 0x74;
+	static final int IAND = 0x7e;
+	static final int IOR = 0x80;
+	static final int IXOR = 0x82;
+	static final int IFEQ = 0x99;
+	static final int IFNE = 0x9a;
+	static final int IF_ICMPEQ = 0x9f;
+	static final int IF_ICMPNE = 0xa0;
+	static final int IF_ICMPLT = 0xa1;
+	static final int IF_ICMPGE = 0xa2;
+	static final int IF_ICMPGT = 0xa3;
+	static final int IF_ICMPLE = 0xa4;
+	static final int IF_ACMPEQ = 0xa5;
+	static final int IF_ACMPNE = 0xa6;
+	static final int GOTO = 0xa7;
+	static final int IRETURN = 0xac;
+	static final int ARETURN = 0xb0;
+	static final int RETURN = 0xb1;
+	static final int GETFIELD = 0xb4;
+	static final int PUTFIELD = 0xb5;
+	static final int INVOKEVIRTUAL = 0xb6;
+	static final int INVOKESPECIAL = 0xb7;
+	static final int INVOKESTATIC = 0xb8;
+	static final int NEW = 0xbb;
+	static final int NEWARRAY = 0xbc;
+	static final int ANEWARRAY = 0xbd;
+	static final int CHECKCAST = 0xc0;
+	static final int WIDE = 0xc4;
+
+	/** The operands of {@link #NEWARRAY}. */
+	static final int T_BOOLEAN = 4;
+	static final int T_INT = 10;
+
+	private Opcodes() {
+	}
+
+	/** The form of a load or store of a local that encodes local 0 in the opcode. */
+	static int shortForm(int opcode) {
+		switch (opcode) {
+		case ILOAD:
+			return ILOAD_0;
+		case ALOAD:
+			return ALOAD_0;
+		case ISTORE:
+			return ISTORE_0;
+		case ASTORE:
+			return ASTORE_0;
+		default:
+			throw new IllegalArgumentException("No short form of opcode " + opcode);
+		}
+	}
+
+	/** The conditional branch taken if the condition of {@code opcode} does not hold. */
+	static int negate(int opcode) {
+		switch (opcode) {
+		case IFEQ:
+			return IFNE;
+		case IFNE:
+			return IFEQ;
+		case IF_ICMPEQ:
+			return IF_ICMPNE;
+		case IF_ICMPNE:
+			return IF_ICMPEQ;
+		case IF_ICMPLT:
+			return IF_ICMPGE;
+		case IF_ICMPGE:
+			return IF_ICMPLT;
+		case IF_ICMPGT:
+			return IF_ICMPLE;
+		case IF_ICMPLE:
+			return IF_ICMPGT;
+		case IF_ACMPEQ:
+			return IF_ACMPNE;
+		case IF_ACMPNE:
+			return IF_ACMPEQ;
+		default:
+			throw new IllegalArgumentException("Not a conditional branch: " + opcode);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package cd.backend.lir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cd.backend.lir.Operand.Memory;
+import cd.backend.lir.Operand.VirtualRegister;
+
+/**
+ * An instruction of the low-level IR (LIR) of a method. The LIR of a method is a list of
+ * instructions that map closely onto x86 instructions, but are written in three-address
+ * form and compute their values into {@link VirtualRegister}s. Loads, stores, calls and
+ * the runtime checks are explicit. The operands of each {@link Op} are listed in the
+ * order in which they are stored in {@link #operands}; the defined operand comes first,
+ * except for the scratch register of {@link Op#CHECK_CAST}.
+ */
+public class Instr {
+
+	public enum Op {
+		/** No operands; {@link Instr#text} is copied into the assembly. */
+		COMMENT,
+		/** No operands; defines {@link Instr#label}. */
+		LABEL,
+		/** No operands; jumps to {@link Instr#label}. */
+		JUMP,
+		/** {@code a, b}: jumps to {@link Instr#label} if {@code a cond b}. */
+		BRANCH,
+		/** {@code dst, src} */
+		MOVE,
+		/** {@code dst, mem} */
+		LOAD,
+		/** {@code mem, src} */
+		STORE,
+		/** {@code dst, mem}: computes the address of {@code mem}. */
+		LEA,
+		/** {@code dst, a, b} */
+		ADD, SUB, MUL, AND, OR, DIV, MOD,
+		/** {@code dst, a, b}: shifts {@code a} left by the {@link Operand.Immediate} {@code b}. */
+		SHL,
+		/** {@code dst, a} */
+		NEG, NOT,
+		/** {@code dst, a, b}: sets {@code dst} to 1 if {@code a cond b}, else to 0. */
+		SET,
+		/**
+		 * {@code dst, target, args...}: calls {@code target}, an {@link Operand.Address}
+		 * or a register holding the address, with the arguments from left to right.
+		 * {@code dst}, which receives the result, may be {@code null}.
+		 */
+		CALL,
+		/** {@code [value]}: returns from the method. */
+		RETURN,
+		/** {@code ptr}: exits unless {@code ptr} is not {@code null}. */
+		CHECK_NULL,
+		/** {@code divisor}: exits if {@code divisor} is zero. */
+		CHECK_NONZERO,
+		/** {@code length}: exits if {@code length} is negative. */
+		CHECK_SIZE,
+		/** {@code array, index}: exits unless {@code index} is within the array. */
+		CHECK_BOUNDS,
+		/**
+		 * {@code obj, vtable, depth, temp}: exits unless {@code obj} is {@code null} or
+		 * an instance of the type with the given vtable and depth. {@code temp} is
+		 * overwritten.
+		 */
+		CHECK_CAST
+	}
+
+	/** Comparisons, named after their x86 condition codes. */
+	public enum Condition {
+		EQ("e"), NE("ne"), LT("l"), LE("le"), GT("g"), GE("ge");
+
+		public final String cc;
+
+		private Condition(String cc) {
+			this.cc = cc;
+		}
+
+		/** The condition that holds iff this one does not. */
+		public Condition negate() {
+			switch (this) {
+			case EQ: return NE;
+			case NE: return EQ;
+			case LT: return GE;
+			case LE: return GT;
+			case GT: return LE;
+			default: return LT;
+			}
+		}
+
+		/** The condition {@code c} such that {@code a this b} iff {@code b c a}. */
+		public Condition swap() {
+			switch (this) {
+			case LT: return GT;
+			case LE: return GE;
+			case GT: return LT;
+			case GE: return LE;
+			default: return this;
+			}
+		}
+	}
+
+	public final Op op;
+	public final Operand[] operands;
+	public Condition cond;
+	/**
+	 * Whether a {@link Op#BRANCH} or {@link Op#SET} compares pointers, which are wider
+	 * than {@code int}s on x86-64.
+	 */
+	public boolean wide;
+	public String label;
+	public String text;
+
+	public Instr(Op op, Operand... operands) {
+		this.op = op;
+		this.operands = operands;
+	}
+
+	public static Instr comment(String text) {
+		Instr instr = new Instr(Op.COMMENT);
+		instr.text = text;
+		return instr;
+	}
+
+	public static Instr label(Op op, String label, Operand... operands) {
+		Instr instr = new Instr(op, operands);
+		instr.label = label;
+		return instr;
+	}
+
+	public static Instr compare(Op op, Condition cond, Operand... operands) {
+		Instr instr = new Instr(op, operands);
+		instr.cond = cond;
+		return instr;
+	}
+
+	/** Returns a copy of this instruction with other operands. */
+	public Instr with(Operand... operands) {
+		Instr instr = new Instr(op, operands);
+		instr.cond = cond;
+		instr.wide = wide;
+		instr.label = label;
+		instr.text = text;
+		return instr;
+	}
+
+	/** Whether operand {@code i} is written rather than read. */
+	public boolean defines(int i) {
+		switch (op) {
+		case MOVE: case LOAD: case LEA: case ADD: case SUB: case MUL: case AND: case OR:
+		case DIV: case MOD: case SHL: case NEG: case NOT: case SET: case CALL:
+			return i == 0;
+		case CHECK_CAST:
+			return i == 3;
+		default:
+			return false;
+		}
+	}
+
+	/** Whether operand {@code i} is read. */
+	public boolean uses(int i) {
+		return operands[i] != null && (!defines(i) || op == Op.CHECK_CAST);
+	}
+
+	/**
+	 * Returns the virtual register defined by this instruction, or {@code null}. The
+	 * temporary of {@link Op#CHECK_CAST} is not included.
+	 */
+	public VirtualRegister def() {
+		if (op != Op.CHECK_CAST && operands.length > 0 && defines(0)
+				&& operands[0] instanceof VirtualRegister)
+			return (VirtualRegister) operands[0];
+		return null;
+	}
+
+	/**
+	 * Returns the virtual registers read by this instruction, including the registers
+	 * of memory operands that are written.
+	 */
+	public List<VirtualRegister> uses() {
+		List<VirtualRegister> result = new ArrayList<>();
+		for (int i = 0; i < operands.length; i++) {
+			Operand operand = operands[i];
+			if (operand instanceof Memory) {
+				Memory mem = (Memory) operand;
+				if (mem.base instanceof VirtualRegister)
+					result.add((VirtualRegister) mem.base);
+				if (mem.index instanceof VirtualRegister)
+					result.add((VirtualRegister) mem.index);
+			} else if (operand instanceof VirtualRegister && uses(i)) {
+				result.add((VirtualRegister) operand);
+			}
+		}
+		return result;
+	}
+
+	/** Returns all virtual registers that occur in this instruction. */
+	public List<VirtualRegister> registers() {
+		List<VirtualRegister> result = uses();
+		for (int i = 0; i < operands.length; i++)
+			if (defines(i) && operands[i] instanceof VirtualRegister && !result.contains(operands[i]))
+				result.add((VirtualRegister) operands[i]);
+		return result;
+	}
+
+	/**
+	 * Replaces {@code reg} by {@code by} in the operands read by this instruction
+	 * ({@code uses}) or written by it ({@code defs}).
+	 */
+	public void replace(VirtualRegister reg, VirtualRegister by, boolean uses, boolean defs) {
+		for (int i = 0; i < operands.length; i++) {
+			Operand operand = operands[i];
+			if (operand instanceof Memory && uses) {
+				Memory mem = (Memory) operand;
+				operands[i] = mem.with(mem.base == reg ? by : mem.base,
+						mem.index == reg ? by : mem.index);
+			} else if (operand == reg && ((uses && uses(i)) || (defs && defines(i)))) {
+				operands[i] = by;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		switch (op) {
+		case COMMENT:
+			return "# " + text;
+		case LABEL:
+			return label + ":";
+		case JUMP:
+			return "jump " + label;
+		case BRANCH:
+			return String.format("branch %s %s %s, %s", operands[0], cond, operands[1], label);
+		default:
+			StringBuilder sb = new StringBuilder();
+			int first = 0;
+			if (def() != null || (operands.length > 0 && defines(0) && operands[0] != null)) {
+				sb.append(operands[0]).append(" = ");
+				first = 1;
+			} else if (op == Op.CALL) {
+				first = 1;
+			}
+			sb.append(op.name().toLowerCase());
+			if (cond != null)
+				sb.append(' ').append(cond);
+			List<Operand> rest = Arrays.asList(operands).subList(first, operands.length);
+			for (int i = 0; i < rest.size(); i++)
+				sb.append(i == 0 ? " " : ", ").append(rest.get(i));
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package cd.backend.lir;
+
+import cd.ir.Ast.Expr;
+import cd.ir.Symbol.VariableSymbol;
+
+/**
+ * An operand of an {@link Instr}. Only {@link VirtualRegister}s stand for values that
+ * are computed by the instructions; the other operands name constants and memory
+ * locations that the code generator knows how to address.
+ */
+public abstract class Operand {
+
+	/** Whether this operand designates memory rather than a register or constant. */
+	public boolean isMemory() {
+		return false;
+	}
+
+	/**
+	 * A temporary value of a method. It is assigned a register or, if there are not
+	 * enough registers, a spill slot after the instructions have been built.
+	 */
+	public static final class VirtualRegister extends Operand {
+		public final int id;
+
+		/** Whether the register must have a low byte version, e.g. for {@code setcc}. */
+		public boolean byteRegister;
+
+		/**
+		 * Whether the register was introduced to load or store a spilled register, which
+		 * must not be spilled again.
+		 */
+		public boolean unspillable;
+
+		public VirtualRegister(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public String toString() {
+			return "v" + id;
+		}
+	}
+
+	/** An integer constant. */
+	public static final class Immediate extends Operand {
+		public final int value;
+
+		public Immediate(int value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Immediate && ((Immediate) obj).value == value;
+		}
+
+		@Override
+		public int hashCode() {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			return "$" + value;
+		}
+	}
+
+	/** The address of a label, e.g. of a vtable or a method. */
+	public static final class Address extends Operand {
+		public final String label;
+
+		public Address(String label) {
+			this.label = label;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Address && ((Address) obj).label.equals(label);
+		}
+
+		@Override
+		public int hashCode() {
+			return label.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "$" + label;
+		}
+	}
+
+	/**
+	 * A local, a parameter or the {@code this} pointer of the method, which lives in the
+	 * register or the stack slot assigned to it by the code generator.
+	 */
+	public static final class Variable extends Operand {
+		public final VariableSymbol sym;
+
+		/** Whether the variable lives in its stack slot. */
+		public final boolean inMemory;
+
+		public Variable(VariableSymbol sym, boolean inMemory) {
+			this.sym = sym;
+			this.inMemory = inMemory;
+		}
+
+		@Override
+		public boolean isMemory() {
+			return inMemory;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Variable && ((Variable) obj).sym == sym;
+		}
+
+		@Override
+		public int hashCode() {
+			return sym.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return sym.name;
+		}
+	}
+
+	/**
+	 * The memory at {@code base + index * scale + offset}, where {@code index} may be
+	 * {@code null}, and so may {@code base} if there is an index. The base and index
+	 * are {@link VirtualRegister}s or variables that live in registers.
+	 */
+	public static final class Memory extends Operand {
+		public final Operand base, index;
+		public final int scale, offset;
+
+		public Memory(Operand base, int offset) {
+			this(base, null, 1, offset);
+		}
+
+		public Memory(Operand base, Operand index, int scale, int offset) {
+			this.base = base;
+			this.index = index;
+			this.scale = scale;
+			this.offset = offset;
+		}
+
+		/** Returns this operand with the registers replaced. */
+		public Memory with(Operand base, Operand index) {
+			return new Memory(base, index, scale, offset);
+		}
+
+		@Override
+		public boolean isMemory() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			if (index == null)
+				return String.format("%d(%s)", offset, base);
+			return String.format("%d(%s,%s,%d)", offset, base, index, scale);
+		}
+	}
+
+	/** A slot of the stack frame that holds a spilled {@link VirtualRegister}. */
+	public static final class SpillSlot extends Operand {
+		public final int index;
+
+		public SpillSlot(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public boolean isMemory() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "spill" + index;
+		}
+	}
+
+	/**
+	 * The slot of the stack frame reserved for the object created by an allocation that
+	 * does not escape its method. It is only used as the address of {@code lea}.
+	 */
+	public static final class StackObject extends Operand {
+		public final Expr alloc;
+
+		public StackObject(Expr alloc) {
+			this.alloc = alloc;
+		}
+
+		@Override
+		public boolean isMemory() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "stack(new " + alloc.type + ")";
+		}
+	}
+}
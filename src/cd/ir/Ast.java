@@ -331,6 +331,10 @@ public abstract class Ast {
 	
 	public static class Index extends LeftRightExpr {
 		
+		/** True if the index is known to be within the bounds of the array,
+		 *  so that no bounds check has to be generated */
+		public boolean inBounds;
+		
 		public Index(Expr array, Expr index) {
 			super(array, index);			
 		}
@@ -345,6 +349,12 @@ public abstract class Ast {
 			return postCopy(new Index(left(), right()));
 		}
 		
+		@Override
+		protected <E extends Expr> E postCopy(E item) {
+			((Index)item).inBounds = inBounds;
+			return super.postCopy(item);
+		}
+		
 	}
 	
 	public static class NewObject extends LeafExpr {
@@ -352,6 +362,10 @@ public abstract class Ast {
 		/** Name of the type to be created */
 		public String typeName;
 		
+		/** True if the object does not escape the method, so that it can be
+		 *  placed in the stack frame */
+		public boolean onStack;
+		
 		public NewObject(String typeName) {
 			this.typeName = typeName;
 		}
@@ -366,6 +380,12 @@ public abstract class Ast {
 			return postCopy(new NewObject(typeName));
 		}
 		
+		@Override
+		protected <E extends Expr> E postCopy(E item) {
+			((NewObject)item).onStack = onStack;
+			return super.postCopy(item);
+		}
+		
 	}
 	
 	public static class NewArray extends ArgExpr {
@@ -373,6 +393,10 @@ public abstract class Ast {
 		/** Name of the type to be created: must be an array type */
 		public String typeName;
 		
+		/** True if the array does not escape the method, so that it can be
+		 *  placed in the stack frame */
+		public boolean onStack;
+		
 		public NewArray(String typeName, Expr capacity) {
 			super(capacity);
 			this.typeName = typeName;
@@ -388,6 +412,12 @@ public abstract class Ast {
 			return postCopy(new NewArray(typeName, arg()));
 		}
 		
+		@Override
+		protected <E extends Expr> E postCopy(E item) {
+			((NewArray)item).onStack = onStack;
+			return super.postCopy(item);
+		}
+		
 	}
 	
 	public static class UnaryOp extends ArgExpr {
@@ -546,6 +576,12 @@ public abstract class Ast {
 			return postCopy(new MethodCallExpr((Expr) receiver().deepCopy(), methodName, deepCopyArguments()));
 		}
 		
+		@Override
+		protected <E extends Expr> E postCopy(E item) {
+			((MethodCallExpr)item).sym = sym;
+			return super.postCopy(item);
+		}
+		
 	}
 	
 	// _________________________________________________________________
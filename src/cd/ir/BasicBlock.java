@@ -1,11 +1,15 @@
 package cd.ir;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import cd.ir.Ast.Expr;
 import cd.ir.Ast.Stmt;
+import cd.ir.Symbol.VariableSymbol;
 import cd.transform.analysis.Def;
 
 /** 
@@ -30,9 +34,11 @@ public class BasicBlock {
 
 	/** 
 	 * Unique numerical index assigned by CFG builder between 0 and the total number of
-	 * basic blocks.  Useful for indexing into arrays and the like. 
+	 * basic blocks.  Useful for indexing into arrays and the like. Blocks are renumbered
+	 * when blocks are removed from the graph (see
+	 * {@link ControlFlowGraph#removeUnreachableBlocks()}).
 	 */
-	public final int index;
+	public int index;
 
 	/** 
 	 * List of predecessor blocks in the flow graph (i.e., blocks for 
@@ -66,6 +72,28 @@ public class BasicBlock {
 	 * only one successor. 
 	 */
 	public Expr condition;
+
+	/**
+	 * Phi functions at the start of this block, keyed by the unversioned variable they
+	 * merge. Only non-empty while the method is in SSA form.
+	 */
+	public final Map<VariableSymbol, Phi> phis = new LinkedHashMap<VariableSymbol, Phi>();
+
+	/**
+	 * The immediate dominator of this block, i.e. its parent in the dominator tree.
+	 * {@code null} for the start block, for unreachable blocks and before
+	 * {@link ControlFlowGraph#computeDominators()} has been run.
+	 */
+	public BasicBlock dominatorTreeParent;
+
+	/** The blocks whose immediate dominator is this block. */
+	public final List<BasicBlock> dominatorTreeChildren = new ArrayList<BasicBlock>();
+
+	/**
+	 * The dominance frontier of this block: the blocks {@code b} such that this block
+	 * dominates a predecessor of {@code b}, but does not strictly dominate {@code b}.
+	 */
+	public final Set<BasicBlock> dominanceFrontier = new LinkedHashSet<BasicBlock>();
 	
 	public BasicBlock(int index) {
 		this.index = index;
@@ -81,6 +109,18 @@ public class BasicBlock {
 		return this.successors.get(1);
 	}
 	
+	/**
+	 * Returns true if every path from the start block to {@code other} passes through
+	 * this block. Every block dominates itself. Requires that the dominator tree has been
+	 * computed.
+	 */
+	public boolean dominates(BasicBlock other) {
+		for (BasicBlock blk = other; blk != null; blk = blk.dominatorTreeParent)
+			if (blk == this)
+				return true;
+		return false;
+	}
+	
 	@Override
 	public String toString() {
 		return "BB"+index;
@@ -1,6 +1,10 @@
 package cd.ir;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 
 import cd.ir.Ast.Expr;
@@ -56,4 +60,215 @@ public class ControlFlowGraph {
 		to.predecessors.add(from);
 		from.successors.add(to);
 	}
+
+	/**
+	 * Returns all blocks in reverse postorder of a depth-first search from {@link #start},
+	 * i.e. every block comes before its successors except along back edges. Blocks that
+	 * are unreachable from {@link #start} follow in the order of {@link #allBlocks}.
+	 */
+	public List<BasicBlock> reversePostorder() {
+		List<BasicBlock> result = new ArrayList<>(count());
+		boolean[] visited = new boolean[count()];
+		Deque<BasicBlock> blocks = new ArrayDeque<>();
+		Deque<Iterator<BasicBlock>> successors = new ArrayDeque<>();
+		if (start != null) {
+			visited[start.index] = true;
+			blocks.push(start);
+			successors.push(start.successors.iterator());
+		}
+		while (!blocks.isEmpty()) {
+			if (successors.peek().hasNext()) {
+				BasicBlock succ = successors.peek().next();
+				if (!visited[succ.index]) {
+					visited[succ.index] = true;
+					blocks.push(succ);
+					successors.push(succ.successors.iterator());
+				}
+			} else {
+				result.add(blocks.pop());
+				successors.pop();
+			}
+		}
+		Collections.reverse(result);
+		for (BasicBlock blk : allBlocks)
+			if (!visited[blk.index])
+				result.add(blk);
+		return result;
+	}
+
+	/**
+	 * Computes the dominator tree ({@link BasicBlock#dominatorTreeParent},
+	 * {@link BasicBlock#dominatorTreeChildren}) and the
+	 * {@link BasicBlock#dominanceFrontier dominance frontiers} of all blocks, replacing
+	 * any earlier results. Blocks that are unreachable from {@link #start} are not part
+	 * of the tree.
+	 * <p>
+	 * Uses the iterative algorithm by Cooper, Harvey and Kennedy ("A Simple, Fast
+	 * Dominance Algorithm"): immediate dominators are refined in reverse postorder by
+	 * intersecting the dominator tree paths of the predecessors, which usually converges
+	 * after two passes.
+	 */
+	public void computeDominators() {
+		List<BasicBlock> order = reversePostorder();
+		int[] position = new int[count()];
+		for (int i = 0; i < order.size(); i++)
+			position[order.get(i).index] = i;
+
+		BasicBlock[] idom = new BasicBlock[count()];
+		if (start != null)
+			idom[start.index] = start;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock blk : order) {
+				if (blk == start)
+					continue;
+				BasicBlock newIdom = null;
+				for (BasicBlock pred : blk.predecessors) {
+					if (idom[pred.index] == null)
+						continue; // not processed yet or unreachable
+					newIdom = (newIdom == null ? pred : intersect(pred, newIdom, idom, position));
+				}
+				if (newIdom != idom[blk.index]) {
+					idom[blk.index] = newIdom;
+					changed = true;
+				}
+			}
+		}
+
+		for (BasicBlock blk : allBlocks) {
+			blk.dominatorTreeParent = null;
+			blk.dominatorTreeChildren.clear();
+			blk.dominanceFrontier.clear();
+		}
+		for (BasicBlock blk : order) {
+			if (blk != start && idom[blk.index] != null) {
+				blk.dominatorTreeParent = idom[blk.index];
+				idom[blk.index].dominatorTreeChildren.add(blk);
+			}
+		}
+
+		// A join point is in the frontier of every block on the dominator tree paths from
+		// its predecessors up to (excluding) its immediate dominator.
+		for (BasicBlock blk : order) {
+			if (blk.predecessors.size() < 2 || idom[blk.index] == null)
+				continue;
+			for (BasicBlock pred : blk.predecessors) {
+				if (idom[pred.index] == null)
+					continue;
+				for (BasicBlock runner = pred; runner != idom[blk.index]; runner = idom[runner.index]) {
+					runner.dominanceFrontier.add(blk);
+					if (runner == start)
+						break;
+				}
+			}
+		}
+	}
+
+	private static BasicBlock intersect(BasicBlock a, BasicBlock b, BasicBlock[] idom, int[] position) {
+		while (a != b) {
+			while (position[a.index] > position[b.index])
+				a = idom[a.index];
+			while (position[b.index] > position[a.index])
+				b = idom[b.index];
+		}
+		return a;
+	}
+
+	/**
+	 * Returns the number of natural loops that contain each block, indexed by
+	 * {@link BasicBlock#index}. A loop consists of the target of a back edge, i.e. of an
+	 * edge to a dominator, and the blocks that reach the edge without passing its target;
+	 * loops with the same target are merged. Needs the dominator tree of the current
+	 * graph (see {@link #computeDominators()}).
+	 */
+	public int[] loopDepths() {
+		// the blocks of the loop of each header, indexed by the header
+		boolean[][] loops = new boolean[count()][];
+		for (BasicBlock latch : allBlocks) {
+			if (latch != start && latch.dominatorTreeParent == null)
+				continue; // unreachable
+			for (BasicBlock header : latch.successors) {
+				if (!header.dominates(latch))
+					continue;
+				boolean[] inLoop = loops[header.index];
+				if (inLoop == null) {
+					inLoop = loops[header.index] = new boolean[count()];
+					inLoop[header.index] = true;
+				}
+				Deque<BasicBlock> work = new ArrayDeque<>();
+				if (!inLoop[latch.index]) {
+					inLoop[latch.index] = true;
+					work.push(latch);
+				}
+				while (!work.isEmpty())
+					for (BasicBlock pred : work.pop().predecessors)
+						if (!inLoop[pred.index]) {
+							inLoop[pred.index] = true;
+							work.push(pred);
+						}
+			}
+		}
+
+		int[] depth = new int[count()];
+		for (boolean[] inLoop : loops)
+			if (inLoop != null)
+				for (int i = 0; i < depth.length; i++)
+					if (inLoop[i])
+						depth[i]++;
+		return depth;
+	}
+
+	/**
+	 * Removes all blocks other than {@link #start} and {@link #end} that cannot be reached
+	 * from {@link #start}, together with their edges and the corresponding operands of
+	 * {@link Phi phis} in the remaining blocks. The remaining blocks are renumbered so that
+	 * their indices stay dense, and dominator information is recomputed.
+	 *
+	 * @return true if any block was removed
+	 */
+	public boolean removeUnreachableBlocks() {
+		boolean[] reachable = new boolean[count()];
+		Deque<BasicBlock> work = new ArrayDeque<>();
+		reachable[start.index] = true;
+		work.push(start);
+		while (!work.isEmpty())
+			for (BasicBlock succ : work.pop().successors)
+				if (!reachable[succ.index]) {
+					reachable[succ.index] = true;
+					work.push(succ);
+				}
+
+		List<BasicBlock> removed = new ArrayList<>();
+		for (BasicBlock blk : allBlocks)
+			if (!reachable[blk.index] && blk != start && blk != end)
+				removed.add(blk);
+		if (removed.isEmpty())
+			return false;
+
+		for (BasicBlock blk : removed) {
+			for (BasicBlock succ : blk.successors)
+				removePredecessor(succ, blk);
+			blk.successors.clear();
+		}
+		allBlocks.removeAll(removed);
+		for (int i = 0; i < allBlocks.size(); i++)
+			allBlocks.get(i).index = i;
+		computeDominators();
+		return true;
+	}
+
+	/**
+	 * Removes the edge from {@code pred} to {@code blk} from the predecessors of
+	 * {@code blk}, including the phi operands for that edge. Does not change the
+	 * successors of {@code pred}.
+	 */
+	public void removePredecessor(BasicBlock blk, BasicBlock pred) {
+		int i = blk.predecessors.indexOf(pred);
+		if (i < 0)
+			return;
+		blk.predecessors.remove(i);
+		for (Phi phi : blk.phis.values())
+			phi.rhs.remove(i);
+	}
 }
@@ -0,0 +1,48 @@
+package cd.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import cd.ir.Ast.Expr;
+import cd.ir.Symbol.VariableSymbol;
+import cd.util.debug.AstOneLine;
+
+/**
+ * A phi function at the start of a basic block in SSA form: {@code lhs} receives the value
+ * of {@code rhs.get(i)} if control entered the block from its {@code i}-th predecessor.
+ * The phis of a block are stored in {@link BasicBlock#phis}, keyed by the unversioned
+ * variable {@link #v0sym}.
+ */
+public class Phi {
+
+	/** The original (unversioned) variable this phi merges versions of. */
+	public final VariableSymbol v0sym;
+
+	/** The version defined by this phi. */
+	public VariableSymbol lhs;
+
+	/**
+	 * One operand per predecessor, in the order of {@link BasicBlock#predecessors}. An
+	 * operand is either a {@link Ast.Var} or a constant.
+	 */
+	public final List<Expr> rhs;
+
+	public Phi(VariableSymbol v0sym, int predCount) {
+		this.v0sym = v0sym;
+		this.lhs = v0sym;
+		this.rhs = new ArrayList<Expr>(Collections.<Expr>nCopies(predCount, null));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(lhs).append(" = phi(");
+		for (int i = 0; i < rhs.size(); i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(rhs.get(i) == null ? "?" : AstOneLine.toString(rhs.get(i)));
+		}
+		return sb.append(")").toString();
+	}
+}
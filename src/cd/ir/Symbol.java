@@ -1,6 +1,7 @@
 package cd.ir;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +27,31 @@ public abstract class Symbol {
 		
 		public abstract TypeSymbol getSuperType();
 		
+		private List<TypeSymbol> display;
+		
+		/**
+		 * Returns the supertypes of this reference type, starting with
+		 * {@code Object} and ending with the type itself, so that the
+		 * ancestor at depth {@code d} is at index {@code d}. Computed on first
+		 * use, which must be after the class hierarchy has been checked.
+		 */
+		public List<TypeSymbol> display() {
+			if (display == null) {
+				TypeSymbol sup = getSuperType();
+				List<TypeSymbol> result = new ArrayList<TypeSymbol>();
+				if (sup != null)
+					result.addAll(sup.display());
+				result.add(this);
+				display = Collections.unmodifiableList(result);
+			}
+			return display;
+		}
+		
+		/** The number of proper supertypes; {@code Object} has depth 0. */
+		public int depth() {
+			return display().size() - 1;
+		}
+		
 		public boolean isSuperTypeOf(TypeSymbol sub) {
             // "void" is not a subtype of any type not even itself
             if(this == PrimitiveTypeSymbol.voidType || sub == PrimitiveTypeSymbol.voidType)
@@ -40,13 +66,10 @@ public abstract class Symbol {
 			if (sub == ClassSymbol.nullType && this.isReferenceType())
 				return true;
 			
-			TypeSymbol curr = sub;
-			while (curr != null) {
-				if (curr == this)
-					return true;
-				curr = curr.getSuperType();
-			}
-			return false;
+			// the only supertype of sub that can be this is the one at our depth
+			List<TypeSymbol> subDisplay = sub.display();
+			int depth = depth();
+			return depth < subDisplay.size() && subDisplay.get(depth) == this;
 		}
 		
 	}
@@ -166,6 +189,11 @@ public abstract class Symbol {
 		
 		public MethodSymbol overrides;
 		
+		/** True if no subclass overrides this method, so that every call of
+		 *  it has this method as its only target.  Set by
+		 *  {@link cd.transform.analysis.ClassHierarchyAnalysis}. */
+		public boolean monomorphic;
+		
 		public MethodSymbol(Ast.MethodDecl ast) {
 			super(ast.name);
 			this.ast = ast;
@@ -185,6 +213,12 @@ public abstract class Symbol {
 		
 		public int version = 0;
 		
+		/**
+		 * The variable this symbol is a version of (see {@link #version}), or the
+		 * symbol itself for variables that are not a version of another.
+		 */
+		public final VariableSymbol v0sym;
+		
 		/**
 		 * Meaning depends on the kind of variable, but generally refers
 		 * to the offset in bytes from some base ptr to where the variable
@@ -200,6 +234,7 @@ public abstract class Symbol {
 
 		public VariableSymbol(VariableSymbol v0sym, int version) {
 			super(v0sym.name+"_"+version);
+			this.v0sym = v0sym.v0sym;
 			this.type = v0sym.type;
 			this.kind = v0sym.kind;
 			this.offset = v0sym.offset;
@@ -212,6 +247,7 @@ public abstract class Symbol {
 
 		public VariableSymbol(String name, TypeSymbol type, Kind kind) {
 			super(name);
+			this.v0sym = this;
 			this.type = type;
 			this.kind = kind;		
 		}
@@ -0,0 +1,527 @@
+package cd.transform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BinaryOp.BOp;
+import cd.ir.Ast.Cast;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.Index;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.UnaryOp;
+import cd.ir.Ast.Var;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.ir.Phi;
+import cd.ir.Symbol.PrimitiveTypeSymbol;
+import cd.ir.Symbol.VariableSymbol;
+
+/**
+ * Marks array accesses whose bounds check can never fail as {@link Index#inBounds}, using
+ * a range analysis on a method in SSA form.
+ * <p>
+ * Every {@code int} variable gets an interval of the values it may hold. Branch conditions
+ * such as {@code i < n} narrow the interval of {@code i} in the blocks dominated by the
+ * edge on which they hold, so that loop induction variables get precise bounds; loops
+ * are made to converge by widening and the result is narrowed again afterwards. An
+ * access {@code a[i]} is in bounds if
+ * <ul>
+ * <li>the interval of {@code i} is non-negative and below the smallest length
+ * {@code a} can have, or {@code i} is non-negative and a dominating condition
+ * {@code i < n} holds, where {@code a} was allocated as {@code new T[n]}; or
+ * <li>the same access {@code a[i]} was already checked in a dominating statement.
+ * </ul>
+ * Arithmetic that may overflow yields the full {@code int} range, since it wraps around.
+ */
+public class BoundsCheckEliminator {
+
+	/** Number of times a range may grow before it is widened. */
+	private static final int WIDENING_DELAY = 2;
+
+	/** Number of passes that narrow the ranges again after widening. */
+	private static final int NARROWING_PASSES = 2;
+
+	/** A closed interval of {@code int} values. {@code null} stands for no value. */
+	private static final class Range {
+		static final Range FULL = new Range(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		static final Range NON_NEGATIVE = new Range(0, Integer.MAX_VALUE);
+
+		final long lo, hi;
+
+		Range(long lo, long hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		/** Returns this range, or the full range if the int arithmetic wrapped around. */
+		Range wrapped() {
+			return (lo < Integer.MIN_VALUE || hi > Integer.MAX_VALUE) ? FULL : this;
+		}
+
+		Range union(Range other) {
+			if (other == null)
+				return this;
+			return new Range(Math.min(lo, other.lo), Math.max(hi, other.hi));
+		}
+
+		/** Returns the intersection, or {@code null} if it is empty. */
+		Range intersect(long otherLo, long otherHi) {
+			long l = Math.max(lo, otherLo), h = Math.min(hi, otherHi);
+			return l > h ? null : new Range(l, h);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Range && ((Range) obj).lo == lo && ((Range) obj).hi == hi;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (lo * 31 + hi);
+		}
+
+		@Override
+		public String toString() {
+			return "[" + lo + ", " + hi + "]";
+		}
+	}
+
+	/** A comparison {@code left op right} of two {@code int} expressions known to hold. */
+	private static final class Guard {
+		final Expr left, right;
+		final BOp op;
+
+		Guard(Expr left, BOp op, Expr right) {
+			this.left = left;
+			this.op = op;
+			this.right = right;
+		}
+	}
+
+	private ControlFlowGraph cfg;
+	private final Map<VariableSymbol, Range> ranges = new HashMap<>();
+	private final Map<VariableSymbol, Integer> updates = new HashMap<>();
+
+	/** The right-hand side ({@link Expr} or {@link Phi}) defining each variable. */
+	private final Map<VariableSymbol, Object> defs = new HashMap<>();
+	private final Map<VariableSymbol, BasicBlock> defBlock = new HashMap<>();
+
+	/** The comparisons that hold on entry to each block. */
+	private final Map<BasicBlock, List<Guard>> guards = new HashMap<>();
+
+	public void optimize(MethodDecl mdecl) {
+		cfg = mdecl.cfg;
+		List<BasicBlock> order = cfg.reversePostorder();
+		collectDefs();
+		collectGuards(order);
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock blk : order)
+				changed |= evaluateBlock(blk, true);
+		}
+		for (int i = 0; i < NARROWING_PASSES; i++)
+			for (BasicBlock blk : order)
+				evaluateBlock(blk, false);
+
+		markAccesses();
+	}
+
+	// _________________________________________________________________
+	// Setup
+
+	private static VariableSymbol definedVar(Stmt stmt) {
+		if (stmt instanceof Assign && ((Assign) stmt).left() instanceof Var) {
+			VariableSymbol sym = ((Var) ((Assign) stmt).left()).sym;
+			if (sym.kind != VariableSymbol.Kind.FIELD)
+				return sym;
+		}
+		return null;
+	}
+
+	private void collectDefs() {
+		for (BasicBlock blk : cfg.allBlocks) {
+			for (Phi phi : blk.phis.values()) {
+				defs.put(phi.lhs, phi);
+				defBlock.put(phi.lhs, blk);
+			}
+			for (Stmt stmt : blk.stmts) {
+				VariableSymbol sym = definedVar(stmt);
+				if (sym != null) {
+					defs.put(sym, ((Assign) stmt).right());
+					defBlock.put(sym, blk);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A block inherits the guards of its immediate dominator. If it is only reachable
+	 * through one branch of its single predecessor, the branch condition holds as well.
+	 */
+	private void collectGuards(List<BasicBlock> order) {
+		for (BasicBlock blk : order) {
+			BasicBlock idom = blk.dominatorTreeParent;
+			List<Guard> list = new ArrayList<>();
+			if (idom != null && guards.containsKey(idom))
+				list.addAll(guards.get(idom));
+			if (blk.predecessors.size() == 1)
+				addEdgeGuards(blk.predecessors.get(0), blk, list);
+			guards.put(blk, list);
+		}
+	}
+
+	private static void addEdgeGuards(BasicBlock pred, BasicBlock succ, List<Guard> list) {
+		if (pred.condition == null || pred.trueSuccessor() == pred.falseSuccessor())
+			return;
+		addGuards(pred.condition, succ == pred.trueSuccessor(), list);
+	}
+
+	/** Adds the comparisons implied by {@code cond} evaluating to {@code value}. */
+	private static void addGuards(Expr cond, boolean value, List<Guard> list) {
+		if (cond instanceof UnaryOp && ((UnaryOp) cond).operator == UnaryOp.UOp.U_BOOL_NOT) {
+			addGuards(((UnaryOp) cond).arg(), !value, list);
+		} else if (cond instanceof BinaryOp) {
+			BinaryOp binOp = (BinaryOp) cond;
+			if ((binOp.operator == BOp.B_AND && value) || (binOp.operator == BOp.B_OR && !value)) {
+				addGuards(binOp.left(), value, list);
+				addGuards(binOp.right(), value, list);
+			} else if (binOp.left().type == PrimitiveTypeSymbol.intType) {
+				BOp op = value ? binOp.operator : negate(binOp.operator);
+				if (op != null)
+					list.add(new Guard(binOp.left(), op, binOp.right()));
+			}
+		}
+	}
+
+	private static BOp negate(BOp op) {
+		switch (op) {
+		case B_LESS_THAN:
+			return BOp.B_GREATER_OR_EQUAL;
+		case B_LESS_OR_EQUAL:
+			return BOp.B_GREATER_THAN;
+		case B_GREATER_THAN:
+			return BOp.B_LESS_OR_EQUAL;
+		case B_GREATER_OR_EQUAL:
+			return BOp.B_LESS_THAN;
+		case B_EQUAL:
+			return BOp.B_NOT_EQUAL;
+		case B_NOT_EQUAL:
+			return BOp.B_EQUAL;
+		default:
+			return null;
+		}
+	}
+
+	/** Returns the operator for {@code right op' left} equivalent to {@code left op right}. */
+	private static BOp mirror(BOp op) {
+		switch (op) {
+		case B_LESS_THAN:
+			return BOp.B_GREATER_THAN;
+		case B_LESS_OR_EQUAL:
+			return BOp.B_GREATER_OR_EQUAL;
+		case B_GREATER_THAN:
+			return BOp.B_LESS_THAN;
+		case B_GREATER_OR_EQUAL:
+			return BOp.B_LESS_OR_EQUAL;
+		default:
+			return op;
+		}
+	}
+
+	// _________________________________________________________________
+	// Range analysis
+
+	private boolean evaluateBlock(BasicBlock blk, boolean widen) {
+		boolean changed = false;
+		for (Phi phi : blk.phis.values()) {
+			if (phi.lhs.type != PrimitiveTypeSymbol.intType)
+				continue;
+			Range value = null;
+			for (int i = 0; i < phi.rhs.size(); i++) {
+				BasicBlock pred = blk.predecessors.get(i);
+				List<Guard> edge = new ArrayList<>(guards.get(pred));
+				addEdgeGuards(pred, blk, edge);
+				Range operand = rangeOf(phi.rhs.get(i), edge);
+				value = (value == null ? operand : value.union(operand));
+			}
+			changed |= update(phi.lhs, value, widen);
+		}
+		for (Stmt stmt : blk.stmts) {
+			VariableSymbol sym = definedVar(stmt);
+			if (sym != null && sym.type == PrimitiveTypeSymbol.intType)
+				changed |= update(sym, rangeOf(((Assign) stmt).right(), guards.get(blk)), widen);
+		}
+		return changed;
+	}
+
+	/**
+	 * Records a new range for {@code sym}. While widening, the range only grows, and a
+	 * bound that keeps moving is set to the extreme after {@link #WIDENING_DELAY} updates.
+	 * Otherwise (narrowing), the range is replaced.
+	 */
+	private boolean update(VariableSymbol sym, Range value, boolean widen) {
+		Range old = ranges.get(sym);
+		if (!widen) {
+			if (value != null)
+				ranges.put(sym, value);
+			return false;
+		}
+		Range joined = (old == null ? value : old.union(value));
+		if (joined == null || joined.equals(old))
+			return false;
+		Integer count = updates.get(sym);
+		count = (count == null ? 1 : count + 1);
+		updates.put(sym, count);
+		if (old != null && count > WIDENING_DELAY)
+			joined = new Range(joined.lo < old.lo ? Integer.MIN_VALUE : joined.lo,
+					joined.hi > old.hi ? Integer.MAX_VALUE : joined.hi);
+		ranges.put(sym, joined);
+		return true;
+	}
+
+	private Range rangeOfVar(VariableSymbol sym) {
+		Range range = ranges.get(sym);
+		if (range != null || defs.containsKey(sym))
+			return range;
+		// the value on method entry: arguments are unknown, locals are zero
+		return sym.kind == VariableSymbol.Kind.LOCAL ? new Range(0, 0) : Range.FULL;
+	}
+
+	/**
+	 * Returns the range of the {@code int} expression {@code expr} at a point where the
+	 * comparisons {@code guards} hold, or {@code null} if it has no value (yet).
+	 */
+	private Range rangeOf(Expr expr, List<Guard> guards) {
+		if (expr instanceof IntConst) {
+			int value = ((IntConst) expr).value;
+			return new Range(value, value);
+		} else if (expr instanceof Var) {
+			VariableSymbol sym = ((Var) expr).sym;
+			Range range = rangeOfVar(sym);
+			if (guards != null)
+				for (Guard guard : guards) {
+					if (range == null)
+						break;
+					if (isVar(guard.left, sym))
+						range = refine(range, guard.op, rangeOf(guard.right, null));
+					else if (isVar(guard.right, sym))
+						range = refine(range, mirror(guard.op), rangeOf(guard.left, null));
+				}
+			return range;
+		} else if (expr instanceof UnaryOp) {
+			UnaryOp unOp = (UnaryOp) expr;
+			Range arg = rangeOf(unOp.arg(), guards);
+			if (arg == null || unOp.operator == UnaryOp.UOp.U_PLUS)
+				return arg;
+			if (unOp.operator == UnaryOp.UOp.U_MINUS)
+				return new Range(-arg.hi, -arg.lo).wrapped();
+		} else if (expr instanceof BinaryOp) {
+			BinaryOp binOp = (BinaryOp) expr;
+			if (binOp.type != PrimitiveTypeSymbol.intType)
+				return Range.FULL;
+			Range left = rangeOf(binOp.left(), guards);
+			Range right = rangeOf(binOp.right(), guards);
+			if (left == null || right == null)
+				return null;
+			return arithmetic(binOp.operator, left, right);
+		}
+		return Range.FULL;
+	}
+
+	/** Narrows {@code range} to the values {@code v} for which {@code v op other} holds. */
+	private static Range refine(Range range, BOp op, Range other) {
+		if (other == null)
+			return range;
+		switch (op) {
+		case B_LESS_THAN:
+			return range.intersect(Long.MIN_VALUE, other.hi - 1);
+		case B_LESS_OR_EQUAL:
+			return range.intersect(Long.MIN_VALUE, other.hi);
+		case B_GREATER_THAN:
+			return range.intersect(other.lo + 1, Long.MAX_VALUE);
+		case B_GREATER_OR_EQUAL:
+			return range.intersect(other.lo, Long.MAX_VALUE);
+		case B_EQUAL:
+			return range.intersect(other.lo, other.hi);
+		default:
+			return range;
+		}
+	}
+
+	private static Range arithmetic(BOp op, Range l, Range r) {
+		switch (op) {
+		case B_PLUS:
+			return new Range(l.lo + r.lo, l.hi + r.hi).wrapped();
+		case B_MINUS:
+			return new Range(l.lo - r.hi, l.hi - r.lo).wrapped();
+		case B_TIMES: {
+			long a = l.lo * r.lo, b = l.lo * r.hi, c = l.hi * r.lo, d = l.hi * r.hi;
+			return new Range(Math.min(Math.min(a, b), Math.min(c, d)),
+					Math.max(Math.max(a, b), Math.max(c, d))).wrapped();
+		}
+		case B_DIV:
+			if (r.lo < 1)
+				return Range.FULL;
+			// for a positive divisor, the quotient grows with the dividend
+			return new Range(Math.min(l.lo / r.lo, l.lo / r.hi), Math.max(l.hi / r.lo, l.hi / r.hi));
+		case B_MOD:
+			if (r.lo < 1)
+				return Range.FULL;
+			long max = r.hi - 1;
+			if (l.lo >= 0)
+				return new Range(0, Math.min(l.hi, max));
+			if (l.hi <= 0)
+				return new Range(Math.max(l.lo, -max), 0);
+			return new Range(-max, max);
+		default:
+			return Range.FULL;
+		}
+	}
+
+	private static boolean isVar(Expr expr, VariableSymbol sym) {
+		return expr instanceof Var && ((Var) expr).sym == sym;
+	}
+
+	// _________________________________________________________________
+	// Array lengths
+
+	/** Returns the range of lengths the array in variable {@code sym} may have. */
+	private Range lengthOf(VariableSymbol sym, Set<VariableSymbol> visiting) {
+		if (!visiting.add(sym))
+			return null;
+		Object def = defs.get(sym);
+		while (def instanceof Cast)
+			def = ((Cast) def).arg();
+		if (def instanceof NewArray) {
+			Range size = rangeOf(((NewArray) def).arg(), guards.get(defBlock.get(sym)));
+			// a negative size makes the allocation fail
+			return size == null ? null : size.intersect(0, Integer.MAX_VALUE);
+		} else if (def instanceof Var) {
+			return lengthOf(((Var) def).sym, visiting);
+		} else if (def instanceof Phi) {
+			Range result = null;
+			for (Expr operand : ((Phi) def).rhs) {
+				if (!(operand instanceof Var))
+					return Range.NON_NEGATIVE;
+				Range length = lengthOf(((Var) operand).sym, visiting);
+				result = (result == null ? length : result.union(length));
+			}
+			return result;
+		}
+		return Range.NON_NEGATIVE;
+	}
+
+	/** Returns the variable that holds the length of array {@code sym}, if known. */
+	private VariableSymbol lengthVar(VariableSymbol sym) {
+		Set<Object> seen = new HashSet<>();
+		Object def = defs.get(sym);
+		while ((def instanceof Var || def instanceof Cast) && seen.add(def))
+			def = (def instanceof Cast ? ((Cast) def).arg() : defs.get(((Var) def).sym));
+		if (def instanceof NewArray && ((NewArray) def).arg() instanceof Var)
+			return ((Var) ((NewArray) def).arg()).sym;
+		return null;
+	}
+
+	// _________________________________________________________________
+	// Marking
+
+	private void markAccesses() {
+		Map<BasicBlock, Set<List<Object>>> checkedIn = new HashMap<>();
+		Map<BasicBlock, List<List<Index>>> accessesIn = new HashMap<>();
+		for (BasicBlock blk : cfg.allBlocks) {
+			List<List<Index>> accesses = new ArrayList<>();
+			Set<List<Object>> checked = new HashSet<>();
+			for (Stmt stmt : blk.stmts)
+				accesses.add(collectAccesses(stmt, new ArrayList<Index>()));
+			if (blk.condition != null)
+				accesses.add(collectAccesses(blk.condition, new ArrayList<Index>()));
+			for (List<Index> list : accesses)
+				for (Index index : list)
+					if (keyOf(index) != null)
+						checked.add(keyOf(index));
+			accessesIn.put(blk, accesses);
+			checkedIn.put(blk, checked);
+		}
+
+		for (BasicBlock blk : cfg.allBlocks) {
+			Set<List<Object>> earlier = new HashSet<>();
+			for (List<Index> list : accessesIn.get(blk)) {
+				for (Index index : list) {
+					List<Object> key = keyOf(index);
+					if (key != null && (earlier.contains(key) || checkedAbove(blk, key, checkedIn)))
+						index.inBounds = true;
+					else if (index.left() instanceof Var)
+						index.inBounds = isInBounds(((Var) index.left()).sym, index.right(), guards.get(blk));
+				}
+				for (Index index : list)
+					if (keyOf(index) != null)
+						earlier.add(keyOf(index));
+			}
+		}
+	}
+
+	private static boolean checkedAbove(BasicBlock blk, List<Object> key,
+			Map<BasicBlock, Set<List<Object>>> checkedIn) {
+		for (BasicBlock dom = blk.dominatorTreeParent; dom != null; dom = dom.dominatorTreeParent)
+			if (checkedIn.get(dom).contains(key))
+				return true;
+		return false;
+	}
+
+	private boolean isInBounds(VariableSymbol array, Expr idx, List<Guard> guards) {
+		Range range = rangeOf(idx, guards);
+		if (range == null || range.lo < 0)
+			return false;
+		Range length = lengthOf(array, new HashSet<VariableSymbol>());
+		if (length != null && range.hi < length.lo)
+			return true;
+
+		VariableSymbol lengthVar = lengthVar(array);
+		if (lengthVar == null || !(idx instanceof Var))
+			return false;
+		VariableSymbol sym = ((Var) idx).sym;
+		for (Guard guard : guards)
+			if ((guard.op == BOp.B_LESS_THAN && isVar(guard.left, sym) && isVar(guard.right, lengthVar))
+					|| (guard.op == BOp.B_GREATER_THAN && isVar(guard.left, lengthVar) && isVar(guard.right, sym)))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Identifies an access by its array variable and its index (a variable or a constant),
+	 * or returns {@code null} for other accesses.
+	 */
+	private static List<Object> keyOf(Index index) {
+		if (!(index.left() instanceof Var))
+			return null;
+		Object array = ((Var) index.left()).sym;
+		if (index.right() instanceof Var)
+			return Arrays.asList(array, ((Var) index.right()).sym);
+		if (index.right() instanceof IntConst)
+			return Arrays.asList(array, (Object) ((IntConst) index.right()).value);
+		return null;
+	}
+
+	/** Collects the array accesses in {@code ast} in evaluation order. */
+	private static List<Index> collectAccesses(Ast ast, List<Index> result) {
+		for (Ast child : ast.children())
+			if (child != null)
+				collectAccesses(child, result);
+		if (ast instanceof Index)
+			result.add((Index) ast);
+		return result;
+	}
+}
@@ -0,0 +1,94 @@
+package cd.transform;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import cd.ir.Ast.MethodDecl;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+
+/**
+ * Simplifies the CFG of a method that is not in SSA form, until nothing changes:
+ * <ul>
+ * <li>blocks that cannot be reached from the start block are removed;
+ * <li>jumps to an empty block without condition go directly to its successor instead;
+ * <li>a block whose only successor has no other predecessor is merged with it.
+ * </ul>
+ * The blocks are renumbered so that their indices stay dense, and dominator information
+ * is recomputed. The start block is never removed, and {@link ControlFlowGraph#end} moves
+ * to the block it is merged into.
+ */
+public class CfgSimplifier {
+
+	private ControlFlowGraph cfg;
+
+	public void simplify(MethodDecl mdecl) {
+		cfg = mdecl.cfg;
+		if (cfg.start == null)
+			return;
+
+		boolean changed = true;
+		while (changed) {
+			changed = cfg.removeUnreachableBlocks();
+			for (BasicBlock blk : new ArrayList<>(cfg.allBlocks)) {
+				if (!cfg.allBlocks.contains(blk))
+					continue;
+				changed |= skipEmpty(blk);
+				changed |= mergeSuccessor(blk);
+			}
+			for (int i = 0; i < cfg.allBlocks.size(); i++)
+				cfg.allBlocks.get(i).index = i;
+		}
+		cfg.computeDominators();
+	}
+
+	/**
+	 * Redirects the edges into {@code blk} to its successor if {@code blk} does nothing.
+	 * An edge is kept if it would become a second edge between the same two blocks.
+	 */
+	private boolean skipEmpty(BasicBlock blk) {
+		if (blk == cfg.start || blk == cfg.end || !blk.stmts.isEmpty() || blk.condition != null
+				|| !blk.phis.isEmpty() || blk.successors.size() != 1)
+			return false;
+		BasicBlock succ = blk.successors.get(0);
+		if (succ == blk || !succ.phis.isEmpty())
+			return false; // an empty endless loop, or the phis need the edge
+
+		boolean changed = false;
+		for (BasicBlock pred : new ArrayList<>(blk.predecessors)) {
+			if (pred.successors.contains(succ))
+				continue;
+			Collections.replaceAll(pred.successors, blk, succ);
+			blk.predecessors.remove(pred);
+			succ.predecessors.add(pred);
+			changed = true;
+		}
+		if (blk.predecessors.isEmpty()) {
+			succ.predecessors.remove(blk);
+			blk.successors.clear();
+			cfg.allBlocks.remove(blk);
+		}
+		return changed;
+	}
+
+	/** Appends the only successor of {@code blk} to it, if it has no other predecessor. */
+	private boolean mergeSuccessor(BasicBlock blk) {
+		if (blk.condition != null || blk.successors.size() != 1)
+			return false;
+		BasicBlock succ = blk.successors.get(0);
+		if (succ == blk || succ == cfg.start || succ.predecessors.size() != 1
+				|| !succ.phis.isEmpty())
+			return false;
+
+		blk.stmts.addAll(succ.stmts);
+		blk.condition = succ.condition;
+		blk.successors.clear();
+		blk.successors.addAll(succ.successors);
+		for (BasicBlock next : succ.successors)
+			Collections.replaceAll(next.predecessors, succ, blk);
+		if (cfg.end == succ)
+			cfg.end = blk;
+		cfg.allBlocks.remove(succ);
+		return true;
+	}
+}
@@ -0,0 +1,440 @@
+package cd.transform;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.UnaryOp;
+import cd.ir.Ast.Var;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.ir.ExprVisitor;
+import cd.ir.Phi;
+import cd.ir.Symbol.PrimitiveTypeSymbol;
+import cd.ir.Symbol.VariableSymbol;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck) on a method in SSA form.
+ * <p>
+ * Every SSA variable starts out as {@link #TOP} (no value seen yet) and is lowered to a
+ * constant ({@link Integer} or {@link Boolean}) or {@link #BOTTOM} (not constant). Only
+ * blocks reachable through edges that were found executable are evaluated, and a branch
+ * whose condition is constant makes only one of its edges executable. Afterwards:
+ * <ul>
+ * <li>uses of constant variables are replaced by the constant, unary and binary
+ * operations on constants are folded, and {@code true &&} and {@code false ||} are
+ * dropped;
+ * <li>assignments to and phis of constant variables are removed;
+ * <li>constant conditions are replaced by an unconditional edge, and blocks that are no
+ * longer reachable are removed.
+ * </ul>
+ * Operations that would fail at runtime (division by zero, overflowing division) are not
+ * folded, so that the program still fails the same way.
+ */
+public class ConstantPropagator {
+
+	/** Lattice value of a variable that has not been assigned a value yet. */
+	private static final Object TOP = new Object() {
+		@Override
+		public String toString() {
+			return "TOP";
+		}
+	};
+
+	/** Lattice value of a variable that is not constant. */
+	private static final Object BOTTOM = new Object() {
+		@Override
+		public String toString() {
+			return "BOTTOM";
+		}
+	};
+
+	private ControlFlowGraph cfg;
+	private final Map<VariableSymbol, Object> values = new HashMap<>();
+
+	/** The sites (phis, definitions and conditions) that use each variable. */
+	private final Map<VariableSymbol, List<Object>> uses = new HashMap<>();
+	private final Map<Object, BasicBlock> siteBlock = new HashMap<>();
+
+	private boolean[] visited;
+	private final Map<BasicBlock, boolean[]> executable = new HashMap<>();
+	private final Deque<BasicBlock[]> flowWork = new ArrayDeque<>();
+	private final Deque<VariableSymbol> ssaWork = new ArrayDeque<>();
+
+	public void optimize(MethodDecl mdecl) {
+		cfg = mdecl.cfg;
+		visited = new boolean[cfg.count()];
+		for (BasicBlock blk : cfg.allBlocks)
+			executable.put(blk, new boolean[blk.predecessors.size()]);
+		collectUses();
+
+		flowWork.add(new BasicBlock[] { null, cfg.start });
+		while (!flowWork.isEmpty() || !ssaWork.isEmpty()) {
+			while (!flowWork.isEmpty()) {
+				BasicBlock[] edge = flowWork.poll();
+				visitEdge(edge[0], edge[1]);
+			}
+			while (!ssaWork.isEmpty()) {
+				for (Object site : uses.get(ssaWork.poll())) {
+					BasicBlock blk = siteBlock.get(site);
+					if (visited[blk.index])
+						visitSite(blk, site);
+				}
+			}
+		}
+
+		rewrite();
+	}
+
+	// _________________________________________________________________
+	// Propagation
+
+	private void collectUses() {
+		for (BasicBlock blk : cfg.allBlocks) {
+			for (Phi phi : blk.phis.values())
+				for (Expr operand : phi.rhs)
+					addUses(operand, phi, blk);
+			for (Stmt stmt : blk.stmts)
+				if (definedVar(stmt) != null)
+					addUses(((Assign) stmt).right(), stmt, blk);
+			if (blk.condition != null)
+				addUses(blk.condition, blk.condition, blk);
+		}
+	}
+
+	private void addUses(Ast ast, Object site, BasicBlock blk) {
+		if (ast instanceof Var) {
+			VariableSymbol sym = ((Var) ast).sym;
+			List<Object> sites = uses.get(sym);
+			if (sites == null) {
+				sites = new ArrayList<>();
+				uses.put(sym, sites);
+			}
+			sites.add(site);
+			siteBlock.put(site, blk);
+		}
+		for (Ast child : ast.children())
+			addUses(child, site, blk);
+	}
+
+	private static VariableSymbol definedVar(Stmt stmt) {
+		if (stmt instanceof Assign && ((Assign) stmt).left() instanceof Var) {
+			VariableSymbol sym = ((Var) ((Assign) stmt).left()).sym;
+			if (sym.kind != VariableSymbol.Kind.FIELD)
+				return sym;
+		}
+		return null;
+	}
+
+	private void visitEdge(BasicBlock pred, BasicBlock blk) {
+		if (pred != null) {
+			boolean[] edges = executable.get(blk);
+			boolean changed = false;
+			for (int i = 0; i < blk.predecessors.size(); i++) {
+				if (blk.predecessors.get(i) == pred && !edges[i]) {
+					edges[i] = true;
+					changed = true;
+				}
+			}
+			if (!changed)
+				return;
+		}
+
+		for (Phi phi : blk.phis.values())
+			visitSite(blk, phi);
+
+		if (!visited[blk.index]) {
+			visited[blk.index] = true;
+			for (Stmt stmt : blk.stmts)
+				if (definedVar(stmt) != null)
+					visitSite(blk, stmt);
+			if (blk.condition != null)
+				visitSite(blk, blk.condition);
+			else
+				for (BasicBlock succ : blk.successors)
+					flowWork.add(new BasicBlock[] { blk, succ });
+		}
+	}
+
+	private void visitSite(BasicBlock blk, Object site) {
+		if (site instanceof Phi) {
+			Phi phi = (Phi) site;
+			boolean[] edges = executable.get(blk);
+			Object value = TOP;
+			for (int i = 0; i < phi.rhs.size(); i++)
+				if (edges[i])
+					value = meet(value, evaluate(phi.rhs.get(i)));
+			update(phi.lhs, value);
+		} else if (site instanceof Stmt) {
+			Assign assign = (Assign) site;
+			update(definedVar(assign), evaluate(assign.right()));
+		} else {
+			Object value = evaluate(blk.condition);
+			if (value == TOP)
+				return;
+			for (int i = 0; i < blk.successors.size(); i++)
+				if (value == BOTTOM || value.equals(i == 0))
+					flowWork.add(new BasicBlock[] { blk, blk.successors.get(i) });
+		}
+	}
+
+	private void update(VariableSymbol sym, Object value) {
+		Object old = valueOf(sym);
+		Object lowered = meet(old, value);
+		if (!lowered.equals(old)) {
+			values.put(sym, lowered);
+			if (uses.containsKey(sym))
+				ssaWork.add(sym);
+		}
+	}
+
+	private static Object meet(Object a, Object b) {
+		if (a == TOP)
+			return b;
+		if (b == TOP)
+			return a;
+		if (a == BOTTOM || b == BOTTOM || !a.equals(b))
+			return BOTTOM;
+		return a;
+	}
+
+	private Object valueOf(VariableSymbol sym) {
+		Object value = values.get(sym);
+		if (value != null)
+			return value;
+		if (sym.v0sym != sym)
+			return TOP;
+		// the value on method entry: arguments are unknown, locals are zero
+		if (sym.kind == VariableSymbol.Kind.LOCAL) {
+			if (sym.type == PrimitiveTypeSymbol.intType)
+				return 0;
+			if (sym.type == PrimitiveTypeSymbol.booleanType)
+				return false;
+		}
+		return BOTTOM;
+	}
+
+	private Object evaluate(Expr expr) {
+		return evaluator.visit(expr, null);
+	}
+
+	/**
+	 * Evaluates an expression in the lattice. Anything that is not built from constants,
+	 * variables and unary or binary operators is {@link #BOTTOM}.
+	 */
+	private final ExprVisitor<Object, Void> evaluator = new ExprVisitor<Object, Void>() {
+		@Override
+		protected Object dfltExpr(Expr ast, Void arg) {
+			return BOTTOM;
+		}
+
+		@Override
+		public Object intConst(IntConst ast, Void arg) {
+			return ast.value;
+		}
+
+		@Override
+		public Object booleanConst(BooleanConst ast, Void arg) {
+			return ast.value;
+		}
+
+		@Override
+		public Object var(Var ast, Void arg) {
+			return valueOf(ast.sym);
+		}
+
+		@Override
+		public Object unaryOp(UnaryOp ast, Void arg) {
+			Object value = visit(ast.arg(), arg);
+			if (value == TOP || value == BOTTOM)
+				return value;
+			return fold(ast.operator, value);
+		}
+
+		@Override
+		public Object binaryOp(BinaryOp ast, Void arg) {
+			Object left = visit(ast.left(), arg);
+			Object right = visit(ast.right(), arg);
+			if (left == BOTTOM || right == BOTTOM)
+				return BOTTOM;
+			if (left == TOP || right == TOP)
+				return TOP;
+			return fold(ast.operator, left, right);
+		}
+	};
+
+	private static Object fold(UnaryOp.UOp op, Object value) {
+		switch (op) {
+		case U_PLUS:
+			return value;
+		case U_MINUS:
+			return -(Integer) value;
+		case U_BOOL_NOT:
+			return !(Boolean) value;
+		}
+		return BOTTOM;
+	}
+
+	private static Object fold(BinaryOp.BOp op, Object left, Object right) {
+		if (left instanceof Boolean) {
+			boolean l = (Boolean) left, r = (Boolean) right;
+			switch (op) {
+			case B_AND:
+				return l && r;
+			case B_OR:
+				return l || r;
+			case B_EQUAL:
+				return l == r;
+			case B_NOT_EQUAL:
+				return l != r;
+			default:
+				return BOTTOM;
+			}
+		}
+		int l = (Integer) left, r = (Integer) right;
+		switch (op) {
+		case B_TIMES:
+			return l * r;
+		case B_DIV:
+			return (r == 0 || (l == Integer.MIN_VALUE && r == -1)) ? BOTTOM : (Object) (l / r);
+		case B_MOD:
+			return (r == 0 || (l == Integer.MIN_VALUE && r == -1)) ? BOTTOM : (Object) (l % r);
+		case B_PLUS:
+			return l + r;
+		case B_MINUS:
+			return l - r;
+		case B_EQUAL:
+			return l == r;
+		case B_NOT_EQUAL:
+			return l != r;
+		case B_LESS_THAN:
+			return l < r;
+		case B_LESS_OR_EQUAL:
+			return l <= r;
+		case B_GREATER_THAN:
+			return l > r;
+		case B_GREATER_OR_EQUAL:
+			return l >= r;
+		default:
+			return BOTTOM;
+		}
+	}
+
+	// _________________________________________________________________
+	// Rewriting
+
+	private static Expr constant(Object value) {
+		Expr result;
+		if (value instanceof Integer) {
+			result = new IntConst((Integer) value);
+			result.type = PrimitiveTypeSymbol.intType;
+		} else {
+			result = new BooleanConst((Boolean) value);
+			result.type = PrimitiveTypeSymbol.booleanType;
+		}
+		return result;
+	}
+
+	private static boolean isConstant(Object value) {
+		return value != TOP && value != BOTTOM;
+	}
+
+	private void rewrite() {
+		for (BasicBlock blk : cfg.allBlocks) {
+			if (!visited[blk.index])
+				continue;
+
+			for (Iterator<Phi> it = blk.phis.values().iterator(); it.hasNext();) {
+				Phi phi = it.next();
+				if (isConstant(valueOf(phi.lhs)))
+					it.remove();
+				else
+					for (int i = 0; i < phi.rhs.size(); i++)
+						phi.rhs.set(i, rewrite(phi.rhs.get(i)));
+			}
+
+			for (Iterator<Stmt> it = blk.stmts.iterator(); it.hasNext();) {
+				Stmt stmt = it.next();
+				VariableSymbol def = definedVar(stmt);
+				if (def != null && isConstant(valueOf(def))) {
+					// all uses get replaced and the right-hand side has no side effects
+					it.remove();
+					continue;
+				}
+				rewriteChildren(stmt);
+			}
+
+			if (blk.condition != null) {
+				Object value = evaluate(blk.condition);
+				if (isConstant(value)) {
+					BasicBlock taken = ((Boolean) value) ? blk.trueSuccessor() : blk.falseSuccessor();
+					BasicBlock notTaken = ((Boolean) value) ? blk.falseSuccessor() : blk.trueSuccessor();
+					blk.condition = null;
+					blk.successors.clear();
+					blk.successors.add(taken);
+					if (notTaken != taken)
+						cfg.removePredecessor(notTaken, blk);
+				} else {
+					blk.condition = rewrite(blk.condition);
+				}
+			}
+		}
+		cfg.removeUnreachableBlocks();
+	}
+
+	/**
+	 * Returns the replacement for {@code expr}: the constant if {@code expr} is a constant
+	 * variable or an operation on constants, or {@code expr} with its children rewritten.
+	 */
+	private Expr rewrite(Expr expr) {
+		if (expr instanceof Var) {
+			Object value = valueOf(((Var) expr).sym);
+			return isConstant(value) ? constant(value) : expr;
+		}
+		rewriteChildren(expr);
+		if (expr instanceof BinaryOp || expr instanceof UnaryOp) {
+			Object value = evaluate(expr);
+			if (isConstant(value))
+				return constant(value);
+		}
+		if (expr instanceof BinaryOp) {
+			// true && e == e && true == e, and likewise for false || e
+			BinaryOp binOp = (BinaryOp) expr;
+			Boolean neutral = (binOp.operator == BinaryOp.BOp.B_AND ? Boolean.TRUE
+					: binOp.operator == BinaryOp.BOp.B_OR ? Boolean.FALSE : null);
+			if (neutral != null && isBooleanConst(binOp.left(), neutral))
+				return binOp.right();
+			if (neutral != null && isBooleanConst(binOp.right(), neutral))
+				return binOp.left();
+		}
+		return expr;
+	}
+
+	private static boolean isBooleanConst(Expr expr, boolean value) {
+		return expr instanceof BooleanConst && ((BooleanConst) expr).value == value;
+	}
+
+	private void rewriteChildren(Ast ast) {
+		for (int i = 0; i < ast.rwChildren.size(); i++) {
+			Ast child = ast.rwChildren.get(i);
+			if (!(child instanceof Expr))
+				continue;
+			// the target of a variable assignment is not a use
+			if (ast instanceof Assign && i == 0 && child instanceof Var)
+				continue;
+			ast.rwChildren.set(i, rewrite((Expr) child));
+		}
+	}
+}
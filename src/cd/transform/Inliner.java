@@ -0,0 +1,483 @@
+package cd.transform;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.BuiltInWrite;
+import cd.ir.Ast.ClassDecl;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodCall;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.NullConst;
+import cd.ir.Ast.ReturnStmt;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.UnaryOp;
+import cd.ir.Ast.Var;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.ir.Symbol.ClassSymbol;
+import cd.ir.Symbol.MethodSymbol;
+import cd.ir.Symbol.PrimitiveTypeSymbol;
+import cd.ir.Symbol.VariableSymbol;
+import cd.transform.analysis.LivenessAnalysis;
+import cd.transform.analysis.NonNullAnalysis;
+
+/**
+ * Replaces calls of small methods by a copy of the callee's CFG. A call is inlined if
+ * <ul>
+ * <li>it is a statement of its own, the right-hand side of an assignment, or the argument
+ * of {@code write} or {@code return}, so that it is evaluated after everything else in
+ * its statement;
+ * <li>its target is {@link MethodSymbol#monomorphic} (see
+ * {@link cd.transform.analysis.ClassHierarchyAnalysis}) and has at most
+ * {@link #maxCalleeSize} AST nodes;
+ * <li>the receiver is {@code this} or a variable that {@link NonNullAnalysis} proves
+ * non-{@code null}, so that no null check is lost;
+ * <li>the callee is not already being inlined at this point (recursion guard) and at most
+ * {@link #maxDepth} calls are inlined into each other.
+ * </ul>
+ * Parameters and locals of the callee become fresh locals of the caller. The arguments
+ * are assigned to the parameters, the locals are reset to zero, and {@code return}
+ * statements assign the result to a fresh local. Methods are copied as they were before
+ * any inlining, and the caller stops growing once it reaches
+ * {@link #MAX_CALLER_SIZE} AST nodes.
+ */
+public class Inliner {
+
+	public static final int DEFAULT_MAX_CALLEE_SIZE = 30;
+	public static final int DEFAULT_MAX_DEPTH = 3;
+
+	/** Callers of this many AST nodes do not get any more calls inlined. */
+	private static final int MAX_CALLER_SIZE = 2000;
+
+	/** The largest callee (in AST nodes) that is inlined. */
+	public final int maxCalleeSize;
+
+	/** The largest number of inlined calls that are nested in each other. */
+	public final int maxDepth;
+
+	/** A copy of a method as it was before inlining. */
+	private static class Callee {
+		final MethodSymbol sym;
+		final ControlFlowGraph cfg;
+		final int size;
+		final List<VariableSymbol> locals;
+
+		/** The locals that may be read before being assigned. */
+		final List<VariableSymbol> zeroInit = new ArrayList<>();
+
+		Callee(MethodDecl mdecl) {
+			sym = mdecl.sym;
+			cfg = copyCfg(mdecl.cfg, Collections.<VariableSymbol, VariableSymbol>emptyMap(), null);
+			size = sizeOf(cfg);
+			locals = new ArrayList<>(sym.locals.values());
+			for (VariableSymbol var : new LivenessAnalysis(mdecl).liveIn(mdecl.cfg.start))
+				if (var.kind == VariableSymbol.Kind.LOCAL && sym.locals.containsValue(var))
+					zeroInit.add(var);
+		}
+	}
+
+	private final Map<MethodSymbol, Callee> callees = new HashMap<>();
+
+	/**
+	 * The methods whose bodies an inlined statement (or block, for its condition) was
+	 * copied from.
+	 */
+	private final Map<Object, List<MethodSymbol>> inlinedFrom = new HashMap<>();
+
+	/** Where {@link #scan} found a call to hoist: the parent and the index in it. */
+	private Ast hoistParent;
+	private int hoistIndex;
+	private static final int PURE = 0, FOUND = 1, STOP = 2;
+
+	private MethodDecl caller;
+	private ControlFlowGraph cfg;
+
+	public Inliner() {
+		this(DEFAULT_MAX_CALLEE_SIZE, DEFAULT_MAX_DEPTH);
+	}
+
+	public Inliner(int maxCalleeSize, int maxDepth) {
+		this.maxCalleeSize = maxCalleeSize;
+		this.maxDepth = maxDepth;
+	}
+
+	public void inline(List<? extends ClassDecl> astRoots) {
+		for (ClassDecl cdecl : astRoots)
+			for (MethodDecl mdecl : cdecl.methods())
+				callees.put(mdecl.sym, new Callee(mdecl));
+		for (ClassDecl cdecl : astRoots)
+			for (MethodDecl mdecl : cdecl.methods())
+				inlineInto(mdecl);
+	}
+
+	private void inlineInto(MethodDecl mdecl) {
+		caller = mdecl;
+		cfg = mdecl.cfg;
+		int size = sizeOf(cfg);
+
+		// every round inlines the calls that the previous round copied into the caller
+		for (int round = 0; round <= maxDepth; round++) {
+			for (BasicBlock blk : cfg.allBlocks)
+				hoistCalls(blk);
+			NonNullAnalysis nonNull = new NonNullAnalysis(mdecl);
+			List<BasicBlock> blocks = new ArrayList<>();
+			List<Stmt> sites = new ArrayList<>();
+			for (BasicBlock blk : cfg.allBlocks)
+				for (Stmt stmt : blk.stmts)
+					if (canInline(blk, stmt, nonNull)) {
+						blocks.add(blk);
+						sites.add(stmt);
+					}
+			if (sites.isEmpty())
+				return;
+
+			// inline from last to first, so that splitting a block keeps the earlier
+			// sites in it
+			for (int i = sites.size() - 1; i >= 0 && size < MAX_CALLER_SIZE; i--) {
+				Callee callee = callees.get(callOf(sites.get(i)).sym);
+				inlineAt(blocks.get(i), sites.get(i), callee);
+				size += callee.size;
+			}
+		}
+	}
+
+	/** Returns the call whose result is the whole statement, or {@code null}. */
+	private static MethodCallExpr callOf(Stmt stmt) {
+		Ast call = null;
+		if (stmt instanceof MethodCall)
+			call = ((MethodCall) stmt).getMethodCallExpr();
+		else if (stmt instanceof Assign)
+			call = ((Assign) stmt).right();
+		else if (stmt instanceof BuiltInWrite)
+			call = ((BuiltInWrite) stmt).arg();
+		else if (stmt instanceof ReturnStmt)
+			call = ((ReturnStmt) stmt).arg();
+		return (call instanceof MethodCallExpr ? (MethodCallExpr) call : null);
+	}
+
+	private boolean canInline(BasicBlock blk, Stmt stmt, NonNullAnalysis nonNull) {
+		MethodCallExpr call = callOf(stmt);
+		if (call == null || !isCandidate(call, chainOf(stmt)))
+			return false;
+		Expr receiver = call.receiver();
+		return receiver instanceof ThisRef || (receiver instanceof Var
+				&& nonNull.nonNullBefore(blk, stmt).contains(((Var) receiver).sym));
+	}
+
+	/**
+	 * Returns whether the target of {@code call} may be inlined at a place that was
+	 * copied from the methods in {@code chain}.
+	 */
+	private boolean isCandidate(MethodCallExpr call, List<MethodSymbol> chain) {
+		Callee callee = callees.get(call.sym);
+		return call.sym.monomorphic && callee != null && callee.size <= maxCalleeSize
+				&& !chain.contains(callee.sym) && chain.size() <= maxDepth;
+	}
+
+	/** {@code stmtOrBlock} is a statement, or a block for its condition. */
+	private List<MethodSymbol> chainOf(Object stmtOrBlock) {
+		List<MethodSymbol> chain = inlinedFrom.get(stmtOrBlock);
+		return chain != null ? chain : Collections.singletonList(caller.sym);
+	}
+
+	private void inlineAt(BasicBlock blk, Stmt stmt, Callee callee) {
+		MethodCallExpr call = callOf(stmt);
+		List<MethodSymbol> chain = new ArrayList<>(chainOf(stmt));
+		chain.add(callee.sym);
+
+		// Split the block after the call:
+		int pos = blk.stmts.indexOf(stmt);
+		BasicBlock after = cfg.newBlock();
+		List<Stmt> rest = blk.stmts.subList(pos, blk.stmts.size());
+		after.stmts.addAll(rest.subList(1, rest.size()));
+		rest.clear();
+		after.condition = blk.condition;
+		blk.condition = null;
+		if (inlinedFrom.containsKey(blk))
+			inlinedFrom.put(after, inlinedFrom.get(blk));
+		for (BasicBlock succ : blk.successors) {
+			after.successors.add(succ);
+			succ.predecessors.set(succ.predecessors.indexOf(blk), after);
+		}
+		blk.successors.clear();
+
+		// Bind the parameters and reset the locals:
+		Map<VariableSymbol, VariableSymbol> renamed = new HashMap<>();
+		List<Expr> args = call.argumentsWithoutReceiver();
+		for (int i = 0; i < args.size(); i++) {
+			VariableSymbol param = newLocal(callee.sym, callee.sym.parameters.get(i));
+			renamed.put(callee.sym.parameters.get(i), param);
+			blk.stmts.add(new Assign(Var.withSym(param), args.get(i)));
+		}
+		for (VariableSymbol local : callee.locals)
+			renamed.put(local, newLocal(callee.sym, local));
+		for (VariableSymbol local : callee.zeroInit)
+			blk.stmts.add(new Assign(Var.withSym(renamed.get(local)), zero(local)));
+
+		VariableSymbol result = null;
+		if (callee.sym.returnType != PrimitiveTypeSymbol.voidType)
+			result = newLocal(callee.sym, new VariableSymbol("result", callee.sym.returnType));
+
+		// Copy the body, turning returns into assignments to the result:
+		ControlFlowGraph body = copyCfg(callee.cfg, renamed, call.receiver());
+		Map<BasicBlock, BasicBlock> copies = new HashMap<>();
+		for (BasicBlock cblk : body.allBlocks) {
+			BasicBlock copy = cfg.newBlock();
+			copies.put(cblk, copy);
+			for (Stmt cstmt : cblk.stmts) {
+				if (cstmt instanceof ReturnStmt) {
+					Expr value = ((ReturnStmt) cstmt).arg();
+					if (value != null)
+						copy.stmts.add(new Assign(Var.withSym(result), value));
+				} else {
+					copy.stmts.add(cstmt);
+					inlinedFrom.put(cstmt, chain);
+				}
+			}
+			copy.condition = cblk.condition;
+			inlinedFrom.put(copy, chain);
+		}
+		for (BasicBlock cblk : body.allBlocks)
+			for (BasicBlock succ : cblk.successors)
+				cfg.connect(copies.get(cblk), copies.get(succ));
+		cfg.connect(blk, copies.get(body.start));
+		cfg.connect(copies.get(body.end), after);
+
+		// Use the result where the call was:
+		Stmt replacement = null;
+		if (stmt instanceof Assign)
+			replacement = new Assign(((Assign) stmt).left(), Var.withSym(result));
+		else if (stmt instanceof BuiltInWrite)
+			replacement = new BuiltInWrite(Var.withSym(result));
+		else if (stmt instanceof ReturnStmt)
+			replacement = new ReturnStmt(Var.withSym(result));
+		if (replacement != null)
+			after.stmts.add(0, replacement);
+	}
+
+	// _________________________________________________________________
+	// Hoisting
+
+	/**
+	 * Moves calls that may be inlined out of the expressions of {@code blk} into
+	 * assignments to fresh locals, right before their statement (or at the end of the
+	 * block, for the condition). A call is only moved if everything evaluated before it in
+	 * its statement is built from variables, constants and operators that cannot fail, as
+	 * the call can neither change nor observe those.
+	 */
+	private void hoistCalls(BasicBlock blk) {
+		for (int i = 0; i < blk.stmts.size(); i++) {
+			Stmt stmt = blk.stmts.get(i);
+			while (scanStmt(stmt, chainOf(stmt)) == FOUND)
+				blk.stmts.add(i++, hoist(chainOf(stmt)));
+		}
+		while (blk.condition != null && scan(blk.condition, null, -1, chainOf(blk)) == FOUND) {
+			if (hoistParent == null) {
+				// the whole condition is the call
+				VariableSymbol value = hoistedLocal((MethodCallExpr) blk.condition);
+				blk.stmts.add(assignHoisted(value, blk.condition, chainOf(blk)));
+				blk.condition = Var.withSym(value);
+			} else {
+				blk.stmts.add(hoist(chainOf(blk)));
+			}
+		}
+	}
+
+	/** Replaces the call found by {@link #scan} by a fresh local and returns its assignment. */
+	private Stmt hoist(List<MethodSymbol> chain) {
+		MethodCallExpr call = (MethodCallExpr) hoistParent.rwChildren.get(hoistIndex);
+		VariableSymbol value = hoistedLocal(call);
+		hoistParent.rwChildren.set(hoistIndex, Var.withSym(value));
+		return assignHoisted(value, call, chain);
+	}
+
+	private VariableSymbol hoistedLocal(MethodCallExpr call) {
+		return newLocal(call.sym, new VariableSymbol("value", call.sym.returnType));
+	}
+
+	private Stmt assignHoisted(VariableSymbol value, Expr call, List<MethodSymbol> chain) {
+		Stmt stmt = new Assign(Var.withSym(value), call);
+		inlinedFrom.put(stmt, chain);
+		return stmt;
+	}
+
+	/**
+	 * Scans {@code stmt} in evaluation order for a call to hoist. The call that is the
+	 * whole statement ({@link #callOf(Stmt)}) is not hoisted, and nothing after it is.
+	 */
+	private int scanStmt(Stmt stmt, List<MethodSymbol> chain) {
+		Expr value = null;
+		if (stmt instanceof MethodCall)
+			value = ((MethodCall) stmt).getMethodCallExpr();
+		else if (stmt instanceof Assign)
+			value = ((Assign) stmt).right();
+		else if (stmt instanceof BuiltInWrite)
+			value = ((BuiltInWrite) stmt).arg();
+		else if (stmt instanceof ReturnStmt)
+			value = ((ReturnStmt) stmt).arg();
+		if (value == null)
+			return PURE;
+
+		int state = (value instanceof MethodCallExpr ? scanChildren(value, chain)
+				: scan(value, stmt, stmt instanceof Assign ? 1 : 0, chain));
+		if (state != PURE || value instanceof MethodCallExpr || !(stmt instanceof Assign))
+			return state;
+		// the target of a store is evaluated after the value
+		Expr target = ((Assign) stmt).left();
+		return (target instanceof Var ? PURE : scanChildren(target, chain));
+	}
+
+	private int scanChildren(Ast ast, List<MethodSymbol> chain) {
+		for (int i = 0; i < ast.rwChildren.size(); i++) {
+			Ast child = ast.rwChildren.get(i);
+			int state = (child == null ? PURE : scan(child, ast, i, chain));
+			if (state != PURE)
+				return state;
+		}
+		return PURE;
+	}
+
+	/**
+	 * Scans {@code ast}, the {@code index}-th child of {@code parent}, in evaluation order.
+	 * Returns {@link #FOUND} and sets {@link #hoistParent} at the first call that may be
+	 * hoisted, {@link #STOP} at the first expression that a call could observe, and
+	 * {@link #PURE} otherwise.
+	 */
+	private int scan(Ast ast, Ast parent, int index, List<MethodSymbol> chain) {
+		int state = scanChildren(ast, chain);
+		if (state != PURE)
+			return state;
+		if (ast instanceof MethodCallExpr) {
+			if (!isCandidate((MethodCallExpr) ast, chain))
+				return STOP;
+			hoistParent = parent;
+			hoistIndex = index;
+			return FOUND;
+		}
+		return isPure(ast) ? PURE : STOP;
+	}
+
+	/**
+	 * Returns whether evaluating {@code ast} (apart from its children) can neither fail
+	 * nor read anything a call could change.
+	 */
+	private static boolean isPure(Ast ast) {
+		if (ast instanceof BinaryOp) {
+			BinaryOp.BOp op = ((BinaryOp) ast).operator;
+			return op != BinaryOp.BOp.B_DIV && op != BinaryOp.BOp.B_MOD;
+		}
+		return ast instanceof Var || ast instanceof IntConst || ast instanceof BooleanConst
+				|| ast instanceof NullConst || ast instanceof ThisRef || ast instanceof NewObject
+				|| ast instanceof UnaryOp;
+	}
+
+	// _________________________________________________________________
+	// Locals
+
+	/**
+	 * Adds a fresh local for {@code var} of the inlined method {@code callee} to the
+	 * caller.
+	 */
+	private VariableSymbol newLocal(MethodSymbol callee, VariableSymbol var) {
+		MethodSymbol msym = caller.sym;
+		String base = callee.owner.name + "$" + callee.name + "$" + var.name;
+		String name = base;
+		for (int i = 1; msym.locals.containsKey(name) || isParameter(msym, name); i++)
+			name = base + "$" + i;
+		VariableSymbol local = new VariableSymbol(name, var.type, VariableSymbol.Kind.LOCAL);
+		msym.locals.put(name, local);
+		return local;
+	}
+
+	private static boolean isParameter(MethodSymbol msym, String name) {
+		for (VariableSymbol param : msym.parameters)
+			if (param.name.equals(name))
+				return true;
+		return false;
+	}
+
+	/** Returns the value {@code var} has before its first assignment. */
+	private static Expr zero(VariableSymbol var) {
+		Expr result;
+		if (var.type == PrimitiveTypeSymbol.intType)
+			result = new IntConst(0);
+		else if (var.type == PrimitiveTypeSymbol.booleanType)
+			result = new BooleanConst(false);
+		else {
+			result = new NullConst();
+			result.type = ClassSymbol.nullType;
+			return result;
+		}
+		result.type = var.type;
+		return result;
+	}
+
+	// _________________________________________________________________
+	// Copying
+
+	/**
+	 * Returns a copy of {@code cfg} whose blocks are not part of any other graph. Variables
+	 * are replaced as given by {@code renamed} and, if {@code thisExpr} is not
+	 * {@code null}, {@code this} by copies of {@code thisExpr}.
+	 */
+	private static ControlFlowGraph copyCfg(ControlFlowGraph cfg,
+			Map<VariableSymbol, VariableSymbol> renamed, Expr thisExpr) {
+		ControlFlowGraph result = new ControlFlowGraph();
+		for (BasicBlock blk : cfg.allBlocks) {
+			BasicBlock copy = result.newBlock();
+			for (Stmt stmt : blk.stmts)
+				copy.stmts.add((Stmt) copy(stmt, renamed, thisExpr));
+			if (blk.condition != null)
+				copy.condition = (Expr) copy(blk.condition, renamed, thisExpr);
+		}
+		for (BasicBlock blk : cfg.allBlocks)
+			for (BasicBlock succ : blk.successors)
+				result.connect(result.allBlocks.get(blk.index), result.allBlocks.get(succ.index));
+		result.start = result.allBlocks.get(cfg.start.index);
+		result.end = result.allBlocks.get(cfg.end.index);
+		return result;
+	}
+
+	private static Ast copy(Ast ast, Map<VariableSymbol, VariableSymbol> renamed, Expr thisExpr) {
+		if (ast instanceof ThisRef && thisExpr != null)
+			return copy(thisExpr, Collections.<VariableSymbol, VariableSymbol>emptyMap(), null);
+		if (ast instanceof Var && renamed.containsKey(((Var) ast).sym))
+			return Var.withSym(renamed.get(((Var) ast).sym));
+		// deepCopy() shares the children of some nodes, so copy them separately
+		Ast result = ast.deepCopy();
+		for (int i = 0; i < ast.rwChildren.size(); i++)
+			if (ast.rwChildren.get(i) != null)
+				result.rwChildren.set(i, copy(ast.rwChildren.get(i), renamed, thisExpr));
+		return result;
+	}
+
+	private static int sizeOf(ControlFlowGraph cfg) {
+		int size = 0;
+		for (BasicBlock blk : cfg.allBlocks) {
+			for (Stmt stmt : blk.stmts)
+				size += sizeOf(stmt);
+			if (blk.condition != null)
+				size += sizeOf(blk.condition);
+		}
+		return size;
+	}
+
+	private static int sizeOf(Ast ast) {
+		int size = 1;
+		for (Ast child : ast.children())
+			size += sizeOf(child);
+		return size;
+	}
+}
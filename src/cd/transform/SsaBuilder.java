@@ -0,0 +1,231 @@
+package cd.transform;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.Var;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.ir.Phi;
+import cd.ir.Symbol.MethodSymbol;
+import cd.ir.Symbol.VariableSymbol;
+import cd.transform.analysis.LivenessAnalysis;
+
+/**
+ * Converts the CFG of a method into SSA form. Every assignment to a local or parameter
+ * defines a new version of it, created with
+ * {@link VariableSymbol#VariableSymbol(VariableSymbol, int)} and added to the locals of
+ * the method. {@link Phi} functions are placed in the iterated dominance frontier of the
+ * definitions, but only where the variable is live (pruned SSA).
+ * <p>
+ * The unversioned symbol itself stands for the value a variable has on method entry, i.e.
+ * the argument for parameters and zero for locals. Use {@link SsaDeconstructor} to
+ * leave SSA form before generating code.
+ */
+public class SsaBuilder {
+
+	private ControlFlowGraph cfg;
+	private MethodSymbol msym;
+
+	/** The next version number to try for each variable. */
+	private final Map<VariableSymbol, Integer> nextVersion = new HashMap<>();
+
+	/** The current version of each variable during renaming. */
+	private final Map<VariableSymbol, Deque<VariableSymbol>> stacks = new HashMap<>();
+
+	public void build(MethodDecl mdecl) {
+		cfg = mdecl.cfg;
+		msym = mdecl.sym;
+		cfg.computeDominators();
+
+		placePhis(new LivenessAnalysis(mdecl));
+		if (cfg.start != null)
+			rename(cfg.start);
+
+		// Operands for edges from unreachable blocks were never filled in.
+		for (BasicBlock blk : cfg.allBlocks)
+			for (Phi phi : blk.phis.values())
+				for (int i = 0; i < phi.rhs.size(); i++)
+					if (phi.rhs.get(i) == null)
+						phi.rhs.set(i, Var.withSym(phi.v0sym));
+	}
+
+	/**
+	 * Returns a fresh version of {@code v0sym} whose name does not clash with any local of
+	 * {@code msym}, and adds it to the locals. The search starts at version
+	 * {@code version}.
+	 */
+	public static VariableSymbol freshVersion(MethodSymbol msym, VariableSymbol v0sym, int version) {
+		VariableSymbol sym = new VariableSymbol(v0sym, version);
+		while (msym.locals.containsKey(sym.name) || isParameter(msym, sym.name))
+			sym = new VariableSymbol(v0sym, ++version);
+		msym.locals.put(sym.name, sym);
+		return sym;
+	}
+
+	private static boolean isParameter(MethodSymbol msym, String name) {
+		for (VariableSymbol param : msym.parameters)
+			if (param.name.equals(name))
+				return true;
+		return false;
+	}
+
+	private VariableSymbol newVersion(VariableSymbol v0sym) {
+		Integer version = nextVersion.get(v0sym);
+		VariableSymbol sym = freshVersion(msym, v0sym, version == null ? 1 : version);
+		nextVersion.put(v0sym, sym.version + 1);
+		return sym;
+	}
+
+	// _________________________________________________________________
+	// Phi placement
+
+	private static boolean isTracked(VariableSymbol sym) {
+		return sym.kind != VariableSymbol.Kind.FIELD;
+	}
+
+	private static VariableSymbol assignedVar(Stmt stmt) {
+		if (stmt instanceof Assign && ((Assign) stmt).left() instanceof Var) {
+			VariableSymbol sym = ((Var) ((Assign) stmt).left()).sym;
+			if (isTracked(sym))
+				return sym;
+		}
+		return null;
+	}
+
+	private void placePhis(LivenessAnalysis liveness) {
+		Map<VariableSymbol, Set<BasicBlock>> defBlocks = new LinkedHashMap<>();
+		for (BasicBlock blk : cfg.allBlocks) {
+			for (Stmt stmt : blk.stmts) {
+				VariableSymbol sym = assignedVar(stmt);
+				if (sym == null)
+					continue;
+				Set<BasicBlock> blocks = defBlocks.get(sym);
+				if (blocks == null) {
+					blocks = new LinkedHashSet<>();
+					defBlocks.put(sym, blocks);
+				}
+				blocks.add(blk);
+			}
+		}
+
+		for (Map.Entry<VariableSymbol, Set<BasicBlock>> entry : defBlocks.entrySet()) {
+			VariableSymbol sym = entry.getKey();
+			List<BasicBlock> work = new ArrayList<>(entry.getValue());
+			while (!work.isEmpty()) {
+				BasicBlock blk = work.remove(work.size() - 1);
+				for (BasicBlock df : blk.dominanceFrontier) {
+					if (df.phis.containsKey(sym) || !liveness.liveIn(df).contains(sym))
+						continue;
+					df.phis.put(sym, new Phi(sym, df.predecessors.size()));
+					// the phi is a new definition of sym
+					if (!entry.getValue().contains(df))
+						work.add(df);
+				}
+			}
+		}
+	}
+
+	// _________________________________________________________________
+	// Renaming
+
+	private VariableSymbol current(VariableSymbol v0sym) {
+		Deque<VariableSymbol> stack = stacks.get(v0sym);
+		return (stack == null || stack.isEmpty()) ? v0sym : stack.peek();
+	}
+
+	private void push(VariableSymbol v0sym, VariableSymbol sym, List<VariableSymbol> pushed) {
+		Deque<VariableSymbol> stack = stacks.get(v0sym);
+		if (stack == null) {
+			stack = new ArrayDeque<>();
+			stacks.put(v0sym, stack);
+		}
+		stack.push(sym);
+		pushed.add(v0sym);
+	}
+
+	/** Replaces every use of a tracked variable by its current version. */
+	private final AstVisitor<Void, Void> useRenamer = new AstVisitor<Void, Void>() {
+		@Override
+		public Void var(Var ast, Void arg) {
+			if (isTracked(ast.sym))
+				ast.setSymbol(current(ast.sym));
+			return null;
+		}
+
+		@Override
+		public Void assign(Assign ast, Void arg) {
+			if (!(ast.left() instanceof Var))
+				visit(ast.left(), arg);
+			visit(ast.right(), arg);
+			return null;
+		}
+	};
+
+	/**
+	 * Renames the blocks of the dominator subtree rooted at {@code root}. Uses an explicit
+	 * stack so that deeply nested methods do not overflow the Java stack.
+	 */
+	private void rename(BasicBlock root) {
+		Deque<BasicBlock> todo = new ArrayDeque<>();
+		Deque<List<VariableSymbol>> pushedPerBlock = new ArrayDeque<>();
+		Set<BasicBlock> entered = new LinkedHashSet<>();
+		todo.push(root);
+		while (!todo.isEmpty()) {
+			BasicBlock blk = todo.peek();
+			if (entered.add(blk)) {
+				pushedPerBlock.push(renameBlock(blk));
+				List<BasicBlock> children = blk.dominatorTreeChildren;
+				for (int i = children.size() - 1; i >= 0; i--)
+					todo.push(children.get(i));
+			} else {
+				// all children are done: restore the versions seen by the parent
+				todo.pop();
+				for (VariableSymbol v0sym : pushedPerBlock.pop())
+					stacks.get(v0sym).pop();
+			}
+		}
+	}
+
+	private List<VariableSymbol> renameBlock(BasicBlock blk) {
+		List<VariableSymbol> pushed = new ArrayList<>();
+
+		for (Phi phi : blk.phis.values()) {
+			phi.lhs = newVersion(phi.v0sym);
+			push(phi.v0sym, phi.lhs, pushed);
+		}
+
+		for (Stmt stmt : blk.stmts) {
+			useRenamer.visit(stmt, null);
+			VariableSymbol sym = assignedVar(stmt);
+			if (sym != null) {
+				VariableSymbol version = newVersion(sym);
+				((Var) ((Assign) stmt).left()).setSymbol(version);
+				push(sym, version, pushed);
+			}
+		}
+		if (blk.condition != null)
+			useRenamer.visit(blk.condition, null);
+
+		for (BasicBlock succ : blk.successors) {
+			for (int i = 0; i < succ.predecessors.size(); i++) {
+				if (succ.predecessors.get(i) != blk)
+					continue;
+				for (Phi phi : succ.phis.values())
+					phi.rhs.set(i, Var.withSym(current(phi.v0sym)));
+			}
+		}
+		return pushed;
+	}
+}
@@ -0,0 +1,199 @@
+package cd.transform;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.Var;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.ir.Phi;
+import cd.ir.Symbol.MethodSymbol;
+import cd.ir.Symbol.VariableSymbol;
+import cd.transform.analysis.LivenessAnalysis;
+
+/**
+ * Takes a method out of the SSA form built by {@link SsaBuilder}, so that the code
+ * generator never sees {@link Phi} functions.
+ * <ol>
+ * <li>Critical edges into blocks with phis (from a block with two successors) are split,
+ * so that there is a place for the copies of that edge.
+ * <li>The phis of each block are replaced by one parallel copy at the end of every
+ * predecessor, which is then sequentialized. Cycles such as {@code a = b, b = a} are
+ * broken with a temporary.
+ * <li>Versions of the same variable that never interfere are merged back into the
+ * original variable, and copies that became {@code x = x} are removed. If no
+ * optimization moved code around in between, this restores the variables of the input
+ * program exactly.
+ * </ol>
+ */
+public class SsaDeconstructor {
+
+	private ControlFlowGraph cfg;
+	private MethodSymbol msym;
+
+	public void deconstruct(MethodDecl mdecl) {
+		cfg = mdecl.cfg;
+		msym = mdecl.sym;
+
+		for (BasicBlock blk : new ArrayList<>(cfg.allBlocks)) {
+			if (blk.phis.isEmpty())
+				continue;
+			for (int i = 0; i < blk.predecessors.size(); i++) {
+				BasicBlock pred = blk.predecessors.get(i);
+				if (pred.successors.size() > 1)
+					pred = splitEdge(pred, blk, i);
+				List<VariableSymbol> dsts = new ArrayList<>();
+				List<Expr> srcs = new ArrayList<>();
+				for (Phi phi : blk.phis.values()) {
+					dsts.add(phi.lhs);
+					srcs.add(phi.rhs.get(i));
+				}
+				sequentialize(dsts, srcs, pred.stmts);
+			}
+			blk.phis.clear();
+		}
+
+		coalesce(mdecl);
+	}
+
+	/**
+	 * Inserts a new block on the edge from {@code pred} to the {@code predIndex}-th
+	 * predecessor slot of {@code blk}, keeping the order of the successors of
+	 * {@code pred} (true/false) and of the predecessors of {@code blk} (phi operands).
+	 */
+	private BasicBlock splitEdge(BasicBlock pred, BasicBlock blk, int predIndex) {
+		BasicBlock mid = cfg.newBlock();
+		int succIndex = pred.successors.indexOf(blk);
+		pred.successors.set(succIndex, mid);
+		mid.predecessors.add(pred);
+		mid.successors.add(blk);
+		blk.predecessors.set(predIndex, mid);
+		return mid;
+	}
+
+	/**
+	 * Appends statements to {@code stmts} that perform the copies
+	 * {@code dsts[i] = srcs[i]} as if they all happened at the same time.
+	 */
+	private void sequentialize(List<VariableSymbol> dsts, List<Expr> srcs, List<Stmt> stmts) {
+		dsts = new ArrayList<>(dsts);
+		srcs = new ArrayList<>(srcs);
+		for (int i = dsts.size() - 1; i >= 0; i--) {
+			if (isVar(srcs.get(i), dsts.get(i))) {
+				dsts.remove(i);
+				srcs.remove(i);
+			}
+		}
+
+		while (!dsts.isEmpty()) {
+			// Emit a copy whose destination is not needed by another pending copy:
+			int ready = -1;
+			for (int i = 0; i < dsts.size() && ready < 0; i++) {
+				boolean needed = false;
+				for (int j = 0; j < srcs.size() && !needed; j++)
+					needed = (j != i && isVar(srcs.get(j), dsts.get(i)));
+				if (!needed)
+					ready = i;
+			}
+
+			if (ready >= 0) {
+				stmts.add(copy(dsts.remove(ready), srcs.remove(ready)));
+				continue;
+			}
+
+			// Only cycles remain: save one destination in a temporary and let the
+			// copies that read it read the temporary instead.
+			VariableSymbol dst = dsts.get(0);
+			VariableSymbol tmp = SsaBuilder.freshVersion(msym, dst.v0sym, 1);
+			stmts.add(copy(tmp, Var.withSym(dst)));
+			for (int j = 0; j < srcs.size(); j++)
+				if (isVar(srcs.get(j), dst))
+					srcs.set(j, Var.withSym(tmp));
+		}
+	}
+
+	private static boolean isVar(Expr expr, VariableSymbol sym) {
+		return expr instanceof Var && ((Var) expr).sym == sym;
+	}
+
+	private static Assign copy(VariableSymbol dst, Expr src) {
+		return new Assign(Var.withSym(dst), (Expr) src.deepCopy());
+	}
+
+	// _________________________________________________________________
+	// Coalescing
+
+	/**
+	 * Merges the versions of each variable back into the variable if no two of them
+	 * interfere, i.e. if no version is defined or live while another version is live.
+	 */
+	private void coalesce(MethodDecl mdecl) {
+		LivenessAnalysis liveness = new LivenessAnalysis(mdecl);
+		Set<VariableSymbol> interfering = new HashSet<>();
+
+		for (BasicBlock blk : cfg.allBlocks) {
+			checkInterference(liveness.liveIn(blk), null, interfering);
+			for (Stmt stmt : blk.stmts)
+				checkInterference(liveness.liveAfter(blk, stmt), liveness.defOf(stmt), interfering);
+			checkInterference(liveness.liveBeforeCondition(blk), null, interfering);
+		}
+
+		final Map<VariableSymbol, VariableSymbol> merged = new HashMap<>();
+		for (Iterator<VariableSymbol> it = msym.locals.values().iterator(); it.hasNext();) {
+			VariableSymbol sym = it.next();
+			if (sym.v0sym != sym && !interfering.contains(sym.v0sym)) {
+				merged.put(sym, sym.v0sym);
+				it.remove();
+			}
+		}
+		if (merged.isEmpty())
+			return;
+
+		AstVisitor<Void, Void> renamer = new AstVisitor<Void, Void>() {
+			@Override
+			public Void var(Var ast, Void arg) {
+				VariableSymbol v0sym = merged.get(ast.sym);
+				if (v0sym != null)
+					ast.setSymbol(v0sym);
+				return null;
+			}
+		};
+		for (BasicBlock blk : cfg.allBlocks) {
+			for (Iterator<Stmt> it = blk.stmts.iterator(); it.hasNext();) {
+				Stmt stmt = it.next();
+				renamer.visit(stmt, null);
+				if (stmt instanceof Assign && ((Assign) stmt).left() instanceof Var
+						&& isVar(((Assign) stmt).right(), ((Var) ((Assign) stmt).left()).sym))
+					it.remove();
+			}
+			if (blk.condition != null)
+				renamer.visit(blk.condition, null);
+		}
+	}
+
+	/**
+	 * Marks the original variable of {@code def} and of every variable in {@code live}
+	 * as interfering if two different versions of it are involved.
+	 */
+	private void checkInterference(Set<VariableSymbol> live, VariableSymbol def,
+			Set<VariableSymbol> interfering) {
+		Map<VariableSymbol, VariableSymbol> seen = new HashMap<>();
+		if (def != null)
+			seen.put(def.v0sym, def);
+		for (VariableSymbol sym : live) {
+			VariableSymbol other = seen.put(sym.v0sym, sym);
+			if (other != null && other != sym)
+				interfering.add(sym.v0sym);
+		}
+	}
+}
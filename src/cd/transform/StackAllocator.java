@@ -0,0 +1,25 @@
+package cd.transform;
+
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.NewObject;
+import cd.transform.analysis.EscapeAnalysis;
+
+/**
+ * Marks the allocations of a method in SSA form whose object does not escape the method
+ * as {@link NewObject#onStack} or {@link NewArray#onStack}, using an
+ * {@link EscapeAnalysis}. The code generator places these objects in the stack frame
+ * instead of calling {@code Javali$Alloc}.
+ */
+public class StackAllocator {
+
+	public void optimize(MethodDecl mdecl) {
+		for (Expr alloc : new EscapeAnalysis(mdecl).stackAllocations()) {
+			if (alloc instanceof NewObject)
+				((NewObject) alloc).onStack = true;
+			else
+				((NewArray) alloc).onStack = true;
+		}
+	}
+}
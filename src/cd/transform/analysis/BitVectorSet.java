@@ -0,0 +1,241 @@
+package cd.transform.analysis;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A set over a fixed {@link Universe} of elements, represented as a {@link BitSet} in which
+ * bit <i>i</i> is set if the element with dense id <i>i</i> is a member. Copying, comparing,
+ * and the bulk operations between sets of the same universe work word by word and do not
+ * hash any elements, which makes this the preferred state type for gen/kill analyses.
+ * <p>
+ * Adding an element that is not part of the universe throws an
+ * {@link IllegalArgumentException}.
+ *
+ * @param <E>
+ *            The type of the elements.
+ */
+public class BitVectorSet<E> extends AbstractSet<E> {
+
+	/**
+	 * Assigns dense ids <code>0..size()-1</code> to a set of elements. Elements are
+	 * compared with {@link Object#equals(Object)}.
+	 */
+	public static class Universe<E> {
+
+		private final List<E> elements = new ArrayList<>();
+		private final Map<E, Integer> ids = new HashMap<>();
+
+		public Universe() {
+		}
+
+		public Universe(Collection<? extends E> elements) {
+			for(E element : elements)
+				add(element);
+		}
+
+		/**
+		 * Adds <code>element</code> to the universe (if it is not part of it yet) and returns
+		 * its id.
+		 */
+		public int add(E element) {
+			Integer id = ids.get(element);
+			if(id == null) {
+				id = elements.size();
+				elements.add(element);
+				ids.put(element, id);
+			}
+			return id;
+		}
+
+		/**
+		 * Returns the id of <code>element</code>, or -1 if it is not part of the universe.
+		 */
+		public int indexOf(Object element) {
+			Integer id = ids.get(element);
+			return id == null ? -1 : id;
+		}
+
+		public E get(int id) {
+			return elements.get(id);
+		}
+
+		public int size() {
+			return elements.size();
+		}
+
+		/** Returns a new, empty set over this universe. */
+		public BitVectorSet<E> emptySet() {
+			return new BitVectorSet<>(this);
+		}
+
+		/** Returns a new set over this universe that contains all its elements. */
+		public BitVectorSet<E> fullSet() {
+			BitVectorSet<E> result = new BitVectorSet<>(this);
+			result.bits.set(0, size());
+			return result;
+		}
+	}
+
+	private final Universe<E> universe;
+	private final BitSet bits;
+
+	public BitVectorSet(Universe<E> universe) {
+		this(universe, new BitSet(universe.size()));
+	}
+
+	private BitVectorSet(Universe<E> universe, BitSet bits) {
+		this.universe = universe;
+		this.bits = bits;
+	}
+
+	public Universe<E> universe() {
+		return universe;
+	}
+
+	/** Returns a copy of this set that shares the universe but not the bits. */
+	public BitVectorSet<E> copy() {
+		return new BitVectorSet<>(universe, (BitSet) bits.clone());
+	}
+
+	/** Adds all elements of <code>other</code> to this set. Returns this set. */
+	public BitVectorSet<E> unionWith(BitVectorSet<E> other) {
+		checkUniverse(other);
+		bits.or(other.bits);
+		return this;
+	}
+
+	/** Removes all elements not in <code>other</code> from this set. Returns this set. */
+	public BitVectorSet<E> intersectWith(BitVectorSet<E> other) {
+		checkUniverse(other);
+		bits.and(other.bits);
+		return this;
+	}
+
+	/** Removes all elements of <code>other</code> from this set. Returns this set. */
+	public BitVectorSet<E> subtract(BitVectorSet<E> other) {
+		checkUniverse(other);
+		bits.andNot(other.bits);
+		return this;
+	}
+
+	private void checkUniverse(BitVectorSet<E> other) {
+		if(other.universe != universe)
+			throw new IllegalArgumentException("sets belong to different universes");
+	}
+
+	@Override
+	public boolean add(E element) {
+		int id = universe.indexOf(element);
+		if(id < 0)
+			throw new IllegalArgumentException("element not in universe: " + element);
+		if(bits.get(id))
+			return false;
+		bits.set(id);
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object element) {
+		int id = universe.indexOf(element);
+		if(id < 0 || !bits.get(id))
+			return false;
+		bits.clear(id);
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object element) {
+		int id = universe.indexOf(element);
+		return id >= 0 && bits.get(id);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean addAll(Collection<? extends E> elements) {
+		if(elements instanceof BitVectorSet && ((BitVectorSet<?>) elements).universe == universe) {
+			int oldSize = size();
+			unionWith((BitVectorSet<E>) elements);
+			return size() != oldSize;
+		}
+		return super.addAll(elements);
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> elements) {
+		if(elements instanceof BitVectorSet && ((BitVectorSet<?>) elements).universe == universe) {
+			int oldSize = size();
+			bits.andNot(((BitVectorSet<?>) elements).bits);
+			return size() != oldSize;
+		}
+		boolean changed = false;
+		for(Object element : elements)
+			changed |= remove(element);
+		return changed;
+	}
+
+	@Override
+	public void clear() {
+		bits.clear();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return bits.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return bits.cardinality();
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			int next = bits.nextSetBit(0);
+			int last = -1;
+
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			@Override
+			public E next() {
+				if(next < 0)
+					throw new NoSuchElementException();
+				last = next;
+				next = bits.nextSetBit(next + 1);
+				return universe.get(last);
+			}
+
+			@Override
+			public void remove() {
+				if(last < 0)
+					throw new IllegalStateException();
+				bits.clear(last);
+				last = -1;
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if(other instanceof BitVectorSet && ((BitVectorSet<?>) other).universe == universe)
+			return bits.equals(((BitVectorSet<?>) other).bits);
+		return super.equals(other);
+	}
+
+	@Override
+	public int hashCode() {
+		// must agree with AbstractSet.hashCode() for equal sets of other types
+		return super.hashCode();
+	}
+}
@@ -0,0 +1,31 @@
+package cd.transform.analysis;
+
+import java.util.List;
+
+import cd.ir.Ast.ClassDecl;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Symbol.MethodSymbol;
+
+/**
+ * A whole-program class hierarchy analysis. It sets
+ * {@link MethodSymbol#monomorphic} for every method that is not overridden in any
+ * subclass of its owner: a call of such a method always invokes it, whatever the dynamic
+ * type of the receiver, and can be compiled to a direct call.
+ * <p>
+ * Since Javali programs are compiled as a whole, all classes that can exist at runtime
+ * are known.
+ */
+public class ClassHierarchyAnalysis {
+
+	public void analyze(List<? extends ClassDecl> astRoots) {
+		for (ClassDecl cdecl : astRoots)
+			for (MethodDecl mdecl : cdecl.methods())
+				mdecl.sym.monomorphic = true;
+
+		// every method along the chain of overridden methods has more than one target
+		for (ClassDecl cdecl : astRoots)
+			for (MethodDecl mdecl : cdecl.methods())
+				for (MethodSymbol sup = mdecl.sym.overrides; sup != null; sup = sup.overrides)
+					sup.monomorphic = false;
+	}
+}
@@ -1,11 +1,9 @@
 package cd.transform.analysis;
 
-import static java.util.Collections.unmodifiableMap;
-
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 
 import cd.ir.BasicBlock;
 import cd.ir.ControlFlowGraph;
@@ -14,7 +12,11 @@ import cd.ir.ControlFlowGraph;
  * The abstract superclass of all data-flow analyses. This class provides a framework to
  * implement concrete analyses by providing {@link #initialState()},
  * {@link #startState()}, {@link #transferFunction(BasicBlock, Object)}, and
- * {@link #join(Set)} methods.
+ * {@link #join(List)} methods.
+ * <p>
+ * Analyses are forward by default. Backward analyses override {@link #direction()};
+ * for them, the transfer function maps the out-state of a block to its in-state, and
+ * {@link #join(List)} merges the in-states of the successors.
  *
  * @param <State>
  *            The type of states the analysis computes, specified by a concrete subclass.
@@ -23,8 +25,9 @@ import cd.ir.ControlFlowGraph;
 public abstract class DataFlowAnalysis<State> {
 
 	protected final ControlFlowGraph cfg;
-	private Map<BasicBlock, State> inStates;
-	private Map<BasicBlock, State> outStates;
+	private State[] inStates;
+	private State[] outStates;
+	private int iterations;
 
 	public DataFlowAnalysis(ControlFlowGraph cfg) {
 		this.cfg = cfg;
@@ -34,75 +37,132 @@ public abstract class DataFlowAnalysis<State> {
 	 * Returns the in-state of basic block <code>block</code>.
 	 */
 	public State inStateOf(BasicBlock block) {
-		return inStates.get(block);
+		return inStates[block.index];
 	}
 
 	/**
 	 * Returns the out-state of basic block <code>block</code>.
 	 */
 	public State outStateOf(BasicBlock block) {
-		return outStates.get(block);
+		return outStates[block.index];
+	}
+
+	/**
+	 * The direction in which information flows through the control flow graph.
+	 */
+	public enum Direction {
+		FORWARD, BACKWARD
+	}
+
+	/**
+	 * Returns the direction of this analysis. The default is {@link Direction#FORWARD}.
+	 */
+	protected Direction direction() {
+		return Direction.FORWARD;
+	}
+
+	/**
+	 * Returns the number of blocks whose transfer function was evaluated by the last call
+	 * to {@link #iterate()}. Every block is visited at least once, so for an acyclic CFG
+	 * this equals the number of blocks.
+	 */
+	public int iterationCount() {
+		return iterations;
 	}
 
 	/**
-	 * Do forward flow fixed-point iteration until out-states do not change anymore.
-	 * Subclasses should call this method in their constructor after the required
-	 * initialization.
+	 * Do flow fixed-point iteration in the analysis' {@link #direction()} until the
+	 * states do not change anymore. Subclasses should call this method in their
+	 * constructor after the required initialization.
+	 * <p>
+	 * Pending blocks are processed in reverse postorder (postorder for backward analyses),
+	 * so that a block is usually visited only after all blocks it depends on, except
+	 * along loop back edges.
 	 */
 	protected void iterate() {
-		inStates = new HashMap<>();
-		outStates = new HashMap<>();
+		boolean forward = direction() == Direction.FORWARD;
+		BasicBlock boundary = forward ? cfg.start : cfg.end;
+
+		List<BasicBlock> order = cfg.reversePostorder();
+		if(!forward)
+			Collections.reverse(order);
+		int[] priority = new int[cfg.count()];
+		for(int i = 0; i < order.size(); i++)
+			priority[order.get(i).index] = i;
+
+		/* "entry" is where information enters a block, "exit" where it leaves */
+		State[] entryStates = newStateArray();
+		State[] exitStates = newStateArray();
 		for(BasicBlock block : cfg.allBlocks)
-			outStates.put(block, initialState());
-
-		Set<BasicBlock> todo = new HashSet<>();
-		todo.addAll(cfg.allBlocks);
-		while(!todo.isEmpty()) {
-			BasicBlock block = todo.iterator().next();
-			todo.remove(block);
-			
-			/* calculate in-state */
-			State inState;
-			if(block == cfg.start)
-				inState = startState();
+			exitStates[block.index] = initialState();
+
+		/* pending blocks by priority; the lowest one is processed first */
+		BitSet todo = new BitSet(order.size());
+		todo.set(0, order.size());
+		iterations = 0;
+		for(int next = todo.nextSetBit(0); next >= 0; next = todo.nextSetBit(0)) {
+			todo.clear(next);
+			BasicBlock block = order.get(next);
+			iterations++;
+
+			/* calculate entry state */
+			State entryState;
+			if(block == boundary)
+				entryState = startState();
 			else {
-				Set<State> predOutStates = new HashSet<>();
-				for(BasicBlock pred : block.predecessors)
-					predOutStates.add(outStates.get(pred));
-				inState = join(predOutStates);
+				List<BasicBlock> flowPreds = forward ? block.predecessors : block.successors;
+				List<State> flowPredStates = new ArrayList<>(flowPreds.size());
+				for(BasicBlock pred : flowPreds)
+					flowPredStates.add(exitStates[pred.index]);
+				entryState = join(flowPredStates);
 			}
-			inStates.put(block, inState);
-
-			State newOutState = transferFunction(block, inState);
-			
-			/* if out-state changed, recalculate successors */
-			if(!newOutState.equals(outStates.get(block))) {
-				outStates.put(block, newOutState);
-				todo.addAll(block.successors);
+			entryStates[block.index] = entryState;
+
+			State newExitState = transferFunction(block, entryState);
+
+			/* if exit state changed, recalculate dependent blocks */
+			if(!newExitState.equals(exitStates[block.index])) {
+				exitStates[block.index] = newExitState;
+				for(BasicBlock succ : forward ? block.successors : block.predecessors)
+					todo.set(priority[succ.index]);
 			}
 		}
-		outStates = unmodifiableMap(outStates);
+		if(forward) {
+			inStates = entryStates;
+			outStates = exitStates;
+		} else {
+			inStates = exitStates;
+			outStates = entryStates;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private State[] newStateArray() {
+		return (State[]) new Object[cfg.count()];
 	}
 
 	/**
 	 * Returns the initial state for all blocks except the {@link ControlFlowGraph#start start}
-	 * block.
+	 * block (the {@link ControlFlowGraph#end end} block for backward analyses).
 	 */
 	protected abstract State initialState();
 
 	/**
-	 * Returns the initial state for the {@link ControlFlowGraph#start start} block.
+	 * Returns the initial state for the {@link ControlFlowGraph#start start} block, or the
+	 * out-state of the {@link ControlFlowGraph#end end} block for backward analyses.
 	 */
 	protected abstract State startState();
 
 	/**
 	 * Calculates the out-state for a basic block <code>block</code> and an in-state
-	 * <code>inState</code>
+	 * <code>inState</code>. For backward analyses, calculates the in-state from the
+	 * out-state passed as <code>inState</code>.
 	 */
 	protected abstract State transferFunction(BasicBlock block, State inState);
 
 	/**
-	 * Merges together several out-states and returns the in-state for the transfer function.
+	 * Merges together several out-states and returns the in-state for the transfer function
+	 * (in-states of the successors for backward analyses).
 	 */
-	protected abstract State join(Set<State> states);
+	protected abstract State join(List<State> states);
 }
@@ -0,0 +1,214 @@
+package cd.transform.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.Cast;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.Field;
+import cd.ir.Ast.Index;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.Var;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.ir.Phi;
+import cd.ir.Symbol.VariableSymbol;
+
+/**
+ * An intraprocedural escape analysis. It finds the allocations of a method whose object
+ * is only ever reachable from the locals and parameters of the method, so that it can be
+ * placed in the stack frame instead of on the heap.
+ * <p>
+ * Only allocations that are directly assigned to a variable ({@code x = new A()} or
+ * {@code x = new int[c]} with a constant {@code c} of at most
+ * {@link #MAX_ARRAY_LENGTH}) are considered. An object escapes if a variable that may
+ * point to it is used anywhere except as the target of a field access, as the array of an
+ * index expression, as an operand of {@code ==} or {@code !=}, or as the value copied
+ * into another variable. In particular, passing it to a method (also as receiver),
+ * returning it, or storing it into a field or array element lets it escape.
+ * <p>
+ * Since each allocation site gets a single stack slot, an allocation that is executed
+ * again (e.g. in a loop) reuses the object of its previous execution. This is only
+ * allowed if no variable that may point to that object is live at the allocation.
+ * <p>
+ * The analysis does not distinguish the different values of a variable, so it is much
+ * more precise in SSA form, where {@link Phi} functions count as copies.
+ */
+public class EscapeAnalysis {
+
+	/** The maximal number of elements of an array allocated on the stack. */
+	public static final int MAX_ARRAY_LENGTH = 16;
+
+	private final ControlFlowGraph cfg;
+
+	/** The candidate allocations, in the order in which they appear in the CFG. */
+	private final Set<Expr> sites = new LinkedHashSet<>();
+
+	/** The allocation sites each variable may point to. */
+	private final Map<VariableSymbol, Set<Expr>> pointsTo = new HashMap<>();
+
+	private final Set<Expr> escaping = new HashSet<>();
+
+	public EscapeAnalysis(MethodDecl method) {
+		if (method.cfg == null)
+			throw new IllegalArgumentException("method is missing CFG");
+		this.cfg = method.cfg;
+
+		for (BasicBlock blk : cfg.allBlocks)
+			for (Stmt stmt : blk.stmts)
+				if (isSite(stmt))
+					addSite((Assign) stmt);
+		if (sites.isEmpty())
+			return;
+
+		propagateCopies();
+		for (BasicBlock blk : cfg.allBlocks) {
+			for (Stmt stmt : blk.stmts)
+				findEscapes(stmt, false);
+			if (blk.condition != null)
+				findEscapes(blk.condition, false);
+		}
+		checkReuse(new LivenessAnalysis(method));
+	}
+
+	/**
+	 * Returns the allocations of the method that do not escape, in the order in which they
+	 * appear in the CFG.
+	 */
+	public List<Expr> stackAllocations() {
+		List<Expr> result = new ArrayList<>();
+		for (Expr alloc : sites)
+			if (!escaping.contains(alloc))
+				result.add(alloc);
+		return Collections.unmodifiableList(result);
+	}
+
+	private static boolean isSite(Stmt stmt) {
+		if (!(stmt instanceof Assign) || !(((Assign) stmt).left() instanceof Var))
+			return false;
+		Expr right = ((Assign) stmt).right();
+		if (right instanceof NewObject)
+			return true;
+		if (right instanceof NewArray && ((NewArray) right).arg() instanceof IntConst) {
+			int length = ((IntConst) ((NewArray) right).arg()).value;
+			return length >= 0 && length <= MAX_ARRAY_LENGTH;
+		}
+		return false;
+	}
+
+	private void addSite(Assign assign) {
+		VariableSymbol var = ((Var) assign.left()).sym;
+		sites.add(assign.right());
+		pointsTo(var).add(assign.right());
+		if (var.kind == VariableSymbol.Kind.FIELD)
+			escaping.add(assign.right());
+	}
+
+	private Set<Expr> pointsTo(VariableSymbol var) {
+		Set<Expr> set = pointsTo.get(var);
+		if (set == null) {
+			set = new HashSet<>();
+			pointsTo.put(var, set);
+		}
+		return set;
+	}
+
+	/** Returns the variable {@code expr} copies, looking through casts, or {@code null}. */
+	private static VariableSymbol copiedVar(Expr expr) {
+		while (expr instanceof Cast)
+			expr = ((Cast) expr).arg();
+		return expr instanceof Var ? ((Var) expr).sym : null;
+	}
+
+	/** Computes {@link #pointsTo} for the copies {@code x = y} and {@code x = (T) y}. */
+	private void propagateCopies() {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock blk : cfg.allBlocks) {
+				for (Stmt stmt : blk.stmts) {
+					if (!(stmt instanceof Assign) || !(((Assign) stmt).left() instanceof Var))
+						continue;
+					changed |= copy(((Var) ((Assign) stmt).left()).sym, ((Assign) stmt).right());
+				}
+				for (Phi phi : blk.phis.values())
+					for (Expr operand : phi.rhs)
+						changed |= copy(phi.lhs, operand);
+			}
+		}
+	}
+
+	private boolean copy(VariableSymbol dst, Expr src) {
+		VariableSymbol srcVar = copiedVar(src);
+		if (srcVar == null || !pointsTo.containsKey(srcVar))
+			return false;
+		return pointsTo(dst).addAll(pointsTo.get(srcVar));
+	}
+
+	/**
+	 * Marks the sites of every variable that is used in {@code ast} in a way that lets its
+	 * object escape. {@code safe} tells whether {@code ast} itself is used in a safe way.
+	 */
+	private void findEscapes(Ast ast, boolean safe) {
+		if (ast instanceof Var) {
+			Set<Expr> targets = pointsTo.get(((Var) ast).sym);
+			if (!safe && targets != null)
+				escaping.addAll(targets);
+		} else if (ast instanceof Assign) {
+			Assign assign = (Assign) ast;
+			if (assign.left() instanceof Var) {
+				VariableSymbol var = ((Var) assign.left()).sym;
+				// a copy into a field lets the object escape
+				findEscapes(assign.right(), var.kind != VariableSymbol.Kind.FIELD
+						&& copiedVar(assign.right()) != null);
+			} else {
+				findEscapes(assign.left(), true);
+				findEscapes(assign.right(), false);
+			}
+		} else if (ast instanceof Cast) {
+			findEscapes(((Cast) ast).arg(), safe);
+		} else if (ast instanceof Field) {
+			findEscapes(((Field) ast).arg(), true);
+		} else if (ast instanceof Index) {
+			findEscapes(((Index) ast).left(), true);
+			findEscapes(((Index) ast).right(), false);
+		} else {
+			boolean compare = ast instanceof BinaryOp
+					&& (((BinaryOp) ast).operator == BinaryOp.BOp.B_EQUAL
+					|| ((BinaryOp) ast).operator == BinaryOp.BOp.B_NOT_EQUAL);
+			for (Ast child : ast.children())
+				if (child != null)
+					findEscapes(child, compare);
+		}
+	}
+
+	/**
+	 * Marks the sites whose previous object may still be reachable when they allocate
+	 * again.
+	 */
+	private void checkReuse(LivenessAnalysis liveness) {
+		for (BasicBlock blk : cfg.allBlocks) {
+			for (Stmt stmt : blk.stmts) {
+				if (!isSite(stmt))
+					continue;
+				Expr alloc = ((Assign) stmt).right();
+				for (VariableSymbol var : liveness.liveBefore(blk, stmt))
+					if (pointsTo.containsKey(var) && pointsTo.get(var).contains(alloc))
+						escaping.add(alloc);
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package cd.transform.analysis;
+
+import java.util.List;
+
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+
+/**
+ * A data-flow analysis whose states are {@link BitVectorSet bit vectors} over a fixed
+ * universe and whose transfer function has the classic form
+ * <code>out = gen(B) &cup; (in &minus; kill(B))</code>. Subclasses compute the gen and kill
+ * sets of each block with {@link #setGenKill(BasicBlock, BitVectorSet, BitVectorSet)} before
+ * calling {@link #iterate()}; transfer and join then reduce to a few word-wise bit
+ * operations per block.
+ * <p>
+ * Subclasses that need more than gen and kill (e.g. copy propagation) may still override
+ * {@link #transferFunction(BasicBlock, BitVectorSet)} and call the super implementation.
+ *
+ * @param <E>
+ *            The type of the facts the analysis tracks (definitions, variables, ...).
+ */
+public abstract class GenKillAnalysis<E> extends DataFlowAnalysis<BitVectorSet<E>> {
+
+	/**
+	 * How the states of several blocks are combined: {@link #UNION} for "may" analyses,
+	 * {@link #INTERSECTION} for "must" analyses.
+	 */
+	public enum Meet {
+		UNION, INTERSECTION
+	}
+
+	protected final BitVectorSet.Universe<E> universe;
+	private final BitVectorSet<E>[] gen;
+	private final BitVectorSet<E>[] kill;
+
+	@SuppressWarnings("unchecked")
+	public GenKillAnalysis(ControlFlowGraph cfg, BitVectorSet.Universe<E> universe) {
+		super(cfg);
+		this.universe = universe;
+		this.gen = (BitVectorSet<E>[]) new BitVectorSet<?>[cfg.count()];
+		this.kill = (BitVectorSet<E>[]) new BitVectorSet<?>[cfg.count()];
+	}
+
+	/**
+	 * Returns how states are joined.
+	 */
+	protected abstract Meet meet();
+
+	protected void setGenKill(BasicBlock block, BitVectorSet<E> genSet, BitVectorSet<E> killSet) {
+		gen[block.index] = genSet;
+		kill[block.index] = killSet;
+	}
+
+	protected BitVectorSet<E> genOf(BasicBlock block) {
+		return gen[block.index];
+	}
+
+	protected BitVectorSet<E> killOf(BasicBlock block) {
+		return kill[block.index];
+	}
+
+	@Override
+	protected BitVectorSet<E> initialState() {
+		return universe.emptySet();
+	}
+
+	@Override
+	protected BitVectorSet<E> startState() {
+		return universe.emptySet();
+	}
+
+	@Override
+	protected BitVectorSet<E> transferFunction(BasicBlock block, BitVectorSet<E> inState) {
+		return inState.copy().subtract(kill[block.index]).unionWith(gen[block.index]);
+	}
+
+	@Override
+	protected BitVectorSet<E> join(List<BitVectorSet<E>> states) {
+		BitVectorSet<E> result = null;
+		for(BitVectorSet<E> state : states) {
+			if(result == null)
+				result = state.copy();
+			else if(meet() == Meet.UNION)
+				result.unionWith(state);
+			else
+				result.intersectWith(state);
+		}
+		return result == null ? universe.emptySet() : result;
+	}
+}
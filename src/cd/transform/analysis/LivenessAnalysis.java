@@ -0,0 +1,217 @@
+package cd.transform.analysis;
+
+import static java.util.Collections.unmodifiableSet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.Var;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.Phi;
+import cd.ir.Symbol.VariableSymbol;
+import cd.ir.Symbol.VariableSymbol.Kind;
+
+/**
+ * A backward data-flow analysis that computes the set of variables that are live, i.e.
+ * whose current value may still be read, at each point of a method. Locals, parameters
+ * and the <code>this</code> pointer (represented by the owner's
+ * {@link cd.ir.Symbol.ClassSymbol#thisSymbol thisSymbol}) are tracked; fields are not.
+ * <p>
+ * Besides the in- and out-states of the blocks, the analysis provides the live sets before
+ * and after each statement and before the condition of a block.
+ * <p>
+ * In SSA form, a {@link Phi} defines its variable on entry to its block, and each of its
+ * operands is read at the end of the corresponding predecessor, after the condition.
+ */
+public class LivenessAnalysis extends GenKillAnalysis<VariableSymbol> {
+
+	private final VariableSymbol thisSymbol;
+	private final UseVisitor useVisitor = new UseVisitor();
+
+	/** Live sets before/after each statement, filled in lazily per block. */
+	private final Map<Stmt, Set<VariableSymbol>> liveBefore = new HashMap<>();
+	private final Map<Stmt, Set<VariableSymbol>> liveAfter = new HashMap<>();
+	private final Map<BasicBlock, Set<VariableSymbol>> liveBeforeCondition = new HashMap<>();
+
+	public LivenessAnalysis(MethodDecl method) {
+		super(method.cfg, new BitVectorSet.Universe<VariableSymbol>());
+		if(method.cfg == null)
+			throw new IllegalArgumentException("method is missing CFG");
+		this.thisSymbol = method.sym.owner.thisSymbol;
+		universe.add(thisSymbol);
+		for(VariableSymbol param : method.sym.parameters)
+			universe.add(param);
+		for(VariableSymbol local : method.sym.locals.values())
+			universe.add(local);
+
+		// gen(B) := variables read in B before any assignment to them in B
+		// kill(B) := variables assigned in B
+		for(BasicBlock block : cfg.allBlocks) {
+			BitVectorSet<VariableSymbol> genSet = universe.emptySet();
+			BitVectorSet<VariableSymbol> killSet = universe.emptySet();
+			genSet.addAll(phiUsesAtEnd(block));
+			genSet.addAll(usesOf(block.condition));
+			for(int i = block.stmts.size() - 1; i >= 0; i--) {
+				Stmt stmt = block.stmts.get(i);
+				VariableSymbol def = defOf(stmt);
+				if(def != null) {
+					genSet.remove(def);
+					killSet.add(def);
+				}
+				genSet.addAll(usesOf(stmt));
+			}
+			for(Phi phi : block.phis.values()) {
+				genSet.remove(phi.lhs);
+				killSet.add(phi.lhs);
+			}
+			setGenKill(block, genSet, killSet);
+		}
+
+		iterate();
+	}
+
+	@Override
+	protected Direction direction() {
+		return Direction.BACKWARD;
+	}
+
+	@Override
+	protected Meet meet() {
+		return Meet.UNION;
+	}
+
+	/**
+	 * Returns the variables live on entry to <code>block</code>.
+	 */
+	public Set<VariableSymbol> liveIn(BasicBlock block) {
+		return inStateOf(block);
+	}
+
+	/**
+	 * Returns the variables live on exit from <code>block</code>.
+	 */
+	public Set<VariableSymbol> liveOut(BasicBlock block) {
+		return outStateOf(block);
+	}
+
+	/**
+	 * Returns the variables live immediately before <code>stmt</code>, which must be
+	 * one of the statements of <code>block</code>.
+	 */
+	public Set<VariableSymbol> liveBefore(BasicBlock block, Stmt stmt) {
+		computeStmtStates(block);
+		return liveBefore.get(stmt);
+	}
+
+	/**
+	 * Returns the variables live immediately after <code>stmt</code>, which must be
+	 * one of the statements of <code>block</code>.
+	 */
+	public Set<VariableSymbol> liveAfter(BasicBlock block, Stmt stmt) {
+		computeStmtStates(block);
+		return liveAfter.get(stmt);
+	}
+
+	/**
+	 * Returns the variables live before the condition of <code>block</code> is
+	 * evaluated (i.e., after its last statement).
+	 */
+	public Set<VariableSymbol> liveBeforeCondition(BasicBlock block) {
+		computeStmtStates(block);
+		return liveBeforeCondition.get(block);
+	}
+
+	private void computeStmtStates(BasicBlock block) {
+		if(liveBeforeCondition.containsKey(block))
+			return;
+		Set<VariableSymbol> live = new HashSet<>(liveOut(block));
+		live.addAll(phiUsesAtEnd(block));
+		live.addAll(usesOf(block.condition));
+		liveBeforeCondition.put(block, unmodifiableSet(live));
+		List<Stmt> stmts = block.stmts;
+		for(int i = stmts.size() - 1; i >= 0; i--) {
+			Stmt stmt = stmts.get(i);
+			liveAfter.put(stmt, unmodifiableSet(live));
+			live = new HashSet<>(live);
+			VariableSymbol def = defOf(stmt);
+			if(def != null)
+				live.remove(def);
+			live.addAll(usesOf(stmt));
+			liveBefore.put(stmt, unmodifiableSet(live));
+		}
+	}
+
+	/**
+	 * Returns the tracked variables read when evaluating <code>ast</code> (which may be
+	 * <code>null</code>). The variable on the left-hand side of an assignment is not read.
+	 */
+	public Set<VariableSymbol> usesOf(Ast ast) {
+		Set<VariableSymbol> result = new HashSet<>();
+		if(ast != null)
+			useVisitor.visit(ast, result);
+		return result;
+	}
+
+	/**
+	 * Returns the variables read by the phi operands that belong to the edges leaving
+	 * <code>block</code>.
+	 */
+	private Set<VariableSymbol> phiUsesAtEnd(BasicBlock block) {
+		Set<VariableSymbol> result = new HashSet<>();
+		for(BasicBlock succ : block.successors)
+			for(int i = 0; i < succ.predecessors.size(); i++)
+				if(succ.predecessors.get(i) == block)
+					for(Phi phi : succ.phis.values())
+						result.addAll(usesOf(phi.rhs.get(i)));
+		return result;
+	}
+
+	/**
+	 * Returns the tracked variable assigned by <code>stmt</code>, or <code>null</code>.
+	 */
+	public VariableSymbol defOf(Stmt stmt) {
+		if(stmt instanceof Assign && ((Assign) stmt).left() instanceof Var) {
+			VariableSymbol sym = ((Var) ((Assign) stmt).left()).sym;
+			if(isTracked(sym))
+				return sym;
+		}
+		return null;
+	}
+
+	private static boolean isTracked(VariableSymbol sym) {
+		return sym.kind != Kind.FIELD;
+	}
+
+	private class UseVisitor extends AstVisitor<Void, Set<VariableSymbol>> {
+
+		@Override
+		public Void var(Var ast, Set<VariableSymbol> uses) {
+			if(isTracked(ast.sym))
+				uses.add(ast.sym);
+			return null;
+		}
+
+		@Override
+		public Void thisRef(ThisRef ast, Set<VariableSymbol> uses) {
+			uses.add(thisSymbol);
+			return null;
+		}
+
+		@Override
+		public Void assign(Assign ast, Set<VariableSymbol> uses) {
+			if(!(ast.left() instanceof Var))
+				visit(ast.left(), uses);
+			visit(ast.right(), uses);
+			return null;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package cd.transform.analysis;
 
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
@@ -20,33 +21,43 @@ import cd.transform.analysis.NonNullVisitor.VarState;
  * given point in the program. The state of this analysis represents the set of
  * non-<code>null</code> variables.
  */
-public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
+public class NonNullAnalysis extends GenKillAnalysis<VariableSymbol> {
 
     final NonNullVisitor nnv = new NonNullVisitor();
-    final Map<BasicBlock, Set<VariableSymbol>> gen = new HashMap<>();
-    final Map<BasicBlock, Set<VariableSymbol>> kill = new HashMap<>();
     final Map<BasicBlock, Set<Pair<VariableSymbol> >> prop = new HashMap<>();
     final Map<Stmt, Set<VariableSymbol>> nonNullBefore = new HashMap<>();
 
     public NonNullAnalysis(MethodDecl method) {
-        super(method.cfg);
+        super(method.cfg, new BitVectorSet.Universe<VariableSymbol>());
         if(method.cfg == null)
             throw new IllegalArgumentException("method is missing CFG");
 
         // gen(B) := {var | last assignment to var in B is guaranteed not null}
         // kill(B) := {var | last statement in B using var is null-possible
         //             assign or method call}
-        // prop(B) := {(var1, var2) | var1 is last assigned to var2 in B}
+        // prop(B) := {(var1, var2) | var1 is last assigned the value var2 has
+        //             on entry to B}
 
+        Map<BasicBlock, Map<VariableSymbol, Tuple<VarState, VariableSymbol>>> blockVarStates =
+            new HashMap<>();
         for(BasicBlock block : method.cfg.allBlocks) {
             Map<VariableSymbol, Tuple<VarState, VariableSymbol>> varStates =
                 computeVarStates(block);
+            for (Map.Entry<VariableSymbol, Tuple<VarState, VariableSymbol>> me : varStates.entrySet()) {
+                universe.add(me.getKey());
+                if (me.getValue().b != null)
+                    universe.add(me.getValue().b);
+            }
+            blockVarStates.put(block, varStates);
+        }
 
-            Set<VariableSymbol> genSet = new HashSet<>();
-            Set<VariableSymbol> killSet = new HashSet<>();
+        for(BasicBlock block : method.cfg.allBlocks) {
+            BitVectorSet<VariableSymbol> genSet = universe.emptySet();
+            BitVectorSet<VariableSymbol> killSet = universe.emptySet();
             Set<Pair<VariableSymbol>> propSet = new HashSet<>();
 
-            for (Map.Entry<VariableSymbol, Tuple<VarState, VariableSymbol>> me : varStates.entrySet()) {
+            for (Map.Entry<VariableSymbol, Tuple<VarState, VariableSymbol>> me :
+                    blockVarStates.get(block).entrySet()) {
                 if (me.getValue().a == VarState.TOP) {
                     genSet.add(me.getKey());
                 } else if (me.getValue().a == VarState.BOTTOM) {
@@ -56,8 +67,7 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
                     propSet.add(propEntry);
                 }
             }
-            gen.put(block, genSet);
-            kill.put(block, killSet);
+            setGenKill(block, genSet, killSet);
             prop.put(block, propSet);
         }
 
@@ -76,15 +86,15 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
 
 
     @Override
-    protected Set<VariableSymbol> initialState() {
-        Set<VariableSymbol> ret = new HashSet<>();
-        ret.addAll(gen.get(cfg.start));
-        return ret;
+    protected Meet meet() {
+        return Meet.INTERSECTION;
     }
 
     @Override
-    protected Set<VariableSymbol> startState() {
-        return new HashSet<>();
+    protected BitVectorSet<VariableSymbol> initialState() {
+        // "everything is non-null" is the neutral element of the intersection,
+        // so loops do not lose facts that hold on every path into them
+        return universe.fullSet();
     }
 
     /*@Override
@@ -100,19 +110,17 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
     }*/
 
     @Override
-    protected Set<VariableSymbol> transferFunction(BasicBlock block, Set<VariableSymbol> inState) {
+    protected BitVectorSet<VariableSymbol> transferFunction(BasicBlock block,
+                                                            BitVectorSet<VariableSymbol> inState) {
         // take difference of gen and kill
         // for each variable in that set
-        Set<VariableSymbol> outState = new HashSet<>();
-        outState.addAll(inState);
-        outState.addAll(gen.get(block));
-        if(kill.get(block) != null) {
-            outState.removeAll(kill.get(block));
-        }
+        BitVectorSet<VariableSymbol> outState = super.transferFunction(block, inState);
         if (prop.get(block) != null) {
             for (Pair<VariableSymbol> varPair : prop.get(block)) {
-                if (outState.contains(varPair.b)) {
+                if (inState.contains(varPair.b)) {
                     outState.add(varPair.a);
+                } else {
+                    outState.remove(varPair.a);
                 }
             }
         }
@@ -151,58 +159,15 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
         //return ret;
     }
 
-    @Override
-    protected Set<VariableSymbol> join(Set<Set<VariableSymbol>> states) {
-        Set<VariableSymbol> joinedStates = new HashSet<>();
-        Set<VariableSymbol> toRemove = new HashSet<>();
-        for (Set<VariableSymbol> s: states) {
-            joinedStates.addAll(s);
-        }
-        for (Set<VariableSymbol> s: states) {
-            for (VariableSymbol sym: joinedStates) {
-                if (!(s.contains(sym))) {
-                    toRemove.add(sym);
-                }
-            }
-        }
-        joinedStates.removeAll(toRemove);
-        return joinedStates;
-    }
-
     /**
      * Returns the set of variables that are guaranteed to be non-<code>null</code> before
      * the given statement.
      */
     public Set<VariableSymbol> nonNullBefore(BasicBlock block, Stmt stmt) {
-        Set<VariableSymbol> ret = new HashSet<>();
-        ret.addAll(inStateOf(block));
-        Map<VariableSymbol, Tuple<VarState, VariableSymbol>> varStates =
-            new HashMap<>();
-
-        for (Stmt stm : block.stmts) {
-            if (stm.equals(stmt))
-                break;
-            nnv.visit(stm, varStates);
-        }
-
-        for(Map.Entry<VariableSymbol, Tuple<VarState, VariableSymbol>> me :
-                varStates.entrySet()) {
-            if(me.getValue().a == VarState.TOP) {
-                ret.add(me.getKey());
-            } else if (me.getValue().a == VarState.PROP) {
-                Tuple<VarState, VariableSymbol> curr = me.getValue();
-                while (curr != null && curr.a == VarState.PROP) {
-                    curr = varStates.get(curr.b);
-                }
-                if (curr != null && curr.a == VarState.TOP) {
-                    ret.add(me.getKey());
-                }
-            } else {
-                ret.remove(me.getKey());
-            }
-        }
-
-        return ret;
+        int end = 0;
+        while (end < block.stmts.size() && !block.stmts.get(end).equals(stmt))
+            end++;
+        return nonNullAfter(block, block.stmts.subList(0, end));
     }
 
     public Set<VariableSymbol> nonNullBefore(Stmt stmt) {
@@ -219,25 +184,27 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
      * the condition of the given basic block.
      */
     public Set<VariableSymbol> nonNullBeforeCondition(BasicBlock block) {
-        Set<VariableSymbol> ret = new HashSet<>();
-        ret.addAll(inStateOf(block));
+        return nonNullAfter(block, block.stmts);
+    }
+
+    /**
+     * Returns the set of variables that are guaranteed to be non-<code>null</code> after
+     * executing <code>stmts</code>, a prefix of the statements of <code>block</code>.
+     */
+    private Set<VariableSymbol> nonNullAfter(BasicBlock block, List<Stmt> stmts) {
+        Set<VariableSymbol> inState = inStateOf(block);
+        Set<VariableSymbol> ret = new HashSet<>(inState);
         Map<VariableSymbol, Tuple<VarState, VariableSymbol>> varStates =
             new HashMap<>();
-        for (Stmt stm : block.stmts) {
+        for (Stmt stm : stmts) {
             nnv.visit(stm, varStates);
         }
         for(Map.Entry<VariableSymbol, Tuple<VarState, VariableSymbol>> me :
                 varStates.entrySet()) {
-            if(me.getValue().a == VarState.TOP) {
+            Tuple<VarState, VariableSymbol> state = me.getValue();
+            if(state.a == VarState.TOP ||
+               (state.a == VarState.PROP && inState.contains(state.b))) {
                 ret.add(me.getKey());
-            } else if (me.getValue().a == VarState.PROP) {
-                Tuple<VarState, VariableSymbol> curr = me.getValue();
-                while (curr.a == VarState.PROP) {
-                    curr = varStates.get(curr.b);
-                }
-                if (curr.a == VarState.TOP) {
-                    ret.add(me.getKey());
-                }
             } else {
                 ret.remove(me.getKey());
             }
@@ -24,14 +24,18 @@ public class NonNullVisitor extends AstVisitor<VarState, Map<VariableSymbol, Tup
             return null;
         else {
             VariableSymbol sym = ((Var) ast.left()).sym;
-            if (state != VarState.PROP) {
+            Expr rhs = ast.right();
+            while (rhs instanceof Cast)
+                rhs = ((Cast) rhs).arg();
+            if (state == VarState.TOP) {
                 arg.put(sym, new Tuple<>(state, null));
-            } else if (ast.right() instanceof Cast) {
-                VariableSymbol rsym = ((Var) ((Cast) ast.right()).arg()).sym;
-                arg.put(sym, new Tuple<>(state, rsym));
+            } else if (state == VarState.PROP && rhs instanceof Var) {
+                // PROP always refers to the value a variable has on block entry
+                VariableSymbol rsym = ((Var) rhs).sym;
+                Tuple<VarState, VariableSymbol> rstate = arg.get(rsym);
+                arg.put(sym, rstate != null ? rstate : new Tuple<>(state, rsym));
             } else {
-                VariableSymbol rsym = ((Var) ast.right()).sym;
-                arg.put(sym, new Tuple<>(state, rsym));
+                arg.put(sym, new Tuple<>(VarState.BOTTOM, null));
             }
         }
 
@@ -76,6 +80,7 @@ public class NonNullVisitor extends AstVisitor<VarState, Map<VariableSymbol, Tup
 
     @Override
     public VarState field(Field ast, Map<VariableSymbol, Tuple<VarState, VariableSymbol>> arg) {
+        visitChildren(ast, arg);
         Expr rec = ast.arg();
         if (rec instanceof Var) {
             VariableSymbol rsym = ((Var) rec).sym;
@@ -87,6 +92,7 @@ public class NonNullVisitor extends AstVisitor<VarState, Map<VariableSymbol, Tup
 
     @Override
     public VarState index(Index ast, Map<VariableSymbol, Tuple<VarState, VariableSymbol>> arg) {
+        visitChildren(ast, arg);
         Expr rec = ast.left();
         if (rec instanceof Var) {
             VariableSymbol rsym = ((Var) rec).sym;
@@ -13,22 +13,22 @@ import java.util.*;
  * ReachingDefsAnalysis
  * */
 
-public class ReachingDefsAnalysis extends DataFlowAnalysis<Set<Def>> {
+public class ReachingDefsAnalysis extends GenKillAnalysis<Def> {
 
 	public ReachingDefsAnalysis(ControlFlowGraph cfg) {
-		super(cfg);
-		Set<Def> allDefs = new HashSet<>();
+		super(cfg, new BitVectorSet.Universe<Def>());
 
 		// Iterating through basicBlocks twice.
-		// 1.   Add all Assign stmts with a local variable on the left to allDefs. We need allDefs later
-		//      to compute the killSet
+		// 1.   Add all Assign stmts with a local variable on the left to the universe and
+		//      group them by target; we need the groups later to compute the killSet.
 		//      Add the generating stmts to genSet.
-		//      Set genSet and killSet of each Basicblock. killSet is empty at this time.
 		//      For each Stmt check if it is used in its local block before getting killed.
 
+		Map<BasicBlock, List<Def>> genDefs = new HashMap<>();
+		Map<String, List<Def>> defsByTarget = new HashMap<>();
 		for (BasicBlock block: cfg.allBlocks) {
-			Set<Def> killSet = new HashSet<>();
-			Set<Def> genSet = new HashSet<>();
+			List<Def> genList = new ArrayList<>();
+			Set<String> genTargets = new HashSet<>();
 			List<Def> localDefs = new ArrayList<>(); // needed for unused variables optimization
 			ListIterator<Ast.Stmt> li = block.stmts.listIterator(block.stmts.size());
 
@@ -40,68 +40,49 @@ public class ReachingDefsAnalysis extends DataFlowAnalysis<Set<Def>> {
 						if (!(((Ast.Var) ((Ast.Assign) stmt).left()).sym.kind == Symbol.VariableSymbol.Kind.FIELD)) {
 							Def newDef = new Def((Ast.Assign) stmt);
 
-							// check if the stmt kills any other stmt in genSet
-							boolean isKilled = false;
-							for (Def def : genSet)
-								isKilled = isKilled || def.target.equals(newDef.target);
-							if (!isKilled)
-								genSet.add(newDef);
+							// only the last def of a target in the block is generated
+							if (genTargets.add(newDef.target))
+								genList.add(newDef);
 
 							localDefs.add(newDef);
-							allDefs.add(newDef);
+							universe.add(newDef);
+							List<Def> sameTarget = defsByTarget.get(newDef.target);
+							if (sameTarget == null) {
+								sameTarget = new ArrayList<>();
+								defsByTarget.put(newDef.target, sameTarget);
+							}
+							sameTarget.add(newDef);
 						}
 					}
 				}
 			}
-			block.genSet = genSet;
-			block.killSet = killSet;
+			genDefs.put(block, genList);
 			block.localDefs = localDefs;  // needed for unused variables optimization
 		}
 
 		// 2.   Now we go through the genSet in each block and add all Defs with the same target
 		//      to killSet.
 		for (BasicBlock block: cfg.allBlocks) {
-			for(Def killDef: block.genSet) {
-				for(Def def: allDefs) {
-					if (!killDef.equals(def) && killDef.target.equals(def.target)) {
-						block.killSet.add(def); // killDef kills def
+			BitVectorSet<Def> genSet = universe.emptySet();
+			BitVectorSet<Def> killSet = universe.emptySet();
+			for(Def killDef: genDefs.get(block)) {
+				genSet.add(killDef);
+				for(Def def: defsByTarget.get(killDef.target)) {
+					if (def != killDef) {
+						killSet.add(def); // killDef kills def
 					}
 				}
 			}
+			block.genSet = genSet;
+			block.killSet = killSet;
+			setGenKill(block, genSet, killSet);
 		}
 
 		iterate();
 	}
 
-
-
-	@Override
-	protected Set<Def> initialState() {
-		return new HashSet<>();    }
-
 	@Override
-	protected Set<Def> startState() {
-		return new HashSet<>();
+	protected Meet meet() {
+		return Meet.UNION;
 	}
-
-	@Override
-	protected Set<Def> transferFunction(BasicBlock block, Set<Def> inState) {
-		Set<Def> outState = new HashSet<>(inState);
-		outState.removeAll(block.killSet);
-		outState.addAll(block.genSet);
-		return outState;
-	}
-
-	@Override
-	protected Set<Def> join(Set<Set<Def>> states) {
-		Set<Def> result = new HashSet<>();
-		for (Set<Def> defs : states) {
-			result.addAll(defs);
-		}
-		return result;
-	}
-
-
-
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,43 @@
+package cd.util;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+
+/**
+ * Reads integers from a character stream like {@code scanf("%d")} does for the native
+ * code, for the backends that run Javali programs without it.
+ */
+public class ScanfReader {
+
+	private final PushbackReader in;
+
+	public ScanfReader(Reader in) {
+		this.in = new PushbackReader(in);
+	}
+
+	/**
+	 * Skips white space, and reads an optional sign and digits. Returns 0 if there are
+	 * no digits.
+	 */
+	public int readInt() throws IOException {
+		int c = in.read();
+		while (c != -1 && Character.isWhitespace(c))
+			c = in.read();
+		boolean negative = (c == '-');
+		if (c == '-' || c == '+')
+			c = in.read();
+		int value = 0;
+		boolean digits = false;
+		while (c >= '0' && c <= '9') {
+			value = value * 10 + (c - '0');
+			digits = true;
+			c = in.read();
+		}
+		if (c != -1)
+			in.unread(c);
+		if (!digits)
+			return 0;
+		return (negative ? -value : value);
+	}
+}
@@ -3,12 +3,16 @@ package cd.util.debug;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import cd.ir.Ast.ClassDecl;
 import cd.ir.Ast.MethodDecl;
 import cd.ir.Ast.Stmt;
 import cd.ir.BasicBlock;
+import cd.ir.Phi;
 
 public class CfgDump {
 	
@@ -127,11 +131,22 @@ public class CfgDump {
 			blklbl.append(String.format("BB%d", blk.index));
 			if (!dumpDominators || true) {
 				
+				for(Phi phi : blk.phis.values())
+					blklbl.append("|").append(phi);
 				for(Stmt stmt : blk.stmts)
 					blklbl.append("|").append(AstOneLine.toString(stmt));
 				if(blk.condition != null)
 					blklbl.append("|If: " + AstOneLine.toString(blk.condition));
 			} 
+			if (dumpDominators && !blk.dominanceFrontier.isEmpty()) {
+				List<BasicBlock> frontier = new ArrayList<>(blk.dominanceFrontier);
+				Collections.sort(frontier, new Comparator<BasicBlock>() {
+					public int compare(BasicBlock a, BasicBlock b) {
+						return Integer.compare(a.index, b.index);
+					}
+				});
+				blklbl.append("|DF: ").append(frontier.toString().replaceAll("[\\[\\]]", ""));
+			}
 			String[] replacements = new String[] {
 					"<", "\\<",
 					">", "\\>",
@@ -150,6 +165,11 @@ public class CfgDump {
 				append("%sBB%d -> %sBB%d%s;", 
 						m, blk.index, m, sblk.index, edgelbl);
 			}
+			
+			// Dominator tree edges point from the immediate dominator to the block.
+			if (dumpDominators && blk.dominatorTreeParent != null)
+				append("%sBB%d -> %sBB%d [color=\"red\", style=\"dashed\"];",
+						m, blk.dominatorTreeParent.index, m, blk.index);
 		}
 	}
 	
@@ -7,12 +7,14 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.StringReader;
 import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import cd.backend.codegen.AssemblyFailedException;
+import cd.backend.jvm.JvmLauncher;
 import cd.frontend.parser.ParseFailure;
 import cd.frontend.semantic.SemanticFailure;
 import cd.ir.Ast.ClassDecl;
@@ -230,6 +232,24 @@ abstract public class AbstractTestAgainstFrozenReference {
 		String inFile = (infile.exists() ? FileUtil.read(infile) : "");
 		String execRef = tryReadRefFile(execreffile);
 
+		if (Config.BACKEND == Config.Backend.JVM) {
+			// Load the class files into this JVM and run them there.
+			String execOut = JvmLauncher.execute(main.generateClasses(astRoots), inFile);
+			if (!execRef.equals(execOut))
+			    assertEqualOutput("exec", execRef, execOut);
+			return;
+		}
+
+		if (Config.BACKEND == Config.Backend.INTERPRETER) {
+			// Run the control flow graphs without generating code.
+			StringBuilder output = new StringBuilder();
+			int exitCode = main.interpret(astRoots, new StringReader(inFile), output);
+			String execOut = (exitCode != 0 ? "Error: " + exitCode + "\n" : output.toString());
+			if (!execRef.equals(execOut))
+			    assertEqualOutput("exec", execRef, execOut);
+			return;
+		}
+
 		// Run the code generator:
 		try (FileWriter fw = new FileWriter(this.sfile)) {
 			main.generateCode(astRoots, fw);
@@ -240,7 +260,7 @@ abstract public class AbstractTestAgainstFrozenReference {
 		// to do this.
 		String asmOutput = FileUtil.runCommand(
 				Config.ASM_DIR,
-				Config.ASM,
+				Config.BACKEND == Config.Backend.C ? Config.CC : Config.ASM,
 				new String[] { binfile.getAbsolutePath(),
 						sfile.getAbsolutePath() }, null, false);
 
@@ -55,7 +55,8 @@ public class TestSamplePrograms extends AbstractTestAgainstFrozenReference {
 	 */
 	public TestSamplePrograms(File file) {
 		this.file = file;
-		this.sfile = new File(file.getPath() + Config.ASMEXT);
+		this.sfile = new File(file.getPath()
+				+ (Config.BACKEND == Config.Backend.C ? Config.CEXT : Config.ASMEXT));
 		this.binfile = new File(file.getPath() + Config.BINARYEXT);
 		this.infile = new File(file.getPath() + ".in");
 		this.parserreffile = new File(file.getPath() + ".parser.ref");